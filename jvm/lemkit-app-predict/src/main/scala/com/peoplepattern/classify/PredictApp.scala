@@ -1,15 +1,21 @@
 package com.peoplepattern.classify
 
+import com.peoplepattern.classify.core.PortableLinearClassifier
+import java.io.BufferedReader
+import java.io.BufferedWriter
+import java.io.File
+import java.io.FileInputStream
+import java.io.InputStreamReader
+import java.io.OutputStreamWriter
 import scala.util.control.Breaks._
 
-import data._
-
 object PredictApp extends App {
   var modelFormat = "binary"
   var predictFile: Option[String] = None
   var readModel: Option[String] = None
   var showCorrect = false
   var showAccuracy = false
+  var threads = Runtime.getRuntime.availableProcessors
 
   var i = 0
   val len = args.size
@@ -45,15 +51,22 @@ object PredictApp extends App {
         case "--show-correct" | "-c" => {
           showCorrect = true
         }
+        case "--threads" | "-n" => {
+          threads = getarg().toInt
+          require(threads > 0, "Argument for %s must be positive" format args(i - 1))
+        }
         case "--help" | "-h" => {
           println(
             """Usage:
 
     --model-format | --mf | -f  Model format (json or binary, default binary)
     --predict | -p              File containing data instances to predict
+                                (default or '-': standard input)
     --model | -m                Trained model file
     --show-accuracy | -a        Output accuracy at end
-    --show-correct | -c         Output column indicating correct or wrong""")
+    --show-correct | -c         Output column indicating correct or wrong
+    --threads | -n              Number of scoring threads (default: one
+                                per processor)""")
         }
         case _ => {
           // If we took positional arguments, we would eliminate the
@@ -71,35 +84,31 @@ object PredictApp extends App {
     readModel match {
       case Some(file) => {
         if (modelFormat == "json")
-          LinearClassifier.readJSONModel(file)
+          PortableLinearClassifier.JPARSER.readJson(new File(file))
         else
-          LinearClassifier.readBinaryModel(file)
+          PortableLinearClassifier.BREADER.readFromBinaryFile(new File(file))
       }
       case None =>
         throw new IllegalArgumentException("Must specify --model (or -m)")
     }
 
-  predictFile match {
-    case Some(file) => {
-      val predictData = ClassifierSource.readDataFile(file).toSeq
-      val predictions = predictData.map(i => classifier(i.features))
-      val numinsts = predictData.size
-      var numcorrect = 0
-      for (((prediction, inst), index) <- (predictions zip predictData).zipWithIndex) {
-        val correct = inst.label
-        val isCorrect = correct == prediction
-        println(
-          "%s%s %s %s" format (index + 1,
-            if (!showCorrect) "" else if (isCorrect) " CORRECT" else " WRONG",
-            correct, prediction))
-        if (isCorrect)
-          numcorrect += 1
-      }
-      if (showAccuracy)
-        println(
-          "Accuracy: %.2f%%" format (numcorrect.toDouble * 100 / numinsts))
+  // Instances are streamed, so files of any size (or a pipe) can be
+  // predicted in constant memory
+  val input = predictFile match {
+    case Some(file) if file != "-" => new FileInputStream(file)
+    case _ => System.in
+  }
+  val in = new BufferedReader(new InputStreamReader(input, "UTF-8"), 1 << 16)
+  val out = new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8"), 1 << 16)
+
+  try {
+    val counts = new StreamingPredictor(classifier, threads).run(in, out, showCorrect)
+    if (showAccuracy) {
+      out.write("Accuracy: %.2f%%" format (counts.accuracy * 100))
+      out.newLine()
     }
-    case None =>
-      throw new IllegalArgumentException("Must specify --test (or -t)")
+    out.flush()
+  } finally {
+    in.close()
   }
 }
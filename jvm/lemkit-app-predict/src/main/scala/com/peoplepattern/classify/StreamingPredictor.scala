@@ -0,0 +1,187 @@
+package com.peoplepattern.classify
+
+import com.peoplepattern.classify.core.PortableLinearClassifier
+import com.peoplepattern.classify.train.ClassifierSource
+import java.io.BufferedReader
+import java.io.Writer
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.Semaphore
+import java.util.concurrent.atomic.AtomicReference
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+
+/**
+ * Counts of instances predicted by a [[StreamingPredictor]]
+ */
+case class PredictionCounts(instances: Long, correct: Long) {
+  def accuracy: Double =
+    if (instances == 0) 0.0 else correct.toDouble / instances
+}
+
+/**
+ * Predict a stream of data instances in constant memory, in parallel,
+ * writing predictions in input order.
+ *
+ * A reader thread reads lines into fixed-size chunks and hands them to
+ * a bounded queue; `workers` threads parse and score chunks (each chunk
+ * with a single batch `predictAll`) and format their output; the calling
+ * thread writes the formatted chunks strictly in input order, updating the
+ * counts as it goes. At most `maxChunksInFlight` chunks are between the
+ * reader and the writer at any time, which bounds memory no matter how
+ * large the input is, or how far one slow chunk holds up the writer.
+ *
+ * Blank lines are skipped and don't count as instances.
+ */
+class StreamingPredictor(
+    classifier: PortableLinearClassifier,
+    workers: Int = Runtime.getRuntime.availableProcessors,
+    chunkSize: Int = 1024,
+    maxChunksInFlight: Int = 0) {
+
+  require(workers > 0, "Need at least one worker")
+  require(chunkSize > 0, "Chunk size must be positive")
+
+  private val inFlight =
+    if (maxChunksInFlight > 0) maxChunksInFlight else 4 * workers
+
+  private case class Chunk(seq: Long, lines: Array[String])
+
+  private case class Result(seq: Long, predictions: Array[String], correct: Int)
+
+  private val EndOfInput = Chunk(-1L, Array.empty)
+
+  /**
+   * Predict every instance read from `in`, writing one line per instance to
+   * `out`:
+   *
+   * index [CORRECT|WRONG] correct-label predicted-label
+   *
+   * The CORRECT/WRONG column is only written if `showCorrect` is set.
+   * Neither stream is closed.
+   *
+   * @return the number of instances and of correct predictions
+   */
+  def run(in: BufferedReader, out: Writer, showCorrect: Boolean = false): PredictionCounts = {
+    val chunks = new ArrayBlockingQueue[Chunk](inFlight)
+    val results = new LinkedBlockingQueue[Either[Throwable, Result]]()
+    val permits = new Semaphore(inFlight)
+    val stopped = new AtomicReference[Throwable]()
+
+    val reader = daemon("lemkit-predict-reader") {
+      try {
+        var seq = 0L
+        var buf = new Array[String](chunkSize)
+        var n = 0
+        var line = in.readLine()
+        while (line != null && stopped.get == null) {
+          if (!line.trim.isEmpty) {
+            buf(n) = line
+            n += 1
+            if (n == chunkSize) {
+              permits.acquire()
+              chunks.put(Chunk(seq, buf))
+              seq += 1
+              buf = new Array[String](chunkSize)
+              n = 0
+            }
+          }
+          line = in.readLine()
+        }
+        if (n > 0) {
+          permits.acquire()
+          chunks.put(Chunk(seq, java.util.Arrays.copyOf(buf, n)))
+        }
+      } catch {
+        case _: InterruptedException =>
+        case e: Throwable => results.put(Left(e))
+      } finally {
+        for (_ <- 0 until workers)
+          chunks.put(EndOfInput)
+      }
+    }
+
+    val scorers = for (i <- 0 until workers) yield daemon(s"lemkit-predict-worker-$i") {
+      try {
+        var chunk = chunks.take()
+        while (chunk ne EndOfInput) {
+          results.put(Right(score(chunk, showCorrect)))
+          chunk = chunks.take()
+        }
+      } catch {
+        case _: InterruptedException =>
+        case e: Throwable => results.put(Left(e))
+      } finally {
+        results.put(Right(Result(-1L, Array.empty, 0)))
+      }
+    }
+
+    val pending = mutable.Map.empty[Long, Result]
+    var next = 0L
+    var instances = 0L
+    var correct = 0L
+    var finished = 0
+
+    try {
+      while (finished < workers) {
+        results.take() match {
+          case Left(e) =>
+            throw e
+          case Right(r) if r.seq < 0 =>
+            finished += 1
+          case Right(r) =>
+            pending(r.seq) = r
+            while (pending.contains(next)) {
+              val ready = pending.remove(next).get
+              for (prediction <- ready.predictions) {
+                instances += 1
+                out.write(java.lang.Long.toString(instances))
+                out.write(prediction)
+              }
+              correct += ready.correct
+              next += 1
+              permits.release()
+            }
+        }
+      }
+      out.flush()
+    } catch {
+      case e: Throwable =>
+        stopped.set(e)
+        reader.interrupt()
+        scorers.foreach(_.interrupt())
+        throw e
+    }
+
+    PredictionCounts(instances, correct)
+  }
+
+  private def score(chunk: Chunk, showCorrect: Boolean): Result = {
+    val examples = chunk.lines.map(ClassifierSource.parseLine(_, classifier.functionSig))
+    val predicted = classifier.predictAll(examples.map(_.item).toList.asJava).asScala
+    var correct = 0
+    val predictions = new Array[String](examples.length)
+    for (i <- examples.indices) {
+      val label = examples(i).label
+      val best = predicted(i).best
+      val isCorrect = label == best
+      if (isCorrect)
+        correct += 1
+      val sb = new java.lang.StringBuilder(label.length + best.length + 10)
+      if (showCorrect)
+        sb.append(if (isCorrect) " CORRECT" else " WRONG")
+      sb.append(' ').append(label).append(' ').append(best).append('\n')
+      predictions(i) = sb.toString
+    }
+    Result(chunk.seq, predictions, correct)
+  }
+
+  private def daemon(name: String)(body: => Unit): Thread = {
+    val t = new Thread(new Runnable {
+      def run(): Unit = body
+    }, name)
+    t.setDaemon(true)
+    t.start()
+    t
+  }
+}
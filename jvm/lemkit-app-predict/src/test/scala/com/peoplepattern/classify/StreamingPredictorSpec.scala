@@ -0,0 +1,129 @@
+package com.peoplepattern.classify
+
+import com.peoplepattern.classify.core.ExactFeatureMap
+import com.peoplepattern.classify.core.LinearClassifier
+import com.peoplepattern.classify.core.PortableLinearClassifier
+import com.peoplepattern.classify.core.Vec
+import java.io.BufferedReader
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.PrintStream
+import java.io.StringReader
+import java.io.StringWriter
+import java.io.Writer
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicInteger
+import org.scalatest._
+import scala.concurrent.Await
+import scala.concurrent.Future
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.duration._
+
+class StreamingPredictorSpec extends FlatSpec {
+
+  // Feature a predicts x, feature b predicts y
+  val classifier = new PortableLinearClassifier(
+    new LinearClassifier(0L, Array("x", "y"), Array(
+      new Vec(Array(1.0, 0.0, 0.0)), new Vec(Array(0.0, 1.0, 0.0)))),
+    new ExactFeatureMap(0L, Array("a", "b")))
+
+  def label(i: Int) = if (i % 3 == 0) "y" else "x"
+
+  def feature(i: Int) = if (i % 2 == 0) "a" else "b"
+
+  def predicted(i: Int) = if (i % 2 == 0) "x" else "y"
+
+  /** Instances 0 until n, with blank lines among them */
+  def input(n: Int) = {
+    val sb = new StringBuilder
+    for (i <- 0 until n) {
+      if (i % 10 == 0)
+        sb.append("\n   \n")
+      sb.append(s"${label(i)} | ${feature(i)}\n")
+    }
+    sb.toString
+  }
+
+  "StreamingPredictor" should "write predictions in input order with several workers" in {
+    val n = 1000
+    val out = new StringWriter
+    val counts = new StreamingPredictor(classifier, workers = 4, chunkSize = 7)
+      .run(new BufferedReader(new StringReader(input(n))), out, showCorrect = true)
+
+    val expected = for (i <- 0 until n) yield {
+      val correct = if (label(i) == predicted(i)) "CORRECT" else "WRONG"
+      s"${i + 1} $correct ${label(i)} ${predicted(i)}"
+    }
+    assert(out.toString.split("\n").toSeq == expected)
+
+    // Blank lines don't count
+    assert(counts.instances == n)
+    assert(counts.correct == (0 until n).count(i => label(i) == predicted(i)))
+    assert(counts.accuracy == counts.correct.toDouble / n)
+  }
+
+  it should "count nothing for empty input" in {
+    val out = new StringWriter
+    val counts = new StreamingPredictor(classifier, workers = 2)
+      .run(new BufferedReader(new StringReader("\n\n")), out)
+    assert(out.toString.isEmpty)
+    assert(counts == PredictionCounts(0, 0))
+    assert(counts.accuracy == 0.0)
+  }
+
+  it should "bound the chunks read ahead of a stalled writer" in {
+    val n = 2000
+    val chunkSize = 10
+    val maxChunksInFlight = 3
+    val linesRead = new AtomicInteger
+    val in = new BufferedReader(new StringReader("")) {
+      override def readLine() =
+        if (linesRead.get < n) s"${label(linesRead.getAndIncrement())} | a" else null
+    }
+    val stalled = new CountDownLatch(1)
+    val out = new Writer {
+      def write(buf: Array[Char], off: Int, len: Int): Unit = stalled.await()
+      def flush(): Unit = ()
+      def close(): Unit = ()
+    }
+
+    val run = Future {
+      new StreamingPredictor(classifier, workers = 2, chunkSize = chunkSize,
+        maxChunksInFlight = maxChunksInFlight).run(in, out)
+    }
+
+    // Wait for the reader to stop
+    var last = -1
+    while (linesRead.get != last) {
+      last = linesRead.get
+      Thread.sleep(200)
+    }
+    // The chunks holding permits, plus one chunk read waiting for a permit
+    assert(last <= (maxChunksInFlight + 1) * chunkSize)
+
+    stalled.countDown()
+    assert(Await.result(run, 30.seconds).instances == n)
+  }
+
+  "PredictApp" should "predict instances read from standard input" in {
+    val model = File.createTempFile("lemkit-model", ".bin")
+    model.deleteOnExit()
+    classifier.writeToBinaryFile(model)
+
+    val stdin = System.in
+    val stdout = System.out
+    val captured = new ByteArrayOutputStream
+    System.setIn(new ByteArrayInputStream(input(4).getBytes("UTF-8")))
+    System.setOut(new PrintStream(captured, true, "UTF-8"))
+    try {
+      PredictApp.main(Array("--model", model.getPath, "--show-accuracy", "--threads", "2"))
+    } finally {
+      System.setIn(stdin)
+      System.setOut(stdout)
+    }
+
+    assert(captured.toString("UTF-8").split("\n").toSeq ==
+      Seq("1 y x", "2 x y", "3 x x", "4 y y", "Accuracy: 50.00%"))
+  }
+}
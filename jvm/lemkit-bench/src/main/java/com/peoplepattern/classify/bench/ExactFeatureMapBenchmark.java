@@ -0,0 +1,62 @@
+package com.peoplepattern.classify.bench;
+
+import com.peoplepattern.classify.core.ExactFeatureMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link ExactFeatureMap#indexOfFeature} for known and unknown features,
+ * looked up in random order so that large vocabularies miss the caches
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExactFeatureMapBenchmark {
+
+  @Param({"10000", "1000000"})
+  public int vocabulary;
+
+  ExactFeatureMap map;
+  String[] known;
+  String[] unknown;
+  int i = 0;
+
+  @Setup
+  public void setup() {
+    final String[] names = new SyntheticData(42L, vocabulary, 1).featureNames();
+    map = new ExactFeatureMap(SyntheticData.SIG, names);
+    final Random random = new Random(42);
+    known = new String[4096];
+    unknown = new String[4096];
+    for (int k = 0; k < known.length; k++) {
+      known[k] = names[random.nextInt(vocabulary)];
+      unknown[k] = "g" + random.nextInt(vocabulary);
+    }
+  }
+
+  @Benchmark
+  public int indexOfKnown() {
+    i = Fixtures.next(i, known);
+    return map.indexOfFeature(known[i]);
+  }
+
+  @Benchmark
+  public int indexOfUnknown() {
+    i = Fixtures.next(i, unknown);
+    return map.indexOfFeature(unknown[i]);
+  }
+}
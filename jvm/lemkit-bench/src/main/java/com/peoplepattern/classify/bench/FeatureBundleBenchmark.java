@@ -0,0 +1,62 @@
+package com.peoplepattern.classify.bench;
+
+import com.peoplepattern.classify.core.Datum;
+import com.peoplepattern.classify.core.FeatureBundle;
+import com.peoplepattern.classify.core.FeatureMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link FeatureBundle#toDatum} into sparse and dense vectors, through
+ * exact and hashed feature maps
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FeatureBundleBenchmark {
+
+  @Param({"exact", "hashed"})
+  public String map;
+
+  @Param({"10000"})
+  public int vocabulary;
+
+  @Param({"10", "100", "1000"})
+  public int features;
+
+  FeatureMap featureMap;
+  FeatureBundle[] bundles;
+  int i = 0;
+
+  @Setup
+  public void setup() {
+    final SyntheticData data = new SyntheticData(42L, vocabulary, 2);
+    featureMap = data.featureMap(map);
+    bundles = data.bundles(256, features);
+  }
+
+  @Benchmark
+  public Datum toDatumSparse() {
+    i = Fixtures.next(i, bundles);
+    return bundles[i].toDatum(featureMap, true);
+  }
+
+  @Benchmark
+  public Datum toDatumDense() {
+    i = Fixtures.next(i, bundles);
+    return bundles[i].toDatum(featureMap, false);
+  }
+}
@@ -0,0 +1,41 @@
+package com.peoplepattern.classify.bench;
+
+import com.peoplepattern.classify.core.Vec;
+import java.util.Random;
+
+/**
+ * Random vectors for the benchmarks; models and data come from
+ * {@link SyntheticData}
+ *
+ * <p>Everything is generated from a seed, so every run measures the same
+ * data.
+ */
+final class Fixtures {
+
+  private Fixtures() {}
+
+  /** A sparse vector with about {@code density * size} random entries */
+  static Vec sparse(final Random random, final int size, final double density) {
+    final int n = Math.max(1, (int) (size * density));
+    final int[] indices = new int[n];
+    final double[] values = new double[n];
+    for (int i = 0; i < n; i++) {
+      indices[i] = random.nextInt(size);
+      values[i] = random.nextGaussian();
+    }
+    return Vec.fromUnordered(size, indices, values, n);
+  }
+
+  /** A dense vector of random values */
+  static Vec dense(final Random random, final int size) {
+    final double[] values = new double[size];
+    for (int i = 0; i < size; i++)
+      values[i] = random.nextGaussian();
+    return new Vec(values);
+  }
+
+  /** Cycle through an array from a benchmark's state */
+  static int next(final int i, final Object[] array) {
+    return i + 1 == array.length ? 0 : i + 1;
+  }
+}
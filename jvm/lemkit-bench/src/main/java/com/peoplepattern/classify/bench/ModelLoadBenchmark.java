@@ -0,0 +1,71 @@
+package com.peoplepattern.classify.bench;
+
+import com.peoplepattern.classify.core.PortableLinearClassifier;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading models from the binary and JSON formats, from memory so the
+ * disk isn't measured
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModelLoadBenchmark {
+
+  @Param({"exact", "hashed"})
+  public String map;
+
+  @Param({"10000", "200000"})
+  public int vocabulary;
+
+  @Param({"2", "20"})
+  public int labels;
+
+  @Param({"1.0", "0.05"})
+  public double weightDensity;
+
+  byte[] binary;
+  String json;
+
+  @Setup
+  public void setup() throws IOException {
+    final SyntheticData data = new SyntheticData(42L, vocabulary, labels);
+    final PortableLinearClassifier classifier = data.model(data.featureMap(map), weightDensity);
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    classifier.writeToStream(out);
+    out.flush();
+    binary = bytes.toByteArray();
+    json = classifier.toJsonString(false);
+  }
+
+  @Benchmark
+  public PortableLinearClassifier readBinary() throws IOException {
+    return PortableLinearClassifier.BREADER.readFromStream(
+        new DataInputStream(new ByteArrayInputStream(binary)));
+  }
+
+  @Benchmark
+  public PortableLinearClassifier readJson() {
+    return PortableLinearClassifier.JPARSER.fromJsonString(json);
+  }
+}
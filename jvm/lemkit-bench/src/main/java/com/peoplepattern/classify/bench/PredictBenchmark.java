@@ -0,0 +1,73 @@
+package com.peoplepattern.classify.bench;
+
+import com.peoplepattern.classify.core.Classification;
+import com.peoplepattern.classify.core.FeatureBundle;
+import com.peoplepattern.classify.core.MeteredClassifier;
+import com.peoplepattern.classify.core.PortableLinearClassifier;
+import com.peoplepattern.classify.core.PredictionStats;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end {@link PortableLinearClassifier#predict} of feature bundles:
+ * mapping features, then scoring every label; and the same through a
+ * {@link MeteredClassifier}, to measure the overhead of metrics
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PredictBenchmark {
+
+  @Param({"exact", "hashed"})
+  public String map;
+
+  @Param({"100000"})
+  public int vocabulary;
+
+  @Param({"2", "20"})
+  public int labels;
+
+  @Param({"20", "200"})
+  public int features;
+
+  @Param({"1.0", "0.05"})
+  public double weightDensity;
+
+  PortableLinearClassifier classifier;
+  MeteredClassifier<FeatureBundle> metered;
+  FeatureBundle[] bundles;
+  int i = 0;
+
+  @Setup
+  public void setup() {
+    final SyntheticData data = new SyntheticData(42L, vocabulary, labels);
+    classifier = data.model(data.featureMap(map), weightDensity);
+    bundles = data.bundles(256, features);
+    metered = new MeteredClassifier<FeatureBundle>(classifier, new PredictionStats());
+  }
+
+  @Benchmark
+  public Classification predict() {
+    i = Fixtures.next(i, bundles);
+    return classifier.predict(bundles[i]);
+  }
+
+  @Benchmark
+  public Classification predictMetered() {
+    i = Fixtures.next(i, bundles);
+    return metered.predict(bundles[i]);
+  }
+}
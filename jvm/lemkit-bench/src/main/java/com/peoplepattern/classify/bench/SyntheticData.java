@@ -0,0 +1,477 @@
+package com.peoplepattern.classify.bench;
+
+import com.peoplepattern.classify.core.DatasetCache;
+import com.peoplepattern.classify.core.ExactFeatureMap;
+import com.peoplepattern.classify.core.FeatureBundle;
+import com.peoplepattern.classify.core.FeatureMap;
+import com.peoplepattern.classify.core.HashedFeatureMap;
+import com.peoplepattern.classify.core.LinearClassifier;
+import com.peoplepattern.classify.core.PortableLinearClassifier;
+import com.peoplepattern.classify.core.Scored;
+import com.peoplepattern.classify.core.Vec;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Generator of production-shaped models and data
+ *
+ * <p>The vocabulary is the features {@code f0} to {@code f(n-1)}, ranked
+ * by frequency: the features of an example are drawn from a Zipf
+ * distribution over the ranks, as words are, and so are its labels,
+ * {@code label0} to {@code label(k-1)}. Models are over the same
+ * vocabulary and labels, with Gaussian weights, dense or with a given
+ * fraction of them non-zero.
+ *
+ * <p>Everything is generated from the seed, so a generator built with the
+ * same arguments produces the same models and data. Feature names are
+ * only materialized for an exact feature map, and sparse weights are
+ * drawn without materializing the dense matrix, so models the size of
+ * production ones (say 2^22 features and 2000 labels, at a weight density
+ * of 1%) can be generated on a laptop.
+ *
+ * <p>See {@link #main} to write models and data files from the command
+ * line.
+ */
+public final class SyntheticData {
+
+  /** The function signature of the generated features and models */
+  public static final long SIG = 1L;
+
+  private final long seed;
+  private final int numFeatures;
+  private final int numLabels;
+  private final double exponent;
+
+  /**
+   * Construct a generator
+   *
+   * @param seed the seed everything is generated from
+   * @param numFeatures the size of the vocabulary
+   * @param numLabels the number of labels
+   * @param exponent the exponent of the Zipf distribution of features and
+   *        labels; 0 is uniform, about 1 is natural language
+   * @throws IllegalArgumentException if there are no features or labels,
+   *         or the exponent is negative
+   */
+  public SyntheticData(final long seed, final int numFeatures, final int numLabels,
+      final double exponent) {
+    if (numFeatures < 1)
+      throw new IllegalArgumentException("Need at least one feature");
+    if (numLabels < 1)
+      throw new IllegalArgumentException("Need at least one label");
+    if (exponent < 0.0)
+      throw new IllegalArgumentException("The Zipf exponent must not be negative");
+
+    this.seed = seed;
+    this.numFeatures = numFeatures;
+    this.numLabels = numLabels;
+    this.exponent = exponent;
+  }
+
+  /**
+   * Construct a generator with natural-language skew (a Zipf exponent of
+   * 1)
+   */
+  public SyntheticData(final long seed, final int numFeatures, final int numLabels) {
+    this(seed, numFeatures, numLabels, 1.0);
+  }
+
+  public int numFeatures() {
+    return numFeatures;
+  }
+
+  public int numLabels() {
+    return numLabels;
+  }
+
+  /** The name of the feature of a rank */
+  public static String feature(final int rank) {
+    return "f" + rank;
+  }
+
+  /** The name of the label of a rank */
+  public static String label(final int rank) {
+    return "label" + rank;
+  }
+
+  /** Every feature name, most frequent first */
+  public String[] featureNames() {
+    final String[] names = new String[numFeatures];
+    for (int i = 0; i < numFeatures; i++)
+      names[i] = feature(i);
+    return names;
+  }
+
+  /** Every label, most frequent first */
+  public String[] labels() {
+    final String[] labels = new String[numLabels];
+    for (int i = 0; i < numLabels; i++)
+      labels[i] = label(i);
+    return labels;
+  }
+
+  /**
+   * A feature map of the vocabulary
+   *
+   * @param kind {@code exact}, for an exact map of the features, or
+   *        {@code hashed}, for a hashed map of as many indices
+   * @throws IllegalArgumentException if the kind is unknown
+   */
+  public FeatureMap featureMap(final String kind) {
+    switch (kind) {
+      case "exact":
+        return new ExactFeatureMap(SIG, featureNames());
+      case "hashed":
+        return new HashedFeatureMap(SIG, numFeatures + 1);
+      default:
+        throw new IllegalArgumentException("Unknown feature map kind: " + kind);
+    }
+  }
+
+  /**
+   * A model over a feature map
+   *
+   * @param map the feature map of the model
+   * @param weightDensity the fraction of the weights of each label that
+   *        are non-zero; 1 for dense weights
+   * @throws IllegalArgumentException if the density isn't in (0, 1]
+   */
+  public PortableLinearClassifier model(final FeatureMap map, final double weightDensity) {
+    if (!(weightDensity > 0.0 && weightDensity <= 1.0))
+      throw new IllegalArgumentException("The weight density must be in (0, 1]");
+
+    final Random random = new Random(seed);
+    final Vec[] params = new Vec[numLabels];
+    for (int k = 0; k < numLabels; k++)
+      params[k] = weightDensity == 1.0
+          ? dense(random, map.size())
+          : sparse(random, map.size(), weightDensity);
+    return new PortableLinearClassifier(new LinearClassifier(SIG, labels(), params), map);
+  }
+
+  /**
+   * Examples of a fixed number of features; each call to
+   * {@link Stream#next} draws the next one
+   *
+   * @param stream which stream of the seed, so independent streams can be
+   *        drawn in parallel
+   * @param numExampleFeatures the number of distinct features of each
+   *        example
+   * @throws IllegalArgumentException if examples would have more features
+   *         than the vocabulary has
+   */
+  public Stream stream(final long stream, final int numExampleFeatures) {
+    return new Stream(stream, numExampleFeatures);
+  }
+
+  /**
+   * The feature bundles of {@code count} examples of the first stream
+   */
+  public FeatureBundle[] bundles(final int count, final int numExampleFeatures) {
+    final Stream stream = stream(0L, numExampleFeatures);
+    final FeatureBundle[] bundles = new FeatureBundle[count];
+    for (int i = 0; i < count; i++)
+      bundles[i] = stream.next();
+    return bundles;
+  }
+
+  /**
+   * Write {@code count} examples of the first stream in the text data
+   * format read by {@link com.peoplepattern.classify.core.DataFileParser}
+   *
+   * @throws IOException if the file can't be written
+   */
+  public void writeText(final File file, final long count, final int numExampleFeatures)
+      throws IOException {
+    final Stream stream = stream(0L, numExampleFeatures);
+    try (Writer out = new BufferedWriter(
+        new OutputStreamWriter(new FileOutputStream(file), UTF_8), 1 << 16)) {
+      for (long i = 0; i < count; i++) {
+        final FeatureBundle bundle = stream.next();
+        out.write(stream.label());
+        out.write(" |");
+        for (Scored<String> obs : bundle.observations()) {
+          out.write(' ');
+          out.write(obs.item());
+          if (obs.score() != 1.0) {
+            out.write(':');
+            out.write(Integer.toString((int) obs.score()));
+          }
+        }
+        out.write('\n');
+      }
+    }
+  }
+
+  /**
+   * Write {@code count} examples of the first stream, vectorized with a
+   * feature map, to a {@link DatasetCache}
+   *
+   * @throws IOException if the file can't be written
+   */
+  public void writeCache(final File file, final FeatureMap map, final long count,
+      final int numExampleFeatures) throws IOException {
+    final Stream stream = stream(0L, numExampleFeatures);
+    try (DatasetCache.Writer out = new DatasetCache.Writer(file, map)) {
+      for (long i = 0; i < count; i++) {
+        final FeatureBundle bundle = stream.next();
+        out.write(stream.label(), 1.0, bundle.toDatum(map));
+      }
+    }
+  }
+
+  /**
+   * A stream of examples
+   *
+   * <p>The features of an example are drawn without replacement: a rank
+   * already drawn for the example is replaced by the next rank above it
+   * not yet drawn (wrapping around to the lowest), which keeps the skew and
+   * costs a bounded amount however close the example comes to the whole
+   * vocabulary.
+   *
+   * <p>Not thread safe; use a stream per thread.
+   */
+  public final class Stream {
+
+    private final Random random;
+    private final int size;
+    private final BitSet drawn;
+    private final int[] ranks;
+    private String label;
+
+    Stream(final long stream, final int size) {
+      if (size < 0 || size > numFeatures)
+        throw new IllegalArgumentException("Examples can't have more features than the vocabulary");
+
+      this.random = new Random(seed * 31 + stream + 1);
+      this.size = size;
+      this.drawn = new BitSet(numFeatures);
+      this.ranks = new int[size];
+    }
+
+    /**
+     * The features of the next example, with values 1 to 3, more often
+     * the lower
+     */
+    public FeatureBundle next() {
+      label = SyntheticData.label(zipf(random, numLabels, exponent));
+
+      // The ranks below are all drawn, as the most frequent soon are
+      int lowestUndrawn = 0;
+      final List<Scored<String>> obs = new ArrayList<Scored<String>>(size);
+      for (int i = 0; i < size; i++) {
+        int rank = zipf(random, numFeatures, exponent);
+        if (drawn.get(rank)) {
+          rank = drawn.nextClearBit(Math.max(rank, lowestUndrawn));
+          if (rank >= numFeatures)
+            rank = lowestUndrawn;
+        }
+        drawn.set(rank);
+        if (rank == lowestUndrawn)
+          lowestUndrawn = drawn.nextClearBit(rank + 1);
+        ranks[i] = rank;
+        obs.add(new Scored<String>(feature(rank), 1 + zipf(random, 3, 1.0)));
+      }
+
+      for (int i = 0; i < size; i++)
+        drawn.clear(ranks[i]);
+      return new FeatureBundle(SIG, obs);
+    }
+
+    /** The label of the last example drawn */
+    public String label() {
+      return label;
+    }
+  }
+
+  /**
+   * Draw a rank in [0, n) from a Zipf distribution of an exponent, by
+   * inverting the CDF of its continuous approximation
+   */
+  static int zipf(final Random random, final int n, final double exponent) {
+    final double u = random.nextDouble();
+    final double x;
+    if (Math.abs(exponent - 1.0) < 1e-9)
+      x = Math.exp(u * Math.log(n + 1));
+    else
+      x = Math.pow(1.0 + u * (Math.pow(n + 1, 1.0 - exponent) - 1.0), 1.0 / (1.0 - exponent));
+    return Math.min(n - 1, (int) x - 1);
+  }
+
+  private static Vec dense(final Random random, final int size) {
+    final double[] values = new double[size];
+    for (int i = 0; i < size; i++)
+      values[i] = random.nextGaussian();
+    return new Vec(values);
+  }
+
+  /**
+   * A sparse vector with each entry non-zero with probability
+   * {@code density}, drawn by skipping geometric gaps between entries
+   */
+  static Vec sparse(final Random random, final int size, final double density) {
+    final IntArrayList indices = new IntArrayList((int) (size * density * 1.1) + 16);
+    final DoubleArrayList values = new DoubleArrayList(indices.elements().length);
+    final double logMiss = Math.log1p(-density);
+    long i = -1;
+    while (true) {
+      i += 1 + (long) (Math.log(1.0 - random.nextDouble()) / logMiss);
+      if (i >= size)
+        break;
+      indices.add((int) i);
+      values.add(random.nextGaussian());
+    }
+    return new Vec(size, indices.toIntArray(), values.toDoubleArray());
+  }
+
+  /**
+   * Command line entry point
+   *
+   * <pre>
+   * --features | -n n             Vocabulary size (default 2^20)
+   * --labels | -k n               Number of labels (default 2)
+   * --zipf | -z exponent          Zipf exponent of features and labels
+   *                               (default 1)
+   * --seed | -s seed              Random seed (default 0)
+   * --map kind                    Feature map, exact or hashed (default hashed)
+   * --model | -m path             Write a model to this file
+   * --model-format format         Model format (json or binary, default binary)
+   * --weight-density d            Fraction of non-zero weights (default 1)
+   * --data | -d path              Write examples to this file
+   * --data-format format          Data format: text, or binary for a dataset
+   *                               cache vectorized with the map (default text)
+   * --examples | -e n             Number of examples (default 10000)
+   * --example-features | -f n     Features per example (default 50)
+   * </pre>
+   *
+   * <p>For example, a model of production size, with examples to score:
+   * <pre>
+   * -n 4194304 -k 2000 --weight-density 0.01 -m model.bin -d data.txt
+   * </pre>
+   *
+   * @param args command line arguments
+   * @throws IOException if a file can't be written
+   */
+  public static void main(final String[] args) throws IOException {
+    int features = 1 << 20;
+    int labels = 2;
+    double exponent = 1.0;
+    long seed = 0L;
+    String map = "hashed";
+    String modelPath = null;
+    String modelFormat = "binary";
+    double weightDensity = 1.0;
+    String dataPath = null;
+    String dataFormat = "text";
+    long examples = 10000;
+    int exampleFeatures = 50;
+
+    for (int i = 0; i < args.length; i++) {
+      final String arg = args[i];
+      if (i + 1 >= args.length)
+        throw new IllegalArgumentException(format("Argument for %s required", arg));
+
+      final String value = args[++i];
+      switch (arg) {
+        case "--features":
+        case "-n":
+          features = Integer.parseInt(value);
+          break;
+
+        case "--labels":
+        case "-k":
+          labels = Integer.parseInt(value);
+          break;
+
+        case "--zipf":
+        case "-z":
+          exponent = Double.parseDouble(value);
+          break;
+
+        case "--seed":
+        case "-s":
+          seed = Long.parseLong(value);
+          break;
+
+        case "--map":
+          if (!"exact".equals(value) && !"hashed".equals(value))
+            throw new IllegalArgumentException("Feature map must be 'exact' or 'hashed'");
+          map = value;
+          break;
+
+        case "--model":
+        case "-m":
+          modelPath = value;
+          break;
+
+        case "--model-format":
+          if (!"json".equals(value) && !"binary".equals(value))
+            throw new IllegalArgumentException("Model format must be 'json' or 'binary'");
+          modelFormat = value;
+          break;
+
+        case "--weight-density":
+          weightDensity = Double.parseDouble(value);
+          break;
+
+        case "--data":
+        case "-d":
+          dataPath = value;
+          break;
+
+        case "--data-format":
+          if (!"text".equals(value) && !"binary".equals(value))
+            throw new IllegalArgumentException("Data format must be 'text' or 'binary'");
+          dataFormat = value;
+          break;
+
+        case "--examples":
+        case "-e":
+          examples = Long.parseLong(value);
+          break;
+
+        case "--example-features":
+        case "-f":
+          exampleFeatures = Integer.parseInt(value);
+          break;
+
+        default:
+          throw new IllegalArgumentException(format("Unrecognized argument: %s", arg));
+      }
+    }
+
+    if (modelPath == null && dataPath == null)
+      throw new IllegalArgumentException("Must specify a --model (or -m) or --data (or -d) to write");
+
+    final SyntheticData data = new SyntheticData(seed, features, labels, exponent);
+    final FeatureMap featureMap = data.featureMap(map);
+
+    if (modelPath != null) {
+      final PortableLinearClassifier model = data.model(featureMap, weightDensity);
+      if ("json".equals(modelFormat))
+        model.writeJson(new File(modelPath));
+      else
+        model.writeToBinaryFile(new File(modelPath));
+    }
+
+    if (dataPath != null) {
+      if ("text".equals(dataFormat))
+        data.writeText(new File(dataPath), examples, exampleFeatures);
+      else
+        data.writeCache(new File(dataPath), featureMap, examples, exampleFeatures);
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package com.peoplepattern.classify.bench;
+
+import com.peoplepattern.classify.core.Vec;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Vec#dot} for each pairing of sparse and dense vectors
+ *
+ * <p>{@code sparseSparse} takes vectors of the same density, through the
+ * merge kernel; {@code sparseShortLong} a vector 64 times sparser than the
+ * other, through the binary search kernel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VecDotBenchmark {
+
+  @Param({"100000"})
+  public int size;
+
+  @Param({"0.0001", "0.001", "0.01", "0.1"})
+  public double density;
+
+  Vec sparseA;
+  Vec sparseB;
+  Vec sparseShort;
+  Vec denseA;
+  Vec denseB;
+
+  @Setup
+  public void setup() {
+    final Random random = new Random(42);
+    sparseA = Fixtures.sparse(random, size, density);
+    sparseB = Fixtures.sparse(random, size, density);
+    sparseShort = Fixtures.sparse(random, size, density / 64);
+    denseA = Fixtures.dense(random, size);
+    denseB = Fixtures.dense(random, size);
+  }
+
+  @Benchmark
+  public double sparseSparse() {
+    return sparseA.dot(sparseB);
+  }
+
+  @Benchmark
+  public double sparseShortLong() {
+    return sparseShort.dot(sparseA);
+  }
+
+  @Benchmark
+  public double sparseDense() {
+    return sparseA.dot(denseA);
+  }
+
+  @Benchmark
+  public double denseDense() {
+    return denseA.dot(denseB);
+  }
+}
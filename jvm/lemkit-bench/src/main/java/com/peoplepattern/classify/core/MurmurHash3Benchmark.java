@@ -0,0 +1,64 @@
+package com.peoplepattern.classify.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link MurmurHash3#murmurhash3_x86_32} of strings and of their UTF-8
+ * bytes, as feature hashing uses them
+ *
+ * <p>In the core package because {@code MurmurHash3} is package-private.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MurmurHash3Benchmark {
+
+  @Param({"8", "32", "128"})
+  public int length;
+
+  String[] strings;
+  byte[][] utf8;
+  int i = 0;
+
+  @Setup
+  public void setup() {
+    final Random random = new Random(42);
+    strings = new String[256];
+    utf8 = new byte[strings.length][];
+    for (int k = 0; k < strings.length; k++) {
+      final char[] chars = new char[length];
+      for (int c = 0; c < length; c++)
+        chars[c] = (char) ('a' + random.nextInt(26));
+      strings[k] = new String(chars);
+      utf8[k] = strings[k].getBytes(StandardCharsets.UTF_8);
+    }
+  }
+
+  @Benchmark
+  public int hashString() {
+    i = i + 1 == strings.length ? 0 : i + 1;
+    return MurmurHash3.murmurhash3_x86_32(strings[i], 0, length, 0);
+  }
+
+  @Benchmark
+  public int hashUtf8() {
+    i = i + 1 == utf8.length ? 0 : i + 1;
+    return MurmurHash3.murmurhash3_x86_32(utf8[i], 0, length, 0);
+  }
+}
@@ -0,0 +1,119 @@
+package com.peoplepattern.classify.bench;
+
+import com.peoplepattern.classify.core.DataFileParser;
+import com.peoplepattern.classify.core.Datum;
+import com.peoplepattern.classify.core.FeatureBundle;
+import com.peoplepattern.classify.core.FeatureMap;
+import com.peoplepattern.classify.core.Scored;
+import com.peoplepattern.classify.core.Vec;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SyntheticDataTest {
+
+  @Test
+  public void testZipfInRange() {
+    final Random random = new Random(3);
+    for (int n : new int[] {1, 2, 10, 1000}) {
+      for (double exponent : new double[] {0.0, 0.5, 1.0, 2.0}) {
+        final int[] counts = new int[n];
+        for (int i = 0; i < 20000; i++) {
+          final int rank = SyntheticData.zipf(random, n, exponent);
+          assertTrue(rank >= 0 && rank < n);
+          counts[rank]++;
+        }
+        // Skewed towards the low ranks, unless uniform
+        if (n > 1 && exponent > 0.0)
+          assertTrue(counts[0] > counts[n - 1]);
+      }
+    }
+  }
+
+  @Test
+  public void testZipfUniformAtZero() {
+    final Random random = new Random(4);
+    final int[] counts = new int[10];
+    for (int i = 0; i < 100000; i++)
+      counts[SyntheticData.zipf(random, 10, 0.0)]++;
+    for (int count : counts)
+      assertEquals(10000, count, 500);
+  }
+
+  @Test
+  public void testSparseDensity() {
+    final Random random = new Random(5);
+    for (double density : new double[] {0.001, 0.01, 0.3, 0.9}) {
+      final int size = 200000;
+      final Vec vec = SyntheticData.sparse(random, size, density);
+      assertEquals(size, vec.size());
+      assertTrue(vec.isSparse());
+
+      final int nonZeros = vec.numEntries();
+      for (int k = 0; k < nonZeros; k++) {
+        assertTrue(vec.indexAt(k) >= 0 && vec.indexAt(k) < size);
+        assertTrue(k == 0 || vec.indexAt(k) > vec.indexAt(k - 1));
+      }
+      final double expected = size * density;
+      // Within five standard deviations of the binomial
+      assertEquals(expected, nonZeros, 5 * Math.sqrt(expected * (1 - density)) + 1);
+    }
+  }
+
+  @Test
+  public void testStreamDrawsDistinctFeatures() {
+    // Even the whole vocabulary, at a steep skew
+    for (int size : new int[] {0, 1, 50, 2000}) {
+      final SyntheticData data = new SyntheticData(2L, 2000, 5, 2.0);
+      final SyntheticData.Stream stream = data.stream(0L, size);
+      for (int i = 0; i < 20; i++) {
+        final FeatureBundle bundle = stream.next();
+        final Set<String> features = new HashSet<String>();
+        for (Scored<String> obs : bundle.observations()) {
+          assertTrue(features.add(obs.item()));
+          assertTrue(obs.score() >= 1.0 && obs.score() <= 3.0);
+        }
+        assertEquals(size, features.size());
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testStreamLargerThanVocabulary() {
+    new SyntheticData(0L, 10, 2).stream(0L, 11);
+  }
+
+  @Test
+  public void testWriteTextParses() throws IOException {
+    final File file = File.createTempFile("lemkit-synthetic", ".txt");
+    file.deleteOnExit();
+
+    final SyntheticData data = new SyntheticData(7L, 500, 4);
+    data.writeText(file, 300, 20);
+
+    final FeatureMap map = data.featureMap("exact");
+    final List<String> labels = new ArrayList<String>();
+    final List<Datum> parsed = new ArrayList<Datum>();
+    assertEquals(300, new DataFileParser(map).parse(file, new DataFileParser.Sink() {
+      public void accept(final String label, final double importance, final Datum datum) {
+        assertEquals(1.0, importance, 0.0);
+        labels.add(label);
+        parsed.add(datum);
+      }
+    }));
+
+    // The same examples as the first stream draws
+    final SyntheticData.Stream stream = data.stream(0L, 20);
+    for (int i = 0; i < 300; i++) {
+      assertEquals(stream.next().toDatum(map), parsed.get(i));
+      assertEquals(stream.label(), labels.get(i));
+    }
+  }
+}
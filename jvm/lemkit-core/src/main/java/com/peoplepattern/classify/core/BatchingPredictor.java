@@ -0,0 +1,274 @@
+package com.peoplepattern.classify.core;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.String.format;
+
+/**
+ * A {@link Classifier} which coalesces concurrent predictions into batches
+ *
+ * <p>Calls to {@link #predict} (or {@link #submit}) from any number of
+ * threads are queued; scoring threads take them off the queue in batches
+ * and score each batch with {@link Predictor#predictAll} on the wrapped
+ * classifier, which for a {@link PortableLinearClassifier} scores label by
+ * label across the batch. Callers keep using the plain
+ * {@link Classifier} interface; {@link #predict} simply waits for its
+ * input's batch.
+ *
+ * <p>A batch is scored as soon as it reaches the maximum batch size, or
+ * when the maximum wait has passed since its first input arrived. The
+ * wait adapts to the load: while recent batches have held about one input
+ * each (i.e. requests aren't actually concurrent) a batch is scored as
+ * soon as the queue is momentarily empty, so light traffic doesn't pay
+ * the wait as extra latency.
+ *
+ * <p>If scoring a batch fails, its inputs are scored one at a time so
+ * that a bad input only fails its own caller.
+ *
+ * <p>Scoring threads are daemon threads; {@link #close} stops them after
+ * the inputs already queued have been scored. An input submitted while
+ * the predictor is closing may instead fail with an
+ * {@link IllegalStateException}.
+ */
+public final class BatchingPredictor implements Classifier<FeatureBundle>, Closeable {
+
+  /** Default maximum number of inputs scored together */
+  public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+  /** Default maximum wait for a batch to fill, in microseconds */
+  public static final long DEFAULT_MAX_WAIT_MICROS = 200;
+
+  private static final class Pending {
+    final FeatureBundle bundle;
+    final CompletableFuture<Classification> future;
+
+    Pending(final FeatureBundle bundle, final CompletableFuture<Classification> future) {
+      this.bundle = bundle;
+      this.future = future;
+    }
+  }
+
+  /** Marks the end of the queue for a scoring thread */
+  private static final Pending POISON = new Pending(null, null);
+
+  private final Classifier<FeatureBundle> delegate;
+  private final int maxBatchSize;
+  private final long maxWaitNanos;
+  private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<Pending>();
+  private final Thread[] threads;
+  private final AtomicInteger running;
+  private volatile boolean closed = false;
+
+  // Exponentially weighted average of recent batch sizes; racy updates
+  // from several scoring threads are harmless for a heuristic
+  private volatile double averageBatchSize = 1.0;
+
+  /**
+   * Wrap a classifier
+   *
+   * @param delegate the classifier doing the actual scoring
+   * @param maxBatchSize the maximum number of inputs scored together
+   * @param maxWaitMicros the maximum time an input waits for its batch to
+   *        fill, in microseconds
+   * @param scoringThreads the number of threads scoring batches
+   * @throws IllegalArgumentException if the delegate is null, or any of the
+   *         sizes isn't positive
+   */
+  public BatchingPredictor(final Classifier<FeatureBundle> delegate, final int maxBatchSize,
+      final long maxWaitMicros, final int scoringThreads) {
+    if (delegate == null)
+      throw new IllegalArgumentException("Null classifier");
+
+    if (maxBatchSize < 1)
+      throw new IllegalArgumentException("Batch size must be positive");
+
+    if (maxWaitMicros < 0)
+      throw new IllegalArgumentException("Maximum wait must not be negative");
+
+    if (scoringThreads < 1)
+      throw new IllegalArgumentException("Need at least one scoring thread");
+
+    this.delegate = delegate;
+    this.maxBatchSize = maxBatchSize;
+    this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+
+    threads = new Thread[scoringThreads];
+    running = new AtomicInteger(scoringThreads);
+    for (int i = 0; i < scoringThreads; i++) {
+      threads[i] = new Thread(new Runnable() {
+        public void run() {
+          scoreLoop();
+        }
+      }, format("lemkit-batching-predictor-%d", i));
+      threads[i].setDaemon(true);
+      threads[i].start();
+    }
+  }
+
+  /**
+   * Wrap a classifier with the default batch size and wait, and one
+   * scoring thread
+   *
+   * @param delegate the classifier doing the actual scoring
+   */
+  public BatchingPredictor(final Classifier<FeatureBundle> delegate) {
+    this(delegate, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_WAIT_MICROS, 1);
+  }
+
+  /**
+   * Queue an input for classification
+   *
+   * @param bundle the input
+   * @return a future completed with the classification once the input's
+   *         batch has been scored
+   * @throws IllegalStateException if this predictor has been closed
+   */
+  public CompletableFuture<Classification> submit(final FeatureBundle bundle) {
+    if (bundle == null)
+      throw new IllegalArgumentException("Null feature bundle for prediction");
+
+    if (closed)
+      throw new IllegalStateException("Predictor is closed");
+
+    final CompletableFuture<Classification> future = new CompletableFuture<Classification>();
+    queue.add(new Pending(bundle, future));
+    // Closed since the check, and no thread left to take it off the queue
+    if (running.get() == 0)
+      failQueued();
+    return future;
+  }
+
+  /**
+   * Classify an input, waiting for its batch to be scored
+   *
+   * @throws IllegalArgumentException as the wrapped classifier would for
+   *         a bad input
+   */
+  public Classification predict(final FeatureBundle bundle) {
+    final CompletableFuture<Classification> future = submit(bundle);
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CompletionException(e);
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      if (cause instanceof Error)
+        throw (Error) cause;
+      throw new CompletionException(cause);
+    }
+  }
+
+  public String[] getLabels() {
+    return delegate.getLabels();
+  }
+
+  public long functionSig() {
+    return delegate.functionSig();
+  }
+
+  /**
+   * Stop accepting inputs; inputs already queued are still scored
+   */
+  public void close() {
+    closed = true;
+    for (int i = 0; i < threads.length; i++)
+      queue.add(POISON);
+  }
+
+  private void scoreLoop() {
+    try {
+      scoreBatches();
+    } finally {
+      if (running.decrementAndGet() == 0)
+        failQueued();
+    }
+  }
+
+  /** Fail the inputs queued after the last scoring thread stopped */
+  private void failQueued() {
+    Pending p;
+    while ((p = queue.poll()) != null)
+      if (p != POISON)
+        p.future.completeExceptionally(new IllegalStateException("Predictor is closed"));
+  }
+
+  private void scoreBatches() {
+    final List<Pending> batch = new ArrayList<Pending>(maxBatchSize);
+    boolean done = false;
+    while (!done) {
+      try {
+        final Pending first = queue.take();
+        if (first == POISON)
+          break;
+
+        batch.add(first);
+        final long deadline = System.nanoTime() + maxWaitNanos;
+        final boolean wait = averageBatchSize >= 2.0;
+
+        while (batch.size() < maxBatchSize) {
+          Pending next = queue.poll();
+          if (next == null && wait) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining > 0)
+              next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+          }
+
+          if (next == null)
+            break;
+
+          if (next == POISON) {
+            done = true;
+            break;
+          }
+
+          batch.add(next);
+        }
+
+        averageBatchSize = 0.9 * averageBatchSize + 0.1 * batch.size();
+        score(batch);
+      } catch (InterruptedException e) {
+        done = true;
+      } finally {
+        for (Pending p : batch)
+          if (!p.future.isDone())
+            p.future.completeExceptionally(new IllegalStateException("Predictor stopped"));
+        batch.clear();
+      }
+    }
+  }
+
+  private void score(final List<Pending> batch) {
+    final List<FeatureBundle> bundles = new ArrayList<FeatureBundle>(batch.size());
+    for (Pending p : batch)
+      bundles.add(p.bundle);
+
+    final List<Classification> results;
+    try {
+      results = delegate.predictAll(bundles);
+    } catch (RuntimeException e) {
+      for (Pending p : batch) {
+        try {
+          p.future.complete(delegate.predict(p.bundle));
+        } catch (RuntimeException e2) {
+          p.future.completeExceptionally(e2);
+        }
+      }
+      return;
+    }
+
+    for (int i = 0; i < batch.size(); i++)
+      batch.get(i).future.complete(results.get(i));
+  }
+}
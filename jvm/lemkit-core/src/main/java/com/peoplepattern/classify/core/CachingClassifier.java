@@ -0,0 +1,291 @@
+package com.peoplepattern.classify.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link Classifier} which caches the classifications of a
+ * {@link PortableLinearClassifier}, keyed by the content of the vectorized
+ * input
+ *
+ * <p>Feature bundles are still vectorized on every prediction; scoring is
+ * skipped when a {@link Datum} equal to the input's (same function
+ * signature and vector) has been scored before. Callers which vectorize
+ * their inputs themselves can use {@link #predict(Datum)}.
+ *
+ * <p>Concurrent predictions of the same input are scored once: the first
+ * scores it, and the others wait for its classification. A failure (such
+ * as an inconsistent function signature) is not cached; it is thrown to
+ * the callers waiting for it, and the next prediction tries again.
+ *
+ * <p>The cache holds at most about {@code maxEntries} classifications.
+ * Beyond that, entries are evicted in insertion order, except that an
+ * entry hit since it was last considered gets a second chance (the CLOCK
+ * approximation of least-recently-used).
+ *
+ * <p>{@link #setModel} swaps the model and drops every cached
+ * classification, so none made by the old model are returned after it
+ * returns; predictions already in progress finish with the old model.
+ *
+ * <p>Inputs are cached by reference; don't modify the arrays of a vector
+ * after predicting it (see {@link Vec}).
+ */
+public final class CachingClassifier implements Classifier<FeatureBundle> {
+
+  /** Default maximum number of cached classifications */
+  public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+  private static final class Entry {
+    final CompletableFuture<Classification> future = new CompletableFuture<Classification>();
+    volatile boolean referenced = false;
+  }
+
+  /** The cache of one model; replaced as a whole when the model is swapped */
+  private static final class Generation {
+    final PortableLinearClassifier classifier;
+    final ConcurrentHashMap<Datum, Entry> entries = new ConcurrentHashMap<Datum, Entry>();
+    final ConcurrentLinkedQueue<Datum> order = new ConcurrentLinkedQueue<Datum>();
+    final AtomicInteger size = new AtomicInteger();
+
+    Generation(final PortableLinearClassifier classifier) {
+      this.classifier = classifier;
+    }
+  }
+
+  private final int maxEntries;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private volatile Generation current;
+
+  /**
+   * Wrap a classifier
+   *
+   * @param classifier the classifier doing the actual scoring
+   * @param maxEntries the maximum number of classifications cached
+   * @throws IllegalArgumentException if the classifier is null or the
+   *         maximum isn't positive
+   */
+  public CachingClassifier(final PortableLinearClassifier classifier, final int maxEntries) {
+    if (classifier == null)
+      throw new IllegalArgumentException("Null classifier");
+
+    if (maxEntries < 1)
+      throw new IllegalArgumentException("Cache size must be positive");
+
+    this.maxEntries = maxEntries;
+    this.current = new Generation(classifier);
+  }
+
+  /**
+   * Wrap a classifier, caching up to {@link #DEFAULT_MAX_ENTRIES}
+   * classifications
+   *
+   * @param classifier the classifier doing the actual scoring
+   */
+  public CachingClassifier(final PortableLinearClassifier classifier) {
+    this(classifier, DEFAULT_MAX_ENTRIES);
+  }
+
+  /**
+   * Swap the model, dropping every cached classification
+   *
+   * @param classifier the new model
+   */
+  public void setModel(final PortableLinearClassifier classifier) {
+    if (classifier == null)
+      throw new IllegalArgumentException("Null classifier");
+
+    current = new Generation(classifier);
+  }
+
+  /** The model currently scoring */
+  public PortableLinearClassifier getModel() {
+    return current.classifier;
+  }
+
+  public Classification predict(final FeatureBundle bundle) {
+    final Generation g = current;
+    return predict(g, bundle.toDatum(g.classifier.getFeatureMap()));
+  }
+
+  /**
+   * Classify a vectorized input, as {@link LinearClassifier#predict}
+   *
+   * @param datum the input
+   */
+  public Classification predict(final Datum datum) {
+    return predict(current, datum);
+  }
+
+  private Classification predict(final Generation g, final Datum datum) {
+    if (datum == null)
+      throw new IllegalArgumentException("Null datum for prediction");
+
+    final Entry created = new Entry();
+    final Entry entry = lookup(g, datum, created);
+    if (entry == created) {
+      final Classification classification;
+      try {
+        classification = g.classifier.getModel().predict(datum);
+      } catch (RuntimeException | Error e) {
+        fail(g, datum, created, e);
+        throw e;
+      }
+      created.future.complete(classification);
+      added(g, datum);
+      return classification;
+    }
+    return await(entry);
+  }
+
+  /**
+   * Classify a batch of inputs, scoring those not cached (or being
+   * scored) together with {@link LinearClassifier#predictAll}
+   */
+  @Override
+  public List<Classification> predictAll(final List<FeatureBundle> bundles) {
+    final Generation g = current;
+    final int m = bundles.size();
+    final Datum[] data = new Datum[m];
+    final Entry[] entries = new Entry[m];
+    final List<Datum> toScore = new ArrayList<Datum>();
+    final List<Entry> created = new ArrayList<Entry>();
+    try {
+      for (int j = 0; j < m; j++) {
+        data[j] = bundles.get(j).toDatum(g.classifier.getFeatureMap());
+        final Entry entry = new Entry();
+        entries[j] = lookup(g, data[j], entry);
+        if (entries[j] == entry) {
+          toScore.add(data[j]);
+          created.add(entry);
+        }
+      }
+
+      if (!toScore.isEmpty()) {
+        final List<Classification> scored = g.classifier.getModel().predictAll(toScore);
+        for (int i = 0; i < toScore.size(); i++)
+          created.get(i).future.complete(scored.get(i));
+      }
+    } catch (RuntimeException | Error e) {
+      for (int i = 0; i < toScore.size(); i++)
+        fail(g, toScore.get(i), created.get(i), e);
+      throw e;
+    }
+    for (Datum datum : toScore)
+      added(g, datum);
+
+    final List<Classification> out = new ArrayList<Classification>(m);
+    for (Entry entry : entries)
+      out.add(await(entry));
+    return out;
+  }
+
+  /**
+   * The entry of a datum: the cached (or in-flight) one, or {@code created}
+   * if there was none, which the caller must then complete
+   */
+  private Entry lookup(final Generation g, final Datum datum, final Entry created) {
+    Entry entry = g.entries.get(datum);
+    if (entry == null) {
+      entry = g.entries.putIfAbsent(datum, created);
+      if (entry == null) {
+        misses.increment();
+        return created;
+      }
+    }
+    hits.increment();
+    if (!entry.referenced)
+      entry.referenced = true;
+    return entry;
+  }
+
+  private static void fail(final Generation g, final Datum datum, final Entry entry,
+      final Throwable cause) {
+    g.entries.remove(datum, entry);
+    entry.future.completeExceptionally(cause);
+  }
+
+  /** Account for a completed entry, evicting others if the cache is full */
+  private void added(final Generation g, final Datum datum) {
+    g.order.add(datum);
+    if (g.size.incrementAndGet() <= maxEntries)
+      return;
+
+    while (g.size.get() > maxEntries) {
+      final Datum key = g.order.poll();
+      if (key == null)
+        return;
+
+      final Entry entry = g.entries.get(key);
+      if (entry == null)
+        continue;
+
+      if (entry.referenced) {
+        entry.referenced = false;
+        g.order.add(key);
+      } else if (g.entries.remove(key, entry)) {
+        g.size.decrementAndGet();
+        evictions.increment();
+      }
+    }
+  }
+
+  private static Classification await(final Entry entry) {
+    try {
+      return entry.future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CompletionException(e);
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      if (cause instanceof Error)
+        throw (Error) cause;
+      throw new CompletionException(cause);
+    }
+  }
+
+  /** The number of predictions answered from the cache, or by waiting for another's */
+  public long hits() {
+    return hits.sum();
+  }
+
+  /** The number of predictions scored */
+  public long misses() {
+    return misses.sum();
+  }
+
+  /** The number of classifications evicted to bound the cache */
+  public long evictions() {
+    return evictions.sum();
+  }
+
+  /** The fraction of predictions that were hits, or 0 before any */
+  public double hitRate() {
+    final long h = hits();
+    final long n = h + misses();
+    return n == 0 ? 0.0 : (double) h / n;
+  }
+
+  /** The number of classifications cached for the current model */
+  public int size() {
+    return current.size.get();
+  }
+
+  public String[] getLabels() {
+    return current.classifier.getLabels();
+  }
+
+  public long functionSig() {
+    return current.classifier.functionSig();
+  }
+}
@@ -123,6 +123,17 @@ public final class Classification implements Serializable, JsonSupport {
     return labels;
   }
 
+  /**
+   * The raw scores of the labels in this classification
+   *
+   * <p>Corresponds one-for-one with the labels in {@link #labels}
+   *
+   * @return the scores, in label order
+   */
+  public double[] scores() {
+    return scores;
+  }
+
   /**
    * Class prediction probabilities
    *
@@ -0,0 +1,94 @@
+package com.peoplepattern.classify.core;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * JDK Flight Recorder events of loading models, vectorizing feature
+ * bundles and scoring
+ *
+ * <p>The events are disabled by default, even in a running recording;
+ * enable them by name in the recording's settings, e.g.
+ * <pre>
+ * Recording recording = new Recording();
+ * recording.enable("com.peoplepattern.classify.Predict");
+ * </pre>
+ * or with {@code com.peoplepattern.classify.Predict#enabled=true} in a
+ * {@code .jfc} settings file.
+ *
+ * <p>While disabled, the cost to the instrumented code is one check of a
+ * flag. While enabled, model loads are always recorded, but only one in
+ * {@link #SAMPLE_PERIOD} featurizations and predictions (set with the
+ * {@code lemkit.jfr.samplePeriod} system property, default 64), chosen at
+ * random, so the hot path stays cheap. A batch scored by
+ * {@link LinearClassifier#predictAll} is sampled as one prediction, with
+ * the size of the batch as a field.
+ *
+ * <p>The events themselves are in {@link JfrEvents}; on a runtime without
+ * the {@code jdk.jfr} module they are never loaded, and every event here
+ * is a no-op. Events are passed around as plain objects so the callers
+ * don't link to JFR either.
+ */
+final class ClassifierEvents {
+
+  /** One in how many featurizations and predictions are recorded */
+  static final int SAMPLE_PERIOD = Math.max(1, Integer.getInteger("lemkit.jfr.samplePeriod", 64));
+
+  /** Whether the JFR events could be loaded */
+  static final boolean AVAILABLE = probe();
+
+  private ClassifierEvents() {}
+
+  private static boolean probe() {
+    try {
+      JfrEvents.init();
+      return true;
+    } catch (LinkageError e) {
+      return false;
+    }
+  }
+
+  static boolean sampled() {
+    return SAMPLE_PERIOD == 1 || ThreadLocalRandom.current().nextInt(SAMPLE_PERIOD) == 0;
+  }
+
+  /** A started model load event, or null if it isn't enabled */
+  static Object beginModelLoad() {
+    return AVAILABLE ? JfrEvents.beginModelLoad() : null;
+  }
+
+  /** Commit a model load event, if there is one */
+  static void commitModelLoad(final Object event, final String format,
+      final PortableLinearClassifier c) {
+    if (event != null)
+      JfrEvents.commit((JfrEvents.ModelLoad) event, format, c);
+  }
+
+  /** A started featurize event, or null if it isn't enabled or sampled */
+  static Object beginFeaturize() {
+    return AVAILABLE ? JfrEvents.beginFeaturize() : null;
+  }
+
+  /** Commit a featurize event, if there is one */
+  static void commitFeaturize(final Object event, final int features, final Datum datum,
+      final boolean sparse) {
+    if (event != null)
+      JfrEvents.commit((JfrEvents.Featurize) event, features, datum, sparse);
+  }
+
+  /** A started predict event, or null if it isn't enabled or sampled */
+  static Object beginPredict() {
+    return AVAILABLE ? JfrEvents.beginPredict() : null;
+  }
+
+  /** Commit a predict event of a single datum, if there is one */
+  static void commitPredict(final Object event, final int labels, final Datum datum) {
+    if (event != null)
+      JfrEvents.commit((JfrEvents.Predict) event, labels, datum);
+  }
+
+  /** Commit a predict event of a batch, if there is one */
+  static void commitPredict(final Object event, final int labels, final Vec[] batch) {
+    if (event != null)
+      JfrEvents.commit((JfrEvents.Predict) event, labels, batch);
+  }
+}
@@ -76,7 +76,7 @@ public interface ClassifierIO {
   public static String readString(DataInputStream in) throws IOException {
     final int len = in.readInt();
     final byte[] bytes = new byte[len];
-    in.read(bytes);
+    in.readFully(bytes);
     return new String(bytes, UTF_8);
   }
 
@@ -0,0 +1,509 @@
+package com.peoplepattern.classify.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Parallel parser for the text data format, straight into {@link Datum}s
+ *
+ * <p>Each line of the format is a labeled instance:
+ * <pre>
+ * label [importance] | feat:val feat:val ...
+ * </pre>
+ * where a missing or empty value ({@code feat} or {@code feat:}) defaults
+ * to 1.0 and blank lines are skipped.
+ *
+ * <p>The file is memory-mapped and split into byte ranges on line
+ * boundaries, which are parsed in parallel. Each line is copied into a
+ * byte buffer reused for the whole range and parsed from there: feature
+ * tokens are passed as bytes to
+ * {@link FeatureMap#indexOfFeature(byte[], int, int)}, values are parsed
+ * without going through strings, and labels are interned per range. A
+ * {@link HashedFeatureMap} hashes the bytes, and an {@link ExactFeatureMap}
+ * looks up ASCII features from them, so with either map no strings are
+ * allocated per feature or per line (other maps, or non-ASCII features of
+ * an exact map, are decoded to strings). The vectors produced are the same
+ * as {@link FeatureBundle#toDatum(FeatureMap)} would produce for the same
+ * features.
+ */
+public final class DataFileParser {
+
+  /**
+   * Receiver of the instances parsed from one range of a file
+   *
+   * <p>A sink is only ever called from one thread, in file order.
+   */
+  public interface Sink {
+
+    /**
+     * Accept an instance
+     *
+     * @param label the label of the instance
+     * @param importance the importance (weight) of the instance
+     * @param datum the feature vector of the instance
+     */
+    public void accept(String label, double importance, Datum datum);
+  }
+
+  /** Largest region of a file mapped at once */
+  static final int WINDOW = 1 << 28;
+
+  private final FeatureMap map;
+
+  /**
+   * Construct a parser mapping features through a feature map
+   *
+   * @param map the feature map used to vectorize features
+   */
+  public DataFileParser(final FeatureMap map) {
+    if (map == null)
+      throw new IllegalArgumentException("Null feature map");
+
+    this.map = map;
+  }
+
+  /**
+   * Parse a file in parallel
+   *
+   * <p>The file is split into {@code ranges} byte ranges of about equal
+   * size, on line boundaries; range {@code i} is parsed by a single thread
+   * into the sink {@code sinks.apply(i)}. Concatenating what the sinks
+   * received, in range order, gives the instances in file order.
+   *
+   * @param file the file to parse
+   * @param ranges the number of ranges (and threads) to parse with
+   * @param sinks provides the sink for each range
+   * @return the number of instances parsed
+   * @throws IOException if the file can't be read
+   * @throws IllegalArgumentException if a line is malformed
+   */
+  public long parse(final File file, final int ranges, final IntFunction<Sink> sinks)
+      throws IOException {
+    if (ranges < 1)
+      throw new IllegalArgumentException("Need at least one range");
+
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      final FileChannel channel = raf.getChannel();
+      final long[] bounds = splitRanges(channel, ranges);
+
+      if (ranges == 1)
+        return parseRange(channel, bounds[0], bounds[1], sinks.apply(0));
+
+      final ExecutorService pool = Executors.newFixedThreadPool(ranges);
+      try {
+        final List<Future<Long>> counts = new ArrayList<Future<Long>>(ranges);
+        for (int i = 0; i < ranges; i++) {
+          final int range = i;
+          counts.add(pool.submit(new Callable<Long>() {
+            public Long call() throws IOException {
+              return parseRange(channel, bounds[range], bounds[range + 1], sinks.apply(range));
+            }
+          }));
+        }
+
+        long total = 0;
+        for (Future<Long> count : counts)
+          total += count.get();
+        return total;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted parsing " + file, e);
+      } catch (ExecutionException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof IOException)
+          throw (IOException) cause;
+        if (cause instanceof RuntimeException)
+          throw (RuntimeException) cause;
+        if (cause instanceof Error)
+          throw (Error) cause;
+        throw new IOException(cause);
+      } finally {
+        pool.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * Parse a file on the calling thread
+   *
+   * @param file the file to parse
+   * @param sink receives the instances, in file order
+   * @return the number of instances parsed
+   * @throws IOException if the file can't be read
+   * @throws IllegalArgumentException if a line is malformed
+   */
+  public long parse(final File file, final Sink sink) throws IOException {
+    return parse(file, 1, new IntFunction<Sink>() {
+      public Sink apply(final int range) {
+        return sink;
+      }
+    });
+  }
+
+  /**
+   * Split a file into ranges starting at line boundaries
+   *
+   * @return range boundaries; range i is [bounds[i], bounds[i + 1])
+   */
+  static long[] splitRanges(final FileChannel channel, final int ranges) throws IOException {
+    final long size = channel.size();
+    final long[] bounds = new long[ranges + 1];
+    bounds[ranges] = size;
+
+    final ByteBuffer buf = ByteBuffer.allocate(8192);
+    for (int i = 1; i < ranges; i++) {
+      long pos = Math.max(bounds[i - 1], size / ranges * i);
+
+      // Advance to just past the next newline (or the end of the file)
+      scan: while (pos < size) {
+        buf.clear();
+        final int n = channel.read(buf, pos);
+        if (n <= 0)
+          break;
+        for (int j = 0; j < n; j++) {
+          if (buf.get(j) == '\n') {
+            pos += j + 1;
+            break scan;
+          }
+        }
+        pos += n;
+      }
+      bounds[i] = Math.min(pos, size);
+    }
+
+    return bounds;
+  }
+
+  private long parseRange(final FileChannel channel, final long start, final long end,
+      final Sink sink) throws IOException {
+    final LineParser parser = new LineParser();
+    long count = 0;
+    long pos = start;
+    while (pos < end) {
+      final int len = (int) Math.min(WINDOW, end - pos);
+      final MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+      final boolean last = pos + len == end;
+
+      int lineStart = 0;
+      for (int i = 0; i < len; i++) {
+        if (buf.get(i) == '\n') {
+          if (parser.parse(buf, lineStart, i, pos, sink))
+            count++;
+          lineStart = i + 1;
+        }
+      }
+
+      if (last) {
+        if (lineStart < len && parser.parse(buf, lineStart, len, pos, sink))
+          count++;
+        lineStart = len;
+      } else if (lineStart == 0) {
+        throw new IOException(format("Line at offset %d longer than %d bytes", pos, WINDOW));
+      }
+
+      // Any partial line at the end of the window starts the next one
+      pos += lineStart;
+    }
+    return count;
+  }
+
+  /**
+   * Parses lines of one range; not thread safe
+   */
+  private final class LineParser {
+    private byte[] line = new byte[256];
+    private int[] indices = new int[64];
+    private double[] values = new double[64];
+    private final Labels labels = new Labels();
+    private final int interceptIndex = map.addIntercept() ? map.indexOfFeature("") : -1;
+
+    /**
+     * Parse the line [from, to) of a buffer mapped at a file offset
+     *
+     * @return whether the line held an instance (false if blank)
+     */
+    boolean parse(final ByteBuffer buf, final int from, final int to, final long offset,
+        final Sink sink) {
+      final int len = to - from;
+      if (line.length < len)
+        line = new byte[Math.max(len, 2 * line.length)];
+      final ByteBuffer dup = buf.duplicate();
+      dup.position(from);
+      dup.get(line, 0, len);
+
+      int p = skipSpace(line, 0, len);
+      if (p == len)
+        return false;
+
+      // Label
+      final int labelStart = p;
+      p = skipToken(line, p, len);
+      final String label = labels.intern(line, labelStart, p - labelStart);
+      p = skipSpace(line, p, len);
+
+      // Optional importance
+      double importance = 1.0;
+      if (p < len && line[p] != '|') {
+        final int impStart = p;
+        p = skipToken(line, p, len);
+        importance = parseDouble(line, impStart, p, offset + from);
+        p = skipSpace(line, p, len);
+        if (p < len && line[p] != '|')
+          throw malformed("Invalid label", offset + from, len);
+      }
+
+      if (p == len || line[p] != '|')
+        throw malformed("Should have one vertical bar separating label from features", offset + from,
+            len);
+      p++;
+
+      // Features
+      int n = 0;
+      while (true) {
+        p = skipSpace(line, p, len);
+        if (p == len)
+          break;
+
+        final int featStart = p;
+        while (p < len && !isSpace(line[p])) {
+          if (line[p] == '|')
+            throw malformed("Should have one vertical bar separating label from features",
+                offset + from, len);
+          p++;
+        }
+
+        // Trailing colons are dropped, so an empty value is the default 1.0
+        int featEnd = p;
+        while (featEnd > featStart && line[featEnd - 1] == ':')
+          featEnd--;
+        if (featEnd == featStart)
+          throw malformed("Invalid feature", offset + from, len);
+
+        int colon = -1;
+        for (int i = featStart; i < featEnd; i++) {
+          if (line[i] == ':') {
+            if (colon >= 0)
+              throw malformed("Invalid feature", offset + from, len);
+            colon = i;
+          }
+        }
+
+        final int keyEnd = colon >= 0 ? colon : featEnd;
+        final double value =
+            colon >= 0 ? parseDouble(line, colon + 1, featEnd, offset + from) : 1.0;
+        final int index = map.indexOfFeature(line, featStart, keyEnd - featStart);
+
+        // The intercept overrides any feature mapped to its index
+        if (index >= 0 && index != interceptIndex) {
+          if (n == indices.length) {
+            indices = Arrays.copyOf(indices, 2 * n);
+            values = Arrays.copyOf(values, 2 * n);
+          }
+          indices[n] = index;
+          values[n] = value;
+          n++;
+        }
+      }
+
+      if (interceptIndex >= 0) {
+        if (n == indices.length) {
+          indices = Arrays.copyOf(indices, 2 * n);
+          values = Arrays.copyOf(values, 2 * n);
+        }
+        indices[n] = interceptIndex;
+        values[n] = 1.0;
+        n++;
+      }
+
+      final Vec vec = Vec.fromUnordered(map.size(), indices, values, n);
+      sink.accept(label, importance, new Datum(map.functionSig(), vec));
+      return true;
+    }
+
+    private IllegalArgumentException malformed(final String problem, final long offset,
+        final int len) {
+      return new IllegalArgumentException(format("%s at offset %d: %s", problem, offset,
+          new String(line, 0, len, UTF_8)));
+    }
+  }
+
+  /**
+   * Interns labels from their bytes, so each distinct label is only
+   * decoded once per range
+   */
+  private static final class Labels {
+    private byte[][] keys = new byte[16][];
+    private String[] strings = new String[16];
+    private int count = 0;
+
+    String intern(final byte[] buf, final int offset, final int len) {
+      int slot = MurmurHash3.murmurhash3_x86_32(buf, offset, len, 0) & (keys.length - 1);
+      while (keys[slot] != null) {
+        if (equal(keys[slot], buf, offset, len))
+          return strings[slot];
+        slot = (slot + 1) & (keys.length - 1);
+      }
+
+      final String s = new String(buf, offset, len, UTF_8);
+      keys[slot] = Arrays.copyOfRange(buf, offset, offset + len);
+      strings[slot] = s;
+      if (++count * 2 > keys.length)
+        grow();
+      return s;
+    }
+
+    private void grow() {
+      final byte[][] oldKeys = keys;
+      final String[] oldStrings = strings;
+      keys = new byte[2 * oldKeys.length][];
+      strings = new String[2 * oldKeys.length];
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != null) {
+          int slot = MurmurHash3.murmurhash3_x86_32(oldKeys[i], 0, oldKeys[i].length, 0)
+              & (keys.length - 1);
+          while (keys[slot] != null)
+            slot = (slot + 1) & (keys.length - 1);
+          keys[slot] = oldKeys[i];
+          strings[slot] = oldStrings[i];
+        }
+      }
+    }
+
+    private static boolean equal(final byte[] key, final byte[] buf, final int offset,
+        final int len) {
+      if (key.length != len)
+        return false;
+      for (int i = 0; i < len; i++)
+        if (key[i] != buf[offset + i])
+          return false;
+      return true;
+    }
+  }
+
+  private static boolean isSpace(final byte b) {
+    return b == ' ' || b == '\t' || b == '\r';
+  }
+
+  private static int skipSpace(final byte[] buf, int p, final int end) {
+    while (p < end && isSpace(buf[p]))
+      p++;
+    return p;
+  }
+
+  private static int skipToken(final byte[] buf, int p, final int end) {
+    while (p < end && !isSpace(buf[p]) && buf[p] != '|')
+      p++;
+    return p;
+  }
+
+  /** Exactly representable powers of ten */
+  private static final double[] POWERS_OF_TEN = new double[23];
+
+  static {
+    POWERS_OF_TEN[0] = 1.0;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++)
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+  }
+
+  /**
+   * Parse a decimal number from bytes
+   *
+   * <p>Numbers with at most 15 significant digits and a small exponent --
+   * practically every feature value -- are computed exactly from their
+   * digits, as one multiplication or division of two exactly representable
+   * doubles, which is correctly rounded; anything else goes through
+   * {@link Double#parseDouble}.
+   */
+  static double parseDouble(final byte[] buf, final int from, final int to, final long offset) {
+    int p = from;
+    boolean negative = false;
+    if (p < to && (buf[p] == '-' || buf[p] == '+')) {
+      negative = buf[p] == '-';
+      p++;
+    }
+
+    long mantissa = 0;
+    int digits = 0;
+    int scale = 0;
+    boolean any = false;
+
+    while (p < to && buf[p] >= '0' && buf[p] <= '9') {
+      if (mantissa != 0 || buf[p] != '0')
+        digits++;
+      mantissa = 10 * mantissa + (buf[p] - '0');
+      any = true;
+      p++;
+      if (digits > 15)
+        return slowParseDouble(buf, from, to, offset);
+    }
+
+    if (p < to && buf[p] == '.') {
+      p++;
+      while (p < to && buf[p] >= '0' && buf[p] <= '9') {
+        if (mantissa != 0 || buf[p] != '0')
+          digits++;
+        mantissa = 10 * mantissa + (buf[p] - '0');
+        scale--;
+        any = true;
+        p++;
+        if (digits > 15)
+          return slowParseDouble(buf, from, to, offset);
+      }
+    }
+
+    if (!any)
+      return slowParseDouble(buf, from, to, offset);
+
+    if (p < to && (buf[p] == 'e' || buf[p] == 'E')) {
+      p++;
+      boolean negExp = false;
+      if (p < to && (buf[p] == '-' || buf[p] == '+')) {
+        negExp = buf[p] == '-';
+        p++;
+      }
+      if (p == to)
+        return slowParseDouble(buf, from, to, offset);
+      int exp = 0;
+      while (p < to && buf[p] >= '0' && buf[p] <= '9') {
+        exp = 10 * exp + (buf[p] - '0');
+        p++;
+        if (exp > 1000)
+          return slowParseDouble(buf, from, to, offset);
+      }
+      scale += negExp ? -exp : exp;
+    }
+
+    if (p != to || scale < -22 || scale > 22)
+      return slowParseDouble(buf, from, to, offset);
+
+    final double value = scale < 0 ? mantissa / POWERS_OF_TEN[-scale] : mantissa
+        * POWERS_OF_TEN[scale];
+    return negative ? -value : value;
+  }
+
+  private static double slowParseDouble(final byte[] buf, final int from, final int to,
+      final long offset) {
+    final String s = new String(buf, from, to - from, UTF_8);
+    try {
+      return Double.parseDouble(s);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(format("Invalid number at offset %d: %s", offset, s));
+    }
+  }
+}
@@ -0,0 +1,599 @@
+package com.peoplepattern.classify.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static com.peoplepattern.classify.core.ClassifierIO.FEATURE_TYPE_EXACT;
+import static com.peoplepattern.classify.core.ClassifierIO.FEATURE_TYPE_HASHED;
+import static com.peoplepattern.classify.core.ClassifierIO.readString;
+import static com.peoplepattern.classify.core.ClassifierIO.writeString;
+import static java.lang.String.format;
+
+/**
+ * A vectorized dataset cached in a compact binary file
+ *
+ * <p>Parsing text and mapping features is most of the cost of reading a
+ * dataset; a cache is written once (e.g. straight from a
+ * {@link DataFileParser}, since a {@link Writer} is a
+ * {@link DataFileParser.Sink}) and then read back by memory-mapping it,
+ * as many times as training and evaluation need, much as vw reuses its
+ * cache file.
+ *
+ * <p>The file is a header, the records, and a trailer:
+ * <pre>
+ * header:  int MAGIC_NUMBER, short major version, short minor version,
+ *          long function signature, feature map (as in the model format),
+ *          int dimension
+ * record:  int label id, float importance, int n, byte kind,
+ *          n x int index (ascending),
+ *          n x float value (unless kind is ONES: every value is 1)
+ * trailer: long offset of the first record, long number of records,
+ *          int number of labels, labels (in label id order),
+ *          long offset of the trailer, int MAGIC_NUMBER
+ * </pre>
+ * All numbers are big-endian. Values and importances are stored as
+ * single precision floats.
+ */
+public final class DatasetCache implements Iterable<DatasetCache.Instance> {
+
+  /** Binary code identifying a dataset cache */
+  public static final int MAGIC_NUMBER = 0x6A48CAC4;
+
+  public static final short MAJOR_VERSION = 1;
+
+  public static final short MINOR_VERSION = 0;
+
+  /** Record kind: values follow the indices */
+  static final byte KIND_VALUES = 0;
+
+  /** Record kind: all values are 1 and aren't stored */
+  static final byte KIND_ONES = 1;
+
+  static final int RECORD_HEADER = 4 + 4 + 4 + 1;
+
+  /** Largest region of the file mapped at once */
+  static final int WINDOW = 1 << 28;
+
+  private final File file;
+  private final long sig;
+  private final FeatureMap map;
+  private final int dimension;
+  private final String[] labels;
+  private final long dataStart;
+  private final long dataEnd;
+  private final long size;
+
+  private DatasetCache(final File file, final long sig, final FeatureMap map, final int dimension,
+      final String[] labels, final long dataStart, final long dataEnd, final long size) {
+    this.file = file;
+    this.sig = sig;
+    this.map = map;
+    this.dimension = dimension;
+    this.labels = labels;
+    this.dataStart = dataStart;
+    this.dataEnd = dataEnd;
+    this.size = size;
+  }
+
+  /**
+   * Open a cache file
+   *
+   * @param file the cache file, written by a {@link Writer}
+   * @return the cache
+   * @throws IOException if the file can't be read, or isn't a complete cache
+   */
+  public static DatasetCache open(final File file) throws IOException {
+    return open(file, null);
+  }
+
+  /**
+   * Open a cache file with its feature map already in hand
+   *
+   * <p>The cache's own copy of the map is skipped rather than read, which
+   * matters for exact maps too large for the heap, such as a
+   * {@link MappedFeatureMap}.
+   *
+   * @param file the cache file, written by a {@link Writer}
+   * @param featureMap the feature map the data was vectorized with
+   * @return the cache
+   * @throws IOException if the file can't be read, or isn't a complete cache
+   * @throws IllegalArgumentException if the feature map has a different
+   *         signature or size than the cache's
+   */
+  public static DatasetCache open(final File file, final FeatureMap featureMap) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      final long length = raf.length();
+      if (length < 12)
+        throw new IOException(format("Not a dataset cache: %s", file));
+
+      raf.seek(length - 12);
+      final long trailer = raf.readLong();
+      if (raf.readInt() != MAGIC_NUMBER || trailer < 0 || trailer > length - 12)
+        throw new IOException(format("Incomplete or corrupt dataset cache: %s", file));
+
+      raf.seek(0);
+      DataInputStream in = stream(raf);
+      if (in.readInt() != MAGIC_NUMBER)
+        throw new IOException(format("Not a dataset cache: %s", file));
+
+      final short major = in.readShort();
+      final short minor = in.readShort();
+      if (major != MAJOR_VERSION)
+        throw new IOException(format("Unsupported dataset cache version: %d.%d", major, minor));
+
+      final long sig = in.readLong();
+      final FeatureMap map;
+      if (featureMap == null) {
+        map = FeatureMap.binaryReader(sig).readFromStream(in);
+      } else {
+        skipFeatureMap(in);
+        map = featureMap;
+      }
+      final int dimension = in.readInt();
+      if (featureMap != null && (featureMap.functionSig() != sig || featureMap.size() != dimension))
+        throw new IllegalArgumentException("Feature map doesn't match the dataset cache");
+
+      raf.seek(trailer);
+      in = stream(raf);
+      final long dataStart = in.readLong();
+      final long size = in.readLong();
+      final String[] labels = new String[in.readInt()];
+      for (int i = 0; i < labels.length; i++)
+        labels[i] = readString(in);
+
+      return new DatasetCache(file, sig, map, dimension, labels, dataStart, trailer, size);
+    }
+  }
+
+  private static void skipFeatureMap(final DataInputStream in) throws IOException {
+    final short code = in.readShort();
+    switch (code) {
+      case FEATURE_TYPE_HASHED:
+        in.readFully(new byte[8]);
+        break;
+
+      case FEATURE_TYPE_EXACT: {
+        final int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+          final int length = in.readInt();
+          if (in.skipBytes(length) != length)
+            throw new EOFException();
+        }
+        break;
+      }
+
+      default:
+        throw new IOException(format("Unexpected code: %d", code));
+    }
+  }
+
+  private static DataInputStream stream(final RandomAccessFile raf) {
+    return new DataInputStream(new BufferedInputStream(Channels.newInputStream(raf.getChannel())));
+  }
+
+  /**
+   * Retrieve the function signature
+   *
+   * @return the signature of the feature function the data was generated with
+   */
+  public long functionSig() {
+    return sig;
+  }
+
+  /**
+   * Retrieve the feature map the data was vectorized with
+   *
+   * @return the feature map, as read back from the cache
+   */
+  public FeatureMap getFeatureMap() {
+    return map;
+  }
+
+  /**
+   * Retrieve the dimensionality of the vectors
+   *
+   * @return the size of the vectors in the cache
+   */
+  public int dimension() {
+    return dimension;
+  }
+
+  /**
+   * Retrieve the labels
+   *
+   * @return the distinct labels of the data, indexed by label id
+   */
+  public String[] getLabels() {
+    return labels.clone();
+  }
+
+  /**
+   * Retrieve the number of records
+   *
+   * @return the number of instances in the cache
+   */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * Open a cursor over the records, in the order they were written
+   *
+   * @return a new cursor, positioned before the first record
+   * @throws IOException if the file can't be opened
+   */
+  public Cursor cursor() throws IOException {
+    return new Cursor();
+  }
+
+  /**
+   * Iterate over the records as {@link Instance}s
+   *
+   * <p>Reading failures are thrown as {@link UncheckedIOException}; use a
+   * {@link #cursor} to avoid allocating an instance per record.
+   */
+  public Iterator<Instance> iterator() {
+    final Cursor cursor;
+    try {
+      cursor = cursor();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    return new Iterator<Instance>() {
+      private Boolean hasNext = null;
+
+      public boolean hasNext() {
+        if (hasNext == null) {
+          try {
+            hasNext = cursor.next();
+            if (!hasNext)
+              cursor.close();
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        }
+        return hasNext;
+      }
+
+      public Instance next() {
+        if (!hasNext())
+          throw new NoSuchElementException();
+        hasNext = null;
+        return new Instance(cursor.label(), cursor.labelId(), cursor.importance(), cursor.datum());
+      }
+    };
+  }
+
+  /**
+   * A record of the cache
+   */
+  public static final class Instance {
+    private final String label;
+    private final int labelId;
+    private final double importance;
+    private final Datum datum;
+
+    Instance(final String label, final int labelId, final double importance, final Datum datum) {
+      this.label = label;
+      this.labelId = labelId;
+      this.importance = importance;
+      this.datum = datum;
+    }
+
+    public String label() {
+      return label;
+    }
+
+    /** The index of the label in {@link DatasetCache#getLabels} */
+    public int labelId() {
+      return labelId;
+    }
+
+    public double importance() {
+      return importance;
+    }
+
+    public Datum datum() {
+      return datum;
+    }
+  }
+
+  /**
+   * Reads records from a memory-mapped cache one at a time, without
+   * allocating per record
+   *
+   * <p>The arrays returned by {@link #indices} and {@link #values} are
+   * reused: they're only valid until the next call to {@link #next}, and
+   * only their first {@link #numEntries} elements are the record's.
+   * Not thread safe; open a cursor per thread.
+   */
+  public final class Cursor implements Closeable {
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private ByteBuffer window;
+    private long windowStart;
+    private long pos = dataStart;
+
+    private int labelId;
+    private double importance;
+    private int n;
+    private int[] indices = new int[64];
+    private double[] values = new double[64];
+    private float[] floats = new float[64];
+
+    Cursor() throws IOException {
+      raf = new RandomAccessFile(file, "r");
+      channel = raf.getChannel();
+    }
+
+    /**
+     * Advance to the next record
+     *
+     * @return false if there are no more records
+     * @throws IOException if the file can't be read or is corrupt
+     */
+    public boolean next() throws IOException {
+      if (pos >= dataEnd)
+        return false;
+
+      ByteBuffer buf = map(pos, RECORD_HEADER);
+      labelId = buf.getInt();
+      importance = buf.getFloat();
+      n = buf.getInt();
+      final byte kind = buf.get();
+
+      if (labelId < 0 || labelId >= labels.length || n < 0 || n > dimension
+          || (kind != KIND_VALUES && kind != KIND_ONES))
+        throw new IOException(format("Corrupt record at offset %d of %s", pos, file));
+
+      final int bodyLength = kind == KIND_ONES ? 4 * n : 8 * n;
+      buf = map(pos + RECORD_HEADER, bodyLength);
+
+      if (indices.length < n) {
+        final int capacity = Math.max(n, 2 * indices.length);
+        indices = new int[capacity];
+        values = new double[capacity];
+        floats = new float[capacity];
+      }
+
+      buf.asIntBuffer().get(indices, 0, n);
+      if (kind == KIND_ONES) {
+        for (int i = 0; i < n; i++)
+          values[i] = 1.0;
+      } else {
+        buf.position(buf.position() + 4 * n);
+        buf.asFloatBuffer().get(floats, 0, n);
+        for (int i = 0; i < n; i++)
+          values[i] = floats[i];
+      }
+
+      pos += RECORD_HEADER + bodyLength;
+      return true;
+    }
+
+    /**
+     * Position a buffer at a region of the file, remapping the window if
+     * the region isn't in it
+     */
+    private ByteBuffer map(final long offset, final int length) throws IOException {
+      if (offset + length > dataEnd)
+        throw new IOException(format("Truncated record at offset %d of %s", pos, file));
+
+      if (window == null || offset < windowStart
+          || offset + length > windowStart + window.capacity()) {
+        windowStart = offset;
+        final long windowLength = Math.min(Math.max(WINDOW, length), dataEnd - offset);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, offset, windowLength);
+      }
+
+      final ByteBuffer buf = window.duplicate();
+      buf.position((int) (offset - windowStart));
+      buf.limit(buf.position() + length);
+      return buf;
+    }
+
+    /** The label id of the current record */
+    public int labelId() {
+      return labelId;
+    }
+
+    /** The label of the current record */
+    public String label() {
+      return labels[labelId];
+    }
+
+    /** The importance of the current record */
+    public double importance() {
+      return importance;
+    }
+
+    /** The number of non-zero entries of the current record */
+    public int numEntries() {
+      return n;
+    }
+
+    /** The ascending indices of the current record's entries */
+    public int[] indices() {
+      return indices;
+    }
+
+    /** The values of the current record's entries */
+    public double[] values() {
+      return values;
+    }
+
+    /**
+     * Copy the current record into a datum
+     *
+     * @return a new datum with a sparse vector
+     */
+    public Datum datum() {
+      final int[] is = new int[n];
+      final double[] vs = new double[n];
+      System.arraycopy(indices, 0, is, 0, n);
+      System.arraycopy(values, 0, vs, 0, n);
+      return new Datum(sig, new Vec(dimension, is, vs));
+    }
+
+    public void close() throws IOException {
+      window = null;
+      raf.close();
+    }
+  }
+
+  /**
+   * Writes a dataset cache
+   *
+   * <p>The cache is only readable once the writer is closed. Not thread
+   * safe.
+   */
+  public static final class Writer implements Closeable, DataFileParser.Sink {
+    private final DataOutputStream out;
+    private final long sig;
+    private final int dimension;
+    private final long dataStart;
+    private final Map<String, Integer> labelIds = new HashMap<String, Integer>();
+    private final List<String> labels = new ArrayList<String>();
+    private long pos;
+    private long count = 0;
+    private boolean closed = false;
+
+    /**
+     * Create a cache file
+     *
+     * @param file the file to write
+     * @param map the feature map the data is vectorized with
+     * @throws IOException if the file can't be written
+     */
+    public Writer(final File file, final FeatureMap map) throws IOException {
+      if (map == null)
+        throw new IllegalArgumentException("Null feature map");
+
+      this.sig = map.functionSig();
+      this.dimension = map.size();
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+      out.writeInt(MAGIC_NUMBER);
+      out.writeShort(MAJOR_VERSION);
+      out.writeShort(MINOR_VERSION);
+      out.writeLong(sig);
+      map.writeToStream(out);
+      out.writeInt(dimension);
+      dataStart = pos = out.size();
+    }
+
+    /**
+     * Write an instance
+     *
+     * @param label the label of the instance
+     * @param importance the importance of the instance
+     * @param datum the instance; zero values of dense vectors are dropped
+     * @throws IOException if the file can't be written
+     * @throws IllegalArgumentException if the datum has the wrong function
+     *         signature or dimension
+     */
+    public void write(final String label, final double importance, final Datum datum)
+        throws IOException {
+      if (closed)
+        throw new IllegalStateException("Writer is closed");
+
+      if (label == null)
+        throw new IllegalArgumentException("Null label");
+
+      if (datum.functionSig() != sig)
+        throw new IllegalArgumentException(format("Datum has inconsistent sig: %d expected: %d",
+            datum.functionSig(), sig));
+
+      final Vec vec = datum.vector().toSparse();
+      if (vec.size() != dimension)
+        throw new IllegalArgumentException(format("Datum has dimension %d, expected %d",
+            vec.size(), dimension));
+
+      Integer labelId = labelIds.get(label);
+      if (labelId == null) {
+        labelId = labels.size();
+        labelIds.put(label, labelId);
+        labels.add(label);
+      }
+
+      final int n = vec.numEntries();
+      boolean ones = true;
+      for (int k = 0; k < n && ones; k++)
+        ones = vec.valueAt(k) == 1.0;
+
+      out.writeInt(labelId);
+      out.writeFloat((float) importance);
+      out.writeInt(n);
+      out.writeByte(ones ? KIND_ONES : KIND_VALUES);
+      for (int k = 0; k < n; k++)
+        out.writeInt(vec.indexAt(k));
+      if (!ones)
+        for (int k = 0; k < n; k++)
+          out.writeFloat((float) vec.valueAt(k));
+
+      pos += RECORD_HEADER + (ones ? 4L * n : 8L * n);
+      count++;
+    }
+
+    /**
+     * Write an instance, as {@link #write}
+     *
+     * @throws UncheckedIOException if the file can't be written
+     */
+    public void accept(final String label, final double importance, final Datum datum) {
+      try {
+        write(label, importance, datum);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    /**
+     * The number of instances written so far
+     *
+     * @return the number of instances written
+     */
+    public long count() {
+      return count;
+    }
+
+    /**
+     * Write the trailer and close the file
+     */
+    public void close() throws IOException {
+      if (closed)
+        return;
+
+      closed = true;
+      try {
+        out.writeLong(dataStart);
+        out.writeLong(count);
+        out.writeInt(labels.size());
+        for (String label : labels)
+          writeString(out, label);
+        out.writeLong(pos);
+        out.writeInt(MAGIC_NUMBER);
+      } finally {
+        out.close();
+      }
+    }
+  }
+}
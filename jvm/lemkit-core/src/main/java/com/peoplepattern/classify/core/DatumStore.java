@@ -0,0 +1,553 @@
+package com.peoplepattern.classify.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * An off-heap store of vectorized inputs, keyed by entity id and feature
+ * map, so an entity scored again, by the same model or any other over an
+ * equal feature map, skips featurization
+ *
+ * <p>Vectors are kept outside the heap, in a direct buffer, or in a
+ * memory-mapped file which persists them across restarts (see
+ * {@link #open}); only the index from keys to their place in the buffer
+ * is on the heap. The buffer is a circular log: vectors are appended at
+ * the head, and when it is full the oldest are evicted from the tail. A
+ * vector read while it is among the oldest quarter is copied to the head,
+ * so vectors in use survive eviction, approximating least-recently-used.
+ *
+ * <p>A {@link View} of the store for a feature map reads and writes the
+ * vectors of that map. Maps are told apart by a fingerprint of their
+ * binary form and intercept setting, taken when the view is opened, so a
+ * view opened with a map equal to one used before (in this process or,
+ * for a persistent store, a previous one) sees the same vectors. The store
+ * keeps no reference to the maps of its views.
+ *
+ * <p>The buffer is a header and the log:
+ * <pre>
+ * header:  int MAGIC_NUMBER, short major version, short minor version,
+ *          int log capacity, int head, int tail, int bytes used, int 0
+ * record:  int length, long map fingerprint, short n, n bytes of UTF-8
+ *          entity id, int m, m x int index (ascending), m x double value
+ * </pre>
+ * A removed entity's last record has m set to {@code REMOVED}, so a store
+ * opened again doesn't return earlier records of the entity.
+ * An int {@code SKIP} (or fewer than 4 bytes) where a record would start
+ * means the log continues at its beginning.
+ *
+ * <p>The store is thread safe; every operation holds its lock, and reads
+ * copy the vector out of the buffer.
+ */
+public final class DatumStore implements Closeable {
+
+  /** Binary code identifying a datum store */
+  public static final int MAGIC_NUMBER = 0x6A48D57E;
+
+  public static final short MAJOR_VERSION = 1;
+
+  public static final short MINOR_VERSION = 0;
+
+  static final int HEADER = 32;
+
+  private static final int SKIP = -1;
+
+  private static final int REMOVED = -1;
+
+  /** Bytes of a record besides its entity id and entries */
+  private static final int RECORD_OVERHEAD = 4 + 8 + 2 + 4;
+
+  private static final class Key {
+    final long fingerprint;
+    final String entity;
+
+    Key(final long fingerprint, final String entity) {
+      this.fingerprint = fingerprint;
+      this.entity = entity;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * Long.hashCode(fingerprint) + entity.hashCode();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (!(o instanceof Key))
+        return false;
+      final Key k = (Key) o;
+      return fingerprint == k.fingerprint && entity.equals(k.entity);
+    }
+  }
+
+  private final ByteBuffer buf;
+  private final FileChannel channel;
+  private final int capacity;
+  private final Map<Key, Integer> index = new HashMap<Key, Integer>();
+  private int head;
+  private int tail;
+  private int used;
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  private DatumStore(final ByteBuffer buf, final FileChannel channel) {
+    this.buf = buf;
+    this.channel = channel;
+    this.capacity = buf.capacity() - HEADER;
+  }
+
+  /**
+   * Create a store in a direct buffer
+   *
+   * @param capacity the bytes available for vectors; a vector of n
+   *        non-zeros takes 12 n bytes, plus its entity id and 18 bytes
+   * @throws IllegalArgumentException if the capacity isn't positive, or
+   *         too large for a buffer
+   */
+  public DatumStore(final int capacity) {
+    this(ByteBuffer.allocateDirect(checkCapacity(capacity)), null);
+    writeHeader();
+  }
+
+  private static int checkCapacity(final int capacity) {
+    if (capacity < 1 || capacity > Integer.MAX_VALUE - HEADER)
+      throw new IllegalArgumentException(format("Invalid store capacity: %d", capacity));
+    return HEADER + capacity;
+  }
+
+  /**
+   * Open a store persisted in a file, creating it if it doesn't exist
+   *
+   * <p>The vectors of an existing store are kept, and it keeps its own
+   * capacity. Changes are written to the file by the operating system as
+   * it sees fit, and by {@link #flush} and {@link #close}.
+   *
+   * @param file the file
+   * @param capacity the bytes available for vectors, if the file is created
+   * @throws IOException if the file can't be mapped, or isn't a valid store
+   */
+  public static DatumStore open(final File file, final int capacity) throws IOException {
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      final boolean created = raf.length() == 0;
+      if (created)
+        raf.setLength(checkCapacity(capacity));
+      else if (raf.length() < HEADER || raf.length() > Integer.MAX_VALUE)
+        throw new IOException(format("Not a datum store: %s", file));
+
+      final FileChannel channel = raf.getChannel();
+      final MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+      final DatumStore store = new DatumStore(buf, channel);
+      if (created)
+        store.writeHeader();
+      else
+        store.readLog(file);
+      return store;
+    } catch (IOException | RuntimeException e) {
+      raf.close();
+      throw e;
+    }
+  }
+
+  private void writeHeader() {
+    buf.putInt(0, MAGIC_NUMBER);
+    buf.putShort(4, MAJOR_VERSION);
+    buf.putShort(6, MINOR_VERSION);
+    buf.putInt(8, capacity);
+    writePositions();
+    buf.putInt(24, 0);
+  }
+
+  private void writePositions() {
+    buf.putInt(12, head);
+    buf.putInt(16, tail);
+    buf.putInt(20, used);
+  }
+
+  /** Check the header, and rebuild the index from the log */
+  private void readLog(final File file) throws IOException {
+    final int magic = buf.getInt(0);
+    if (magic != MAGIC_NUMBER)
+      throw new IOException(format("Invalid magic number: %X", magic));
+    final short major = buf.getShort(4);
+    if (major != MAJOR_VERSION)
+      throw new IOException(format("Invalid major version: %d", major));
+    if (buf.getInt(8) != capacity)
+      throw new IOException(format("Datum store %s is truncated", file));
+
+    head = buf.getInt(12);
+    tail = buf.getInt(16);
+    used = buf.getInt(20);
+    if (head < 0 || head > capacity || tail < 0 || tail > capacity || used < 0 || used > capacity)
+      throw new IOException(format("Corrupt datum store: %s", file));
+
+    int pos = tail;
+    int remaining = used;
+    while (remaining > 0) {
+      if (capacity - pos < 4 || buf.getInt(HEADER + pos) == SKIP) {
+        remaining -= capacity - pos;
+        pos = 0;
+        continue;
+      }
+      final int length = buf.getInt(HEADER + pos);
+      if (length < RECORD_OVERHEAD || length > remaining || length > capacity - pos)
+        throw new IOException(format("Corrupt datum store: %s", file));
+      if (entries(pos) == REMOVED)
+        index.remove(readKey(pos));
+      else
+        index.put(readKey(pos), pos);
+      remaining -= length;
+      pos = pos + length == capacity ? 0 : pos + length;
+    }
+    if (remaining != 0 || pos != head)
+      throw new IOException(format("Corrupt datum store: %s", file));
+  }
+
+  /**
+   * The view of the vectors of a feature map
+   *
+   * @param map the feature map vectors are (or will be) vectorized with
+   */
+  public View view(final FeatureMap map) {
+    if (map == null)
+      throw new IllegalArgumentException("Null feature map");
+
+    return new View(map, fingerprint(map));
+  }
+
+  /**
+   * A fingerprint of a feature map: a hash of its binary form and
+   * whether it adds an intercept, which the binary form leaves out
+   */
+  static long fingerprint(final FeatureMap map) {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      final DataOutputStream out = new DataOutputStream(bytes);
+      out.writeLong(map.functionSig());
+      map.writeToStream(out);
+      out.writeBoolean(map.addIntercept());
+      out.flush();
+    } catch (IOException e) {
+      throw new IllegalStateException("Writing to memory failed", e);
+    }
+    final byte[] b = bytes.toByteArray();
+    final MurmurHash3.LongPair hash = new MurmurHash3.LongPair();
+    MurmurHash3.murmurhash3_x64_128(b, 0, b.length, 0, hash);
+    return hash.val1;
+  }
+
+  /**
+   * The vectors of one feature map
+   */
+  public final class View {
+    private final FeatureMap map;
+    private final long fingerprint;
+
+    View(final FeatureMap map, final long fingerprint) {
+      this.map = map;
+      this.fingerprint = fingerprint;
+    }
+
+    public FeatureMap getFeatureMap() {
+      return map;
+    }
+
+    /**
+     * The stored vector of an entity
+     *
+     * @param entity the entity id
+     * @return the vector, or null if none is stored
+     */
+    public Datum get(final String entity) {
+      final Vec vec = read(fingerprint, entity, map.size());
+      return vec == null ? null : new Datum(map.functionSig(), vec);
+    }
+
+    /**
+     * Store the vector of an entity, replacing any stored
+     *
+     * @param entity the entity id
+     * @param datum the entity's input vectorized with the view's map
+     * @throws IllegalArgumentException if the datum wasn't vectorized with
+     *         the map, or is too large for the store
+     */
+    public void put(final String entity, final Datum datum) {
+      if (datum.functionSig() != map.functionSig() || datum.vector().size() != map.size())
+        throw new IllegalArgumentException("Datum not vectorized with the view's feature map");
+
+      write(fingerprint, entity, datum.vector());
+    }
+
+    /**
+     * The stored vector of an entity, or its feature bundle vectorized
+     * and stored if there is none
+     *
+     * @param entity the entity id
+     * @param bundle the entity's features, used if it isn't stored
+     */
+    public Datum getOrFeaturize(final String entity, final FeatureBundle bundle) {
+      final Datum stored = get(entity);
+      if (stored != null)
+        return stored;
+
+      final Datum datum = bundle.toDatum(map);
+      put(entity, datum);
+      return datum;
+    }
+
+    /**
+     * Remove the vector of an entity
+     *
+     * @return whether there was one
+     */
+    public boolean remove(final String entity) {
+      return DatumStore.this.remove(fingerprint, entity);
+    }
+
+    /**
+     * Classify an entity by its stored vector
+     *
+     * @param entity the entity id
+     * @param classifier the model; its feature map must equal the view's
+     * @return the classification, or null if no vector is stored
+     * @throws IllegalArgumentException if the classifier's feature map
+     *         isn't the view's
+     */
+    public Classification predict(final String entity, final PortableLinearClassifier classifier) {
+      final FeatureMap other = classifier.getFeatureMap();
+      final boolean equal = other.addIntercept() == map.addIntercept() && other.equals(map);
+      if (other != map && !equal && fingerprint(other) != fingerprint)
+        throw new IllegalArgumentException("Classifier has a different feature map than the view");
+
+      final Datum datum = get(entity);
+      return datum == null ? null : classifier.getModel().predict(datum);
+    }
+  }
+
+  private Key readKey(final int pos) {
+    final long fingerprint = buf.getLong(HEADER + pos + 4);
+    final int n = buf.getShort(HEADER + pos + 12) & 0xFFFF;
+    final byte[] id = new byte[n];
+    final ByteBuffer b = buf.duplicate();
+    b.position(HEADER + pos + 14);
+    b.get(id);
+    return new Key(fingerprint, new String(id, UTF_8));
+  }
+
+  private synchronized Vec read(final long fingerprint, final String entity, final int dimension) {
+    final Integer at = index.get(new Key(fingerprint, entity));
+    if (at == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+
+    int pos = at;
+    int p = entriesOffset(pos);
+    final int m = buf.getInt(p);
+    p += 4;
+    final int[] indices = new int[m];
+    final double[] values = new double[m];
+    for (int k = 0; k < m; k++, p += 4)
+      indices[k] = buf.getInt(p);
+    for (int k = 0; k < m; k++, p += 8)
+      values[k] = buf.getDouble(p);
+
+    // Keep vectors in use away from the tail
+    if (age(pos) < used / 4)
+      copyToHead(pos);
+
+    return new Vec(dimension, indices, values);
+  }
+
+  /** Bytes between the tail and a record */
+  private int age(final int pos) {
+    return pos >= tail ? pos - tail : capacity - tail + pos;
+  }
+
+  private void copyToHead(final int pos) {
+    final int length = buf.getInt(HEADER + pos);
+    final byte[] record = new byte[length];
+    final ByteBuffer b = buf.duplicate();
+    b.position(HEADER + pos);
+    b.get(record);
+    final Key key = readKey(pos);
+
+    // Making room may evict the record itself; it's copied already
+    final int at = reserve(length);
+    b.position(HEADER + at);
+    b.put(record);
+    index.put(key, at);
+    writePositions();
+  }
+
+  private synchronized void write(final long fingerprint, final String entity, final Vec vec) {
+    final byte[] id = entity.getBytes(UTF_8);
+    if (id.length > 0xFFFF)
+      throw new IllegalArgumentException("Entity id too long");
+
+    int m = 0;
+    for (int k = 0; k < vec.numEntries(); k++)
+      if (vec.valueAt(k) != 0.0)
+        m++;
+
+    final long length = (long) RECORD_OVERHEAD + id.length + 12L * m;
+    if (length > capacity)
+      throw new IllegalArgumentException("Datum too large for the store");
+
+    final Key key = new Key(fingerprint, entity);
+    index.remove(key);
+    final int at = reserve((int) length);
+    int p = HEADER + at;
+    buf.putInt(p, (int) length);
+    buf.putLong(p + 4, fingerprint);
+    buf.putShort(p + 12, (short) id.length);
+    final ByteBuffer b = buf.duplicate();
+    b.position(p + 14);
+    b.put(id);
+    p += 14 + id.length;
+    buf.putInt(p, m);
+    p += 4;
+    final int values = p + 4 * m;
+    for (int k = 0, j = 0; k < vec.numEntries(); k++) {
+      final double v = vec.valueAt(k);
+      if (v != 0.0) {
+        buf.putInt(p + 4 * j, vec.indexAt(k));
+        buf.putDouble(values + 8 * j, v);
+        j++;
+      }
+    }
+    index.put(key, at);
+    writePositions();
+  }
+
+  private synchronized boolean remove(final long fingerprint, final String entity) {
+    // The record stays in the log until the tail passes it, marked removed
+    final Integer at = index.remove(new Key(fingerprint, entity));
+    if (at == null)
+      return false;
+
+    buf.putInt(entriesOffset(at), REMOVED);
+    return true;
+  }
+
+  private int entriesOffset(final int pos) {
+    return HEADER + pos + 14 + (buf.getShort(HEADER + pos + 12) & 0xFFFF);
+  }
+
+  /** The number of entries of a record, or {@code REMOVED} */
+  private int entries(final int pos) {
+    return buf.getInt(entriesOffset(pos));
+  }
+
+  /**
+   * Make room for a record at the head, evicting from the tail as needed
+   *
+   * @return where to write the record
+   */
+  private int reserve(final int length) {
+    while (true) {
+      if (used == 0)
+        head = tail = 0;
+
+      if (head > tail || (head == tail && used == 0)) {
+        // Free space is after the head, then before the tail
+        if (capacity - head >= length)
+          break;
+        if (capacity - head >= 4)
+          buf.putInt(HEADER + head, SKIP);
+        used += capacity - head;
+        head = 0;
+      } else if (tail - head >= length) {
+        break;
+      } else {
+        evictTail();
+      }
+    }
+
+    final int at = head;
+    head += length;
+    used += length;
+    if (head == capacity)
+      head = 0;
+    return at;
+  }
+
+  private void evictTail() {
+    if (capacity - tail < 4 || buf.getInt(HEADER + tail) == SKIP) {
+      used -= capacity - tail;
+      tail = 0;
+      return;
+    }
+
+    final int length = buf.getInt(HEADER + tail);
+    final Key key = readKey(tail);
+    final Integer at = index.get(key);
+    if (at != null && at == tail) {
+      index.remove(key);
+      evictions++;
+    }
+    used -= length;
+    tail += length;
+    if (tail == capacity)
+      tail = 0;
+  }
+
+  /** The number of entities stored, over all feature maps */
+  public synchronized int size() {
+    return index.size();
+  }
+
+  /** The bytes available for vectors */
+  public int capacity() {
+    return capacity;
+  }
+
+  /** The bytes of the log in use, including copies not yet evicted */
+  public synchronized int usedBytes() {
+    return used;
+  }
+
+  /** The number of reads which found a vector */
+  public synchronized long hits() {
+    return hits;
+  }
+
+  /** The number of reads which found none */
+  public synchronized long misses() {
+    return misses;
+  }
+
+  /** The number of vectors evicted to make room */
+  public synchronized long evictions() {
+    return evictions;
+  }
+
+  /** Write a persistent store's changes to its file */
+  public synchronized void flush() {
+    if (buf instanceof MappedByteBuffer)
+      ((MappedByteBuffer) buf).force();
+  }
+
+  /**
+   * Flush and close a persistent store; the store can't be used after
+   */
+  public synchronized void close() throws IOException {
+    if (channel != null) {
+      flush();
+      channel.close();
+    }
+  }
+}
@@ -14,17 +14,27 @@ import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 
 import static com.peoplepattern.classify.core.BinarySupport.BinaryReader;
 import static com.peoplepattern.classify.core.ClassifierIO.*;
+import static com.peoplepattern.classify.core.MurmurHash3.murmurhash3_x86_32;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * An exact feature map -- each string feature is mapped to a unique index
  *
  * <p>The indices for the feature map are ordered from 0 to {@link #size} - 1
+ *
+ * <p>The hash table from features to indices is built on the first lookup,
+ * so a map which is only written out, or passed along (say serialized to
+ * Spark executors), never builds it. Likewise a second table, for looking
+ * up ASCII features from their bytes without decoding them, is built on
+ * the first such lookup.
  */
 public final class ExactFeatureMap implements FeatureMap, Serializable, JsonSupport, BinarySupport {
   public static final long serialVersionUID = 1L;
 
   private final long sig;
-  private final Object2IntMap<String> hash;
+  private transient volatile Object2IntMap<String> hash;
+  private transient volatile int[] asciiSlots;
   private final String[] features;
   private final boolean addIntercept;
   private final int size;
@@ -39,13 +49,8 @@ public final class ExactFeatureMap implements FeatureMap, Serializable, JsonSupp
 
     sig = functionSig;
     this.features = features;
-    hash = new Object2IntOpenHashMap<String>(features.length);
-    for (int i = 0; i < features.length; i++) {
-      hash.put(features[i], i);
-    }
 
-    if (addIntercept && !hash.containsKey("")) {
-      hash.put("", features.length);
+    if (addIntercept && !Arrays.asList(features).contains("")) {
       size = features.length + 1;
     } else {
       size = features.length;
@@ -76,11 +81,99 @@ public final class ExactFeatureMap implements FeatureMap, Serializable, JsonSupp
    *         -1 if the feature isn't known to be in the feature set
    */
   public int indexOfFeature(final String feature) {
-    if (hash.containsKey(feature)) {
-      return hash.getInt(feature);
-    } else {
-      return -1;
+    return hash().getInt(feature);
+  }
+
+  private Object2IntMap<String> hash() {
+    Object2IntMap<String> h = hash;
+    if (h == null) {
+      synchronized (this) {
+        // Built once; threads racing the first lookup wait for it
+        h = hash;
+        if (h == null) {
+          h = new Object2IntOpenHashMap<String>(size);
+          h.defaultReturnValue(-1);
+          for (int i = 0; i < features.length; i++)
+            h.put(features[i], i);
+          if (size > features.length)
+            h.put("", features.length);
+          hash = h;
+        }
+      }
+    }
+    return h;
+  }
+
+  /**
+   * Retrieve the index of a feature given as UTF-8 bytes
+   *
+   * <p>ASCII features are looked up from their bytes, without decoding
+   * them; anything else is decoded and looked up as a string.
+   */
+  @Override
+  public int indexOfFeature(final byte[] utf8, final int offset, final int length) {
+    if (length == 0)
+      return indexOfFeature("");
+    for (int i = offset; i < offset + length; i++)
+      if (utf8[i] < 0)
+        return indexOfFeature(new String(utf8, offset, length, UTF_8));
+
+    final int[] slots = asciiSlots();
+    final int mask = slots.length - 1;
+    int slot = murmurhash3_x86_32(utf8, offset, length, 0) & mask;
+    while (slots[slot] != 0) {
+      final int index = slots[slot] - 1;
+      if (asciiEquals(features[index], utf8, offset, length))
+        return index;
+      slot = (slot + 1) & mask;
     }
+    return -1;
+  }
+
+  /**
+   * Open-addressed table of the ASCII features, by the hash of their bytes;
+   * each slot holds a feature's index + 1, or 0 if empty
+   */
+  private int[] asciiSlots() {
+    int[] slots = asciiSlots;
+    if (slots == null) {
+      synchronized (this) {
+        slots = asciiSlots;
+        if (slots == null) {
+          slots = new int[Integer.highestOneBit(Math.max(1, features.length)) * 4];
+          final int mask = slots.length - 1;
+          for (int i = 0; i < features.length; i++) {
+            if (!isAscii(features[i]))
+              continue;
+            final byte[] bytes = features[i].getBytes(US_ASCII);
+            int slot = murmurhash3_x86_32(bytes, 0, bytes.length, 0) & mask;
+            // A repeated feature takes its last index, as in the string table
+            while (slots[slot] != 0 && !features[slots[slot] - 1].equals(features[i]))
+              slot = (slot + 1) & mask;
+            slots[slot] = i + 1;
+          }
+          asciiSlots = slots;
+        }
+      }
+    }
+    return slots;
+  }
+
+  private static boolean isAscii(final String s) {
+    for (int i = 0; i < s.length(); i++)
+      if (s.charAt(i) >= 0x80)
+        return false;
+    return true;
+  }
+
+  private static boolean asciiEquals(final String s, final byte[] buf, final int offset,
+      final int length) {
+    if (s.length() != length)
+      return false;
+    for (int i = 0; i < length; i++)
+      if (s.charAt(i) != buf[offset + i])
+        return false;
+    return true;
   }
 
   public int size() {
@@ -89,11 +182,16 @@ public final class ExactFeatureMap implements FeatureMap, Serializable, JsonSupp
 
   public void writeToStream(final DataOutputStream out) throws IOException {
     out.writeShort(FEATURE_TYPE_EXACT);
-    out.writeInt(size());
+    out.writeInt(features.length);
     for (String feature : features)
       writeString(out, feature);
   }
 
+  /** Serialized in the binary format; see {@link SerializedForm} */
+  private Object writeReplace() {
+    return new SerializedForm(SerializedForm.EXACT_FEATURE_MAP, this);
+  }
+
   public JsonValue toJson() {
     final JsonObject json = Json.object();
     json.add("type", "exact");
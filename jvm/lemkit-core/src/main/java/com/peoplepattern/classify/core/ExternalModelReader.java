@@ -0,0 +1,390 @@
+package com.peoplepattern.classify.core;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Streaming readers for the model files written by LIBLINEAR and Vowpal
+ * Wabbit, into model parameter vectors
+ *
+ * <p>The files are read as bytes and numbers are parsed in place, without
+ * going through strings. Weights are collected sparsely for each label
+ * and only switched to a dense array once more than a quarter of the
+ * label's weights turn out to be non-zero, so a mostly empty hashed model
+ * never needs a dense array per label, and the resulting {@link Vec} is
+ * sparse or dense depending on the observed density.
+ */
+public final class ExternalModelReader {
+
+  private ExternalModelReader() {}
+
+  /**
+   * The largest fraction of non-zero weights kept in a sparse vector
+   */
+  static final double MAX_SPARSE_DENSITY = 0.25;
+
+  /**
+   * Read the weights from a LIBLINEAR model file
+   *
+   * <p>After the header, ending with a {@code w} line, each line holds the
+   * weights of one feature, one column per label.
+   *
+   * @param file the model file
+   * @param numClasses the number of labels
+   * @param numFeatures the dimension of the feature space
+   * @return the parameter vectors, in the order of the model's columns
+   * @throws IOException if the file can't be read or is malformed
+   */
+  public static Vec[] readLibLinear(final File file, final int numClasses, final int numFeatures)
+      throws IOException {
+    final Builder builder = new Builder(numClasses, numFeatures);
+    final LineReader lines = new LineReader(new FileInputStream(file));
+    try {
+      boolean started = false;
+      int feature = 0;
+      while (lines.next()) {
+        final byte[] b = lines.buf;
+        if (!started) {
+          started = lines.end == 1 && b[0] == 'w';
+          continue;
+        }
+
+        int p = 0;
+        int k = 0;
+        while (p < lines.end) {
+          while (p < lines.end && b[p] == ' ')
+            p++;
+          if (p == lines.end)
+            break;
+          final int from = p;
+          while (p < lines.end && b[p] != ' ')
+            p++;
+          if (k >= numClasses)
+            throw new IOException(format("More than %d weights for feature %d", numClasses, feature));
+          builder.set(k, feature, lines.parseDouble(from, p));
+          k++;
+        }
+        feature++;
+      }
+    } finally {
+      lines.close();
+    }
+    return builder.result();
+  }
+
+  /**
+   * Read the weights from a Vowpal Wabbit readable model
+   * ({@code --readable_model})
+   *
+   * <p>After the header, ending with a {@code :0} line, each line is an
+   * {@code index:weight} pair. The index combines the feature and the label
+   * as {@code (feature << classBits) + label}, as vw lays out the weights of
+   * a one-against-all model.
+   *
+   * @param file the readable model file
+   * @param numClasses the number of labels
+   * @param numFeatures the dimension of the feature space
+   * @param classBits the number of low bits of each index giving the label
+   * @return the parameter vectors, in the order of vw's labels
+   * @throws IOException if the file can't be read or is malformed
+   */
+  public static Vec[] readVowpalReadable(final File file, final int numClasses,
+      final int numFeatures, final int classBits) throws IOException {
+    final Builder builder = new Builder(numClasses, numFeatures);
+    final LineReader lines = new LineReader(new FileInputStream(file));
+    try {
+      boolean started = false;
+      while (lines.next()) {
+        final byte[] b = lines.buf;
+        int from = 0;
+        int to = lines.end;
+        while (from < to && b[from] == ' ')
+          from++;
+        while (to > from && b[to - 1] == ' ')
+          to--;
+
+        if (!started) {
+          started = to - from == 2 && b[from] == ':' && b[from + 1] == '0';
+          continue;
+        }
+        if (from == to)
+          continue;
+
+        int colon = from;
+        while (colon < to && b[colon] != ':')
+          colon++;
+        if (colon == to)
+          throw new IOException(format("Expected index:weight at line %d", lines.lineNumber));
+
+        final long index = lines.parseIndex(from, colon);
+        builder.setVowpal(index, classBits, lines.parseDouble(colon + 1, to));
+      }
+    } finally {
+      lines.close();
+    }
+    return builder.result();
+  }
+
+  /**
+   * Read the weights from a Vowpal Wabbit binary model ({@code -f})
+   *
+   * <p>Reads the layout written by vw 8: a header of the version and id
+   * strings (each a little-endian 32 bit length and bytes), the {@code m}
+   * marker, min and max labels, the number of bits, lda, the ngram and skip
+   * lists, the option string and its checksum; then the one byte
+   * save-resume or regularizer flag, which must be off; then
+   * {@code (index, float weight)} pairs up to the end of the file, with 32
+   * bit indices for models of fewer than 31 bits and 64 bit indices
+   * otherwise. Indices combine features and labels as in
+   * {@link #readVowpalReadable}.
+   *
+   * @param file the binary model file
+   * @param numClasses the number of labels
+   * @param numFeatures the dimension of the feature space
+   * @param classBits the number of low bits of each index giving the label
+   * @return the parameter vectors, in the order of vw's labels
+   * @throws IOException if the file can't be read, is malformed, was
+   *         written by an older vw, or holds save-resume state
+   */
+  public static Vec[] readVowpalBinary(final File file, final int numClasses,
+      final int numFeatures, final int classBits) throws IOException {
+    final Builder builder = new Builder(numClasses, numFeatures);
+    final DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+    try {
+      final String version = readVowpalString(in);
+      final int major;
+      try {
+        major = Integer.parseInt(version.substring(0, version.indexOf('.')));
+      } catch (RuntimeException e) {
+        throw new IOException("Not a vw model, version: " + version);
+      }
+      if (major < 8)
+        throw new IOException("Unsupported vw model version: " + version);
+
+      readVowpalString(in); // id
+      if (in.readByte() != 'm')
+        throw new IOException("Not a vw model file");
+      skip(in, 8); // min and max label
+      final int numBits = readIntLE(in);
+      skip(in, 4); // lda
+      skip(in, 3L * readIntLE(in)); // ngrams
+      skip(in, 3L * readIntLE(in)); // skips
+      skip(in, readIntLE(in)); // options
+      skip(in, 4); // checksum
+
+      if (in.readByte() != 0)
+        throw new IOException("vw models with save-resume state or regularizers are not supported");
+
+      final boolean longIndices = numBits >= 31;
+      while (true) {
+        final long index;
+        try {
+          index = longIndices ? Long.reverseBytes(in.readLong()) : readIntLE(in) & 0xFFFFFFFFL;
+        } catch (EOFException e) {
+          break;
+        }
+        builder.setVowpal(index, classBits, Float.intBitsToFloat(readIntLE(in)));
+      }
+    } finally {
+      in.close();
+    }
+    return builder.result();
+  }
+
+  private static int readIntLE(final DataInputStream in) throws IOException {
+    return Integer.reverseBytes(in.readInt());
+  }
+
+  private static void skip(final DataInputStream in, final long n) throws IOException {
+    long left = n;
+    while (left > 0) {
+      final long skipped = in.skip(left);
+      if (skipped <= 0) {
+        in.readByte();
+        left--;
+      } else {
+        left -= skipped;
+      }
+    }
+  }
+
+  private static String readVowpalString(final DataInputStream in) throws IOException {
+    final int length = readIntLE(in);
+    if (length < 0 || length > 1 << 16)
+      throw new IOException("Not a vw model file");
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    int n = length;
+    while (n > 0 && bytes[n - 1] == 0)
+      n--;
+    return new String(bytes, 0, n, UTF_8);
+  }
+
+  /**
+   * Collects weights per label, sparse until they get dense enough
+   */
+  static final class Builder {
+    private final int numFeatures;
+    private final int maxSparse;
+    private final int[][] indices;
+    private final double[][] values;
+    private final int[] counts;
+    private final boolean[] ordered;
+    private final double[][] dense;
+
+    Builder(final int numClasses, final int numFeatures) {
+      this.numFeatures = numFeatures;
+      this.maxSparse = (int) (numFeatures * MAX_SPARSE_DENSITY);
+      indices = new int[numClasses][];
+      values = new double[numClasses][];
+      counts = new int[numClasses];
+      ordered = new boolean[numClasses];
+      dense = new double[numClasses][];
+      for (int k = 0; k < numClasses; k++) {
+        indices[k] = new int[16];
+        values[k] = new double[16];
+        ordered[k] = true;
+      }
+    }
+
+    void setVowpal(final long index, final int classBits, final double value) throws IOException {
+      final long feature = index >>> classBits;
+      final int k = (int) (index & ((1L << classBits) - 1));
+      if (feature >= numFeatures || k >= counts.length)
+        throw new IOException(format("Index %d out of range for %d features and %d classes", index,
+            numFeatures, counts.length));
+      set(k, (int) feature, value);
+    }
+
+    void set(final int k, final int j, final double value) throws IOException {
+      if (j < 0 || j >= numFeatures)
+        throw new IOException(format("Feature %d out of range for %d features", j, numFeatures));
+
+      if (value == 0.0)
+        return;
+
+      if (dense[k] != null) {
+        dense[k][j] = value;
+        return;
+      }
+
+      final int n = counts[k];
+      if (n == maxSparse) {
+        final double[] d = new double[numFeatures];
+        for (int i = 0; i < n; i++)
+          d[indices[k][i]] = values[k][i];
+        d[j] = value;
+        dense[k] = d;
+        indices[k] = null;
+        values[k] = null;
+        return;
+      }
+
+      if (n == indices[k].length) {
+        final int capacity = (int) Math.min((long) n * 2, maxSparse);
+        indices[k] = Arrays.copyOf(indices[k], capacity);
+        values[k] = Arrays.copyOf(values[k], capacity);
+      }
+      if (n > 0 && indices[k][n - 1] >= j)
+        ordered[k] = false;
+      indices[k][n] = j;
+      values[k][n] = value;
+      counts[k] = n + 1;
+    }
+
+    Vec[] result() {
+      final Vec[] vecs = new Vec[counts.length];
+      for (int k = 0; k < vecs.length; k++) {
+        if (dense[k] != null)
+          vecs[k] = new Vec(dense[k]);
+        else if (ordered[k])
+          vecs[k] = new Vec(numFeatures, Arrays.copyOf(indices[k], counts[k]),
+              Arrays.copyOf(values[k], counts[k]));
+        else
+          vecs[k] = Vec.fromUnordered(numFeatures, indices[k], values[k], counts[k]);
+      }
+      return vecs;
+    }
+  }
+
+  /**
+   * Reads lines of bytes; the current line is {@code buf[0, end)} without
+   * its line terminator.
+   */
+  private static final class LineReader {
+    private final InputStream in;
+    private final byte[] chunk = new byte[1 << 16];
+    private int chunkPos = 0;
+    private int chunkEnd = 0;
+
+    byte[] buf = new byte[256];
+    int end = 0;
+    long lineNumber = 0;
+
+    LineReader(final InputStream in) {
+      this.in = in;
+    }
+
+    boolean next() throws IOException {
+      end = 0;
+      boolean any = false;
+      while (true) {
+        if (chunkPos == chunkEnd) {
+          chunkEnd = in.read(chunk);
+          chunkPos = 0;
+          if (chunkEnd <= 0) {
+            chunkEnd = 0;
+            break;
+          }
+        }
+        any = true;
+        final byte c = chunk[chunkPos++];
+        if (c == '\n')
+          break;
+        if (end == buf.length)
+          buf = Arrays.copyOf(buf, 2 * buf.length);
+        buf[end++] = c;
+      }
+      if (end > 0 && buf[end - 1] == '\r')
+        end--;
+      if (any)
+        lineNumber++;
+      return any;
+    }
+
+    double parseDouble(final int from, final int to) throws IOException {
+      try {
+        return DataFileParser.parseDouble(buf, from, to, lineNumber);
+      } catch (IllegalArgumentException e) {
+        throw new IOException(format("Invalid number at line %d: %s", lineNumber,
+            new String(buf, from, to - from, UTF_8)));
+      }
+    }
+
+    long parseIndex(final int from, final int to) throws IOException {
+      if (from == to || to - from > 18)
+        throw new IOException(format("Invalid index at line %d", lineNumber));
+      long index = 0;
+      for (int p = from; p < to; p++) {
+        if (buf[p] < '0' || buf[p] > '9')
+          throw new IOException(format("Invalid index at line %d", lineNumber));
+        index = 10 * index + (buf[p] - '0');
+      }
+      return index;
+    }
+
+    void close() throws IOException {
+      in.close();
+    }
+  }
+}
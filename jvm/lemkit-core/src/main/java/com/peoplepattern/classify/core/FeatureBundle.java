@@ -71,6 +71,8 @@ public final class FeatureBundle implements Serializable, JsonSupport {
       throw new IllegalArgumentException(msg);
     }
 
+    final Object event = ClassifierEvents.beginFeaturize();
+    final Datum datum;
     if (sparse) {
 
       final Int2DoubleRBTreeMap sort = new Int2DoubleRBTreeMap();
@@ -95,7 +97,7 @@ public final class FeatureBundle implements Serializable, JsonSupport {
         j++;
       }
 
-      return new Datum(sig, new Vec(map.size(), indices, values));
+      datum = new Datum(sig, new Vec(map.size(), indices, values));
 
     } else {
 
@@ -109,8 +111,11 @@ public final class FeatureBundle implements Serializable, JsonSupport {
       if (map.addIntercept())
         params[map.indexOfFeature("")] = 1.0;
 
-      return new Datum(sig, new Vec(params));
+      datum = new Datum(sig, new Vec(params));
     }
+
+    ClassifierEvents.commitFeaturize(event, observations.size(), datum, sparse);
+    return datum;
   }
 
   public Datum toDatum(final FeatureMap map) {
@@ -9,6 +9,7 @@ import java.io.IOException;
 
 import static com.peoplepattern.classify.core.ClassifierIO.*;
 import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * Map from features (encoded as string) to their index in a vector space
@@ -27,6 +28,23 @@ public interface FeatureMap {
    */
   public int indexOfFeature(String feature);
 
+  /**
+   * Retrieve the index of a feature given as UTF-8 bytes
+   *
+   * <p>Returns the same index as {@link #indexOfFeature(String)} would
+   * for the decoded string. The default implementation decodes the
+   * string; maps which can work on the bytes directly (e.g.
+   * {@link HashedFeatureMap}) override this to avoid that.
+   *
+   * @param utf8 a buffer holding the UTF-8 encoded feature
+   * @param offset the offset of the feature in the buffer
+   * @param length the length of the feature in bytes
+   * @return the integer index of the feature, as {@link #indexOfFeature(String)}
+   */
+  default int indexOfFeature(final byte[] utf8, final int offset, final int length) {
+    return indexOfFeature(new String(utf8, offset, length, UTF_8));
+  }
+
   /**
    * Retrieve the size or dimensionality of the vector space mapped into
    *
@@ -101,6 +101,12 @@ public class HashedFeatureMap implements FeatureMap, Serializable, BinarySupport
     return (hashVal % size + size) % size;
   }
 
+  @Override
+  public int indexOfFeature(final byte[] utf8, final int offset, final int length) {
+    final int hashVal = murmurhash3_x86_32(utf8, offset, length, seed);
+    return (hashVal % size + size) % size;
+  }
+
   @Override
   public boolean equals(final Object other) {
     if (other == null)
@@ -0,0 +1,142 @@
+package com.peoplepattern.classify.core;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent histogram of non-negative longs, such as latencies in
+ * nanoseconds
+ *
+ * <p>Values are counted in log-linear buckets: every power of two is split
+ * into 8 buckets, so quantiles are within 12.5% of the true value, and
+ * values below 8 are counted exactly. Each bucket is a {@link LongAdder},
+ * which stripes its count across cells under contention, so recording
+ * from many threads doesn't contend on a single counter.
+ *
+ * <p>Reads are not atomic with respect to concurrent recording: a
+ * quantile taken while values are being recorded reflects some of them
+ * and not others.
+ */
+public final class Histogram {
+
+  /** Bits of the value below its leading bit that select the bucket */
+  private static final int SUB_BITS = 3;
+
+  private static final int SUB = 1 << SUB_BITS;
+
+  /** One past the bucket of {@link Long#MAX_VALUE} */
+  static final int NUM_BUCKETS = bucket(Long.MAX_VALUE) + 1;
+
+  private final LongAdder[] counts = new LongAdder[NUM_BUCKETS];
+  private final LongAdder sum = new LongAdder();
+
+  public Histogram() {
+    for (int b = 0; b < NUM_BUCKETS; b++)
+      counts[b] = new LongAdder();
+  }
+
+  /** The bucket counting a value */
+  static int bucket(final long value) {
+    if (value < SUB)
+      return (int) value;
+    final int e = 63 - Long.numberOfLeadingZeros(value);
+    return (e - SUB_BITS + 1) * SUB + (int) ((value >>> (e - SUB_BITS)) & (SUB - 1));
+  }
+
+  /** The smallest value counted in a bucket */
+  static long lowerBound(final int bucket) {
+    if (bucket < SUB)
+      return bucket;
+    final int e = bucket / SUB + SUB_BITS - 1;
+    return (long) (SUB + bucket % SUB) << (e - SUB_BITS);
+  }
+
+  /** The largest value counted in a bucket */
+  static long upperBound(final int bucket) {
+    return bucket + 1 == NUM_BUCKETS ? Long.MAX_VALUE : lowerBound(bucket + 1) - 1;
+  }
+
+  /**
+   * Record a value
+   *
+   * @param value the value; negative values are recorded as 0
+   */
+  public void record(final long value) {
+    final long v = Math.max(0L, value);
+    counts[bucket(v)].increment();
+    sum.add(v);
+  }
+
+  /**
+   * Record a value a number of times
+   *
+   * @param value the value; negative values are recorded as 0
+   * @param times the number of times to record it
+   */
+  public void record(final long value, final long times) {
+    if (times <= 0)
+      return;
+    final long v = Math.max(0L, value);
+    counts[bucket(v)].add(times);
+    sum.add(v * times);
+  }
+
+  /** The number of values recorded */
+  public long count() {
+    long n = 0;
+    for (LongAdder c : counts)
+      n += c.sum();
+    return n;
+  }
+
+  /** The sum of the values recorded */
+  public long sum() {
+    return sum.sum();
+  }
+
+  /** The mean of the values recorded, or 0 if there are none */
+  public double mean() {
+    final long n = count();
+    return n == 0 ? 0.0 : (double) sum() / n;
+  }
+
+  /**
+   * An estimate of a quantile of the values recorded: the middle of the
+   * bucket holding it
+   *
+   * @param q the quantile, in [0, 1]
+   * @return the estimate, or 0 if no values have been recorded
+   * @throws IllegalArgumentException if {@code q} is outside [0, 1]
+   */
+  public long quantile(final double q) {
+    if (!(q >= 0.0 && q <= 1.0))
+      throw new IllegalArgumentException("Quantile must be in [0, 1]");
+
+    final long[] snapshot = new long[NUM_BUCKETS];
+    long n = 0;
+    for (int b = 0; b < NUM_BUCKETS; b++) {
+      snapshot[b] = counts[b].sum();
+      n += snapshot[b];
+    }
+    if (n == 0)
+      return 0L;
+
+    final long rank = Math.max(1L, (long) Math.ceil(q * n));
+    long seen = 0;
+    int b = 0;
+    while (b < NUM_BUCKETS - 1) {
+      seen += snapshot[b];
+      if (seen >= rank)
+        break;
+      b++;
+    }
+    final long lo = lowerBound(b);
+    return lo + (upperBound(b) - lo) / 2;
+  }
+
+  /** Forget every value recorded */
+  public void reset() {
+    for (LongAdder c : counts)
+      c.reset();
+    sum.reset();
+  }
+}
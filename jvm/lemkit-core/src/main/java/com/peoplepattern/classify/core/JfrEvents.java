@@ -0,0 +1,170 @@
+package com.peoplepattern.classify.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The JDK Flight Recorder events of {@link ClassifierEvents}
+ *
+ * <p>Only {@link ClassifierEvents} refers to this class, and only once it
+ * has found the {@code jdk.jfr} module present, so the rest of the library
+ * runs without it.
+ */
+final class JfrEvents {
+
+  private JfrEvents() {}
+
+  @Name("com.peoplepattern.classify.ModelLoad")
+  @Label("Model Load")
+  @Description("A classifier read from the binary format, or built from parsed JSON")
+  @Category("Lemkit")
+  @Enabled(false)
+  @StackTrace(false)
+  static final class ModelLoad extends Event {
+    @Label("Format")
+    String format;
+
+    @Label("Labels")
+    int labels;
+
+    @Label("Dimension")
+    int dimension;
+
+    @Label("Weights")
+    @Description("Stored (non-zero for sparse parameters) weights of all labels")
+    long weights;
+  }
+
+  @Name("com.peoplepattern.classify.Featurize")
+  @Label("Featurize")
+  @Description("A feature bundle vectorized with a feature map (sampled)")
+  @Category("Lemkit")
+  @Enabled(false)
+  @StackTrace(false)
+  static final class Featurize extends Event {
+    @Label("Features")
+    int features;
+
+    @Label("Non-zeros")
+    int nonZeros;
+
+    @Label("Sparse")
+    boolean sparse;
+  }
+
+  @Name("com.peoplepattern.classify.Predict")
+  @Label("Predict")
+  @Description("A datum, or a batch of them, scored by a linear classifier (sampled)")
+  @Category("Lemkit")
+  @Enabled(false)
+  @StackTrace(false)
+  static final class Predict extends Event {
+    @Label("Labels")
+    int labels;
+
+    @Label("Batch Size")
+    @Description("Data scored together; 1 for a single prediction")
+    int batchSize;
+
+    @Label("Non-zeros")
+    @Description("Non-zero entries of all the data scored")
+    long nonZeros;
+  }
+
+  private static final EventType MODEL_LOAD = EventType.getEventType(ModelLoad.class);
+  private static final EventType FEATURIZE = EventType.getEventType(Featurize.class);
+  private static final EventType PREDICT = EventType.getEventType(Predict.class);
+
+  /** Load the events; throws a LinkageError where JFR isn't available */
+  static void init() {}
+
+  /** A started model load event, or null if it isn't enabled */
+  static ModelLoad beginModelLoad() {
+    if (!MODEL_LOAD.isEnabled())
+      return null;
+    final ModelLoad event = new ModelLoad();
+    event.begin();
+    return event;
+  }
+
+  /** Commit a model load event, if there is one */
+  static void commit(final ModelLoad event, final String format, final PortableLinearClassifier c) {
+    if (event == null)
+      return;
+    event.end();
+    if (event.shouldCommit()) {
+      final LinearClassifier model = c.getModel();
+      event.format = format;
+      event.labels = model.getLabels().length;
+      event.dimension = c.getFeatureMap().size();
+      for (int i = 0; i < event.labels; i++)
+        event.weights += model.parameter(i).numEntries();
+      event.commit();
+    }
+  }
+
+  /** A started featurize event, or null if it isn't enabled or sampled */
+  static Featurize beginFeaturize() {
+    if (!FEATURIZE.isEnabled() || !ClassifierEvents.sampled())
+      return null;
+    final Featurize event = new Featurize();
+    event.begin();
+    return event;
+  }
+
+  /** Commit a featurize event, if there is one */
+  static void commit(final Featurize event, final int features, final Datum datum,
+      final boolean sparse) {
+    if (event == null)
+      return;
+    event.end();
+    if (event.shouldCommit()) {
+      event.features = features;
+      event.nonZeros = datum.vector().numEntries();
+      event.sparse = sparse;
+      event.commit();
+    }
+  }
+
+  /** A started predict event, or null if it isn't enabled or sampled */
+  static Predict beginPredict() {
+    if (!PREDICT.isEnabled() || !ClassifierEvents.sampled())
+      return null;
+    final Predict event = new Predict();
+    event.begin();
+    return event;
+  }
+
+  /** Commit a predict event of a single datum, if there is one */
+  static void commit(final Predict event, final int labels, final Datum datum) {
+    if (event == null)
+      return;
+    event.end();
+    if (event.shouldCommit()) {
+      event.labels = labels;
+      event.batchSize = 1;
+      event.nonZeros = datum.vector().numEntries();
+      event.commit();
+    }
+  }
+
+  /** Commit a predict event of a batch, if there is one */
+  static void commit(final Predict event, final int labels, final Vec[] batch) {
+    if (event == null)
+      return;
+    event.end();
+    if (event.shouldCommit()) {
+      event.labels = labels;
+      event.batchSize = batch.length;
+      for (Vec vec : batch)
+        event.nonZeros += vec.numEntries();
+      event.commit();
+    }
+  }
+}
@@ -109,6 +109,13 @@ public class LinearClassifier implements Classifier<Datum>, Serializable {
     return labels;
   }
 
+  /**
+   * The parameter vector of a label, in the order of {@link #getLabels}
+   */
+  Vec parameter(final int i) {
+    return parameters[i];
+  }
+
   /**
    * Generate a classification given inputs
    *
@@ -125,6 +132,8 @@ public class LinearClassifier implements Classifier<Datum>, Serializable {
     if (datum.functionSig() != functionSig)
       throw new IllegalArgumentException("Datum produced by inconsistent feature function");
 
+    final Object event = ClassifierEvents.beginPredict();
+
     final Vec datumVec = datum.vector();
 
     final int n = parameters.length;
@@ -134,7 +143,54 @@ public class LinearClassifier implements Classifier<Datum>, Serializable {
     for (int i = 0; i < n; i++)
       scores[i] = parameters[i].dot(datumVec);
 
-    return new Classification(labels, scores);
+    final Classification classification = new Classification(labels, scores);
+    ClassifierEvents.commitPredict(event, n, datum);
+    return classification;
+  }
+
+  /**
+   * Generate classifications for a batch of inputs
+   *
+   * <p>Scores are computed label by label across the whole batch rather
+   * than datum by datum, so each parameter vector is streamed through
+   * the cache once per batch instead of once per datum. The results are
+   * identical to calling {@link #predict} on each datum.
+   *
+   * @param data the inputs to classify
+   * @return the classifications, in the same order as the inputs
+   */
+  @Override
+  public List<Classification> predictAll(final List<Datum> data) {
+    final Object event = ClassifierEvents.beginPredict();
+
+    final int m = data.size();
+    final Vec[] vecs = new Vec[m];
+    for (int j = 0; j < m; j++) {
+      final Datum datum = data.get(j);
+      if (datum == null)
+        throw new IllegalArgumentException("Null datum for prediction");
+
+      if (datum.functionSig() != functionSig)
+        throw new IllegalArgumentException("Datum produced by inconsistent feature function");
+
+      vecs[j] = datum.vector();
+    }
+
+    final int n = parameters.length;
+    final double[][] scores = new double[m][n];
+
+    for (int i = 0; i < n; i++) {
+      final Vec param = parameters[i];
+      for (int j = 0; j < m; j++)
+        scores[j][i] = param.dot(vecs[j]);
+    }
+
+    final List<Classification> out = new ArrayList<Classification>(m);
+    for (int j = 0; j < m; j++)
+      out.add(new Classification(labels, scores[j]));
+
+    ClassifierEvents.commitPredict(event, n, vecs);
+    return out;
   }
 
   public long functionSig() {
@@ -153,6 +209,17 @@ public class LinearClassifier implements Classifier<Datum>, Serializable {
       vec.writeToStream(out);
   }
 
+  /**
+   * Serialized in the binary format; see {@link SerializedForm}
+   *
+   * <p>Subclasses, which may have state of their own, aren't replaced.
+   */
+  private Object writeReplace() {
+    if (getClass() != LinearClassifier.class)
+      return this;
+    return new SerializedForm(SerializedForm.LINEAR_CLASSIFIER, this);
+  }
+
   /**
    * Convert model parameters to JSON
    *
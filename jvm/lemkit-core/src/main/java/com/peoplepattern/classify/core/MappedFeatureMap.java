@@ -0,0 +1,398 @@
+package com.peoplepattern.classify.core;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import static com.peoplepattern.classify.core.ClassifierIO.FEATURE_TYPE_EXACT;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * An exact feature map over a memory-mapped dictionary file
+ *
+ * <p>For vocabularies too large to hold as an {@link ExactFeatureMap}: the
+ * features are kept in a file as UTF-8 bytes, sorted, and looked up by
+ * binary search over the mapped file, so the map takes next to no heap and
+ * the operating system pages in only the parts of the dictionary in use.
+ * Each feature's index is its position in the sorted order.
+ *
+ * <p>Indices, the intercept and the binary and JSON formats are as for an
+ * {@link ExactFeatureMap} with the same features in sorted order, so models
+ * written with this map read back with an exact one. (The empty intercept
+ * feature sorts first, so if the dictionary has it it's index 0.)
+ *
+ * <p>The file is a header, the features, and a trailer:
+ * <pre>
+ * header:   int MAGIC_NUMBER, int 0
+ * features: the UTF-8 bytes of each feature, in ascending order of
+ *           unsigned bytes, concatenated; then zeros to a multiple of 8
+ * offsets:  for each feature, the long offset of the end of its bytes
+ * trailer:  long offset of the offsets, long number of features,
+ *           int MAGIC_NUMBER
+ * </pre>
+ * All numbers are big-endian. Dictionaries are written with a
+ * {@link Writer}.
+ */
+public final class MappedFeatureMap implements FeatureMap {
+
+  /** Binary code identifying a dictionary file */
+  public static final int MAGIC_NUMBER = 0x6A48D1C7;
+
+  static final int HEADER = 8;
+
+  static final int TRAILER = 8 + 8 + 4;
+
+  /** Size of each mapped region of the file; a multiple of 8 */
+  static final int CHUNK = 1 << 30;
+
+  private final File file;
+  private final long sig;
+  private final boolean addIntercept;
+  private final MappedByteBuffer[] chunks;
+  private final long offsets;
+  private final int numFeatures;
+  private final int interceptIndex;
+
+  private MappedFeatureMap(final File file, final long sig, final boolean addIntercept,
+      final MappedByteBuffer[] chunks, final long offsets, final int numFeatures) {
+    this.file = file;
+    this.sig = sig;
+    this.addIntercept = addIntercept;
+    this.chunks = chunks;
+    this.offsets = offsets;
+    this.numFeatures = numFeatures;
+    this.interceptIndex = numFeatures > 0 && end(0) == HEADER ? 0 : numFeatures;
+  }
+
+  /**
+   * Open a dictionary file
+   *
+   * @param file the dictionary, written by a {@link Writer}
+   * @param functionSig the signature of the feature function
+   * @param addIntercept whether to add an intercept feature
+   * @return the feature map
+   * @throws IOException if the file can't be read, or isn't a complete
+   *         dictionary
+   */
+  public static MappedFeatureMap open(final File file, final long functionSig,
+      final boolean addIntercept) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      final long length = raf.length();
+      if (length < HEADER + TRAILER)
+        throw new IOException(format("Not a feature dictionary: %s", file));
+
+      if (raf.readInt() != MAGIC_NUMBER)
+        throw new IOException(format("Not a feature dictionary: %s", file));
+
+      raf.seek(length - TRAILER);
+      final long offsets = raf.readLong();
+      final long n = raf.readLong();
+      if (raf.readInt() != MAGIC_NUMBER || offsets < HEADER || offsets % 8 != 0 || n < 0
+          || offsets + 8 * n != length - TRAILER)
+        throw new IOException(format("Incomplete or corrupt feature dictionary: %s", file));
+
+      if (n > (addIntercept ? Integer.MAX_VALUE - 1 : Integer.MAX_VALUE))
+        throw new IOException(format("Too many features for a feature map: %d", n));
+
+      final FileChannel channel = raf.getChannel();
+      final MappedByteBuffer[] chunks = new MappedByteBuffer[(int) ((length + CHUNK - 1) / CHUNK)];
+      for (int c = 0; c < chunks.length; c++) {
+        final long start = (long) c * CHUNK;
+        chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK, length - start));
+      }
+      return new MappedFeatureMap(file, functionSig, addIntercept, chunks, offsets, (int) n);
+    }
+  }
+
+  /**
+   * Open a dictionary file, adding an intercept
+   *
+   * @param file the dictionary, written by a {@link Writer}
+   * @param functionSig the signature of the feature function
+   * @return the feature map
+   * @throws IOException if the file can't be read, or isn't a complete
+   *         dictionary
+   */
+  public static MappedFeatureMap open(final File file, final long functionSig) throws IOException {
+    return open(file, functionSig, true);
+  }
+
+  public long functionSig() {
+    return sig;
+  }
+
+  public boolean addIntercept() {
+    return addIntercept;
+  }
+
+  public int size() {
+    return addIntercept && interceptIndex == numFeatures ? numFeatures + 1 : numFeatures;
+  }
+
+  /**
+   * The number of features in the dictionary, not counting an intercept
+   * added by the map
+   *
+   * @return the number of features in the file
+   */
+  public int numFeatures() {
+    return numFeatures;
+  }
+
+  public int indexOfFeature(final String feature) {
+    final byte[] utf8 = feature.getBytes(UTF_8);
+    return indexOfFeature(utf8, 0, utf8.length);
+  }
+
+  @Override
+  public int indexOfFeature(final byte[] utf8, final int offset, final int length) {
+    if (length == 0 && addIntercept)
+      return interceptIndex;
+
+    int lo = 0;
+    int hi = numFeatures - 1;
+    while (lo <= hi) {
+      final int mid = (lo + hi) >>> 1;
+      final int cmp = compareTo(mid, utf8, offset, length);
+      if (cmp < 0)
+        lo = mid + 1;
+      else if (cmp > 0)
+        hi = mid - 1;
+      else
+        return mid;
+    }
+    return -1;
+  }
+
+  /**
+   * Retrieve a feature by index
+   *
+   * @param index the index of a feature in the dictionary
+   * @return the feature
+   * @throws IllegalArgumentException if the index isn't less than
+   *         {@link #numFeatures}
+   */
+  public String feature(final int index) {
+    if (index < 0 || index >= numFeatures)
+      throw new IllegalArgumentException(format("No feature %d in %s", index, file));
+    return new String(bytes(index), UTF_8);
+  }
+
+  /**
+   * Load the dictionary into an exact feature map
+   *
+   * @return the equivalent exact feature map
+   */
+  public ExactFeatureMap toExactFeatureMap() {
+    final String[] features = new String[numFeatures];
+    for (int i = 0; i < numFeatures; i++)
+      features[i] = feature(i);
+    return new ExactFeatureMap(sig, features, addIntercept);
+  }
+
+  /**
+   * Write the map in the binary format of an {@link ExactFeatureMap},
+   * streaming the features from the dictionary
+   */
+  public void writeToStream(final DataOutputStream out) throws IOException {
+    out.writeShort(FEATURE_TYPE_EXACT);
+    out.writeInt(numFeatures);
+    for (int i = 0; i < numFeatures; i++) {
+      final byte[] bytes = bytes(i);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  /**
+   * The map in the JSON format of an {@link ExactFeatureMap}; this builds
+   * the whole array of features in memory
+   */
+  public JsonValue toJson() {
+    final JsonArray features = new JsonArray();
+    for (int i = 0; i < numFeatures; i++)
+      features.add(feature(i));
+
+    final JsonObject json = Json.object();
+    json.add("type", "exact");
+    json.add("function_sig", sig);
+    json.add("features", features);
+    return json;
+  }
+
+  @Override
+  public String toString() {
+    return format("@<function_sig=%d, %d features in %s>", sig, numFeatures, file);
+  }
+
+  private long end(final int index) {
+    final long pos = offsets + 8L * index;
+    return chunks[(int) (pos / CHUNK)].getLong((int) (pos % CHUNK));
+  }
+
+  private long start(final int index) {
+    return index == 0 ? HEADER : end(index - 1);
+  }
+
+  private byte byteAt(final long pos) {
+    return chunks[(int) (pos / CHUNK)].get((int) (pos % CHUNK));
+  }
+
+  private byte[] bytes(final int index) {
+    final long start = start(index);
+    final byte[] bytes = new byte[(int) (end(index) - start)];
+    for (int k = 0; k < bytes.length; k++)
+      bytes[k] = byteAt(start + k);
+    return bytes;
+  }
+
+  /** Compare feature {@code index} with a key, by unsigned bytes */
+  private int compareTo(final int index, final byte[] key, final int offset, final int length) {
+    final long start = start(index);
+    final int n = (int) (end(index) - start);
+    final int common = Math.min(n, length);
+    for (int k = 0; k < common; k++) {
+      final int cmp = (byteAt(start + k) & 0xFF) - (key[offset + k] & 0xFF);
+      if (cmp != 0)
+        return cmp;
+    }
+    return n - length;
+  }
+
+  /**
+   * Compare byte strings as unsigned bytes, the order of a dictionary
+   *
+   * @param a the first string
+   * @param b the second string
+   * @return negative, zero or positive as {@code a} sorts before, with or
+   *         after {@code b}
+   */
+  public static int compareBytes(final byte[] a, final byte[] b) {
+    final int common = Math.min(a.length, b.length);
+    for (int k = 0; k < common; k++) {
+      final int cmp = (a[k] & 0xFF) - (b[k] & 0xFF);
+      if (cmp != 0)
+        return cmp;
+    }
+    return a.length - b.length;
+  }
+
+  /**
+   * Writes a dictionary file from features in ascending order
+   *
+   * <p>Feature bytes are streamed to the file, and their offsets to a
+   * temporary file next to it which is appended on {@link #close}, so
+   * writing takes constant memory. Not thread safe.
+   */
+  public static final class Writer implements Closeable {
+    private final File file;
+    private final File offsetsFile;
+    private final DataOutputStream out;
+    private final DataOutputStream offsetsOut;
+    private byte[] last = null;
+    private long pos = HEADER;
+    private long count = 0;
+    private boolean closed = false;
+
+    /**
+     * Create a dictionary file
+     *
+     * @param file the file to write
+     * @throws IOException if the file can't be written
+     */
+    public Writer(final File file) throws IOException {
+      this.file = file;
+      this.offsetsFile = new File(file.getPath() + ".offsets");
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+      offsetsOut = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(offsetsFile), 1 << 16));
+      out.writeInt(MAGIC_NUMBER);
+      out.writeInt(0);
+    }
+
+    /**
+     * Add the next feature
+     *
+     * @param feature the feature
+     * @throws IOException if the file can't be written
+     * @throws IllegalArgumentException if the feature doesn't sort after
+     *         the last one added
+     */
+    public void add(final String feature) throws IOException {
+      add(feature.getBytes(UTF_8));
+    }
+
+    /**
+     * Add the next feature, as UTF-8 bytes
+     *
+     * @param utf8 the feature's bytes; not retained
+     * @throws IOException if the file can't be written
+     * @throws IllegalArgumentException if the feature doesn't sort after
+     *         the last one added
+     */
+    public void add(final byte[] utf8) throws IOException {
+      if (last != null && compareBytes(last, utf8) >= 0)
+        throw new IllegalArgumentException(format("Feature %d is out of order or repeated", count));
+
+      last = Arrays.copyOf(utf8, utf8.length);
+      out.write(utf8);
+      pos += utf8.length;
+      offsetsOut.writeLong(pos);
+      count++;
+    }
+
+    /**
+     * The number of features added so far
+     *
+     * @return the number of features
+     */
+    public long count() {
+      return count;
+    }
+
+    /**
+     * Append the offsets and trailer, completing the dictionary
+     */
+    public void close() throws IOException {
+      if (closed)
+        return;
+      closed = true;
+
+      try {
+        offsetsOut.close();
+        while (pos % 8 != 0) {
+          out.writeByte(0);
+          pos++;
+        }
+        final long offsets = pos;
+        try (DataInputStream in =
+            new DataInputStream(new BufferedInputStream(new FileInputStream(offsetsFile), 1 << 16))) {
+          for (long i = 0; i < count; i++)
+            out.writeLong(in.readLong());
+        }
+        out.writeLong(offsets);
+        out.writeLong(count);
+        out.writeInt(MAGIC_NUMBER);
+      } finally {
+        out.close();
+        if (!offsetsFile.delete())
+          offsetsFile.deleteOnExit();
+      }
+    }
+  }
+}
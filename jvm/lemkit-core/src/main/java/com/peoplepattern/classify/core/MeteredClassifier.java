@@ -0,0 +1,185 @@
+package com.peoplepattern.classify.core;
+
+import com.eclipsesource.json.JsonValue;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link Classifier} which reports measurements of each prediction to
+ * {@link PredictionMetrics}
+ *
+ * <p>Wrapping a {@link PortableLinearClassifier}, the two stages of a
+ * prediction are measured apart: vectorizing the feature bundle (with the
+ * number of its features, of those unknown to the feature map, and of the
+ * non-zero entries of the vector) and scoring it. Any other classifier is
+ * timed as a whole, as scoring.
+ *
+ * <p>Unknown features are the lookups for which the feature map's
+ * {@link FeatureMap#indexOfFeature} returns -1, counted as the bundle is
+ * vectorized; a feature repeated in a bundle counts once per occurrence.
+ * A {@link HashedFeatureMap} knows every feature, so none are unknown.
+ *
+ * <p>The overhead is three {@link System#nanoTime} calls and the metrics'
+ * own updates per prediction, which for {@link PredictionStats} are
+ * striped counters. To count unknown features, lookups in any map but a
+ * {@link HashedFeatureMap} go through a counting wrapper, an extra call
+ * per feature. The wrapper is kept per thread rather than allocated per
+ * prediction.
+ */
+public final class MeteredClassifier<I> implements Classifier<I> {
+
+  private final Classifier<I> delegate;
+  private final PortableLinearClassifier portable;
+  private final PredictionMetrics metrics;
+  private final ThreadLocal<CountingMap> counting;
+
+  /**
+   * Construct from the classifier to measure and the metrics to report to
+   *
+   * @param classifier the classifier making the predictions
+   * @param metrics receives the measurements
+   */
+  public MeteredClassifier(final Classifier<I> classifier, final PredictionMetrics metrics) {
+    if (classifier == null)
+      throw new IllegalArgumentException("Null classifier");
+
+    if (metrics == null)
+      throw new IllegalArgumentException("Null metrics");
+
+    this.delegate = classifier;
+    this.portable = classifier instanceof PortableLinearClassifier
+        ? (PortableLinearClassifier) classifier
+        : null;
+    this.metrics = metrics;
+    this.counting = portable == null || portable.getFeatureMap() instanceof HashedFeatureMap
+        ? null
+        : countingMaps(portable.getFeatureMap());
+  }
+
+  private static ThreadLocal<CountingMap> countingMaps(final FeatureMap map) {
+    return new ThreadLocal<CountingMap>() {
+      @Override
+      protected CountingMap initialValue() {
+        return new CountingMap(map);
+      }
+    };
+  }
+
+  /** The map to vectorize with, its count of unknown features reset */
+  private FeatureMap featureMap() {
+    if (counting == null)
+      return portable.getFeatureMap();
+    final CountingMap map = counting.get();
+    map.unknown = 0;
+    return map;
+  }
+
+  private static int unknown(final FeatureMap map) {
+    return map instanceof CountingMap ? ((CountingMap) map).unknown : 0;
+  }
+
+  public PredictionMetrics getMetrics() {
+    return metrics;
+  }
+
+  public Classification predict(final I input) {
+    if (portable == null) {
+      final long start = System.nanoTime();
+      final Classification classification = delegate.predict(input);
+      metrics.scored(System.nanoTime() - start, 1);
+      return classification;
+    }
+
+    final FeatureBundle bundle = (FeatureBundle) input;
+    final FeatureMap map = featureMap();
+    final long start = System.nanoTime();
+    final Datum datum = bundle.toDatum(map);
+    final long featurized = System.nanoTime();
+    final Classification classification = portable.getModel().predict(datum);
+    final long scored = System.nanoTime();
+    reportFeaturized(featurized - start, bundle, unknown(map), datum);
+    metrics.scored(scored - featurized, 1);
+    return classification;
+  }
+
+  @Override
+  public List<Classification> predictAll(final List<I> inputs) {
+    if (portable == null) {
+      final long start = System.nanoTime();
+      final List<Classification> classifications = delegate.predictAll(inputs);
+      metrics.scored(System.nanoTime() - start, inputs.size());
+      return classifications;
+    }
+
+    final List<Datum> data = new ArrayList<Datum>(inputs.size());
+    final long[] nanos = new long[inputs.size()];
+    final int[] unknown = new int[inputs.size()];
+    long start = System.nanoTime();
+    for (I input : inputs) {
+      final FeatureMap map = featureMap();
+      data.add(((FeatureBundle) input).toDatum(map));
+      final long featurized = System.nanoTime();
+      nanos[data.size() - 1] = featurized - start;
+      unknown[data.size() - 1] = unknown(map);
+      start = featurized;
+    }
+    final List<Classification> classifications = portable.getModel().predictAll(data);
+    metrics.scored(System.nanoTime() - start, inputs.size());
+
+    for (int i = 0; i < nanos.length; i++)
+      reportFeaturized(nanos[i], (FeatureBundle) inputs.get(i), unknown[i], data.get(i));
+    return classifications;
+  }
+
+  private void reportFeaturized(final long nanos, final FeatureBundle bundle, final int unknown,
+      final Datum datum) {
+    metrics.featurized(nanos, bundle.observations().size(), unknown, datum.vector().numEntries());
+  }
+
+  /** A feature map counting the lookups of unknown features; one per thread */
+  private static final class CountingMap implements FeatureMap {
+    final FeatureMap map;
+    int unknown = 0;
+
+    CountingMap(final FeatureMap map) {
+      this.map = map;
+    }
+
+    public int indexOfFeature(final String feature) {
+      final int index = map.indexOfFeature(feature);
+      if (index < 0)
+        unknown++;
+      return index;
+    }
+
+    public int size() {
+      return map.size();
+    }
+
+    public long functionSig() {
+      return map.functionSig();
+    }
+
+    public boolean addIntercept() {
+      return map.addIntercept();
+    }
+
+    public void writeToStream(final DataOutputStream out) throws IOException {
+      map.writeToStream(out);
+    }
+
+    public JsonValue toJson() {
+      return map.toJson();
+    }
+  }
+
+  public String[] getLabels() {
+    return delegate.getLabels();
+  }
+
+  public long functionSig() {
+    return delegate.functionSig();
+  }
+}
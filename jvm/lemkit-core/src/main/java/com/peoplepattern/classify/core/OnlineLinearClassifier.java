@@ -0,0 +1,220 @@
+package com.peoplepattern.classify.core;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static java.lang.Double.doubleToRawLongBits;
+import static java.lang.Double.longBitsToDouble;
+import static java.lang.Math.exp;
+
+/**
+ * Linear classifier that keeps learning from labeled feedback while serving
+ *
+ * <p>Starts from the weights of a {@link PortableLinearClassifier}, and
+ * each {@link #update} takes a stochastic gradient step on the multinomial
+ * logistic loss of one labeled example. The weights are held as raw double
+ * bits in an {@link AtomicLongArray}, feature-major so the weights of all
+ * labels for a feature are adjacent, and each weight is updated with a
+ * compare-and-set loop. Updates therefore never block each other or
+ * concurrent {@link #predict} calls, and no update to a weight is lost. A
+ * prediction made during an update may see some of its weights changed and
+ * not others, which online learning tolerates.
+ *
+ * <p>The labels and the feature map are fixed: feedback can only adjust
+ * weights, and features the map doesn't know are ignored as in prediction.
+ * {@link #snapshot} copies the current weights into an immutable
+ * classifier, for persistence or for code which expects one.
+ */
+public final class OnlineLinearClassifier implements Classifier<FeatureBundle> {
+
+  private final long functionSig;
+  private final String[] labels;
+  private final FeatureMap map;
+  private final int dimension;
+  private final double learningRate;
+  private final AtomicLongArray weights;
+  private final AtomicLong updates = new AtomicLong();
+
+  /**
+   * Create an online classifier
+   *
+   * @param initial the classifier whose weights to start from
+   * @param learningRate the step size of each update
+   * @throws IllegalArgumentException if the learning rate isn't positive, or
+   *         the classifier's parameters don't match its feature map
+   */
+  public OnlineLinearClassifier(final PortableLinearClassifier initial, final double learningRate) {
+    if (!(learningRate > 0.0))
+      throw new IllegalArgumentException("Learning rate must be positive");
+
+    final LinearClassifier model = initial.getModel();
+    this.functionSig = model.functionSig();
+    this.labels = model.getLabels();
+    this.map = initial.getFeatureMap();
+    this.dimension = map.size();
+    this.learningRate = learningRate;
+
+    final int n = labels.length;
+    if ((long) dimension * n > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("Too many weights for an online classifier");
+
+    weights = new AtomicLongArray(dimension * n);
+    for (int k = 0; k < n; k++) {
+      final Vec param = model.parameter(k);
+      if (param.size() != dimension)
+        throw new IllegalArgumentException("Model parameters don't match the feature map");
+      for (int e = 0; e < param.numEntries(); e++)
+        weights.set(param.indexAt(e) * n + k, doubleToRawLongBits(param.valueAt(e)));
+    }
+  }
+
+  public Classification predict(final FeatureBundle bundle) {
+    return predict(bundle.toDatum(map));
+  }
+
+  /**
+   * Classify a datum with the current weights
+   *
+   * @param datum the input, featurized with this classifier's feature map
+   * @return the classification
+   * @throws IllegalArgumentException if the datum has a different
+   *         signature or dimension
+   */
+  public Classification predict(final Datum datum) {
+    return new Classification(labels, scores(check(datum)));
+  }
+
+  /**
+   * Learn from an example with importance 1
+   *
+   * @param bundle the example's features
+   * @param label the example's label
+   * @throws IllegalArgumentException if the label isn't one of the
+   *         classifier's labels
+   */
+  public void update(final FeatureBundle bundle, final String label) {
+    update(bundle.toDatum(map), label, 1.0);
+  }
+
+  /**
+   * Learn from an example
+   *
+   * @param datum the example's features, featurized with this
+   *        classifier's feature map
+   * @param label the example's label
+   * @param importance scales the step taken for this example
+   * @throws IllegalArgumentException if the label isn't one of the
+   *         classifier's labels, or the datum has a different signature or
+   *         dimension
+   */
+  public void update(final Datum datum, final String label, final double importance) {
+    final int labelId = Arrays.binarySearch(labels, label);
+    if (labelId < 0)
+      throw new IllegalArgumentException("Unknown label: " + label);
+
+    final Vec vec = check(datum);
+    final double[] p = scores(vec);
+
+    // softmax, then the gradient of the log loss for label k is
+    // (p(k) - [k is the label]) * x
+    double max = Double.NEGATIVE_INFINITY;
+    for (double s : p)
+      max = Math.max(max, s);
+    double sum = 0.0;
+    for (int k = 0; k < p.length; k++) {
+      p[k] = exp(p[k] - max);
+      sum += p[k];
+    }
+    for (int k = 0; k < p.length; k++)
+      p[k] /= sum;
+    p[labelId] -= 1.0;
+
+    final int n = labels.length;
+    for (int e = 0; e < vec.numEntries(); e++) {
+      final int base = vec.indexAt(e) * n;
+      final double step = learningRate * importance * vec.valueAt(e);
+      for (int k = 0; k < n; k++)
+        if (p[k] != 0.0)
+          add(base + k, -step * p[k]);
+    }
+    updates.incrementAndGet();
+  }
+
+  /**
+   * The number of updates applied so far
+   */
+  public long updates() {
+    return updates.get();
+  }
+
+  /**
+   * Copy the current weights into an immutable classifier
+   *
+   * <p>Each weight is copied atomically, but updates made while the
+   * snapshot is being taken may be only partly reflected in it.
+   *
+   * @return a classifier with the current weights and this classifier's
+   *         labels and feature map
+   */
+  public PortableLinearClassifier snapshot() {
+    final int n = labels.length;
+    final double[][] params = new double[n][dimension];
+    for (int j = 0; j < dimension; j++)
+      for (int k = 0; k < n; k++)
+        params[k][j] = longBitsToDouble(weights.get(j * n + k));
+
+    final Vec[] vecs = new Vec[n];
+    for (int k = 0; k < n; k++)
+      vecs[k] = new Vec(params[k]);
+    return new PortableLinearClassifier(new LinearClassifier(functionSig, labels, vecs), map);
+  }
+
+  public String[] getLabels() {
+    return labels;
+  }
+
+  public long functionSig() {
+    return functionSig;
+  }
+
+  public FeatureMap getFeatureMap() {
+    return map;
+  }
+
+  private Vec check(final Datum datum) {
+    if (datum == null)
+      throw new IllegalArgumentException("Null datum");
+
+    if (datum.functionSig() != functionSig)
+      throw new IllegalArgumentException("Datum produced by inconsistent feature function");
+
+    final Vec vec = datum.vector();
+    if (vec.size() != dimension)
+      throw new IllegalArgumentException("Datum has inconsistent dimension");
+
+    return vec;
+  }
+
+  private double[] scores(final Vec vec) {
+    final int n = labels.length;
+    final double[] scores = new double[n];
+    for (int e = 0; e < vec.numEntries(); e++) {
+      final int base = vec.indexAt(e) * n;
+      final double v = vec.valueAt(e);
+      if (v != 0.0)
+        for (int k = 0; k < n; k++)
+          scores[k] += v * longBitsToDouble(weights.get(base + k));
+    }
+    return scores;
+  }
+
+  private void add(final int i, final double delta) {
+    long current;
+    long next;
+    do {
+      current = weights.get(i);
+      next = doubleToRawLongBits(longBitsToDouble(current) + delta);
+    } while (!weights.compareAndSet(i, current, next));
+  }
+}
@@ -9,6 +9,8 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
 
 import static com.peoplepattern.classify.core.BinarySupport.BinaryReader;
 import static com.peoplepattern.classify.core.ClassifierIO.*;
@@ -32,10 +34,39 @@ public final class PortableLinearClassifier implements Classifier<FeatureBundle>
     return model.predict(bundle.toDatum(map));
   }
 
+  /**
+   * Generate classifications for a batch of feature bundles
+   *
+   * <p>Featurizes every bundle and then scores them together with
+   * {@link LinearClassifier#predictAll}.
+   *
+   * @param bundles the inputs to classify
+   * @return the classifications, in the same order as the inputs
+   */
+  @Override
+  public List<Classification> predictAll(final List<FeatureBundle> bundles) {
+    final List<Datum> data = new ArrayList<Datum>(bundles.size());
+    for (FeatureBundle bundle : bundles)
+      data.add(bundle.toDatum(map));
+    return model.predictAll(data);
+  }
+
   public FeatureMap getFeatureMap() {
     return map;
   }
 
+  /**
+   * The underlying linear model, operating on {@link Datum} directly
+   *
+   * <p>Useful for callers which featurize (or hash) their inputs themselves
+   * and want to skip the {@link FeatureBundle} stage.
+   *
+   * @return the wrapped {@link LinearClassifier}
+   */
+  public LinearClassifier getModel() {
+    return model;
+  }
+
   public String[] getLabels() {
     return model.getLabels();
   }
@@ -63,9 +94,15 @@ public final class PortableLinearClassifier implements Classifier<FeatureBundle>
     model.writeWeightsToStream(out);
   }
 
+  /** Serialized as its model and feature map; see {@link SerializedForm} */
+  private Object writeReplace() {
+    return new SerializedForm(SerializedForm.PORTABLE_LINEAR_CLASSIFIER, this);
+  }
+
   public static BinaryReader<PortableLinearClassifier> BREADER =
       new BinaryReader<PortableLinearClassifier>() {
         public PortableLinearClassifier readFromStream(final DataInputStream in) throws IOException {
+          final Object event = ClassifierEvents.beginModelLoad();
           {
             final int magicNum = in.readInt();
             if (magicNum != MAGIC_NUMBER)
@@ -89,7 +126,7 @@ public final class PortableLinearClassifier implements Classifier<FeatureBundle>
           Vec[] params = null;
           FeatureMap map = null;
 
-          while (labels == null && params == null && map == null) {
+          while (labels == null || params == null || map == null) {
             final short nextAction = in.readShort();
             switch (nextAction) {
               case LABELS: {
@@ -132,7 +169,9 @@ public final class PortableLinearClassifier implements Classifier<FeatureBundle>
           }
 
           final LinearClassifier model = new LinearClassifier(functionSig, labels, params);
-          return new PortableLinearClassifier(model, map);
+          final PortableLinearClassifier classifier = new PortableLinearClassifier(model, map);
+          ClassifierEvents.commitModelLoad(event, "binary", classifier);
+          return classifier;
         }
 
       };
@@ -151,6 +190,7 @@ public final class PortableLinearClassifier implements Classifier<FeatureBundle>
    */
   public static Parser<PortableLinearClassifier> JPARSER = new Parser<PortableLinearClassifier>() {
     public PortableLinearClassifier fromJson(JsonValue json) {
+      final Object event = ClassifierEvents.beginModelLoad();
       if (!json.isObject())
         throw new IllegalArgumentException("JSON not formatted as classification");
 
@@ -193,7 +233,9 @@ public final class PortableLinearClassifier implements Classifier<FeatureBundle>
 
 
       final LinearClassifier model = new LinearClassifier(functionSig, labels, params);
-      return new PortableLinearClassifier(model, map);
+      final PortableLinearClassifier classifier = new PortableLinearClassifier(model, map);
+      ClassifierEvents.commitModelLoad(event, "json", classifier);
+      return classifier;
     }
   };
 }
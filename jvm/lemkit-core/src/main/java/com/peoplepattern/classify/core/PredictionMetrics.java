@@ -0,0 +1,37 @@
+package com.peoplepattern.classify.core;
+
+/**
+ * Receiver of measurements of the prediction path
+ *
+ * <p>A {@link MeteredClassifier} calls these on the predicting thread, on
+ * every prediction, so implementations must be thread safe and cheap;
+ * {@link PredictionStats} is the default one. Implementations may forward
+ * to any metrics library.
+ */
+public interface PredictionMetrics {
+
+  /**
+   * A feature bundle was vectorized
+   *
+   * @param nanos how long vectorizing took
+   * @param features the number of features of the bundle
+   * @param unknownFeatures how many of them the feature map didn't know
+   * @param nonZeros the number of entries of the vector, with the intercept
+   */
+  public void featurized(long nanos, int features, int unknownFeatures, int nonZeros);
+
+  /**
+   * Inputs were scored
+   *
+   * @param nanos how long scoring took, for all of the inputs
+   * @param count the number of inputs scored together
+   */
+  public void scored(long nanos, int count);
+
+  /** Metrics that discard every measurement */
+  public static final PredictionMetrics NONE = new PredictionMetrics() {
+    public void featurized(long nanos, int features, int unknownFeatures, int nonZeros) {}
+
+    public void scored(long nanos, int count) {}
+  };
+}
@@ -0,0 +1,194 @@
+package com.peoplepattern.classify.core;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import static java.lang.String.format;
+
+/**
+ * {@link PredictionMetrics} kept in memory: latency histograms of
+ * featurization and scoring, a histogram of the number of non-zero
+ * entries of the inputs, the rate of unknown features, and throughput
+ *
+ * <p>All counters are {@link LongAdder}s (see {@link Histogram}), so
+ * recording from many threads stays cheap. The statistics can be exported
+ * over JMX with {@link #registerMBean}, and as text in the Prometheus
+ * exposition format with {@link #writeText}.
+ */
+public final class PredictionStats implements PredictionMetrics, PredictionStatsMXBean {
+
+  /** The JMX domain of registered statistics */
+  public static final String JMX_DOMAIN = "com.peoplepattern.classify";
+
+  private final Histogram featurizationNanos = new Histogram();
+  private final Histogram scoringNanos = new Histogram();
+  private final Histogram nonZeros = new Histogram();
+  private final LongAdder predictions = new LongAdder();
+  private final LongAdder features = new LongAdder();
+  private final LongAdder unknownFeatures = new LongAdder();
+  private volatile long startNanos = System.nanoTime();
+
+  public void featurized(final long nanos, final int features, final int unknownFeatures,
+      final int nonZeros) {
+    featurizationNanos.record(nanos);
+    this.nonZeros.record(nonZeros);
+    this.features.add(features);
+    if (unknownFeatures > 0)
+      this.unknownFeatures.add(unknownFeatures);
+  }
+
+  public void scored(final long nanos, final int count) {
+    if (count <= 0)
+      return;
+    scoringNanos.record(nanos / count, count);
+    predictions.add(count);
+  }
+
+  /** Latency of vectorizing a feature bundle, in nanoseconds */
+  public Histogram featurizationNanos() {
+    return featurizationNanos;
+  }
+
+  /**
+   * Latency of scoring an input, in nanoseconds; batches are counted as
+   * their inputs, each taking an equal share of the batch's time
+   */
+  public Histogram scoringNanos() {
+    return scoringNanos;
+  }
+
+  /** The number of non-zero entries of the vectorized inputs */
+  public Histogram nonZeros() {
+    return nonZeros;
+  }
+
+  public long getPredictions() {
+    return predictions.sum();
+  }
+
+  /** Predictions per second since construction or the last reset */
+  public double getThroughput() {
+    final double seconds = (System.nanoTime() - startNanos) / 1e9;
+    return seconds <= 0.0 ? 0.0 : getPredictions() / seconds;
+  }
+
+  public long getFeatures() {
+    return features.sum();
+  }
+
+  public long getUnknownFeatures() {
+    return unknownFeatures.sum();
+  }
+
+  /** The fraction of features the feature map didn't know, or 0 if none were seen */
+  public double getUnknownFeatureRate() {
+    final long n = getFeatures();
+    return n == 0 ? 0.0 : (double) getUnknownFeatures() / n;
+  }
+
+  public double getFeaturizationMeanMicros() {
+    return featurizationNanos.mean() / 1e3;
+  }
+
+  public double getFeaturizationP50Micros() {
+    return featurizationNanos.quantile(0.5) / 1e3;
+  }
+
+  public double getFeaturizationP99Micros() {
+    return featurizationNanos.quantile(0.99) / 1e3;
+  }
+
+  public double getScoringMeanMicros() {
+    return scoringNanos.mean() / 1e3;
+  }
+
+  public double getScoringP50Micros() {
+    return scoringNanos.quantile(0.5) / 1e3;
+  }
+
+  public double getScoringP99Micros() {
+    return scoringNanos.quantile(0.99) / 1e3;
+  }
+
+  public double getNonZerosMean() {
+    return nonZeros.mean();
+  }
+
+  public long getNonZerosP50() {
+    return nonZeros.quantile(0.5);
+  }
+
+  public long getNonZerosP99() {
+    return nonZeros.quantile(0.99);
+  }
+
+  public void reset() {
+    featurizationNanos.reset();
+    scoringNanos.reset();
+    nonZeros.reset();
+    predictions.reset();
+    features.reset();
+    unknownFeatures.reset();
+    startNanos = System.nanoTime();
+  }
+
+  /**
+   * Register with the platform MBean server, as
+   * {@code com.peoplepattern.classify:type=PredictionStats,name=<name>}
+   *
+   * @param name distinguishes these statistics from others registered
+   * @return the name registered under, to unregister with
+   * @throws JMException if the name is taken or can't be registered
+   */
+  public ObjectName registerMBean(final String name) throws JMException {
+    final ObjectName objectName =
+        new ObjectName(JMX_DOMAIN + ":type=PredictionStats,name=" + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+    return objectName;
+  }
+
+  /**
+   * Write the statistics in the Prometheus text exposition format: a
+   * counter of predictions, a summary of each latency (in seconds) and of
+   * the non-zeros, and counters of features and unknown features
+   *
+   * @param out where to write
+   * @param prefix the prefix of the metric names, e.g. {@code lemkit}
+   * @throws IOException if writing fails
+   */
+  public void writeText(final Appendable out, final String prefix) throws IOException {
+    out.append(format("# TYPE %s_predictions_total counter\n", prefix));
+    out.append(format("%s_predictions_total %d\n", prefix, getPredictions()));
+    writeSummary(out, prefix + "_featurization_seconds", featurizationNanos, 1e-9);
+    writeSummary(out, prefix + "_scoring_seconds", scoringNanos, 1e-9);
+    writeSummary(out, prefix + "_nonzeros", nonZeros, 1.0);
+    out.append(format("# TYPE %s_features_total counter\n", prefix));
+    out.append(format("%s_features_total %d\n", prefix, getFeatures()));
+    out.append(format("# TYPE %s_unknown_features_total counter\n", prefix));
+    out.append(format("%s_unknown_features_total %d\n", prefix, getUnknownFeatures()));
+  }
+
+  /** The statistics in the Prometheus text exposition format, prefixed {@code lemkit} */
+  public String toText() {
+    final StringBuilder text = new StringBuilder();
+    try {
+      writeText(text, "lemkit");
+    } catch (IOException e) { /* StringBuilder doesn't throw */
+    }
+    return text.toString();
+  }
+
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+  private static void writeSummary(final Appendable out, final String name,
+      final Histogram histogram, final double scale) throws IOException {
+    out.append(format("# TYPE %s summary\n", name));
+    for (double q : QUANTILES)
+      out.append(format("%s{quantile=\"%s\"} %s\n", name, q, histogram.quantile(q) * scale));
+    out.append(format("%s_sum %s\n", name, histogram.sum() * scale));
+    out.append(format("%s_count %d\n", name, histogram.count()));
+  }
+}
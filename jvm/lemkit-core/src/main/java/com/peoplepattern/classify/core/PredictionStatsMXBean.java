@@ -0,0 +1,40 @@
+package com.peoplepattern.classify.core;
+
+/**
+ * The JMX view of {@link PredictionStats}
+ *
+ * <p>Latencies are in microseconds.
+ */
+public interface PredictionStatsMXBean {
+
+  public long getPredictions();
+
+  public double getThroughput();
+
+  public long getFeatures();
+
+  public long getUnknownFeatures();
+
+  public double getUnknownFeatureRate();
+
+  public double getFeaturizationMeanMicros();
+
+  public double getFeaturizationP50Micros();
+
+  public double getFeaturizationP99Micros();
+
+  public double getScoringMeanMicros();
+
+  public double getScoringP50Micros();
+
+  public double getScoringP99Micros();
+
+  public double getNonZerosMean();
+
+  public long getNonZerosP50();
+
+  public long getNonZerosP99();
+
+  /** Forget everything recorded, and restart the throughput clock */
+  public void reset();
+}
@@ -1,7 +1,26 @@
 package com.peoplepattern.classify.core;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public interface Predictor<I, O> {
 
   public O predict(I inputs);
 
+  /**
+   * Predict outputs for a batch of inputs
+   *
+   * <p>The default just calls {@link #predict} on each input; implementations
+   * may override this with something that benefits from seeing the whole
+   * batch at once.
+   *
+   * @param inputs the inputs to predict
+   * @return the outputs, in the same order as the inputs
+   */
+  default List<O> predictAll(final List<I> inputs) {
+    final List<O> outputs = new ArrayList<O>(inputs.size());
+    for (I input : inputs)
+      outputs.add(predict(input));
+    return outputs;
+  }
 }
@@ -0,0 +1,167 @@
+package com.peoplepattern.classify.core;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+
+import static com.peoplepattern.classify.core.ClassifierIO.*;
+import static java.lang.String.format;
+
+/**
+ * The Java serialized form of {@link Vec}, {@link LinearClassifier},
+ * {@link ExactFeatureMap} and {@link PortableLinearClassifier}
+ *
+ * <p>Each of those replaces itself with one of these when serialized
+ * ({@code writeReplace}), which writes the object in the binary model
+ * format ({@link ClassifierIO}) rather than as its object graph, and
+ * reads back the original object ({@code readResolve}). That keeps
+ * serialized models, as broadcast by Spark say, about as small as model
+ * files, and leaves out the internals of hash tables, which are rebuilt
+ * where (and if) they are used.
+ *
+ * <p>Subclasses of {@link LinearClassifier} keep the default form.
+ */
+final class SerializedForm implements Externalizable {
+
+  private static final long serialVersionUID = 1L;
+
+  static final byte VEC = 1;
+  static final byte LINEAR_CLASSIFIER = 2;
+  static final byte EXACT_FEATURE_MAP = 3;
+  static final byte PORTABLE_LINEAR_CLASSIFIER = 4;
+
+  private byte type;
+  private Object object;
+
+  /** For deserialization only */
+  public SerializedForm() {}
+
+  SerializedForm(final byte type, final Object object) {
+    this.type = type;
+    this.object = object;
+  }
+
+  public void writeExternal(final ObjectOutput out) throws IOException {
+    out.writeByte(type);
+    final DataOutputStream data = new DataOutputStream(new OutputStream() {
+      @Override
+      public void write(final int b) throws IOException {
+        out.write(b);
+      }
+
+      @Override
+      public void write(final byte[] b, final int off, final int len) throws IOException {
+        out.write(b, off, len);
+      }
+    });
+
+    switch (type) {
+      case VEC:
+        ((Vec) object).writeToStream(data);
+        break;
+
+      case LINEAR_CLASSIFIER: {
+        final LinearClassifier model = (LinearClassifier) object;
+        data.writeLong(model.functionSig());
+        final String[] labels = model.getLabels();
+        data.writeInt(labels.length);
+        for (String label : labels)
+          writeString(data, label);
+        model.writeWeightsToStream(data);
+        break;
+      }
+
+      case EXACT_FEATURE_MAP: {
+        final ExactFeatureMap map = (ExactFeatureMap) object;
+        data.writeLong(map.functionSig());
+        data.writeBoolean(map.addIntercept());
+        map.writeToStream(data);
+        break;
+      }
+
+      case PORTABLE_LINEAR_CLASSIFIER: {
+        final PortableLinearClassifier classifier = (PortableLinearClassifier) object;
+        out.writeObject(classifier.getModel());
+        out.writeObject(classifier.getFeatureMap());
+        break;
+      }
+
+      default:
+        throw new InvalidObjectException(format("Unexpected type: %d", type));
+    }
+    data.flush();
+  }
+
+  public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
+    type = in.readByte();
+    final DataInputStream data = new DataInputStream(new InputStream() {
+      @Override
+      public int read() throws IOException {
+        return in.read();
+      }
+
+      @Override
+      public int read(final byte[] b, final int off, final int len) throws IOException {
+        return in.read(b, off, len);
+      }
+    });
+
+    try {
+      switch (type) {
+        case VEC:
+          object = Vec.readVec(data);
+          break;
+
+        case LINEAR_CLASSIFIER: {
+          final long functionSig = data.readLong();
+          final String[] labels = new String[data.readInt()];
+          for (int i = 0; i < labels.length; i++)
+            labels[i] = readString(data);
+          final Vec[] params = new Vec[data.readInt()];
+          for (int i = 0; i < params.length; i++)
+            params[i] = Vec.readVec(data);
+          object = new LinearClassifier(functionSig, labels, params);
+          break;
+        }
+
+        case EXACT_FEATURE_MAP: {
+          final long functionSig = data.readLong();
+          final boolean addIntercept = data.readBoolean();
+          final short code = data.readShort();
+          if (code != FEATURE_TYPE_EXACT)
+            throw new StreamCorruptedException(format("Unexpected code: %d", code));
+          final String[] features = new String[data.readInt()];
+          for (int i = 0; i < features.length; i++)
+            features[i] = readString(data);
+          object = new ExactFeatureMap(functionSig, features, addIntercept);
+          break;
+        }
+
+        case PORTABLE_LINEAR_CLASSIFIER: {
+          final LinearClassifier model = (LinearClassifier) in.readObject();
+          final FeatureMap map = (FeatureMap) in.readObject();
+          object = new PortableLinearClassifier(model, map);
+          break;
+        }
+
+        default:
+          throw new StreamCorruptedException(format("Unexpected type: %d", type));
+      }
+    } catch (IllegalArgumentException | ClassCastException e) {
+      final InvalidObjectException invalid = new InvalidObjectException(e.getMessage());
+      invalid.initCause(e);
+      throw invalid;
+    }
+  }
+
+  private Object readResolve() {
+    return object;
+  }
+}
@@ -50,7 +50,7 @@ public final class Vec implements Serializable, JsonSupport {
   private final double[] values;
   private final int size;
 
-  private boolean _hashUnset = true;
+  // Content hash, computed on first use; 0 until then
   private int _hashCode;
 
   /**
@@ -123,6 +123,112 @@ public final class Vec implements Serializable, JsonSupport {
     indices = null;
   }
 
+  /**
+   * Create a sparse vector from indices in any order
+   *
+   * <p>Values at repeated indices are summed. Unlike the sparse constructor
+   * the arrays are not retained, so they can be reused by the caller.
+   *
+   * @param size the size or dimensionality of the vector
+   * @param indices the indices, in any order, possibly repeated
+   * @param values the values at those indices
+   * @param n the number of leading entries of indices and values to use
+   * @return a new sparse vector
+   * @throws IllegalArgumentException if any of the indices is negative
+   *    or not less than size, or if either array is shorter than n
+   */
+  public static Vec fromUnordered(final int size, final int[] indices, final double[] values,
+      final int n) {
+    if (indices == null || values == null)
+      throw new IllegalArgumentException("indices and values must not be null");
+
+    if (indices.length < n || values.length < n)
+      throw new IllegalArgumentException("Fewer indices or values than specified");
+
+    // Sort (index, position) pairs packed into longs; indices are non-negative
+    final long[] order = new long[n];
+    for (int i = 0; i < n; i++) {
+      if (indices[i] < 0 || indices[i] >= size) {
+        final String templ = "Index %d out of range for size %d";
+        throw new IllegalArgumentException(format(templ, indices[i], size));
+      }
+      order[i] = ((long) indices[i] << 32) | i;
+    }
+    Arrays.sort(order);
+
+    final int[] sortedIndices = new int[n];
+    final double[] sortedValues = new double[n];
+    int nnz = 0;
+    for (int i = 0; i < n; i++) {
+      final int index = (int) (order[i] >>> 32);
+      final double value = values[(int) order[i]];
+      if (nnz > 0 && sortedIndices[nnz - 1] == index) {
+        sortedValues[nnz - 1] += value;
+      } else {
+        sortedIndices[nnz] = index;
+        sortedValues[nnz] = value;
+        nnz++;
+      }
+    }
+
+    if (nnz == n)
+      return new Vec(size, sortedIndices, sortedValues);
+    else
+      return new Vec(size, Arrays.copyOf(sortedIndices, nnz), Arrays.copyOf(sortedValues, nnz));
+  }
+
+  /**
+   * The size or dimensionality of this vector
+   *
+   * @return the size of the vector
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Whether this vector is stored sparsely
+   *
+   * @return true if only the non-zero entries are stored
+   */
+  public boolean isSparse() {
+    return isSparse;
+  }
+
+  /**
+   * The number of entries stored
+   *
+   * <p>Together with {@link #indexAt} and {@link #valueAt} this allows
+   * iterating over the stored entries without copying; for a sparse vector
+   * these are the non-zero entries in index order, for a dense vector all
+   * entries.
+   *
+   * @return the number of entries stored
+   */
+  public int numEntries() {
+    return isSparse ? indices.length : size;
+  }
+
+  /**
+   * The index of a stored entry
+   *
+   * @param k the entry, less than {@link #numEntries}
+   * @return the index in the vector of the k<sup>th</sup> stored entry
+   */
+  public int indexAt(final int k) {
+    return isSparse ? indices[k] : k;
+  }
+
+  /**
+   * The value of a stored entry
+   *
+   * @param k the entry, less than {@link #numEntries}
+   * @return the value of the k<sup>th</sup> stored entry
+   */
+  public double valueAt(final int k) {
+    return values[k];
+  }
+
   private static boolean sparseSparseEq(final Vec a, final Vec b) {
     return a.size == b.size && Arrays.equals(a.indices, b.indices)
         && Arrays.equals(a.values, b.values);
@@ -183,8 +289,8 @@ public final class Vec implements Serializable, JsonSupport {
 
   @Override
   public int hashCode() {
-    if (_hashUnset) {
-      int h = 0;
+    int h = _hashCode;
+    if (h == 0) {
       if (isSparse) {
         for (int i = 0; i < indices.length; i++) {
           h *= 37;
@@ -192,7 +298,6 @@ public final class Vec implements Serializable, JsonSupport {
           h *= 37;
           h += doubleHash(values[i]);
         }
-        return h;
       } else {
         for (int i = 0; i < size; i++) {
           if (values[i] != 0.0) {
@@ -204,13 +309,20 @@ public final class Vec implements Serializable, JsonSupport {
         }
       }
       _hashCode = h;
-      _hashUnset = false;
     }
 
-    return _hashCode;
+    return h;
   }
 
   private static double sparseSparseDot(final Vec a, final Vec b) {
+    // A long sparse vector (like a sparse model parameter) dotted with a
+    // short one: look each short entry up rather than merging past the
+    // whole long vector. The terms are summed in the same order.
+    if (a.indices.length > LOOKUP_RATIO * b.indices.length)
+      return sparseLookupDot(b, a);
+    if (b.indices.length > LOOKUP_RATIO * a.indices.length)
+      return sparseLookupDot(a, b);
+
     double sum = 0.0;
     int _a = 0;
     int _b = 0;
@@ -232,6 +344,23 @@ public final class Vec implements Serializable, JsonSupport {
     return sum;
   }
 
+  private static final int LOOKUP_RATIO = 16;
+
+  private static double sparseLookupDot(final Vec small, final Vec large) {
+    double sum = 0.0;
+    int from = 0;
+    for (int i = 0; i < small.indices.length && from < large.indices.length; i++) {
+      final int k = Arrays.binarySearch(large.indices, from, large.indices.length, small.indices[i]);
+      if (k >= 0) {
+        sum += small.values[i] * large.values[k];
+        from = k + 1;
+      } else {
+        from = -k - 1;
+      }
+    }
+    return sum;
+  }
+
   private static double sparseDenseDot(final Vec sparse, final Vec dense) {
     double sum = 0.0;
 
@@ -298,19 +427,19 @@ public final class Vec implements Serializable, JsonSupport {
       if (v != 0.0)
         nnz++;
 
-    final int[] indices = new int[nnz];
-    final double[] values = new double[nnz];
+    final int[] sparseIndices = new int[nnz];
+    final double[] sparseValues = new double[nnz];
 
     int j = 0;
     for (int i = 0; i < size; i++) {
       if (values[i] != 0.0) {
-        indices[j] = i;
-        values[j] = values[i];
+        sparseIndices[j] = i;
+        sparseValues[j] = values[i];
         j++;
       }
     }
 
-    return new Vec(size, indices, values);
+    return new Vec(size, sparseIndices, sparseValues);
   }
 
   /**
@@ -324,11 +453,11 @@ public final class Vec implements Serializable, JsonSupport {
     if (!isSparse)
       return this;
 
-    double[] values = new double[size];
+    final double[] denseValues = new double[size];
     for (int i = 0; i < indices.length; i++)
-      values[indices[i]] = values[i];
+      denseValues[indices[i]] = values[i];
 
-    return new Vec(values);
+    return new Vec(denseValues);
   }
 
   @Override
@@ -387,6 +516,11 @@ public final class Vec implements Serializable, JsonSupport {
     }
   }
 
+  /** Serialized in the binary format; see {@link SerializedForm} */
+  private Object writeReplace() {
+    return new SerializedForm(SerializedForm.VEC, this);
+  }
+
   public static Vec readVec(final DataInputStream in) throws IOException {
     final short code = in.readShort();
     switch (code) {
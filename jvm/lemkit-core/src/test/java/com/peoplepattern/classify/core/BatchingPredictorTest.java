@@ -0,0 +1,83 @@
+package com.peoplepattern.classify.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BatchingPredictorTest {
+
+  final PortableLinearClassifier classifier = new PortableLinearClassifier(
+      new LinearClassifier(1L, new String[] {"A", "B"}, new Vec[] {
+          new Vec(new double[] {-1.0, 5.0, 5.0}), new Vec(new double[] {5.0, 5.0, -1.0})}),
+      new ExactFeatureMap(1L, new String[] {"a", "b", "c"}, false));
+
+  FeatureBundle bundle(final long sig, final double a, final double c) {
+    return new FeatureBundle(sig, Arrays.asList(new Scored<String>("a", a), new Scored<String>("c", c)));
+  }
+
+  @Test
+  public void testPredictAll() {
+    final List<FeatureBundle> bundles = new ArrayList<FeatureBundle>();
+    for (int i = 0; i < 10; i++)
+      bundles.add(bundle(1L, i, 10 - i));
+
+    final List<Classification> batch = classifier.predictAll(bundles);
+    for (int i = 0; i < bundles.size(); i++)
+      assertEquals(classifier.predict(bundles.get(i)), batch.get(i));
+  }
+
+  @Test
+  public void testConcurrentPredictions() throws Exception {
+    final BatchingPredictor batching = new BatchingPredictor(classifier, 16, 100, 2);
+    final ExecutorService pool = Executors.newFixedThreadPool(8);
+    try {
+      final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+      for (int t = 0; t < 8; t++) {
+        final int offset = t;
+        results.add(pool.submit(new Callable<Boolean>() {
+          public Boolean call() {
+            for (int i = 0; i < 500; i++) {
+              final FeatureBundle b = bundle(1L, (i + offset) % 7, i % 5);
+              if (!classifier.predict(b).equals(batching.predict(b)))
+                return false;
+            }
+            return true;
+          }
+        }));
+      }
+      for (Future<Boolean> r : results)
+        assertTrue(r.get());
+    } finally {
+      pool.shutdown();
+      pool.awaitTermination(5, TimeUnit.SECONDS);
+      batching.close();
+    }
+  }
+
+  @Test
+  public void testBadInputFailsAlone() throws Exception {
+    final BatchingPredictor batching = new BatchingPredictor(classifier, 16, 10000, 1);
+    try {
+      final Future<Classification> good = batching.submit(bundle(1L, 1.0, 0.0));
+      final Future<Classification> bad = batching.submit(bundle(2L, 1.0, 0.0));
+      assertEquals("B", good.get().best());
+      try {
+        bad.get();
+        fail("Expected inconsistent function signature to fail");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof IllegalArgumentException);
+      }
+    } finally {
+      batching.close();
+    }
+  }
+}
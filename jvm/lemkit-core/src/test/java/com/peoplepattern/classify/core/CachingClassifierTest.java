@@ -0,0 +1,186 @@
+package com.peoplepattern.classify.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CachingClassifierTest {
+
+  /** Counts the datums it scores, and can hold scoring until released */
+  static final class CountingModel extends LinearClassifier {
+    static final long serialVersionUID = 1L;
+    final AtomicInteger scored = new AtomicInteger();
+    volatile CountDownLatch gate = new CountDownLatch(0);
+
+    CountingModel(final double bias) {
+      super(1L, new String[] {"A", "B"}, new Vec[] {
+          new Vec(new double[] {-1.0, 5.0, 5.0, bias}), new Vec(new double[] {5.0, 5.0, -1.0, 0.0})});
+    }
+
+    @Override
+    public Classification predict(final Datum datum) {
+      try {
+        gate.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      scored.incrementAndGet();
+      return super.predict(datum);
+    }
+
+    @Override
+    public List<Classification> predictAll(final List<Datum> data) {
+      scored.addAndGet(data.size());
+      return super.predictAll(data);
+    }
+  }
+
+  final ExactFeatureMap map = new ExactFeatureMap(1L, new String[] {"a", "b", "c"});
+
+  FeatureBundle bundle(final long sig, final double a, final double c) {
+    return new FeatureBundle(sig, Arrays.asList(new Scored<String>("a", a), new Scored<String>("c", c)));
+  }
+
+  @Test
+  public void testHitsAndMisses() {
+    final CountingModel model = new CountingModel(0.0);
+    final LinearClassifier reference = new CountingModel(0.0);
+    final CachingClassifier cache = new CachingClassifier(new PortableLinearClassifier(model, map), 100);
+    for (int round = 0; round < 3; round++)
+      for (int i = 0; i < 10; i++)
+        assertEquals(reference.predict(bundle(1L, i, 1.0).toDatum(map)), cache.predict(bundle(1L, i, 1.0)));
+
+    assertEquals(10, model.scored.get());
+    assertEquals(10, cache.misses());
+    assertEquals(20, cache.hits());
+    assertEquals(2.0 / 3, cache.hitRate(), 1e-9);
+    assertEquals(10, cache.size());
+
+    final Datum datum = bundle(1L, 3, 1.0).toDatum(map);
+    assertEquals(reference.predict(datum), cache.predict(datum));
+    assertEquals(21, cache.hits());
+  }
+
+  @Test
+  public void testBoundedSize() {
+    final CountingModel model = new CountingModel(0.0);
+    final CachingClassifier cache = new CachingClassifier(new PortableLinearClassifier(model, map), 8);
+    for (int i = 0; i < 100; i++) {
+      cache.predict(bundle(1L, i, 1.0));
+      // Keep one input hot; it should survive eviction
+      cache.predict(bundle(1L, -1.0, 1.0));
+      assertTrue(cache.size() <= 8);
+    }
+    assertEquals(8, cache.size());
+    assertTrue(cache.evictions() >= 92);
+
+    final int before = model.scored.get();
+    cache.predict(bundle(1L, -1.0, 1.0));
+    assertEquals(before, model.scored.get());
+    cache.predict(bundle(1L, 0, 1.0));
+    assertEquals(before + 1, model.scored.get());
+  }
+
+  @Test
+  public void testConcurrentDuplicatesScoredOnce() throws Exception {
+    final CountingModel model = new CountingModel(0.0);
+    model.gate = new CountDownLatch(1);
+    final CachingClassifier cache = new CachingClassifier(new PortableLinearClassifier(model, map), 100);
+    final ExecutorService pool = Executors.newFixedThreadPool(8);
+    try {
+      final List<Future<Classification>> results = new ArrayList<Future<Classification>>();
+      for (int t = 0; t < 8; t++)
+        results.add(pool.submit(new Callable<Classification>() {
+          public Classification call() {
+            return cache.predict(bundle(1L, 2.0, 3.0));
+          }
+        }));
+
+      // Let every thread find the in-flight entry before it is scored
+      while (cache.hits() + cache.misses() < 8)
+        Thread.sleep(1);
+      model.gate.countDown();
+
+      for (Future<Classification> r : results)
+        assertEquals("A", r.get().best());
+      assertEquals(1, model.scored.get());
+      assertEquals(1, cache.misses());
+      assertEquals(7, cache.hits());
+    } finally {
+      model.gate.countDown();
+      pool.shutdown();
+      pool.awaitTermination(5, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void testModelSwapInvalidates() {
+    final CountingModel first = new CountingModel(0.0);
+    final CountingModel second = new CountingModel(100.0);
+    final CachingClassifier cache = new CachingClassifier(new PortableLinearClassifier(first, map), 100);
+    assertEquals("B", cache.predict(bundle(1L, 1.0, 0.0)).best());
+    assertEquals(1, cache.size());
+
+    final PortableLinearClassifier swapped = new PortableLinearClassifier(second, map);
+    cache.setModel(swapped);
+    assertSame(swapped, cache.getModel());
+    assertEquals(0, cache.size());
+    assertEquals("A", cache.predict(bundle(1L, 1.0, 0.0)).best());
+    assertEquals(1, second.scored.get());
+  }
+
+  @Test
+  public void testPredictAll() {
+    final CountingModel model = new CountingModel(0.0);
+    final PortableLinearClassifier plain = new PortableLinearClassifier(model, map);
+    final CachingClassifier cache = new CachingClassifier(plain, 100);
+    cache.predict(bundle(1L, 0, 1.0));
+
+    final List<FeatureBundle> bundles = new ArrayList<FeatureBundle>();
+    for (int i = 0; i < 10; i++)
+      bundles.add(bundle(1L, i % 4, 1.0));
+    final List<Classification> expected = plain.predictAll(bundles);
+    model.scored.set(0);
+
+    assertEquals(expected, cache.predictAll(bundles));
+    // Only 1, 2 and 3 were new
+    assertEquals(3, model.scored.get());
+    assertEquals(4, cache.size());
+  }
+
+  @Test
+  public void testFailuresNotCached() {
+    final CountingModel model = new CountingModel(0.0);
+    final CachingClassifier cache = new CachingClassifier(new PortableLinearClassifier(model, map), 100);
+    final Datum bad = new Datum(2L, bundle(1L, 1.0, 1.0).toDatum(map).vector());
+    for (int i = 0; i < 2; i++) {
+      try {
+        cache.predict(bad);
+        fail("Expected inconsistent function signature to fail");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+    assertEquals(2, cache.misses());
+    assertEquals(0, cache.size());
+
+    try {
+      cache.predictAll(Arrays.asList(bundle(1L, 1.0, 1.0), bundle(2L, 1.0, 1.0)));
+      fail("Expected inconsistent function signature to fail");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    assertEquals(0, cache.size());
+    assertEquals("B", cache.predict(bundle(1L, 1.0, 0.0)).best());
+  }
+}
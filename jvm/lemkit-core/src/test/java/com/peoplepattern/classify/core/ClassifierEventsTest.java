@@ -0,0 +1,144 @@
+package com.peoplepattern.classify.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ClassifierEventsTest {
+
+  final PortableLinearClassifier classifier = new PortableLinearClassifier(
+      new LinearClassifier(1L, new String[] {"A", "B"}, new Vec[] {
+          new Vec(new double[] {-1.0, 5.0, 5.0, 0.5}),
+          new Vec(4, new int[] {0, 2}, new double[] {5.0, -1.0})}),
+      new ExactFeatureMap(1L, new String[] {"a", "b", "c"}));
+
+  final FeatureBundle bundle = new FeatureBundle(1L,
+      Arrays.asList(new Scored<String>("a", 1.0), new Scored<String>("c", 2.0), new Scored<String>("z", 1.0)));
+
+  /** Run some predictions and model loads in a recording with the given events enabled */
+  private List<RecordedEvent> record(final String... events) throws IOException {
+    final Path file = Files.createTempFile("lemkit-events", ".jfr");
+    try (Recording recording = new Recording()) {
+      for (String e : events)
+        recording.enable(e);
+      recording.start();
+      for (int i = 0; i < 4096; i++)
+        classifier.predict(bundle);
+      PortableLinearClassifier.JPARSER.fromJsonString(classifier.toJsonString(false));
+      recording.stop();
+      recording.dump(file);
+      return RecordingFile.readAllEvents(file);
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  private static List<RecordedEvent> named(final List<RecordedEvent> events, final String name) {
+    final List<RecordedEvent> matching = new ArrayList<RecordedEvent>();
+    for (RecordedEvent e : events)
+      if (e.getEventType().getName().equals(name))
+        matching.add(e);
+    return matching;
+  }
+
+  @Test
+  public void testDisabledByDefault() throws IOException {
+    final List<RecordedEvent> events = record();
+    for (RecordedEvent e : events)
+      assertFalse(e.getEventType().getName().startsWith("com.peoplepattern.classify."));
+  }
+
+  @Test
+  public void testSampledPredictions() throws IOException {
+    final List<RecordedEvent> events = record(
+        "com.peoplepattern.classify.Featurize", "com.peoplepattern.classify.Predict");
+
+    final List<RecordedEvent> featurize = named(events, "com.peoplepattern.classify.Featurize");
+    final List<RecordedEvent> predict = named(events, "com.peoplepattern.classify.Predict");
+    for (List<RecordedEvent> sampled : Arrays.asList(featurize, predict)) {
+      assertFalse(sampled.isEmpty());
+      assertTrue(sampled.size() <= 4096 / ClassifierEvents.SAMPLE_PERIOD * 2 + 8);
+    }
+
+    final RecordedEvent f = featurize.get(0);
+    assertEquals(3, f.getInt("features"));
+    assertEquals(3, f.getInt("nonZeros"));
+    assertTrue(f.getBoolean("sparse"));
+
+    final RecordedEvent p = predict.get(0);
+    assertEquals(2, p.getInt("labels"));
+    assertEquals(1, p.getInt("batchSize"));
+    assertEquals(3L, p.getLong("nonZeros"));
+  }
+
+  @Test
+  public void testSampledBatches() throws IOException {
+    final Path file = Files.createTempFile("lemkit-events", ".jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable("com.peoplepattern.classify.Predict");
+      recording.start();
+      final List<FeatureBundle> batch = Arrays.asList(bundle, bundle, bundle);
+      for (int i = 0; i < 1024; i++)
+        classifier.predictAll(batch);
+      recording.stop();
+      recording.dump(file);
+
+      final List<RecordedEvent> predict =
+          named(RecordingFile.readAllEvents(file), "com.peoplepattern.classify.Predict");
+      assertFalse(predict.isEmpty());
+      assertTrue(predict.size() <= 1024 / ClassifierEvents.SAMPLE_PERIOD * 2 + 8);
+      for (RecordedEvent p : predict) {
+        assertEquals(2, p.getInt("labels"));
+        assertEquals(3, p.getInt("batchSize"));
+        assertEquals(9L, p.getLong("nonZeros"));
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void testModelLoad() throws IOException {
+    final List<RecordedEvent> loads =
+        named(record("com.peoplepattern.classify.ModelLoad"), "com.peoplepattern.classify.ModelLoad");
+    assertEquals(1, loads.size());
+    final RecordedEvent load = loads.get(0);
+    assertEquals("json", load.getString("format"));
+    assertEquals(2, load.getInt("labels"));
+    assertEquals(4, load.getInt("dimension"));
+    assertEquals(6L, load.getLong("weights"));
+  }
+
+  @Test
+  public void testBinaryModelLoad() throws IOException {
+    final File file = File.createTempFile("lemkit-model", ".bin");
+    file.deleteOnExit();
+    classifier.writeToBinaryFile(file);
+    try (Recording recording = new Recording()) {
+      recording.enable("com.peoplepattern.classify.ModelLoad");
+      recording.start();
+      PortableLinearClassifier.BREADER.readFromBinaryFile(file);
+      recording.stop();
+      final Path dump = Files.createTempFile("lemkit-events", ".jfr");
+      try {
+        recording.dump(dump);
+        final List<RecordedEvent> loads =
+            named(RecordingFile.readAllEvents(dump), "com.peoplepattern.classify.ModelLoad");
+        assertEquals(1, loads.size());
+        assertEquals("binary", loads.get(0).getString("format"));
+      } finally {
+        Files.delete(dump);
+      }
+    }
+  }
+}
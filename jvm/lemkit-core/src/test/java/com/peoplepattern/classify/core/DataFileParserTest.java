@@ -0,0 +1,145 @@
+package com.peoplepattern.classify.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntFunction;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class DataFileParserTest {
+
+  static final class Collector implements DataFileParser.Sink {
+    final List<String> labels = new ArrayList<String>();
+    final List<Double> importances = new ArrayList<Double>();
+    final List<Datum> data = new ArrayList<Datum>();
+
+    public void accept(final String label, final double importance, final Datum datum) {
+      labels.add(label);
+      importances.add(importance);
+      data.add(datum);
+    }
+  }
+
+  private static File write(final String content) throws IOException {
+    final File file = File.createTempFile("lemkit-parser", ".txt");
+    file.deleteOnExit();
+    Files.write(file.toPath(), content.getBytes(UTF_8));
+    return file;
+  }
+
+  private static Collector parse(final FeatureMap map, final String content) throws IOException {
+    final Collector c = new Collector();
+    new DataFileParser(map).parse(write(content), c);
+    return c;
+  }
+
+  @Test
+  public void testMatchesFeatureBundle() throws IOException {
+    final List<FeatureMap> maps = Arrays.<FeatureMap>asList(
+        new HashedFeatureMap(3L, 64, 7),
+        new ExactFeatureMap(3L, new String[] {"a", "b", "\u00fc"}),
+        new ExactFeatureMap(3L, new String[] {"a", "b"}, false));
+
+    final String content = "x | a:1.5 b \u00fc:-2e-1\n"
+        + "\n"
+        + "  y 0.25 |  b:3\tc:0.5  \r\n"
+        + "\u03b6 |\n"
+        + "x | a:.5";
+
+    for (FeatureMap map : maps) {
+      final Collector c = parse(map, content);
+      assertEquals(Arrays.asList("x", "y", "\u03b6", "x"), c.labels);
+      assertEquals(Arrays.asList(1.0, 0.25, 1.0, 1.0), c.importances);
+
+      final List<FeatureBundle> bundles = Arrays.asList(
+          new FeatureBundle(3L, Arrays.asList(new Scored<String>("a", 1.5),
+              new Scored<String>("b", 1.0), new Scored<String>("\u00fc", -0.2))),
+          new FeatureBundle(3L, Arrays.asList(new Scored<String>("b", 3.0),
+              new Scored<String>("c", 0.5))),
+          new FeatureBundle(3L, new ArrayList<Scored<String>>()),
+          new FeatureBundle(3L, Arrays.asList(new Scored<String>("a", 0.5))));
+
+      for (int i = 0; i < bundles.size(); i++)
+        assertEquals(bundles.get(i).toDatum(map), c.data.get(i));
+    }
+  }
+
+  @Test
+  public void testEmptyValueDefaultsToOne() throws IOException {
+    // As ClassifierSource.parseLine reads them
+    final FeatureMap map = new ExactFeatureMap(3L, new String[] {"a", "b", "c"});
+    final Collector c = parse(map, "x | a: b:: c:2\n");
+    assertEquals(new FeatureBundle(3L, Arrays.asList(new Scored<String>("a", 1.0),
+        new Scored<String>("b", 1.0), new Scored<String>("c", 2.0))).toDatum(map),
+        c.data.get(0));
+  }
+
+  @Test
+  public void testParallelRangesInOrder() throws IOException {
+    final Random random = new Random(5);
+    final StringBuilder sb = new StringBuilder();
+    final int n = 5000;
+    for (int i = 0; i < n; i++) {
+      sb.append("L").append(i % 13).append(" |");
+      for (int j = 0; j < 1 + random.nextInt(10); j++)
+        sb.append(" f").append(random.nextInt(1000)).append(':').append(random.nextInt(100) / 8.0);
+      sb.append('\n');
+    }
+    final File file = write(sb.toString());
+    final FeatureMap map = new HashedFeatureMap(0L, 1 << 12);
+
+    final Collector serial = new Collector();
+    assertEquals(n, new DataFileParser(map).parse(file, serial));
+
+    final Collector[] parts = new Collector[7];
+    final long count = new DataFileParser(map).parse(file, parts.length,
+        new IntFunction<DataFileParser.Sink>() {
+          public DataFileParser.Sink apply(final int range) {
+            return parts[range] = new Collector();
+          }
+        });
+    assertEquals(n, count);
+
+    final List<String> labels = new ArrayList<String>();
+    final List<Datum> data = new ArrayList<Datum>();
+    for (Collector part : parts) {
+      labels.addAll(part.labels);
+      data.addAll(part.data);
+    }
+    assertEquals(serial.labels, labels);
+    assertEquals(serial.data, data);
+  }
+
+  @Test
+  public void testParseDouble() {
+    final String[] cases = new String[] {"0", "1", "-1", "+2.5", "0.1", ".5", "5.", "1e3",
+        "1.5E-7", "-0.0", "123456789012345", "1234567890123456789", "3.141592653589793238",
+        "1e-300", "NaN", "-Infinity", "0.30000000000000004"};
+    for (String s : cases) {
+      final byte[] b = ("x" + s + "y").getBytes(UTF_8);
+      assertEquals(s, Double.parseDouble(s), DataFileParser.parseDouble(b, 1, b.length - 1, 0L),
+          0.0);
+    }
+  }
+
+  @Test
+  public void testMalformed() throws IOException {
+    final FeatureMap map = new HashedFeatureMap(0L, 16);
+    for (String bad : new String[] {"x a:1\n", "x | a:1 | b\n", "x | a:1:2\n", "x | ::\n", "x | a:z\n",
+        "x 1 2 | a\n", "x q | a\n"}) {
+      try {
+        parse(map, "ok | a\n" + bad);
+        fail("Expected failure parsing " + bad);
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+}
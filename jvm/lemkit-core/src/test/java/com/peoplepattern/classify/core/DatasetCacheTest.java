@@ -0,0 +1,150 @@
+package com.peoplepattern.classify.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class DatasetCacheTest {
+
+  final FeatureMap map = new ExactFeatureMap(4L, new String[] {"a", "b", "c"});
+
+  final List<Datum> data = Arrays.asList(
+      new Datum(4L, new Vec(4, new int[] {0, 3}, new double[] {1.0, 1.0})),
+      new Datum(4L, new Vec(new double[] {0.0, 2.5, -0.125, 1.0})),
+      new Datum(4L, new Vec(4, new int[] {}, new double[] {})),
+      new Datum(4L, new Vec(4, new int[] {1, 2}, new double[] {0.5, 3.0})));
+
+  final List<String> labels = Arrays.asList("yes", "no", "yes", "maybe");
+
+  private File write() throws IOException {
+    final File file = File.createTempFile("lemkit-cache", ".bin");
+    file.deleteOnExit();
+    final DatasetCache.Writer writer = new DatasetCache.Writer(file, map);
+    try {
+      for (int i = 0; i < data.size(); i++)
+        writer.write(labels.get(i), 0.5 * (i + 1), data.get(i));
+      assertEquals(data.size(), writer.count());
+    } finally {
+      writer.close();
+    }
+    return file;
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    final DatasetCache cache = DatasetCache.open(write());
+    assertEquals(4L, cache.functionSig());
+    assertEquals(map, cache.getFeatureMap());
+    assertEquals(4, cache.dimension());
+    assertEquals(4L, cache.size());
+    assertArrayEquals(new String[] {"yes", "no", "maybe"}, cache.getLabels());
+
+    final List<String> readLabels = new ArrayList<String>();
+    int i = 0;
+    for (DatasetCache.Instance instance : cache) {
+      readLabels.add(instance.label());
+      assertEquals(cache.getLabels()[instance.labelId()], instance.label());
+      assertEquals(0.5 * (i + 1), instance.importance(), 0.0);
+      assertEquals(data.get(i), instance.datum());
+      i++;
+    }
+    assertEquals(labels, readLabels);
+  }
+
+  @Test
+  public void testCursor() throws IOException {
+    final DatasetCache.Cursor cursor = DatasetCache.open(write()).cursor();
+    try {
+      assertTrue(cursor.next());
+      assertEquals(2, cursor.numEntries());
+      assertEquals(3, cursor.indices()[1]);
+      assertEquals(1.0, cursor.values()[1], 0.0);
+
+      assertTrue(cursor.next());
+      assertEquals(3, cursor.numEntries());
+      assertEquals(-0.125, cursor.values()[1], 0.0);
+
+      assertTrue(cursor.next());
+      assertEquals(0, cursor.numEntries());
+      assertTrue(cursor.next());
+      assertEquals("maybe", cursor.label());
+      assertFalse(cursor.next());
+    } finally {
+      cursor.close();
+    }
+  }
+
+  @Test
+  public void testFromParser() throws IOException {
+    final File text = File.createTempFile("lemkit-cache", ".txt");
+    text.deleteOnExit();
+    Files.write(text.toPath(), "x | a:2 b\ny 2 | c\n".getBytes(UTF_8));
+
+    final File file = File.createTempFile("lemkit-cache", ".bin");
+    file.deleteOnExit();
+    final DatasetCache.Writer writer = new DatasetCache.Writer(file, map);
+    new DataFileParser(map).parse(text, writer);
+    writer.close();
+
+    final List<Datum> parsed = new ArrayList<Datum>();
+    for (DatasetCache.Instance instance : DatasetCache.open(file))
+      parsed.add(instance.datum());
+
+    assertEquals(Arrays.asList(
+        new Datum(4L, new Vec(4, new int[] {0, 1, 3}, new double[] {2.0, 1.0, 1.0})),
+        new Datum(4L, new Vec(4, new int[] {2, 3}, new double[] {1.0, 1.0}))), parsed);
+  }
+
+  @Test
+  public void testOpenWithFeatureMap() throws IOException {
+    final FeatureMap same = new ExactFeatureMap(4L, new String[] {"a", "b", "c"});
+    final DatasetCache cache = DatasetCache.open(write(), same);
+    assertSame(same, cache.getFeatureMap());
+    assertEquals(4, cache.dimension());
+    assertEquals(data.size(), cache.size());
+    final DatasetCache.Cursor cursor = cache.cursor();
+    try {
+      for (Datum d : data) {
+        assertTrue(cursor.next());
+        assertEquals(d.vector().toSparse(), cursor.datum().vector());
+      }
+      assertFalse(cursor.next());
+    } finally {
+      cursor.close();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOpenWithWrongFeatureMap() throws IOException {
+    DatasetCache.open(write(), new HashedFeatureMap(4L, 10, 0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrongSig() throws IOException {
+    final File file = File.createTempFile("lemkit-cache", ".bin");
+    file.deleteOnExit();
+    final DatasetCache.Writer writer = new DatasetCache.Writer(file, map);
+    try {
+      writer.write("x", 1.0, new Datum(5L, new Vec(new double[4])));
+    } finally {
+      writer.close();
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testIncomplete() throws IOException {
+    final File file = write();
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.setLength(raf.length() - 1);
+    raf.close();
+    DatasetCache.open(file);
+  }
+}
@@ -0,0 +1,231 @@
+package com.peoplepattern.classify.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DatumStoreTest {
+
+  final ExactFeatureMap map = new ExactFeatureMap(1L, new String[] {"a", "b", "c"});
+
+  final ExactFeatureMap other = new ExactFeatureMap(1L, new String[] {"x", "y", "z"});
+
+  final LinearClassifier model = new LinearClassifier(1L, new String[] {"A", "B"}, new Vec[] {
+      new Vec(new double[] {-1.0, 5.0, 5.0, 0.5}), new Vec(new double[] {5.0, 5.0, -1.0, 0.0})});
+
+  Datum datum(final int i) {
+    return new Datum(1L, new Vec(4, new int[] {0, 2, 3}, new double[] {i + 0.25, 0.5, 1.0}));
+  }
+
+  FeatureBundle bundle(final double a, final double c) {
+    return new FeatureBundle(1L, Arrays.asList(new Scored<String>("a", a), new Scored<String>("c", c)));
+  }
+
+  @Test
+  public void testRoundTrip() {
+    final DatumStore store = new DatumStore(1 << 16);
+    final DatumStore.View view = store.view(map);
+    assertNull(view.get("e0"));
+    for (int i = 0; i < 10; i++)
+      view.put("e" + i, datum(i));
+    for (int i = 0; i < 10; i++)
+      assertEquals(datum(i), view.get("e" + i));
+
+    // Dense vectors are stored by their non-zeros
+    view.put("dense", new Datum(1L, new Vec(new double[] {2.0, 0.0, -1.0, 1.0})));
+    assertEquals(new Datum(1L, new Vec(4, new int[] {0, 2, 3}, new double[] {2.0, -1.0, 1.0})),
+        view.get("dense"));
+
+    view.put("e0", datum(42));
+    assertEquals(datum(42), view.get("e0"));
+    assertEquals(11, store.size());
+    assertEquals(12, store.hits());
+    assertEquals(1, store.misses());
+
+    assertTrue(view.remove("e0"));
+    assertFalse(view.remove("e0"));
+    assertNull(view.get("e0"));
+  }
+
+  @Test
+  public void testGetOrFeaturizeAndPredict() {
+    final DatumStore store = new DatumStore(1 << 16);
+    final DatumStore.View view = store.view(map);
+    final PortableLinearClassifier classifier = new PortableLinearClassifier(model, map);
+    assertNull(view.predict("e", classifier));
+
+    final FeatureBundle bundle = bundle(1.0, 2.0);
+    assertEquals(bundle.toDatum(map), view.getOrFeaturize("e", bundle));
+    // Stored now; a different bundle isn't vectorized
+    assertEquals(bundle.toDatum(map), view.getOrFeaturize("e", bundle(7.0, 7.0)));
+    assertEquals(classifier.predict(bundle), view.predict("e", classifier));
+
+    // An equal map, another instance, shares the vectors
+    final ExactFeatureMap copy = new ExactFeatureMap(1L, new String[] {"a", "b", "c"});
+    assertEquals(classifier.predict(bundle),
+        store.view(copy).predict("e", new PortableLinearClassifier(model, copy)));
+
+    try {
+      view.predict("e", new PortableLinearClassifier(model, other));
+      fail("Expected a classifier with another feature map to fail");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testMapsKeptApart() {
+    final DatumStore store = new DatumStore(1 << 16);
+    store.view(map).put("e", datum(1));
+    assertNull(store.view(other).get("e"));
+    store.view(other).put("e", datum(2));
+    assertEquals(datum(1), store.view(map).get("e"));
+    assertEquals(datum(2), store.view(other).get("e"));
+    assertEquals(2, store.size());
+
+    try {
+      store.view(map).put("f", new Datum(2L, datum(1).vector()));
+      fail("Expected a datum with another function signature to fail");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testInterceptSettingKeptApart() {
+    final ExactFeatureMap noIntercept = new ExactFeatureMap(1L, new String[] {"a", "b", "c"}, false);
+    final DatumStore store = new DatumStore(1 << 16);
+    store.view(map).put("e", datum(1));
+    assertNull(store.view(noIntercept).get("e"));
+
+    final Datum datum = bundle(1.0, 2.0).toDatum(noIntercept);
+    store.view(noIntercept).put("e", datum);
+    assertEquals(datum(1), store.view(map).get("e"));
+    assertEquals(datum, store.view(noIntercept).get("e"));
+    assertEquals(2, store.size());
+
+    try {
+      final LinearClassifier model = new LinearClassifier(1L, new String[] {"A", "B"},
+          new Vec[] {new Vec(new double[3]), new Vec(new double[3])});
+      store.view(map).predict("e", new PortableLinearClassifier(model, noIntercept));
+      fail("Expected a classifier with another intercept setting to fail");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testEvictionKeepsRecentlyUsed() {
+    // Room for about 20 records of 3 non-zeros
+    final DatumStore store = new DatumStore(20 * 60);
+    final DatumStore.View view = store.view(map);
+    view.put("hot", datum(-1));
+    for (int i = 0; i < 200; i++) {
+      view.put("e" + i, datum(i));
+      assertEquals(datum(-1), view.get("hot"));
+      assertTrue(store.usedBytes() <= store.capacity());
+    }
+    assertTrue(store.evictions() > 150);
+    assertTrue(store.size() < 25);
+    assertEquals(datum(199), view.get("e199"));
+    assertNull(view.get("e0"));
+  }
+
+  @Test
+  public void testTooLarge() {
+    final DatumStore store = new DatumStore(32);
+    try {
+      store.view(map).put("e", datum(1));
+      fail("Expected a datum larger than the store to fail");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testPersistence() throws IOException {
+    final File file = File.createTempFile("lemkit-store", ".bin");
+    file.delete();
+    file.deleteOnExit();
+
+    DatumStore store = DatumStore.open(file, 20 * 60);
+    try {
+      for (int i = 0; i < 50; i++)
+        store.view(map).put("e" + i, datum(i));
+      store.view(other).put("o", datum(7));
+    } finally {
+      store.close();
+    }
+    final int size = store.size();
+
+    store = DatumStore.open(file, 1);
+    try {
+      assertEquals(20 * 60, store.capacity());
+      assertEquals(size, store.size());
+      assertEquals(datum(49), store.view(map).get("e49"));
+      assertEquals(datum(7), store.view(other).get("o"));
+      assertNull(store.view(map).get("e0"));
+      store.view(map).put("new", datum(3));
+    } finally {
+      store.close();
+    }
+
+    store = DatumStore.open(file, 1);
+    try {
+      assertEquals(datum(3), store.view(map).get("new"));
+    } finally {
+      store.close();
+    }
+  }
+
+  @Test
+  public void testRemovedStaysRemovedAfterReopen() throws IOException {
+    final File file = File.createTempFile("lemkit-store", ".bin");
+    file.delete();
+    file.deleteOnExit();
+
+    DatumStore store = DatumStore.open(file, 1 << 16);
+    try {
+      final DatumStore.View view = store.view(map);
+      view.put("gone", datum(1));
+      // An earlier record of the entity stays in the log
+      view.put("gone", datum(2));
+      view.put("kept", datum(3));
+      view.put("back", datum(4));
+      assertTrue(view.remove("gone"));
+      assertTrue(view.remove("back"));
+      view.put("back", datum(5));
+    } finally {
+      store.close();
+    }
+
+    store = DatumStore.open(file, 1 << 16);
+    try {
+      final DatumStore.View view = store.view(map);
+      assertNull(view.get("gone"));
+      assertEquals(datum(3), view.get("kept"));
+      assertEquals(datum(5), view.get("back"));
+      assertEquals(2, store.size());
+    } finally {
+      store.close();
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testCorruptFile() throws IOException {
+    final File file = File.createTempFile("lemkit-store", ".bin");
+    file.deleteOnExit();
+    final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.writeInt(0x12345678);
+      raf.setLength(100);
+    } finally {
+      raf.close();
+    }
+    DatumStore.open(file, 100);
+  }
+}
@@ -10,6 +10,7 @@ import java.util.Arrays;
 import java.util.HashSet;
 import org.junit.Test;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.*;
 
 public class ExactFeatureMapTest {
@@ -33,6 +34,19 @@ public class ExactFeatureMapTest {
     assertEquals(-1, m11.indexOfFeature("foo"));
   }
 
+  @Test
+  public void testIndexOfFeatureBytes() {
+    final ExactFeatureMap map =
+        new ExactFeatureMap(sig1, new String[] {"a", "ab", "b\u00fc", "a", "c"}, true);
+    for (String feature : new String[] {"a", "ab", "b\u00fc", "c", "", "b", "abc", "\u00fc"}) {
+      final byte[] utf8 = ("|" + feature + "|").getBytes(UTF_8);
+      assertEquals(feature, map.indexOfFeature(feature),
+          map.indexOfFeature(utf8, 1, utf8.length - 2));
+    }
+    assertEquals(3, map.indexOfFeature("a".getBytes(UTF_8), 0, 1));
+    assertEquals(5, map.indexOfFeature(new byte[0], 0, 0));
+  }
+
   @Test
   public void testFunctionSig() {
     assertEquals(sig1, m11.functionSig());
@@ -0,0 +1,99 @@
+package com.peoplepattern.classify.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class ExternalModelReaderTest {
+
+  private static File write(final byte[] content) throws IOException {
+    final File file = File.createTempFile("lemkit-model", ".txt");
+    file.deleteOnExit();
+    Files.write(file.toPath(), content);
+    return file;
+  }
+
+  private static File write(final String content) throws IOException {
+    return write(content.getBytes(UTF_8));
+  }
+
+  @Test
+  public void testLibLinear() throws IOException {
+    final File file = write("solver_type MCSVM_CS\nnr_class 3\nlabel 1 2 3\nnr_feature 4\n"
+        + "bias -1\nw\n0.5 -1 0 \n0 0 0 \n1e-3 2.25 0 \n-4 0 0 \n");
+    final Vec[] params = ExternalModelReader.readLibLinear(file, 3, 4);
+    assertEquals(3, params.length);
+    assertEquals(new Vec(new double[] {0.5, 0.0, 1e-3, -4.0}), params[0]);
+    assertEquals(new Vec(4, new int[] {0, 2}, new double[] {-1.0, 2.25}), params[1]);
+    assertEquals(new Vec(4, new int[] {}, new double[] {}), params[2]);
+    assertFalse(params[0].isSparse());
+    assertTrue(params[2].isSparse());
+  }
+
+  @Test
+  public void testVowpalReadable() throws IOException {
+    final File file = write("Version 8.6.1\nId \nMin label:-50\nMax label:50\nbits:18\n"
+        + "lda:0\n0 ngram:\n0 skip:\noptions: --oaa 3\nChecksum: 123\n:0\n"
+        + "1:0.25\n4:-1.5\n6:2\n12:0.125\r\n");
+    // two class bits: index = (feature << 2) + class
+    final Vec[] params = ExternalModelReader.readVowpalReadable(file, 3, 16, 2);
+    assertEquals(new Vec(16, new int[] {1, 3}, new double[] {-1.5, 0.125}), params[0]);
+    assertEquals(new Vec(16, new int[] {0}, new double[] {0.25}), params[1]);
+    assertEquals(new Vec(16, new int[] {1}, new double[] {2.0}), params[2]);
+  }
+
+  @Test(expected = IOException.class)
+  public void testVowpalReadableOutOfRange() throws IOException {
+    ExternalModelReader.readVowpalReadable(write(":0\n400:1.0\n"), 3, 16, 2);
+  }
+
+  private static void vwString(final ByteBuffer b, final String s) {
+    final byte[] bytes = (s + "\0").getBytes(UTF_8);
+    b.putInt(bytes.length).put(bytes);
+  }
+
+  @Test
+  public void testVowpalBinary() throws IOException {
+    final ByteBuffer b = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+    vwString(b, "8.6.1");
+    vwString(b, "");
+    b.put((byte) 'm').putFloat(-50f).putFloat(50f).putInt(18).putInt(0);
+    b.putInt(1).put("2ab".getBytes(UTF_8));
+    b.putInt(0);
+    final byte[] options = " --oaa 3".getBytes(UTF_8);
+    b.putInt(options.length).put(options);
+    b.putInt(123);
+    b.put((byte) 0);
+    b.putInt(1).putFloat(0.25f);
+    b.putInt(4).putFloat(-1.5f);
+    b.putInt(12).putFloat(0.125f);
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(b.array(), 0, b.position());
+    final Vec[] params = ExternalModelReader.readVowpalBinary(write(out.toByteArray()), 3, 16, 2);
+    assertEquals(new Vec(16, new int[] {1, 3}, new double[] {-1.5, 0.125}), params[0]);
+    assertEquals(new Vec(16, new int[] {0}, new double[] {0.25}), params[1]);
+    assertEquals(new Vec(16, new int[] {}, new double[] {}), params[2]);
+  }
+
+  @Test
+  public void testDensifies() throws IOException {
+    final ExternalModelReader.Builder builder = new ExternalModelReader.Builder(2, 100);
+    for (int j = 99; j >= 0; j -= 2)
+      builder.set(0, j, j + 1.0);
+    builder.set(1, 7, 1.0);
+    builder.set(1, 3, 2.0);
+    final Vec[] params = builder.result();
+    assertFalse(params[0].isSparse());
+    assertEquals(100.0, params[0].valueAt(99), 0.0);
+    assertEquals(0.0, params[0].valueAt(98), 0.0);
+    assertEquals(new Vec(100, new int[] {3, 7}, new double[] {2.0, 1.0}), params[1]);
+  }
+}
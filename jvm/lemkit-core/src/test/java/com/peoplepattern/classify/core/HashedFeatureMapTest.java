@@ -10,6 +10,7 @@ import java.util.Arrays;
 import java.util.HashSet;
 import org.junit.Test;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.*;
 
 public class HashedFeatureMapTest {
@@ -31,6 +32,15 @@ public class HashedFeatureMapTest {
     assertEquals(2, m11.indexOfFeature("D"));
   }
 
+  @Test
+  public void testIndexOfFeatureBytes() {
+    final HashedFeatureMap m = new HashedFeatureMap(sig1, 1 << 20, 17);
+    for (String f : Arrays.asList("", "A", "feature", "\u00fcmlaut", "\u65e5\u672c\u8a9e", "emoji\uD83D\uDE00")) {
+      final byte[] b = ("<" + f + ">").getBytes(UTF_8);
+      assertEquals(m.indexOfFeature(f), m.indexOfFeature(b, 1, b.length - 2));
+    }
+  }
+
   @Test
   public void testFunctionSig() {
     assertEquals(sig1, m11.functionSig());
@@ -0,0 +1,71 @@
+package com.peoplepattern.classify.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HistogramTest {
+
+  @Test
+  public void testBucketBounds() {
+    for (int b = 0; b < Histogram.NUM_BUCKETS; b++) {
+      assertEquals(b, Histogram.bucket(Histogram.lowerBound(b)));
+      assertEquals(b, Histogram.bucket(Histogram.upperBound(b)));
+      if (b > 0)
+        assertEquals(Histogram.upperBound(b - 1) + 1, Histogram.lowerBound(b));
+    }
+    assertEquals(0L, Histogram.lowerBound(0));
+    assertEquals(Long.MAX_VALUE, Histogram.upperBound(Histogram.NUM_BUCKETS - 1));
+  }
+
+  @Test
+  public void testSmallValuesExact() {
+    final Histogram h = new Histogram();
+    for (int v = 0; v < 8; v++)
+      h.record(v);
+    assertEquals(8, h.count());
+    assertEquals(28, h.sum());
+    assertEquals(3.5, h.mean(), 1e-9);
+    assertEquals(0L, h.quantile(0.0));
+    assertEquals(3L, h.quantile(0.5));
+    assertEquals(7L, h.quantile(1.0));
+  }
+
+  @Test
+  public void testQuantilesWithinBucketError() {
+    final Histogram h = new Histogram();
+    final Random random = new Random(7);
+    final List<Long> values = new ArrayList<Long>();
+    for (int i = 0; i < 100000; i++) {
+      final long v = (long) Math.exp(random.nextDouble() * 20);
+      values.add(v);
+      h.record(v);
+    }
+    values.sort(null);
+    for (double q : new double[] {0.1, 0.5, 0.9, 0.99}) {
+      final double exact = values.get((int) Math.ceil(q * values.size()) - 1);
+      assertEquals(exact, h.quantile(q), exact * 0.125 + 1);
+    }
+  }
+
+  @Test
+  public void testRecordTimesAndReset() {
+    final Histogram h = new Histogram();
+    h.record(100, 3);
+    h.record(-5);
+    assertEquals(4, h.count());
+    assertEquals(300, h.sum());
+    assertEquals(0L, h.quantile(0.25));
+    h.reset();
+    assertEquals(0, h.count());
+    assertEquals(0L, h.quantile(0.5));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadQuantile() {
+    new Histogram().quantile(1.5);
+  }
+}
@@ -0,0 +1,101 @@
+package com.peoplepattern.classify.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class MappedFeatureMapTest {
+
+  // In order of UTF-8 bytes: U+00E9 sorts after ASCII, U+1F600 after U+FFFD
+  final String[] features = {"", "a", "ab", "b", "\u00E9t\u00E9", "\uFFFD", "\uD83D\uDE00"};
+
+  private File write(final String... fs) throws IOException {
+    final File file = File.createTempFile("lemkit-dict", ".bin");
+    file.deleteOnExit();
+    final MappedFeatureMap.Writer writer = new MappedFeatureMap.Writer(file);
+    try {
+      for (String f : fs)
+        writer.add(f);
+      assertEquals(fs.length, writer.count());
+    } finally {
+      writer.close();
+    }
+    return file;
+  }
+
+  @Test
+  public void testLookup() throws IOException {
+    final MappedFeatureMap map = MappedFeatureMap.open(write(features), 3L);
+    assertEquals(features.length, map.size());
+    assertEquals(features.length, map.numFeatures());
+    assertEquals(3L, map.functionSig());
+    for (int i = 0; i < features.length; i++) {
+      assertEquals(i, map.indexOfFeature(features[i]));
+      final byte[] utf8 = ("x" + features[i]).getBytes(UTF_8);
+      assertEquals(i, map.indexOfFeature(utf8, 1, utf8.length - 1));
+      assertEquals(features[i], map.feature(i));
+    }
+    assertEquals(-1, map.indexOfFeature("aa"));
+    assertEquals(-1, map.indexOfFeature("c"));
+    assertEquals(-1, map.indexOfFeature("\uFFFF"));
+  }
+
+  @Test
+  public void testInterceptLikeExactFeatureMap() throws IOException {
+    final String[] noIntercept = Arrays.copyOfRange(features, 1, features.length);
+    final File file = write(noIntercept);
+    for (boolean intercept : new boolean[] {true, false}) {
+      final MappedFeatureMap map = MappedFeatureMap.open(file, 3L, intercept);
+      final ExactFeatureMap exact = new ExactFeatureMap(3L, noIntercept, intercept);
+      assertEquals(exact.size(), map.size());
+      assertEquals(exact.indexOfFeature(""), map.indexOfFeature(""));
+      assertEquals(exact, map.toExactFeatureMap());
+      final FeatureBundle bundle =
+          new FeatureBundle(3L, Arrays.asList(new Scored<String>("b", 2.0), new Scored<String>("z", 1.0)));
+      assertEquals(bundle.toDatum(exact), bundle.toDatum(map));
+    }
+  }
+
+  @Test
+  public void testWritesAsExactFeatureMap() throws IOException {
+    final MappedFeatureMap map = MappedFeatureMap.open(write(features), 3L);
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    map.writeToStream(new DataOutputStream(bytes));
+    final FeatureMap read = FeatureMap.binaryReader(3L)
+        .readFromStream(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    assertEquals(new ExactFeatureMap(3L, features), read);
+    assertEquals(new ExactFeatureMap(3L, features).toJson(), map.toJson());
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    final MappedFeatureMap map = MappedFeatureMap.open(write(), 3L);
+    assertEquals(0, map.numFeatures());
+    assertEquals(1, map.size());
+    assertEquals(0, map.indexOfFeature(""));
+    assertEquals(-1, map.indexOfFeature("a"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOutOfOrder() throws IOException {
+    write("a", "c", "b");
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncated() throws IOException {
+    final File file = write(features);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(raf.length() - 3);
+    }
+    MappedFeatureMap.open(file, 3L);
+  }
+}
@@ -0,0 +1,147 @@
+package com.peoplepattern.classify.core;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MeteredClassifierTest {
+
+  final LinearClassifier model = new LinearClassifier(1L, new String[] {"A", "B"}, new Vec[] {
+      new Vec(new double[] {-1.0, 5.0, 5.0, 0.5}), new Vec(new double[] {5.0, 5.0, -1.0, 0.0})});
+
+  final PortableLinearClassifier exact =
+      new PortableLinearClassifier(model, new ExactFeatureMap(1L, new String[] {"a", "b", "c"}));
+
+  final PortableLinearClassifier hashed =
+      new PortableLinearClassifier(model, new HashedFeatureMap(1L, 4));
+
+  FeatureBundle bundle(final String... features) {
+    final List<Scored<String>> obs = new ArrayList<Scored<String>>();
+    for (String f : features)
+      obs.add(new Scored<String>(f, 1.0));
+    return new FeatureBundle(1L, obs);
+  }
+
+  @Test
+  public void testPredictionsUnchanged() {
+    final MeteredClassifier<FeatureBundle> metered =
+        new MeteredClassifier<FeatureBundle>(exact, new PredictionStats());
+    final List<FeatureBundle> bundles =
+        Arrays.asList(bundle("a"), bundle("c", "z"), bundle("a", "b", "c"));
+    for (FeatureBundle b : bundles)
+      assertEquals(exact.predict(b), metered.predict(b));
+    assertEquals(exact.predictAll(bundles), metered.predictAll(bundles));
+    assertArrayEquals(exact.getLabels(), metered.getLabels());
+    assertEquals(exact.functionSig(), metered.functionSig());
+  }
+
+  @Test
+  public void testCountsFeaturesAndUnknowns() {
+    final PredictionStats stats = new PredictionStats();
+    final MeteredClassifier<FeatureBundle> metered = new MeteredClassifier<FeatureBundle>(exact, stats);
+    metered.predict(bundle("a", "x"));
+    metered.predictAll(Arrays.asList(bundle("a", "b", "c"), bundle("y", "z")));
+
+    assertEquals(3, stats.getPredictions());
+    assertEquals(7, stats.getFeatures());
+    assertEquals(3, stats.getUnknownFeatures());
+    assertEquals(3.0 / 7, stats.getUnknownFeatureRate(), 1e-9);
+    assertEquals(3, stats.featurizationNanos().count());
+    assertEquals(3, stats.scoringNanos().count());
+    // Intercept included: 2, 4 and 1 entries
+    assertEquals(7, stats.nonZeros().sum());
+    assertTrue(stats.getThroughput() > 0.0);
+
+    stats.reset();
+    assertEquals(0, stats.getPredictions());
+    assertEquals(0.0, stats.getUnknownFeatureRate(), 0.0);
+  }
+
+  @Test
+  public void testCountsUnknownLookups() {
+    final PredictionStats stats = new PredictionStats();
+    final MeteredClassifier<FeatureBundle> metered = new MeteredClassifier<FeatureBundle>(exact, stats);
+    // The repeated feature is one observation; "" is known, though it
+    // shares its index with the intercept
+    metered.predict(bundle("a", "a", "x"));
+    metered.predictAll(Arrays.asList(bundle("", "b"), bundle("", "y")));
+    assertEquals(6, stats.getFeatures());
+    assertEquals(2, stats.getUnknownFeatures());
+  }
+
+  @Test
+  public void testCountsPerThread() throws InterruptedException {
+    final PredictionStats stats = new PredictionStats();
+    final MeteredClassifier<FeatureBundle> metered = new MeteredClassifier<FeatureBundle>(exact, stats);
+    final Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread(new Runnable() {
+        public void run() {
+          for (int i = 0; i < 1000; i++)
+            metered.predict(bundle("a", "x", "y"));
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads)
+      thread.join();
+    assertEquals(4000, stats.getPredictions());
+    assertEquals(8000, stats.getUnknownFeatures());
+  }
+
+  @Test
+  public void testHashedFeaturesNeverUnknown() {
+    final PredictionStats stats = new PredictionStats();
+    new MeteredClassifier<FeatureBundle>(hashed, stats).predict(bundle("p", "q", "r", "s", "t"));
+    assertEquals(5, stats.getFeatures());
+    assertEquals(0, stats.getUnknownFeatures());
+  }
+
+  @Test
+  public void testOtherClassifiersTimedAsScoring() {
+    final PredictionStats stats = new PredictionStats();
+    final MeteredClassifier<Datum> metered = new MeteredClassifier<Datum>(model, stats);
+    final Datum datum = new Datum(1L, new Vec(new double[] {1.0, 0.0, 0.0, 1.0}));
+    assertEquals(model.predict(datum), metered.predict(datum));
+    metered.predictAll(Arrays.asList(datum, datum));
+    assertEquals(3, stats.getPredictions());
+    assertEquals(3, stats.scoringNanos().count());
+    assertEquals(0, stats.featurizationNanos().count());
+  }
+
+  @Test
+  public void testTextFormat() {
+    final PredictionStats stats = new PredictionStats();
+    new MeteredClassifier<FeatureBundle>(exact, stats).predict(bundle("a", "x"));
+    final String text = stats.toText();
+    assertTrue(text.contains("# TYPE lemkit_predictions_total counter\nlemkit_predictions_total 1\n"));
+    assertTrue(text.contains("# TYPE lemkit_scoring_seconds summary\n"));
+    assertTrue(text.contains("lemkit_scoring_seconds{quantile=\"0.99\"} "));
+    assertTrue(text.contains("lemkit_nonzeros_count 1\n"));
+    assertTrue(text.contains("lemkit_unknown_features_total 1\n"));
+    for (String line : text.split("\n"))
+      assertTrue(line, line.startsWith("# TYPE lemkit_") || line.matches("lemkit_\\w+(\\{.*\\})? \\S+"));
+  }
+
+  @Test
+  public void testJmx() throws Exception {
+    final PredictionStats stats = new PredictionStats();
+    new MeteredClassifier<FeatureBundle>(exact, stats).predict(bundle("a", "x"));
+    final ObjectName name = stats.registerMBean("test");
+    final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      assertEquals(1L, server.getAttribute(name, "Predictions"));
+      assertEquals(0.5, (Double) server.getAttribute(name, "UnknownFeatureRate"), 1e-9);
+      server.invoke(name, "reset", null, null);
+      assertEquals(0L, server.getAttribute(name, "Predictions"));
+    } finally {
+      server.unregisterMBean(name);
+    }
+  }
+}
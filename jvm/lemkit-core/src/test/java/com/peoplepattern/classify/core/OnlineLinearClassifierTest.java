@@ -0,0 +1,85 @@
+package com.peoplepattern.classify.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OnlineLinearClassifierTest {
+
+  final PortableLinearClassifier classifier = new PortableLinearClassifier(
+      new LinearClassifier(1L, new String[] {"B", "A"}, new Vec[] {
+          new Vec(3, new int[] {0, 2}, new double[] {5.0, -1.0}),
+          new Vec(new double[] {-1.0, 5.0, 5.0})}),
+      new ExactFeatureMap(1L, new String[] {"a", "b", "c"}, false));
+
+  FeatureBundle bundle(final double a, final double c) {
+    return new FeatureBundle(1L, Arrays.asList(new Scored<String>("a", a), new Scored<String>("c", c)));
+  }
+
+  @Test
+  public void testStartsFromModel() {
+    final OnlineLinearClassifier online = new OnlineLinearClassifier(classifier, 0.1);
+    assertArrayEquals(classifier.getLabels(), online.getLabels());
+    for (int i = 0; i < 5; i++) {
+      final FeatureBundle b = bundle(i, 4 - i);
+      assertEquals(classifier.predict(b), online.predict(b));
+      assertEquals(classifier.predict(b), online.snapshot().predict(b));
+    }
+  }
+
+  @Test
+  public void testLearnsFromFeedback() {
+    final OnlineLinearClassifier online = new OnlineLinearClassifier(classifier, 0.5);
+    final FeatureBundle b = bundle(1.0, 0.0);
+    assertEquals("B", online.predict(b).best());
+    for (int i = 0; i < 50; i++)
+      online.update(b, "A");
+    assertEquals("A", online.predict(b).best());
+    assertEquals(50L, online.updates());
+
+    final PortableLinearClassifier snapshot = online.snapshot();
+    assertEquals(online.predict(b), snapshot.predict(b));
+    assertEquals("B", classifier.predict(b).best());
+  }
+
+  @Test
+  public void testConcurrentUpdatesAndPredictions() throws Exception {
+    final OnlineLinearClassifier online = new OnlineLinearClassifier(classifier, 0.01);
+    final ExecutorService pool = Executors.newFixedThreadPool(6);
+    try {
+      final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+      for (int t = 0; t < 6; t++) {
+        final boolean updater = t % 2 == 0;
+        results.add(pool.submit(new Callable<Boolean>() {
+          public Boolean call() {
+            for (int i = 0; i < 2000; i++) {
+              if (updater)
+                online.update(bundle(1.0, 0.0), "A");
+              else if (online.predict(bundle(1.0, 0.0)).scores().length != 2)
+                return false;
+            }
+            return true;
+          }
+        }));
+      }
+      for (Future<Boolean> r : results)
+        assertTrue(r.get());
+    } finally {
+      pool.shutdown();
+    }
+    assertEquals(6000L, online.updates());
+    assertEquals("A", online.predict(bundle(1.0, 0.0)).best());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownLabel() {
+    new OnlineLinearClassifier(classifier, 0.1).update(bundle(1.0, 1.0), "C");
+  }
+}
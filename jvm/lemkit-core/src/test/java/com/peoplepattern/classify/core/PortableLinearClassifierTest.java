@@ -0,0 +1,54 @@
+package com.peoplepattern.classify.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PortableLinearClassifierTest {
+
+  final Vec[] params = new Vec[] {
+      new Vec(new double[] {-1.0, 5.0, 5.0, 0.5}),
+      new Vec(4, new int[] {0, 1, 3}, new double[] {5.0, 5.0, -0.5})};
+
+  final String[] labels = new String[] {"A", "B"};
+
+  final PortableLinearClassifier exact = new PortableLinearClassifier(
+      new LinearClassifier(1L, labels, params), new ExactFeatureMap(1L, new String[] {"a", "b", "c"}));
+
+  final PortableLinearClassifier hashed = new PortableLinearClassifier(
+      new LinearClassifier(1L, labels, params), new HashedFeatureMap(1L, 4, 42));
+
+  private static PortableLinearClassifier roundTrip(final PortableLinearClassifier c)
+      throws IOException {
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    c.writeToStream(new DataOutputStream(baos));
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+    return PortableLinearClassifier.BREADER.readFromStream(in);
+  }
+
+  @Test
+  public void testBinaryIo() throws IOException {
+    for (PortableLinearClassifier c : Arrays.asList(exact, hashed)) {
+      final PortableLinearClassifier output = roundTrip(c);
+      assertEquals(c.functionSig(), output.functionSig());
+      assertArrayEquals(c.getLabels(), output.getLabels());
+      assertEquals(c.getFeatureMap(), output.getFeatureMap());
+      assertEquals(c.getFeatureMap().size(), output.getFeatureMap().size());
+      assertEquals(c.toJson(), output.toJson());
+    }
+  }
+
+  @Test
+  public void testJsonIo() {
+    for (PortableLinearClassifier c : Arrays.asList(exact, hashed)) {
+      final PortableLinearClassifier output = PortableLinearClassifier.JPARSER.fromJson(c.toJson());
+      assertEquals(c.toJson(), output.toJson());
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package com.peoplepattern.classify.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SerializedFormTest {
+
+  final Vec[] params = new Vec[] {
+      new Vec(new double[] {-1.0, 5.0, 5.0, 0.5}),
+      new Vec(4, new int[] {0, 1, 3}, new double[] {5.0, 5.0, -0.5})};
+
+  final LinearClassifier model = new LinearClassifier(1L, new String[] {"A", "B"}, params);
+
+  final PortableLinearClassifier exact =
+      new PortableLinearClassifier(model, new ExactFeatureMap(1L, new String[] {"a", "b", "c"}));
+
+  final PortableLinearClassifier hashed =
+      new PortableLinearClassifier(model, new HashedFeatureMap(1L, 4, 42));
+
+  private static byte[] serialize(final Object o) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(o);
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T roundTrip(final T o) throws IOException, ClassNotFoundException {
+    final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialize(o)));
+    return (T) in.readObject();
+  }
+
+  private static FeatureBundle bundle(final String... features) {
+    final List<Scored<String>> obs = new ArrayList<Scored<String>>();
+    for (String f : features)
+      obs.add(new Scored<String>(f, 1.0));
+    return new FeatureBundle(1L, obs);
+  }
+
+  @Test
+  public void testVec() throws Exception {
+    for (Vec v : params) {
+      final Vec output = roundTrip(v);
+      assertEquals(v, output);
+      assertEquals(v.isSparse(), output.isSparse());
+    }
+    final Datum datum = new Datum(1L, params[1]);
+    assertEquals(datum, roundTrip(datum));
+  }
+
+  @Test
+  public void testExactFeatureMap() throws Exception {
+    final ExactFeatureMap map = (ExactFeatureMap) exact.getFeatureMap();
+    final ExactFeatureMap output = roundTrip(map);
+    assertEquals(map, output);
+    assertEquals(4, output.size());
+    assertEquals(2, output.indexOfFeature("c"));
+    assertEquals(3, output.indexOfFeature(""));
+    assertEquals(-1, output.indexOfFeature("z"));
+
+    final ExactFeatureMap noIntercept = roundTrip(new ExactFeatureMap(2L, new String[] {"x", "y"}, false));
+    assertFalse(noIntercept.addIntercept());
+    assertEquals(2, noIntercept.size());
+    assertEquals(-1, noIntercept.indexOfFeature(""));
+  }
+
+  @Test
+  public void testPortableLinearClassifier() throws Exception {
+    for (PortableLinearClassifier c : Arrays.asList(exact, hashed)) {
+      final PortableLinearClassifier output = roundTrip(c);
+      assertEquals(c.functionSig(), output.functionSig());
+      assertArrayEquals(c.getLabels(), output.getLabels());
+      assertEquals(c.getFeatureMap(), output.getFeatureMap());
+      for (int i = 0; i < params.length; i++)
+        assertEquals(c.getModel().parameter(i), output.getModel().parameter(i));
+      for (FeatureBundle b : Arrays.asList(bundle("a"), bundle("b", "c"), bundle("z")))
+        assertEquals(c.predict(b), output.predict(b));
+    }
+  }
+
+  @Test
+  public void testAboutTheSizeOfTheBinaryFormat() throws Exception {
+    final String[] features = new String[10000];
+    for (int i = 0; i < features.length; i++)
+      features[i] = "feature" + i;
+    final Vec[] weights = new Vec[2];
+    for (int k = 0; k < weights.length; k++) {
+      final double[] values = new double[features.length + 1];
+      for (int i = 0; i < values.length; i += 10)
+        values[i] = i + k;
+      weights[k] = new Vec(values).toSparse();
+    }
+    final PortableLinearClassifier c = new PortableLinearClassifier(
+        new LinearClassifier(1L, new String[] {"A", "B"}, weights), new ExactFeatureMap(1L, features));
+
+    final ByteArrayOutputStream binary = new ByteArrayOutputStream();
+    c.writeToStream(new DataOutputStream(binary));
+    assertTrue(serialize(c).length < binary.size() + 1000);
+    assertEquals(c.predict(bundle("feature10")), roundTrip(c).predict(bundle("feature10")));
+  }
+
+  /** A subclass with state of its own */
+  static final class Counting extends LinearClassifier {
+    static final long serialVersionUID = 1L;
+    int count = 7;
+
+    Counting() {
+      super(1L, new String[] {"A"}, new Vec[] {new Vec(new double[] {1.0})});
+    }
+  }
+
+  @Test
+  public void testSubclassesKeepDefaultForm() throws Exception {
+    final Counting output = roundTrip(new Counting());
+    assertEquals(7, output.count);
+    assertEquals(new Vec(new double[] {1.0}), output.parameter(0));
+  }
+}
@@ -2,6 +2,7 @@ package com.peoplepattern.classify.core;
 
 import com.eclipsesource.json.Json;
 import java.util.HashSet;
+import java.util.Random;
 import org.junit.Test;
 
 import static java.lang.Math.sqrt;
@@ -137,4 +138,56 @@ public class VecTest {
     assertEquals(d1, Vec.JPARSER.fromJsonString(d1json));
     assertEquals(s1, Vec.JPARSER.fromJsonString(s1json));
   }
+
+  @Test
+  public void testFromUnordered() {
+    final int[] indices = new int[] {4, 2, 0, 2, 9};
+    final double[] values = new double[] {3.0, 2.0, 1.0, 0.1, 7.0};
+    assertEquals(s1, Vec.fromUnordered(5, indices, values, 4));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFromUnorderedOutOfRange() {
+    Vec.fromUnordered(5, new int[] {5}, new double[] {1.0}, 1);
+  }
+
+  @Test
+  public void testToSparseToDense() {
+    assertTrue(d1.toSparse().isSparse());
+    assertEquals(s1, d1.toSparse());
+    assertEquals(s1.hashCode(), d1.toSparse().hashCode());
+    assertFalse(s1.toDense().isSparse());
+    assertEquals(d1, s1.toDense());
+    assertEquals(d1.hashCode(), s1.toDense().hashCode());
+  }
+
+  @Test
+  public void testEntries() {
+    assertEquals(5, s1.size());
+    assertEquals(3, s1.numEntries());
+    assertEquals(4, s1.indexAt(2));
+    assertEquals(3.0, s1.valueAt(2), 0.0);
+    assertEquals(5, d1.numEntries());
+    assertEquals(2, d1.indexAt(2));
+    assertEquals(2.1, d1.valueAt(2), 0.0);
+  }
+
+  @Test
+  public void testSparseDotLongShort() {
+    final Random random = new Random(3);
+    final int size = 10000;
+    final int[] longIndices = new int[2000];
+    final double[] longValues = new double[2000];
+    for (int i = 0; i < longIndices.length; i++) {
+      longIndices[i] = 5 * i + random.nextInt(5);
+      longValues[i] = random.nextGaussian();
+    }
+    final Vec param = new Vec(size, longIndices, longValues);
+    final Vec datum = Vec.fromUnordered(size, new int[] {longIndices[7], 3, longIndices[1500], 9999},
+        new double[] {2.0, 1.0, -1.0, 0.5}, 4);
+
+    final double expected = param.toDense().dot(datum);
+    assertEquals(expected, param.dot(datum), 0.0);
+    assertEquals(expected, datum.dot(param), 0.0);
+  }
 }
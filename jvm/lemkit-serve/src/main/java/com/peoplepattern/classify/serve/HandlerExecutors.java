@@ -0,0 +1,41 @@
+package com.peoplepattern.classify.serve;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for request handlers
+ *
+ * <p>Prefers one virtual thread per task when the running JVM supports
+ * them; the lookup is reflective so the module still builds and runs
+ * on JVMs without virtual threads, in which case a cached pool of daemon
+ * platform threads is used instead.
+ */
+final class HandlerExecutors {
+  private HandlerExecutors() {}
+
+  static ExecutorService newHandlerExecutor(final String prefix) {
+    try {
+      final Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) m.invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool(daemonThreads(prefix));
+    } catch (UnsupportedOperationException e) {
+      return Executors.newCachedThreadPool(daemonThreads(prefix));
+    }
+  }
+
+  static ThreadFactory daemonThreads(final String prefix) {
+    final AtomicInteger count = new AtomicInteger();
+    return new ThreadFactory() {
+      public Thread newThread(final Runnable r) {
+        final Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    };
+  }
+}
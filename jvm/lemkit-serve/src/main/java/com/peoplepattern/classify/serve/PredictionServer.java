@@ -0,0 +1,405 @@
+package com.peoplepattern.classify.serve;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonObject;
+import com.eclipsesource.json.JsonValue;
+import com.eclipsesource.json.ParseException;
+import com.peoplepattern.classify.core.Classification;
+import com.peoplepattern.classify.core.Datum;
+import com.peoplepattern.classify.core.FeatureBundle;
+import com.peoplepattern.classify.core.HashedFeatureMap;
+import com.peoplepattern.classify.core.PortableLinearClassifier;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Serves {@link PortableLinearClassifier}s over HTTP
+ *
+ * <p>Built only on the JDK's {@code com.sun.net.httpserver} so it adds no
+ * dependencies beyond lemkit-core. Requests are handled on virtual threads
+ * when the JVM supports them, otherwise on a cached pool of daemon threads.
+ *
+ * <p>Endpoints:
+ * <ul>
+ * <li>{@code GET /health} -- liveness; 200 as soon as the server is listening
+ * <li>{@code GET /ready} -- readiness; 200 once at least one model is loaded
+ * and no model is still warming up, 503 otherwise
+ * <li>{@code GET /models} -- the loaded models with their labels, function
+ * signatures and feature space sizes
+ * <li>{@code POST /predict/<name>} -- classify with the named model; the
+ * model name may be omitted when exactly one model is loaded
+ * </ul>
+ *
+ * <p>A prediction request body is either a single input or a JSON array of
+ * inputs (a batch, answered with an array of classifications in the same
+ * order). Each input is either {@link FeatureBundle} JSON
+ * ({@code {"function_sig": .., "observations": {..}}}) or, for callers which
+ * hash features themselves, {@link Datum} JSON carrying a pre-hashed sparse
+ * vector ({@code {"function_sig": .., "vector": {"size": .., "indices": [..],
+ * "values": [..]}}}). Responses are {@link Classification} JSON.
+ *
+ * <p>Models are warmed up (see {@link #addModel}) before they are
+ * published, so the first real requests don't pay for JIT compilation.
+ */
+public final class PredictionServer {
+
+  /** Default number of synthetic predictions used to warm up a model */
+  public static final int DEFAULT_WARMUP_ITERATIONS = 2000;
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final int warmupIterations;
+  private final ConcurrentMap<String, PortableLinearClassifier> models =
+      new ConcurrentHashMap<String, PortableLinearClassifier>();
+  private final AtomicInteger warming = new AtomicInteger();
+
+  /**
+   * Create a server bound to an address; it doesn't accept requests until
+   * {@link #start} is called
+   *
+   * @param address the address to listen on; port 0 picks a free port
+   * @param warmupIterations the number of synthetic predictions run against
+   *        each model before it is published; 0 disables warm-up
+   * @throws IOException if the server socket can't be bound
+   */
+  public PredictionServer(final InetSocketAddress address, final int warmupIterations)
+      throws IOException {
+    if (warmupIterations < 0)
+      throw new IllegalArgumentException("warm-up iterations must be non-negative");
+
+    this.warmupIterations = warmupIterations;
+    this.server = HttpServer.create(address, 0);
+    this.executor = HandlerExecutors.newHandlerExecutor("lemkit-serve");
+    server.setExecutor(executor);
+    server.createContext("/health", new HealthHandler());
+    server.createContext("/ready", new ReadyHandler());
+    server.createContext("/models", new ModelsHandler());
+    server.createContext("/predict", new PredictHandler());
+  }
+
+  /**
+   * Create a server listening on all interfaces at a port
+   *
+   * @param port the port to listen on
+   * @throws IOException if the server socket can't be bound
+   */
+  public PredictionServer(final int port) throws IOException {
+    this(new InetSocketAddress(port), DEFAULT_WARMUP_ITERATIONS);
+  }
+
+  /**
+   * Warm up a model and then make it available for predictions
+   *
+   * <p>The server reports not ready while any model is warming up.
+   * Adding a model under an existing name replaces it once the new one
+   * is warm, so requests never see a cold model.
+   *
+   * @param name the name of the model, used in {@code /predict/<name>}
+   * @param classifier the model
+   */
+  public void addModel(final String name, final PortableLinearClassifier classifier) {
+    if (name == null || name.isEmpty() || name.indexOf('/') >= 0)
+      throw new IllegalArgumentException(format("Invalid model name: %s", name));
+
+    if (classifier == null)
+      throw new IllegalArgumentException("Null classifier");
+
+    warming.incrementAndGet();
+    try {
+      Warmup.run(classifier, warmupIterations);
+      models.put(name, classifier);
+    } finally {
+      warming.decrementAndGet();
+    }
+  }
+
+  /**
+   * Remove a model
+   *
+   * @param name the name of the model
+   * @return true if a model by that name was loaded
+   */
+  public boolean removeModel(final String name) {
+    return models.remove(name) != null;
+  }
+
+  /**
+   * Whether the server can take prediction traffic
+   *
+   * @return true if at least one model is loaded and none is warming up
+   */
+  public boolean isReady() {
+    return warming.get() == 0 && !models.isEmpty();
+  }
+
+  /** Start accepting requests */
+  public void start() {
+    server.start();
+  }
+
+  /**
+   * Stop accepting requests and shut down
+   *
+   * @param delaySeconds the maximum time to wait for in-flight exchanges
+   */
+  public void stop(final int delaySeconds) {
+    server.stop(delaySeconds);
+    executor.shutdown();
+    try {
+      executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * The address the server is bound to
+   *
+   * @return the bound socket address, with the actual port if 0 was requested
+   */
+  public InetSocketAddress getAddress() {
+    return server.getAddress();
+  }
+
+  private static void respond(final HttpExchange exchange, final int status, final JsonValue json)
+      throws IOException {
+    final byte[] bytes = json.toString().getBytes(UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    final OutputStream out = exchange.getResponseBody();
+    try {
+      out.write(bytes);
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void error(final HttpExchange exchange, final int status, final String msg)
+      throws IOException {
+    respond(exchange, status, Json.object().add("error", msg == null ? "" : msg));
+  }
+
+  private static boolean requireMethod(final HttpExchange exchange, final String method)
+      throws IOException {
+    if (method.equals(exchange.getRequestMethod()))
+      return true;
+
+    exchange.getResponseHeaders().set("Allow", method);
+    error(exchange, 405, format("%s not allowed", exchange.getRequestMethod()));
+    return false;
+  }
+
+  private final class HealthHandler implements HttpHandler {
+    public void handle(final HttpExchange exchange) throws IOException {
+      if (requireMethod(exchange, "GET"))
+        respond(exchange, 200, Json.object().add("status", "ok"));
+    }
+  }
+
+  private final class ReadyHandler implements HttpHandler {
+    public void handle(final HttpExchange exchange) throws IOException {
+      if (!requireMethod(exchange, "GET"))
+        return;
+
+      final boolean ready = isReady();
+      final JsonObject json = Json.object();
+      json.add("ready", ready);
+      json.add("models", models.size());
+      json.add("warming", warming.get());
+      respond(exchange, ready ? 200 : 503, json);
+    }
+  }
+
+  private final class ModelsHandler implements HttpHandler {
+    public void handle(final HttpExchange exchange) throws IOException {
+      if (!requireMethod(exchange, "GET"))
+        return;
+
+      final JsonObject json = Json.object();
+      for (Map.Entry<String, PortableLinearClassifier> e : new TreeMap<String, PortableLinearClassifier>(
+          models).entrySet()) {
+        final PortableLinearClassifier c = e.getValue();
+        final JsonObject m = Json.object();
+        m.add("function_sig", c.functionSig());
+        m.add("labels", Json.array(c.getLabels()));
+        m.add("features", c.getFeatureMap().size());
+        m.add("hashed", c.getFeatureMap() instanceof HashedFeatureMap);
+        json.add(e.getKey(), m);
+      }
+      respond(exchange, 200, json);
+    }
+  }
+
+  private final class PredictHandler implements HttpHandler {
+    public void handle(final HttpExchange exchange) throws IOException {
+      try {
+        if (!requireMethod(exchange, "POST"))
+          return;
+
+        final PortableLinearClassifier classifier = lookup(exchange.getRequestURI().getPath());
+        if (classifier == null) {
+          error(exchange, 404, "No such model");
+          return;
+        }
+
+        final JsonValue body;
+        final Reader reader = new InputStreamReader(exchange.getRequestBody(), UTF_8);
+        try {
+          body = Json.parse(reader);
+        } finally {
+          reader.close();
+        }
+
+        if (body.isArray()) {
+          final JsonArray inputs = body.asArray();
+          final JsonArray outputs = new JsonArray();
+          for (JsonValue input : inputs)
+            outputs.add(predict(classifier, input).toJson());
+          respond(exchange, 200, outputs);
+        } else {
+          respond(exchange, 200, predict(classifier, body).toJson());
+        }
+      } catch (ParseException e) {
+        error(exchange, 400, e.getMessage());
+      } catch (IllegalArgumentException e) {
+        error(exchange, 400, e.getMessage());
+      } catch (RuntimeException e) {
+        error(exchange, 500, e.toString());
+      } finally {
+        exchange.close();
+      }
+    }
+  }
+
+  private PortableLinearClassifier lookup(final String path) {
+    final String prefix = "/predict";
+    if (!path.equals(prefix) && !path.startsWith(prefix + "/"))
+      return null;
+
+    final String rest = path.substring(Math.min(path.length(), prefix.length() + 1));
+
+    if (!rest.isEmpty())
+      return models.get(rest);
+
+    if (models.size() == 1)
+      for (PortableLinearClassifier c : models.values())
+        return c;
+
+    return null;
+  }
+
+  /**
+   * Classify one input: FeatureBundle JSON, or Datum JSON for pre-hashed vectors
+   */
+  static Classification predict(final PortableLinearClassifier classifier, final JsonValue input) {
+    if (input == null || !input.isObject())
+      throw new IllegalArgumentException("Prediction input must be a JSON object");
+
+    final JsonObject obj = input.asObject();
+
+    if (obj.get("vector") != null)
+      return classifier.getModel().predict(Datum.JPARSER.fromJson(obj));
+    else
+      return classifier.predict(FeatureBundle.JPARSER.fromJson(obj));
+  }
+
+  private static PortableLinearClassifier readModel(final File file, final String format)
+      throws IOException {
+    if ("json".equals(format))
+      return PortableLinearClassifier.JPARSER.readJson(file);
+    else
+      return PortableLinearClassifier.BREADER.readFromBinaryFile(file);
+  }
+
+  /**
+   * Command line entry point
+   *
+   * <pre>
+   * --model | -m [name=]path      Model file to serve; repeatable. The name
+   *                               defaults to the file name minus extension
+   * --model-format | -f format    Model format (json or binary, default binary)
+   * --port | -p port              Port to listen on (default 8080)
+   * --warmup | -w iterations      Warm-up predictions per model (default 2000)
+   * </pre>
+   *
+   * @param args command line arguments
+   * @throws IOException if a model can't be read or the port can't be bound
+   */
+  public static void main(final String[] args) throws IOException {
+    final Map<String, String> modelPaths = new TreeMap<String, String>();
+    String modelFormat = "binary";
+    int port = 8080;
+    int warmup = DEFAULT_WARMUP_ITERATIONS;
+
+    for (int i = 0; i < args.length; i++) {
+      final String arg = args[i];
+      if (i + 1 >= args.length)
+        throw new IllegalArgumentException(format("Argument for %s required", arg));
+
+      final String value = args[++i];
+      switch (arg) {
+        case "--model":
+        case "-m": {
+          final int eq = value.indexOf('=');
+          if (eq > 0) {
+            modelPaths.put(value.substring(0, eq), value.substring(eq + 1));
+          } else {
+            final String name = new File(value).getName();
+            final int dot = name.indexOf('.');
+            modelPaths.put(dot > 0 ? name.substring(0, dot) : name, value);
+          }
+          break;
+        }
+
+        case "--model-format":
+        case "-f":
+          if (!"json".equals(value) && !"binary".equals(value))
+            throw new IllegalArgumentException("Model format must be 'json' or 'binary'");
+          modelFormat = value;
+          break;
+
+        case "--port":
+        case "-p":
+          port = Integer.parseInt(value);
+          break;
+
+        case "--warmup":
+        case "-w":
+          warmup = Integer.parseInt(value);
+          break;
+
+        default:
+          throw new IllegalArgumentException(format("Unrecognized argument: %s", arg));
+      }
+    }
+
+    if (modelPaths.isEmpty())
+      throw new IllegalArgumentException("Must specify at least one --model (or -m)");
+
+    final PredictionServer server = new PredictionServer(new InetSocketAddress(port), warmup);
+
+    // Listen right away so liveness probes pass while models load and warm up
+    server.start();
+
+    for (Map.Entry<String, String> e : modelPaths.entrySet())
+      server.addModel(e.getKey(), readModel(new File(e.getValue()), modelFormat));
+  }
+}
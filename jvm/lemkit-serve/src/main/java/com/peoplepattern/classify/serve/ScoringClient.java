@@ -0,0 +1,282 @@
+package com.peoplepattern.classify.serve;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.peoplepattern.classify.serve.ScoringProtocol.*;
+
+/**
+ * Pipelined client for the binary {@link ScoringProtocol}
+ *
+ * <p>One client holds one connection, which may be shared by any number
+ * of threads. Requests are written as soon as they're made, without
+ * waiting for earlier responses, and each returns a future completed by a
+ * background reader thread when its response arrives. Concurrent writers
+ * are combined: whichever thread holds the connection drains everyone's
+ * queued frames in a single gathering write.
+ */
+public final class ScoringClient implements Closeable {
+
+  private final SocketChannel channel;
+  private final AtomicInteger ids = new AtomicInteger();
+  private final Map<Integer, CompletableFuture<float[]>> scoreRequests =
+      new ConcurrentHashMap<Integer, CompletableFuture<float[]>>();
+  private final Map<Integer, CompletableFuture<String[]>> labelRequests =
+      new ConcurrentHashMap<Integer, CompletableFuture<String[]>>();
+  private final Queue<ByteBuffer> outbox = new ConcurrentLinkedQueue<ByteBuffer>();
+  private final AtomicBoolean writing = new AtomicBoolean();
+  private final Thread reader;
+  private volatile IOException failure;
+
+  /**
+   * Connect to a {@link ScoringServer}
+   *
+   * @param address the address of the server
+   * @throws IOException if the connection can't be made
+   */
+  public ScoringClient(final InetSocketAddress address) throws IOException {
+    channel = SocketChannel.open(address);
+    channel.socket().setTcpNoDelay(true);
+    reader = new Thread(new Runnable() {
+      public void run() {
+        readLoop();
+      }
+    }, "lemkit-scoring-client-reader");
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  /**
+   * Score string features with the model at a slot
+   *
+   * @param slot the model slot
+   * @param features the features
+   * @param values the feature values
+   * @return a future of the scores, in the order of {@link #labels}
+   */
+  public CompletableFuture<float[]> score(final int slot, final String[] features,
+      final float[] values) {
+    final int id = ids.incrementAndGet();
+    return send(id, scoreRequests, encodeFeatures(id, slot, features, values));
+  }
+
+  /**
+   * Score a pre-hashed sparse vector with the model at a slot
+   *
+   * @param slot the model slot
+   * @param indices the vector indices, in any order
+   * @param values the vector values
+   * @return a future of the scores, in the order of {@link #labels}
+   */
+  public CompletableFuture<float[]> scoreHashed(final int slot, final int[] indices,
+      final float[] values) {
+    final int id = ids.incrementAndGet();
+    return send(id, scoreRequests, encodeHashed(id, slot, indices, values));
+  }
+
+  /**
+   * Retrieve the labels of the model at a slot
+   *
+   * @param slot the model slot
+   * @return a future of the labels, in the order scores are returned
+   */
+  public CompletableFuture<String[]> labels(final int slot) {
+    final int id = ids.incrementAndGet();
+    return send(id, labelRequests, encodeLabels(id, slot));
+  }
+
+  /**
+   * Retrieve the labels of the model at a slot, waiting for the response
+   *
+   * @param slot the model slot
+   * @return the labels, in the order scores are returned
+   * @throws IOException if the request fails
+   */
+  public String[] labelsSync(final int slot) throws IOException {
+    try {
+      return labels(slot).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted waiting for response", e);
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private <T> CompletableFuture<T> send(final int id, final Map<Integer, CompletableFuture<T>> pending,
+      final ByteBuffer frame) {
+    final CompletableFuture<T> future = new CompletableFuture<T>();
+    if (failure != null) {
+      future.completeExceptionally(failure);
+      return future;
+    }
+
+    pending.put(id, future);
+
+    // The connection may have failed after the check above
+    final IOException failed = failure;
+    if (failed != null && pending.remove(id) != null) {
+      future.completeExceptionally(failed);
+      return future;
+    }
+
+    outbox.add(frame);
+    flush();
+    return future;
+  }
+
+  private void flush() {
+    while (!outbox.isEmpty() && writing.compareAndSet(false, true)) {
+      try {
+        final List<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+        ByteBuffer frame;
+        while (frames.size() < 1024 && (frame = outbox.poll()) != null)
+          frames.add(frame);
+
+        final ByteBuffer[] bufs = frames.toArray(new ByteBuffer[frames.size()]);
+        final ByteBuffer last = bufs[bufs.length - 1];
+        while (last.hasRemaining())
+          channel.write(bufs);
+      } catch (IOException e) {
+        fail(e);
+      } finally {
+        writing.set(false);
+      }
+    }
+  }
+
+  private void readLoop() {
+    ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+    try {
+      while (true) {
+        if (channel.read(in) < 0)
+          throw new EOFException("Connection closed by server");
+
+        in.flip();
+        while (in.remaining() >= 4) {
+          final int len = in.getInt(in.position());
+          if (len < 5 || len > MAX_FRAME_LENGTH)
+            throw new IOException("Invalid response frame length: " + len);
+
+          if (in.remaining() < 4 + len) {
+            if (in.capacity() < 4 + len) {
+              final ByteBuffer bigger = ByteBuffer.allocate(4 + len);
+              bigger.put(in);
+              in = bigger;
+              in.flip();
+            }
+            break;
+          }
+
+          final int end = in.position() + 4 + len;
+          final ByteBuffer frame = in.duplicate();
+          frame.position(in.position() + 4);
+          frame.limit(end);
+          in.position(end);
+          complete(frame);
+        }
+        in.compact();
+      }
+    } catch (IOException e) {
+      fail(e);
+    } catch (RuntimeException e) {
+      fail(new IOException("Malformed response", e));
+    }
+  }
+
+  private void complete(final ByteBuffer frame) throws IOException {
+    final int id = frame.getInt();
+    final byte status = frame.get();
+
+    final CompletableFuture<String[]> labelsFuture = labelRequests.remove(id);
+    if (labelsFuture != null) {
+      try {
+        if (status == STATUS_OK) {
+          final String[] labels = new String[count(frame, 2)];
+          for (int i = 0; i < labels.length; i++)
+            labels[i] = getString(frame);
+          labelsFuture.complete(labels);
+        } else {
+          labelsFuture.completeExceptionally(new IllegalArgumentException(getString(frame)));
+        }
+      } catch (RuntimeException e) {
+        throw malformed(labelsFuture, e);
+      }
+      return;
+    }
+
+    final CompletableFuture<float[]> scoresFuture = scoreRequests.remove(id);
+    if (scoresFuture != null) {
+      try {
+        if (status == STATUS_OK) {
+          final float[] scores = new float[count(frame, 4)];
+          for (int i = 0; i < scores.length; i++)
+            scores[i] = frame.getFloat();
+          scoresFuture.complete(scores);
+        } else {
+          scoresFuture.completeExceptionally(new IllegalArgumentException(getString(frame)));
+        }
+      } catch (RuntimeException e) {
+        throw malformed(scoresFuture, e);
+      }
+    }
+  }
+
+  /** Read a count of items, each at least {@code minSize} bytes, bounded by the frame */
+  private static int count(final ByteBuffer frame, final int minSize) {
+    final int n = frame.getInt();
+    if (n < 0 || n > frame.remaining() / minSize)
+      throw new IllegalArgumentException("Invalid count in response: " + n);
+    return n;
+  }
+
+  /** Fail the request of a response which couldn't be decoded */
+  private static IOException malformed(final CompletableFuture<?> f, final RuntimeException cause) {
+    final IOException e = new IOException("Malformed response", cause);
+    f.completeExceptionally(e);
+    return e;
+  }
+
+  private void fail(final IOException e) {
+    if (failure == null)
+      failure = e;
+
+    for (Integer id : scoreRequests.keySet()) {
+      final CompletableFuture<float[]> f = scoreRequests.remove(id);
+      if (f != null)
+        f.completeExceptionally(e);
+    }
+
+    for (Integer id : labelRequests.keySet()) {
+      final CompletableFuture<String[]> f = labelRequests.remove(id);
+      if (f != null)
+        f.completeExceptionally(e);
+    }
+
+    try {
+      channel.close();
+    } catch (IOException e2) { /* failing anyway */
+    }
+  }
+
+  /**
+   * Close the connection; requests still in flight fail
+   */
+  public void close() throws IOException {
+    fail(new IOException("Client closed"));
+  }
+}
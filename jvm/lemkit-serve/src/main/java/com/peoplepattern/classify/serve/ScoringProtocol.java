@@ -0,0 +1,153 @@
+package com.peoplepattern.classify.serve;
+
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Constants and codecs for the length-prefixed binary scoring protocol
+ *
+ * <p>All integers are big-endian. Every message is a frame: a 4-byte
+ * length (not counting the length itself) followed by that many bytes.
+ * A connection carries any number of request frames back-to-back without
+ * waiting for responses (pipelining); each response carries the id of the
+ * request it answers, and responses may arrive out of order.
+ *
+ * <p>Request frame body:
+ * <pre>
+ * int   request id (chosen by the client)
+ * short model slot
+ * byte  kind: KIND_LABELS, KIND_FEATURES or KIND_HASHED
+ * int   n, the number of features (0 for KIND_LABELS)
+ * n x   KIND_FEATURES: short length, UTF-8 bytes of the feature, float value
+ *       KIND_HASHED:   int index, float value
+ * </pre>
+ *
+ * <p>Features of a {@code KIND_FEATURES} request are mapped through the
+ * model's {@link com.peoplepattern.classify.core.FeatureMap}, with the
+ * intercept added as usual. A {@code KIND_HASHED} request is the raw vector:
+ * indices need not be sorted (duplicates are summed) and the client is
+ * responsible for including the intercept.
+ *
+ * <p>Response frame body:
+ * <pre>
+ * int   request id
+ * byte  status: STATUS_OK or STATUS_ERROR
+ * OK, scoring request:  int n, n x float score, in label order
+ * OK, labels request:   int n, n x (short length, UTF-8 bytes)
+ * ERROR:                short length, UTF-8 bytes of a message
+ * </pre>
+ */
+public final class ScoringProtocol {
+  private ScoringProtocol() {}
+
+  /** Request the labels of a model, in the order scores are returned */
+  public static final byte KIND_LABELS = 0;
+
+  /** Request scores for string features */
+  public static final byte KIND_FEATURES = 1;
+
+  /** Request scores for a pre-hashed sparse vector */
+  public static final byte KIND_HASHED = 2;
+
+  public static final byte STATUS_OK = 0;
+
+  public static final byte STATUS_ERROR = 1;
+
+  /** Frames longer than this are rejected and the connection dropped */
+  public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+  /** Size of the request header following the frame length */
+  static final int REQUEST_HEADER = 4 + 2 + 1 + 4;
+
+  static void putString(final ByteBuffer buf, final String s) {
+    final byte[] bytes = s.getBytes(UTF_8);
+    if (bytes.length > Short.MAX_VALUE)
+      throw new IllegalArgumentException("String too long for protocol");
+
+    buf.putShort((short) bytes.length);
+    buf.put(bytes);
+  }
+
+  static String getString(final ByteBuffer buf) {
+    final int len = buf.getShort() & 0xFFFF;
+    final byte[] bytes = new byte[len];
+    buf.get(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  static int stringSize(final String s) {
+    return 2 + s.getBytes(UTF_8).length;
+  }
+
+  /**
+   * Encode a string-feature scoring request as a complete frame
+   *
+   * @param id the request id
+   * @param slot the model slot
+   * @param features the feature strings
+   * @param values the feature values, one per feature
+   * @return a buffer, ready to be written, holding the frame
+   */
+  public static ByteBuffer encodeFeatures(final int id, final int slot, final String[] features,
+      final float[] values) {
+    if (features.length != values.length)
+      throw new IllegalArgumentException("Must have same number of features as values");
+
+    final byte[][] encoded = new byte[features.length][];
+    int size = REQUEST_HEADER;
+    for (int i = 0; i < features.length; i++) {
+      encoded[i] = features[i].getBytes(UTF_8);
+      if (encoded[i].length > Short.MAX_VALUE)
+        throw new IllegalArgumentException("Feature too long for protocol");
+      size += 2 + encoded[i].length + 4;
+    }
+
+    final ByteBuffer buf = ByteBuffer.allocate(4 + size);
+    buf.putInt(size).putInt(id).putShort((short) slot).put(KIND_FEATURES).putInt(features.length);
+    for (int i = 0; i < features.length; i++) {
+      buf.putShort((short) encoded[i].length);
+      buf.put(encoded[i]);
+      buf.putFloat(values[i]);
+    }
+    buf.flip();
+    return buf;
+  }
+
+  /**
+   * Encode a pre-hashed scoring request as a complete frame
+   *
+   * @param id the request id
+   * @param slot the model slot
+   * @param indices the vector indices
+   * @param values the vector values, one per index
+   * @return a buffer, ready to be written, holding the frame
+   */
+  public static ByteBuffer encodeHashed(final int id, final int slot, final int[] indices,
+      final float[] values) {
+    if (indices.length != values.length)
+      throw new IllegalArgumentException("Must have same number of indices as values");
+
+    final int size = REQUEST_HEADER + 8 * indices.length;
+    final ByteBuffer buf = ByteBuffer.allocate(4 + size);
+    buf.putInt(size).putInt(id).putShort((short) slot).put(KIND_HASHED).putInt(indices.length);
+    for (int i = 0; i < indices.length; i++)
+      buf.putInt(indices[i]).putFloat(values[i]);
+    buf.flip();
+    return buf;
+  }
+
+  /**
+   * Encode a labels request as a complete frame
+   *
+   * @param id the request id
+   * @param slot the model slot
+   * @return a buffer, ready to be written, holding the frame
+   */
+  public static ByteBuffer encodeLabels(final int id, final int slot) {
+    final ByteBuffer buf = ByteBuffer.allocate(4 + REQUEST_HEADER);
+    buf.putInt(REQUEST_HEADER).putInt(id).putShort((short) slot).put(KIND_LABELS).putInt(0);
+    buf.flip();
+    return buf;
+  }
+}
@@ -0,0 +1,553 @@
+package com.peoplepattern.classify.serve;
+
+import com.peoplepattern.classify.core.Datum;
+import com.peoplepattern.classify.core.FeatureMap;
+import com.peoplepattern.classify.core.PortableLinearClassifier;
+import com.peoplepattern.classify.core.Vec;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.peoplepattern.classify.serve.ScoringProtocol.*;
+import static java.lang.String.format;
+
+/**
+ * Serves {@link PortableLinearClassifier}s over the binary
+ * {@link ScoringProtocol}
+ *
+ * <p>A single NIO selector thread accepts connections, reads and decodes
+ * request frames and writes responses. All requests decoded from one read
+ * of a connection are scored together as one task on a pool of worker
+ * threads, whose encoded responses go back to the selector thread as one
+ * buffer. A connection can therefore keep thousands of requests in flight
+ * at the cost of a few syscalls per batch rather than per request.
+ *
+ * <p>A connection whose queued, unwritten responses exceed
+ * {@link #MAX_PENDING_BYTES} is not read from until the client catches up.
+ *
+ * <p>Models are addressed by a numeric slot, assigned with {@link #setModel}.
+ */
+public final class ScoringServer implements Closeable {
+
+  /** Per-connection limit of response bytes queued for writing */
+  public static final long MAX_PENDING_BYTES = 64L * 1024 * 1024;
+
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+  private final ServerSocketChannel serverChannel;
+  private final Selector selector;
+  private final ExecutorService workers;
+  private final Queue<Connection> writable = new ConcurrentLinkedQueue<Connection>();
+  private final Thread loop;
+  private volatile PortableLinearClassifier[] models = new PortableLinearClassifier[0];
+  private volatile boolean running = true;
+
+  /**
+   * Bind a server; it doesn't accept connections until {@link #start}
+   *
+   * @param address the address to listen on; port 0 picks a free port
+   * @param workerThreads the number of threads scoring requests
+   * @throws IOException if the server socket can't be bound
+   */
+  public ScoringServer(final InetSocketAddress address, final int workerThreads)
+      throws IOException {
+    if (workerThreads < 1)
+      throw new IllegalArgumentException("Need at least one worker thread");
+
+    selector = Selector.open();
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.bind(address);
+    serverChannel.configureBlocking(false);
+    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    workers = Executors.newFixedThreadPool(workerThreads,
+        HandlerExecutors.daemonThreads("lemkit-scoring-worker"));
+    loop = new Thread(new Runnable() {
+      public void run() {
+        selectLoop();
+      }
+    }, "lemkit-scoring-selector");
+  }
+
+  /**
+   * Serve a model at a slot, replacing any model already there
+   *
+   * @param slot the slot number, 0 to 32767
+   * @param classifier the model; null to remove the model at the slot
+   */
+  public synchronized void setModel(final int slot, final PortableLinearClassifier classifier) {
+    if (slot < 0 || slot > Short.MAX_VALUE)
+      throw new IllegalArgumentException(format("Invalid slot: %d", slot));
+
+    final PortableLinearClassifier[] updated =
+        Arrays.copyOf(models, Math.max(models.length, slot + 1));
+    updated[slot] = classifier;
+    models = updated;
+  }
+
+  /** Start accepting connections */
+  public void start() {
+    loop.start();
+  }
+
+  /**
+   * The address the server is bound to
+   *
+   * @return the bound address, with the actual port if 0 was requested
+   * @throws IOException if the address can't be determined
+   */
+  public InetSocketAddress getAddress() throws IOException {
+    return (InetSocketAddress) serverChannel.getLocalAddress();
+  }
+
+  /** Stop the selector loop, close all connections and stop the workers */
+  public void close() throws IOException {
+    running = false;
+    selector.wakeup();
+    try {
+      loop.join(5000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    workers.shutdown();
+    try {
+      workers.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void selectLoop() {
+    try {
+      while (running) {
+        selector.select();
+
+        Connection ready;
+        while ((ready = writable.poll()) != null)
+          ready.enableWrite();
+
+        final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          final SelectionKey key = keys.next();
+          keys.remove();
+
+          if (!key.isValid())
+            continue;
+
+          if (key.isAcceptable()) {
+            accept();
+            continue;
+          }
+
+          final Connection conn = (Connection) key.attachment();
+          try {
+            if (key.isReadable())
+              conn.read();
+            if (key.isValid() && key.isWritable())
+              conn.write();
+          } catch (IOException e) {
+            conn.close();
+          }
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Scoring server selector failed", e);
+    } finally {
+      for (SelectionKey key : selector.keys()) {
+        try {
+          key.channel().close();
+        } catch (IOException e) { /* closing anyway */
+        }
+      }
+      try {
+        selector.close();
+      } catch (IOException e) { /* closing anyway */
+      }
+    }
+  }
+
+  private void accept() {
+    SocketChannel channel = null;
+    try {
+      channel = serverChannel.accept();
+      if (channel == null)
+        return;
+
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+      key.attach(new Connection(key, channel));
+    } catch (IOException e) {
+      // Only this connection is affected; keep serving the others
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException e2) { /* closing anyway */
+        }
+      }
+    }
+  }
+
+  /** A decoded request */
+  static final class Request {
+    final int id;
+    final int slot;
+    final byte kind;
+    final String[] features;
+    final int[] indices;
+    final double[] values;
+
+    Request(final int id, final int slot, final byte kind, final String[] features,
+        final int[] indices, final double[] values) {
+      this.id = id;
+      this.slot = slot;
+      this.kind = kind;
+      this.features = features;
+      this.indices = indices;
+      this.values = values;
+    }
+  }
+
+  static Request decode(final ByteBuffer frame) {
+    final int id = frame.getInt();
+    final int slot = frame.getShort();
+    final byte kind = frame.get();
+    final int n = frame.getInt();
+
+    if (n < 0)
+      throw new IllegalArgumentException("Negative feature count");
+
+    // Check the count against the frame before allocating for it
+    if ((kind == KIND_FEATURES && n > frame.remaining() / 6)
+        || (kind == KIND_HASHED && n > frame.remaining() / 8))
+      throw new IllegalArgumentException(format("Feature count %d exceeds frame", n));
+
+    switch (kind) {
+      case KIND_LABELS:
+        return new Request(id, slot, kind, null, null, null);
+
+      case KIND_FEATURES: {
+        final String[] features = new String[n];
+        final double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+          features[i] = getString(frame);
+          values[i] = frame.getFloat();
+        }
+        return new Request(id, slot, kind, features, null, values);
+      }
+
+      case KIND_HASHED: {
+        final int[] indices = new int[n];
+        final double[] values = new double[n];
+        for (int i = 0; i < n; i++) {
+          indices[i] = frame.getInt();
+          values[i] = frame.getFloat();
+        }
+        return new Request(id, slot, kind, null, indices, values);
+      }
+
+      default:
+        throw new IllegalArgumentException(format("Unknown request kind: %d", kind));
+    }
+  }
+
+  /**
+   * Featurize a string-feature request the same way {@link
+   * com.peoplepattern.classify.core.FeatureBundle#toDatum} does
+   */
+  static Datum featurize(final PortableLinearClassifier classifier, final Request r) {
+    final FeatureMap map = classifier.getFeatureMap();
+    final int n = r.features.length;
+    final int intercept = map.addIntercept() ? map.indexOfFeature("") : -1;
+    final int[] indices = new int[n + 1];
+    final double[] values = new double[n + 1];
+
+    int m = 0;
+    for (int i = 0; i < n; i++) {
+      final int index = map.indexOfFeature(r.features[i]);
+      if (index >= 0 && index != intercept) {
+        indices[m] = index;
+        values[m] = r.values[i];
+        m++;
+      }
+    }
+
+    if (intercept >= 0) {
+      indices[m] = intercept;
+      values[m] = 1.0;
+      m++;
+    }
+
+    return new Datum(classifier.functionSig(), Vec.fromUnordered(map.size(), indices, values, m));
+  }
+
+  static double[] score(final PortableLinearClassifier classifier, final Request r) {
+    final Datum datum;
+    if (r.kind == KIND_FEATURES) {
+      datum = featurize(classifier, r);
+    } else {
+      final int size = classifier.getFeatureMap().size();
+      datum = new Datum(classifier.functionSig(),
+          Vec.fromUnordered(size, r.indices, r.values, r.indices.length));
+    }
+    return classifier.getModel().predict(datum).scores();
+  }
+
+  /** Score a batch of requests and encode all the responses into one buffer */
+  ByteBuffer respond(final List<Request> batch) {
+    final PortableLinearClassifier[] current = models;
+    final Object[] results = new Object[batch.size()];
+
+    int size = 0;
+    for (int i = 0; i < results.length; i++) {
+      final Request r = batch.get(i);
+      final PortableLinearClassifier classifier =
+          r.slot >= 0 && r.slot < current.length ? current[r.slot] : null;
+
+      Object result;
+      try {
+        if (classifier == null)
+          throw new IllegalArgumentException(format("No model at slot %d", r.slot));
+        else if (r.kind == KIND_LABELS)
+          result = classifier.getLabels();
+        else
+          result = score(classifier, r);
+      } catch (RuntimeException e) {
+        result = String.valueOf(e.getMessage());
+      }
+      results[i] = result;
+
+      size += 4 + 4 + 1;
+      if (result instanceof double[]) {
+        size += 4 + 4 * ((double[]) result).length;
+      } else if (result instanceof String[]) {
+        size += 4;
+        for (String label : (String[]) result)
+          size += stringSize(label);
+      } else {
+        size += stringSize((String) result);
+      }
+    }
+
+    final ByteBuffer out = ByteBuffer.allocate(size);
+    for (int i = 0; i < results.length; i++) {
+      final int start = out.position();
+      out.putInt(0);
+      out.putInt(batch.get(i).id);
+      final Object result = results[i];
+      if (result instanceof double[]) {
+        final double[] scores = (double[]) result;
+        out.put(STATUS_OK);
+        out.putInt(scores.length);
+        for (double s : scores)
+          out.putFloat((float) s);
+      } else if (result instanceof String[]) {
+        final String[] labels = (String[]) result;
+        out.put(STATUS_OK);
+        out.putInt(labels.length);
+        for (String label : labels)
+          putString(out, label);
+      } else {
+        out.put(STATUS_ERROR);
+        putString(out, (String) result);
+      }
+      out.putInt(start, out.position() - start - 4);
+    }
+    out.flip();
+    return out;
+  }
+
+  private final class Connection {
+    final SelectionKey key;
+    final SocketChannel channel;
+    final Queue<ByteBuffer> responses = new ConcurrentLinkedQueue<ByteBuffer>();
+    final AtomicLong pendingBytes = new AtomicLong();
+    ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    ByteBuffer current;
+
+    Connection(final SelectionKey key, final SocketChannel channel) {
+      this.key = key;
+      this.channel = channel;
+    }
+
+    void read() throws IOException {
+      final int n = channel.read(in);
+      if (n < 0) {
+        close();
+        return;
+      }
+
+      in.flip();
+      final List<Request> batch = new ArrayList<Request>();
+      while (in.remaining() >= 4) {
+        final int len = in.getInt(in.position());
+        if (len < REQUEST_HEADER || len > MAX_FRAME_LENGTH) {
+          close();
+          return;
+        }
+
+        if (in.remaining() < 4 + len) {
+          if (in.capacity() < 4 + len) {
+            final ByteBuffer bigger = ByteBuffer.allocate(4 + len);
+            bigger.put(in);
+            in = bigger;
+            in.flip();
+          }
+          break;
+        }
+
+        final int end = in.position() + 4 + len;
+        final ByteBuffer frame = in.duplicate();
+        frame.position(in.position() + 4);
+        frame.limit(end);
+        in.position(end);
+
+        try {
+          batch.add(decode(frame));
+        } catch (RuntimeException e) {
+          // A malformed frame means we've lost sync with the client
+          close();
+          return;
+        }
+      }
+      in.compact();
+
+      if (!batch.isEmpty()) {
+        workers.execute(new Runnable() {
+          public void run() {
+            enqueue(respond(batch));
+          }
+        });
+      }
+    }
+
+    void enqueue(final ByteBuffer buf) {
+      responses.add(buf);
+      pendingBytes.addAndGet(buf.remaining());
+      writable.add(this);
+      selector.wakeup();
+    }
+
+    /** Called on the selector thread when responses have been queued */
+    void enableWrite() {
+      if (!key.isValid())
+        return;
+
+      int ops = key.interestOps() | SelectionKey.OP_WRITE;
+      if (pendingBytes.get() > MAX_PENDING_BYTES)
+        ops &= ~SelectionKey.OP_READ;
+      key.interestOps(ops);
+    }
+
+    void write() throws IOException {
+      while (true) {
+        if (current == null)
+          current = responses.poll();
+
+        if (current == null)
+          break;
+
+        final int n = channel.write(current);
+        pendingBytes.addAndGet(-n);
+        if (current.hasRemaining())
+          return;
+
+        current = null;
+      }
+
+      key.interestOps(SelectionKey.OP_READ);
+    }
+
+    void close() {
+      key.cancel();
+      try {
+        channel.close();
+      } catch (IOException e) { /* closing anyway */
+      }
+    }
+  }
+
+  /**
+   * Command line entry point
+   *
+   * <pre>
+   * --model | -m path             Model file to serve; repeatable, models are
+   *                               assigned slots 0, 1, ... in order
+   * --model-format | -f format    Model format (json or binary, default binary)
+   * --port | -p port              Port to listen on (default 9090)
+   * --threads | -t n              Scoring threads (default: available processors)
+   * </pre>
+   *
+   * @param args command line arguments
+   * @throws IOException if a model can't be read or the port can't be bound
+   */
+  public static void main(final String[] args) throws IOException {
+    final List<String> modelPaths = new ArrayList<String>();
+    String modelFormat = "binary";
+    int port = 9090;
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    for (int i = 0; i < args.length; i++) {
+      final String arg = args[i];
+      if (i + 1 >= args.length)
+        throw new IllegalArgumentException(format("Argument for %s required", arg));
+
+      final String value = args[++i];
+      switch (arg) {
+        case "--model":
+        case "-m":
+          modelPaths.add(value);
+          break;
+
+        case "--model-format":
+        case "-f":
+          if (!"json".equals(value) && !"binary".equals(value))
+            throw new IllegalArgumentException("Model format must be 'json' or 'binary'");
+          modelFormat = value;
+          break;
+
+        case "--port":
+        case "-p":
+          port = Integer.parseInt(value);
+          break;
+
+        case "--threads":
+        case "-t":
+          threads = Integer.parseInt(value);
+          break;
+
+        default:
+          throw new IllegalArgumentException(format("Unrecognized argument: %s", arg));
+      }
+    }
+
+    if (modelPaths.isEmpty())
+      throw new IllegalArgumentException("Must specify at least one --model (or -m)");
+
+    final ScoringServer server = new ScoringServer(new InetSocketAddress(port), threads);
+    for (int slot = 0; slot < modelPaths.size(); slot++) {
+      final File file = new File(modelPaths.get(slot));
+      final PortableLinearClassifier classifier = "json".equals(modelFormat)
+          ? PortableLinearClassifier.JPARSER.readJson(file)
+          : PortableLinearClassifier.BREADER.readFromBinaryFile(file);
+      Warmup.run(classifier, PredictionServer.DEFAULT_WARMUP_ITERATIONS);
+      server.setModel(slot, classifier);
+    }
+    server.start();
+  }
+}
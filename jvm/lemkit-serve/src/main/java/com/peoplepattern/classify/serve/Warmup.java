@@ -0,0 +1,74 @@
+package com.peoplepattern.classify.serve;
+
+import com.peoplepattern.classify.core.Datum;
+import com.peoplepattern.classify.core.FeatureBundle;
+import com.peoplepattern.classify.core.LinearClassifier;
+import com.peoplepattern.classify.core.PortableLinearClassifier;
+import com.peoplepattern.classify.core.Scored;
+import com.peoplepattern.classify.core.Vec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Exercises the prediction paths of a freshly loaded model
+ *
+ * <p>The first few thousand predictions of a model run in the interpreter
+ * and trigger JIT compilation of the featurization and dot-product code;
+ * running synthetic inputs through both the {@link FeatureBundle} and the
+ * pre-hashed {@link Datum} path before a model is published keeps that
+ * cost off real requests.
+ */
+final class Warmup {
+  private Warmup() {}
+
+  /** Number of features in each synthetic input */
+  static final int FEATURES_PER_INPUT = 32;
+
+  /**
+   * Run synthetic predictions through a classifier
+   *
+   * @param classifier the classifier to warm up
+   * @param iterations the number of bundles (and as many datums) to score
+   * @return a checksum of the predicted scores, so the work can't be elided
+   */
+  static double run(final PortableLinearClassifier classifier, final int iterations) {
+    final Random random = new Random(classifier.functionSig());
+    final LinearClassifier model = classifier.getModel();
+    final long sig = classifier.functionSig();
+    final int size = classifier.getFeatureMap().size();
+
+    double checksum = 0.0;
+    for (int i = 0; i < iterations; i++) {
+      final List<Scored<String>> obs = new ArrayList<Scored<String>>(FEATURES_PER_INPUT);
+      for (int j = 0; j < FEATURES_PER_INPUT; j++)
+        obs.add(new Scored<String>("warmup-" + j + "-" + random.nextInt(1 << 16), 1.0));
+
+      final FeatureBundle bundle = new FeatureBundle(sig, obs);
+      checksum += classifier.predict(bundle).probabilityOfBest();
+      checksum += model.predict(randomDatum(random, sig, size)).probabilityOfBest();
+    }
+
+    return checksum;
+  }
+
+  private static Datum randomDatum(final Random random, final long sig, final int size) {
+    final int n = Math.min(FEATURES_PER_INPUT, size);
+    final int[] indices = new int[n];
+    for (int j = 0; j < n; j++)
+      indices[j] = random.nextInt(size);
+
+    Arrays.sort(indices);
+
+    int nnz = 0;
+    for (int j = 0; j < n; j++)
+      if (nnz == 0 || indices[nnz - 1] != indices[j])
+        indices[nnz++] = indices[j];
+
+    final double[] values = new double[nnz];
+    Arrays.fill(values, 1.0);
+
+    return new Datum(sig, new Vec(size, Arrays.copyOf(indices, nnz), values));
+  }
+}
@@ -0,0 +1,122 @@
+package com.peoplepattern.classify.serve;
+
+import com.eclipsesource.json.Json;
+import com.eclipsesource.json.JsonArray;
+import com.eclipsesource.json.JsonValue;
+import com.peoplepattern.classify.core.ExactFeatureMap;
+import com.peoplepattern.classify.core.LinearClassifier;
+import com.peoplepattern.classify.core.PortableLinearClassifier;
+import com.peoplepattern.classify.core.Vec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class PredictionServerTest {
+
+  final PortableLinearClassifier classifier;
+  {
+    final Vec v1 = new Vec(new double[] {-1.0, 5.0, 5.0});
+    final Vec v2 = new Vec(new double[] {5.0, 5.0, -1.0});
+    final LinearClassifier lc = new LinearClassifier(1L, new String[] {"A", "B"}, new Vec[] {v1, v2});
+    classifier = new PortableLinearClassifier(lc, new ExactFeatureMap(1L, new String[] {"a", "b", "c"}, false));
+  }
+
+  PredictionServer server;
+
+  @Before
+  public void setUp() throws IOException {
+    server = new PredictionServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 10);
+    server.start();
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  int status;
+
+  JsonValue call(final String method, final String path, final String body) throws IOException {
+    final URL url = new URL("http", "127.0.0.1", server.getAddress().getPort(), path);
+    final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+    conn.setRequestMethod(method);
+    if (body != null) {
+      conn.setDoOutput(true);
+      final OutputStream out = conn.getOutputStream();
+      out.write(body.getBytes(UTF_8));
+      out.close();
+    }
+    status = conn.getResponseCode();
+    final InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream();
+    try {
+      return Json.parse(new InputStreamReader(in, UTF_8));
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void testReadiness() throws IOException {
+    call("GET", "/health", null);
+    assertEquals(200, status);
+    call("GET", "/ready", null);
+    assertEquals(503, status);
+    server.addModel("m", classifier);
+    call("GET", "/ready", null);
+    assertEquals(200, status);
+  }
+
+  @Test
+  public void testPredictBundle() throws IOException {
+    server.addModel("m", classifier);
+    final JsonValue out = call("POST", "/predict/m", "{\"function_sig\":1,\"observations\":{\"b\":1,\"c\":1}}");
+    assertEquals(200, status);
+    assertEquals("A", out.asObject().get("best").asString());
+  }
+
+  @Test
+  public void testPredictPreHashedBatch() throws IOException {
+    server.addModel("m", classifier);
+    final String a = "{\"function_sig\":1,\"vector\":{\"size\":3,\"indices\":[1,2],\"values\":[1,1]}}";
+    final String b = "{\"function_sig\":1,\"observations\":{\"a\":1,\"b\":1}}";
+    final JsonValue out = call("POST", "/predict", "[" + a + "," + b + "]");
+    assertEquals(200, status);
+    final JsonArray arr = out.asArray();
+    assertEquals(2, arr.size());
+    assertEquals("A", arr.get(0).asObject().get("best").asString());
+    assertEquals("B", arr.get(1).asObject().get("best").asString());
+  }
+
+  @Test
+  public void testErrors() throws IOException {
+    server.addModel("m", classifier);
+    call("POST", "/predict/nope", "{}");
+    assertEquals(404, status);
+    call("POST", "/predict/m", "{\"function_sig\":2,\"observations\":{\"a\":1}}");
+    assertEquals(400, status);
+    call("POST", "/predict/m", "not json");
+    assertEquals(400, status);
+    call("GET", "/predict/m", null);
+    assertEquals(405, status);
+  }
+
+  @Test
+  public void testPathMustBeUnderPredict() throws IOException {
+    server.addModel("oo", classifier);
+    call("POST", "/predictfoo", "{\"function_sig\":1,\"observations\":{\"a\":1}}");
+    assertEquals(404, status);
+    call("POST", "/predict/oo", "{\"function_sig\":1,\"observations\":{\"a\":1}}");
+    assertEquals(200, status);
+  }
+}
@@ -0,0 +1,308 @@
+package com.peoplepattern.classify.serve;
+
+import com.peoplepattern.classify.core.Datum;
+import com.peoplepattern.classify.core.FeatureBundle;
+import com.peoplepattern.classify.core.HashedFeatureMap;
+import com.peoplepattern.classify.core.LinearClassifier;
+import com.peoplepattern.classify.core.PortableLinearClassifier;
+import com.peoplepattern.classify.core.Scored;
+import com.peoplepattern.classify.core.Vec;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Localhost load test of the binary scoring protocol
+ *
+ * <p>As a unit test this runs a short load to check pipelined correctness;
+ * run {@link #main} for a longer run which reports throughput:
+ * {@code ScoringLoadTest [requests] [inFlight] [features]}
+ */
+public class ScoringLoadTest {
+
+  static final int NUM_LABELS = 20;
+  static final int NUM_FEATURES = 1 << 16;
+
+  static PortableLinearClassifier model() {
+    final Random random = new Random(42);
+    final String[] labels = new String[NUM_LABELS];
+    final Vec[] params = new Vec[NUM_LABELS];
+    for (int k = 0; k < NUM_LABELS; k++) {
+      labels[k] = String.format("label-%02d", k);
+      final double[] w = new double[NUM_FEATURES];
+      for (int j = 0; j < NUM_FEATURES; j++)
+        w[j] = random.nextGaussian();
+      params[k] = new Vec(w);
+    }
+    return new PortableLinearClassifier(new LinearClassifier(7L, labels, params),
+        new HashedFeatureMap(7L, NUM_FEATURES, 0));
+  }
+
+  static String[] features(final Random random, final int n) {
+    final String[] features = new String[n];
+    for (int i = 0; i < n; i++)
+      features[i] = "f" + random.nextInt(1 << 20);
+    return features;
+  }
+
+  /**
+   * Run a load against a local server
+   *
+   * @return elapsed nanoseconds
+   */
+  static long run(final ScoringServer server, final PortableLinearClassifier model,
+      final int requests, final int inFlight, final int numFeatures, final boolean verify)
+      throws Exception {
+    final ScoringClient client = new ScoringClient(server.getAddress());
+    try {
+      assertArrayEquals(model.getLabels(), client.labelsSync(0));
+
+      final Random random = new Random(1);
+      final Semaphore window = new Semaphore(inFlight);
+      final AtomicInteger errors = new AtomicInteger();
+      final List<CompletableFuture<float[]>> checks = new ArrayList<CompletableFuture<float[]>>();
+      final List<String[]> checked = new ArrayList<String[]>();
+
+      final float[] values = new float[numFeatures];
+      Arrays.fill(values, 1.0f);
+
+      final long start = System.nanoTime();
+      for (int i = 0; i < requests; i++) {
+        final String[] features = features(random, numFeatures);
+        window.acquire();
+        final CompletableFuture<float[]> f = client.score(0, features, values);
+        f.whenComplete(new BiConsumer<float[], Throwable>() {
+          public void accept(final float[] scores, final Throwable t) {
+            if (t != null)
+              errors.incrementAndGet();
+            window.release();
+          }
+        });
+        if (verify && i % 97 == 0) {
+          checks.add(f);
+          checked.add(features);
+        }
+      }
+      window.acquire(inFlight);
+      final long elapsed = System.nanoTime() - start;
+
+      assertEquals(0, errors.get());
+      for (int i = 0; i < checks.size(); i++) {
+        final List<Scored<String>> obs = new ArrayList<Scored<String>>();
+        for (String f : checked.get(i))
+          obs.add(new Scored<String>(f, 1.0));
+        final double[] expected = model.predict(new FeatureBundle(7L, dedupe(obs))).scores();
+        final float[] actual = checks.get(i).get();
+        for (int k = 0; k < expected.length; k++)
+          assertEquals(expected[k], actual[k], 1e-3 * Math.max(1.0, Math.abs(expected[k])));
+      }
+
+      return elapsed;
+    } finally {
+      client.close();
+    }
+  }
+
+  private static List<Scored<String>> dedupe(final List<Scored<String>> obs) {
+    final Map<String, Double> sums = new TreeMap<String, Double>();
+    for (Scored<String> s : obs) {
+      final Double prev = sums.get(s.item());
+      sums.put(s.item(), (prev == null ? 0.0 : prev) + s.score());
+    }
+    final List<Scored<String>> out = new ArrayList<Scored<String>>();
+    for (Map.Entry<String, Double> e : sums.entrySet())
+      out.add(new Scored<String>(e.getKey(), e.getValue()));
+    return out;
+  }
+
+  @Test
+  public void testPipelinedLoad() throws Exception {
+    final PortableLinearClassifier model = model();
+    final ScoringServer server =
+        new ScoringServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2);
+    server.setModel(0, model);
+    server.start();
+    try {
+      run(server, model, 20000, 2000, 16, true);
+    } finally {
+      server.close();
+    }
+  }
+
+  @Test
+  public void testHashedAndErrors() throws Exception {
+    final PortableLinearClassifier model = model();
+    final ScoringServer server =
+        new ScoringServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+    server.setModel(0, model);
+    server.start();
+    final ScoringClient client = new ScoringClient(server.getAddress());
+    try {
+      final int[] indices = new int[] {9, 3, 9};
+      final float[] values = new float[] {1.0f, 2.0f, 0.5f};
+      final double[] expected = model.getModel().predict(
+          new Datum(7L, new Vec(NUM_FEATURES, new int[] {3, 9}, new double[] {2.0, 1.5}))).scores();
+      final float[] actual = client.scoreHashed(0, indices, values).get();
+      for (int k = 0; k < expected.length; k++)
+        assertEquals(expected[k], actual[k], 1e-4);
+
+      try {
+        client.scoreHashed(3, indices, values).get();
+        fail("Expected an error for an empty slot");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof IllegalArgumentException);
+      }
+    } finally {
+      client.close();
+      server.close();
+    }
+  }
+
+  @Test
+  public void testManyLabels() throws Exception {
+    // More labels than a short count could carry
+    final int numLabels = Short.MAX_VALUE + 10;
+    final String[] labels = new String[numLabels];
+    final Vec[] params = new Vec[numLabels];
+    for (int k = 0; k < numLabels; k++) {
+      labels[k] = String.format("l%05d", k);
+      params[k] = new Vec(new double[] {k, 1.0, 0.0, 0.0});
+    }
+    final PortableLinearClassifier model = new PortableLinearClassifier(
+        new LinearClassifier(7L, labels, params), new HashedFeatureMap(7L, 4, 0));
+
+    final ScoringServer server =
+        new ScoringServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+    server.setModel(0, model);
+    server.start();
+    final ScoringClient client = new ScoringClient(server.getAddress());
+    try {
+      assertArrayEquals(labels, client.labelsSync(0));
+      final float[] scores = client.scoreHashed(0, new int[] {0}, new float[] {1.0f}).get();
+      assertEquals(numLabels, scores.length);
+      assertEquals(numLabels - 1, scores[numLabels - 1], 0.0);
+    } finally {
+      client.close();
+      server.close();
+    }
+  }
+
+  @Test
+  public void testOversizedCountRejected() throws Exception {
+    final PortableLinearClassifier model = model();
+    final ScoringServer server =
+        new ScoringServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+    server.setModel(0, model);
+    server.start();
+    try {
+      for (byte kind : new byte[] {ScoringProtocol.KIND_FEATURES, ScoringProtocol.KIND_HASHED}) {
+        final Socket socket = new Socket();
+        try {
+          socket.connect(server.getAddress());
+          final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+          out.writeInt(ScoringProtocol.REQUEST_HEADER + 8);
+          out.writeInt(1);
+          out.writeShort(0);
+          out.writeByte(kind);
+          out.writeInt(Integer.MAX_VALUE);
+          out.writeLong(0L);
+          out.flush();
+          // The server drops the connection rather than allocating
+          assertEquals(-1, new DataInputStream(socket.getInputStream()).read());
+        } finally {
+          socket.close();
+        }
+      }
+
+      // ...and keeps serving
+      final ScoringClient client = new ScoringClient(server.getAddress());
+      try {
+        assertArrayEquals(model.getLabels(), client.labelsSync(0));
+      } finally {
+        client.close();
+      }
+    } finally {
+      server.close();
+    }
+  }
+
+  @Test
+  public void testMalformedResponseFailsRequests() throws Exception {
+    final ServerSocket fake = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    try {
+      final ScoringClient client = new ScoringClient(
+          new InetSocketAddress(InetAddress.getLoopbackAddress(), fake.getLocalPort()));
+      final Socket socket = fake.accept();
+      try {
+        final CompletableFuture<float[]> pending = client.scoreHashed(0, new int[] {1}, new float[] {1.0f});
+        final CompletableFuture<String[]> labels = client.labels(0);
+
+        final DataInputStream in = new DataInputStream(socket.getInputStream());
+        in.readInt();
+        final int id = in.readInt();
+
+        // An OK response with a negative score count
+        final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeInt(4 + 1 + 4);
+        out.writeInt(id);
+        out.writeByte(ScoringProtocol.STATUS_OK);
+        out.writeInt(-1);
+        out.flush();
+
+        for (CompletableFuture<?> f : Arrays.asList(pending, labels)) {
+          try {
+            f.get(10, TimeUnit.SECONDS);
+            fail("Expected a malformed response to fail pending requests");
+          } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+          }
+        }
+      } finally {
+        socket.close();
+        client.close();
+      }
+    } finally {
+      fake.close();
+    }
+  }
+
+  public static void main(final String[] args) throws Exception {
+    final int requests = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    final int inFlight = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+    final int numFeatures = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+
+    final PortableLinearClassifier model = model();
+    final ScoringServer server = new ScoringServer(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+        Runtime.getRuntime().availableProcessors());
+    server.setModel(0, model);
+    server.start();
+    try {
+      run(server, model, Math.min(requests, 50000), inFlight, numFeatures, false);
+      final long elapsed = run(server, model, requests, inFlight, numFeatures, false);
+      System.out.printf("%d requests, %d in flight, %d features: %.0f requests/s%n", requests,
+          inFlight, numFeatures, requests / (elapsed / 1e9));
+    } finally {
+      server.close();
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package com.peoplepattern.classify.train
+
+import com.peoplepattern.classify.core.DataFileParser
+import com.peoplepattern.classify.core.Datum
+import com.peoplepattern.classify.core.FeatureBundle
+import com.peoplepattern.classify.core.FeatureMap
+import com.peoplepattern.classify.core.Scored
+import java.io.File
+import java.util.function.IntFunction
+import scala.collection.JavaConverters._
+import scala.collection.mutable.ArrayBuffer
+import scala.io.Source
+
+/**
+ * Readers for the lemkit text data format. Each line is an example:
+ *
+ * label [importance] | feat:val feat:val ...
+ *
+ * The vertical bar must be present to separate label from features, and
+ * must have a space after it. This is to support future expansion.
+ *
+ * The value can be omitted, and defaults to 1.0.
+ */
+object ClassifierSource {
+
+  /**
+   * Read a file into a series of examples.
+   */
+  def readDataFile(file: String, functionSig: Long = 0L): Iterator[Example[FeatureBundle]] =
+    readDataSource(Source.fromFile(file, "UTF-8"), functionSig)
+
+  /**
+   * Read a file straight into vectorized examples, parsing in parallel.
+   *
+   * The file is memory-mapped and parsed in `threads` byte ranges with a
+   * [[com.peoplepattern.classify.core.DataFileParser]], mapping features
+   * through `featureMap` without building intermediate feature bundles.
+   * The examples are returned in file order.
+   */
+  def readDatums(
+    file: String,
+    featureMap: FeatureMap,
+    threads: Int = Runtime.getRuntime.availableProcessors): IndexedSeq[Example[Datum]] = {
+    val parts = Array.fill(threads)(new ArrayBuffer[Example[Datum]])
+    new DataFileParser(featureMap).parse(new File(file), threads, new IntFunction[DataFileParser.Sink] {
+      def apply(range: Int) = new DataFileParser.Sink {
+        def accept(label: String, importance: Double, datum: Datum): Unit =
+          parts(range) += Example(label, datum, importance)
+      }
+    })
+    parts.flatten.toIndexedSeq
+  }
+
+  /**
+   * Read a Scala source into a series of examples, one per non-blank line.
+   */
+  def readDataSource(source: Source, functionSig: Long = 0L): Iterator[Example[FeatureBundle]] =
+    for (line <- source.getLines if !line.trim.isEmpty) yield parseLine(line, functionSig)
+
+  /**
+   * Parse a single line of the data format.
+   */
+  def parseLine(line: String, functionSig: Long = 0L): Example[FeatureBundle] = {
+    if (line.count(_ == '|') != 1)
+      throw new IllegalArgumentException(s"Should have one vertical bar separating label from features: $line")
+
+    val Array(labelPart, featsPart) = line.split("\\|", -1).map(_.trim)
+
+    val labelParts = labelPart.split("\\s+")
+
+    val (label, importance): (String, Double) = if (labelParts.size == 1)
+      (labelParts(0), 1.0)
+    else if (labelParts.size == 2)
+      (labelParts(0), labelParts(1).toDouble)
+    else
+      throw new IllegalArgumentException(s"Invalid label $labelPart")
+
+    val feats = for (feat <- featsPart.split("\\s+") if !feat.isEmpty) yield {
+      val featParts = feat.split(":")
+      val featKey = featParts(0)
+      val score = if (featParts.size == 1)
+        1.0
+      else if (featParts.size == 2)
+        featParts(1).toDouble
+      else
+        throw new IllegalArgumentException(s"Invalid feature $feat")
+      new Scored(featKey, score)
+    }
+
+    val bundle = new FeatureBundle(functionSig, feats.toList.asJava)
+    Example(label, bundle, importance)
+  }
+}
@@ -0,0 +1,92 @@
+package com.peoplepattern.classify.train
+
+import com.peoplepattern.classify.core.ExactFeatureMap
+import com.peoplepattern.classify.core.FeatureMap
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * A [[CounterIndexer]] which can be used from many threads at once.
+ *
+ * Features are spread over lock-striped primitive open-addressing tables
+ * by hash, so threads indexing different features rarely wait for each
+ * other, and the tables store indices as unboxed ints. New indices are
+ * handed out by an atomic counter, and features are stored by index in
+ * chunks allocated on demand.
+ *
+ * With several threads the order in which new features get their indices
+ * depends on scheduling. `labels`, `featureMap` and `size` reflect all the
+ * features indexed by threads that have finished (been joined).
+ */
+class ConcurrentCounterIndexer(
+    functionSig: Long,
+    items: Seq[String] = Seq.empty,
+    useIntercept: Boolean = true,
+    stripes: Int = 16 * Runtime.getRuntime.availableProcessors) extends Indexer {
+
+  import ConcurrentCounterIndexer._
+
+  require(stripes > 0, "Need at least one stripe")
+
+  private val tables = Array.fill(stripes) {
+    val table = new Object2IntOpenHashMap[String]
+    table.defaultReturnValue(-1)
+    table
+  }
+  private val counter = new AtomicInteger
+  private val chunks = new AtomicReferenceArray[Array[String]](MaxChunks)
+
+  for (item <- items)
+    apply(item)
+
+  def apply(f: String): Int = {
+    val h = f.hashCode * 0x9E3779B9
+    val table = tables((h >>> 1) % stripes)
+    table.synchronized {
+      val n = table.getInt(f)
+      if (n >= 0) {
+        n
+      } else {
+        val n = counter.getAndIncrement()
+        require(n >= 0, "Too many features")
+        chunk(n >>> ChunkBits)(n & (ChunkSize - 1)) = f
+        table.put(f, n)
+        n
+      }
+    }
+  }
+
+  def featureMap: FeatureMap = {
+    new ExactFeatureMap(functionSig, labels, useIntercept)
+  }
+
+  def labels: Array[String] = {
+    val n = size
+    val out = new Array[String](n)
+    var c = 0
+    while (c * ChunkSize < n) {
+      System.arraycopy(chunks.get(c), 0, out, c * ChunkSize, math.min(ChunkSize, n - c * ChunkSize))
+      c += 1
+    }
+    out
+  }
+
+  def size: Int = counter.get
+
+  private def chunk(c: Int): Array[String] = {
+    val existing = chunks.get(c)
+    if (existing != null) {
+      existing
+    } else {
+      chunks.compareAndSet(c, null, new Array[String](ChunkSize))
+      chunks.get(c)
+    }
+  }
+}
+
+object ConcurrentCounterIndexer {
+  private val ChunkBits = 16
+  private val ChunkSize = 1 << ChunkBits
+  private val MaxChunks = 1 << (31 - ChunkBits)
+}
@@ -0,0 +1,72 @@
+package com.peoplepattern.classify.train
+
+import scala.util.hashing.MurmurHash3.stringHash
+
+/**
+ * Approximate counts of strings in fixed memory: `depth` rows of `width`
+ * counters, with each string hashed to one counter per row.
+ *
+ * A string's estimate is the smallest of its counters, which is never less
+ * than its true count, and exceeds it by more than `e / width` times the
+ * total count with probability at most `exp(-depth)`. Additions use the
+ * conservative update, raising only the counters that are at the current
+ * estimate, which keeps the estimates of rare strings much closer to their
+ * true counts on skewed data like feature occurrences. Counters saturate
+ * at `Int.MaxValue`.
+ */
+class CountMinSketch(val width: Int = 1 << 20, val depth: Int = 4) {
+
+  require(width > 0, "Width must be positive")
+  require(depth > 0, "Depth must be positive")
+  require(width.toLong * depth <= Int.MaxValue, "Sketch too large")
+
+  private val counters = new Array[Int](width * depth)
+  private val slots = new Array[Int](depth)
+  private var total = 0L
+
+  /** The sum of all counts added */
+  def totalCount: Long = total
+
+  /** Add `count` occurrences of a string */
+  def add(item: String, count: Int = 1): Unit = {
+    require(count >= 0, "Count must be non-negative")
+    hash(item)
+    var min = Int.MaxValue
+    var r = 0
+    while (r < depth) {
+      min = math.min(min, counters(slots(r)))
+      r += 1
+    }
+    val target = if (min > Int.MaxValue - count) Int.MaxValue else min + count
+    r = 0
+    while (r < depth) {
+      if (counters(slots(r)) < target)
+        counters(slots(r)) = target
+      r += 1
+    }
+    total += count
+  }
+
+  /** The estimated count of a string, never less than its true count */
+  def apply(item: String): Int = {
+    hash(item)
+    var min = Int.MaxValue
+    var r = 0
+    while (r < depth) {
+      min = math.min(min, counters(slots(r)))
+      r += 1
+    }
+    min
+  }
+
+  // Derives each row's slot from two hashes (Kirsch and Mitzenmacher)
+  private def hash(item: String): Unit = {
+    val h1 = stringHash(item, 0x5bd1e995)
+    val h2 = stringHash(item, h1) | 1
+    var r = 0
+    while (r < depth) {
+      slots(r) = r * width + ((h1 + r * h2) & Int.MaxValue) % width
+      r += 1
+    }
+  }
+}
@@ -2,26 +2,28 @@ package com.peoplepattern.classify.train
 
 import com.peoplepattern.classify.core.ExactFeatureMap
 import com.peoplepattern.classify.core.FeatureMap
-import scala.collection.mutable.Buffer
-import scala.collection.mutable.{ Map => MMap }
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap
+import scala.collection.mutable.ArrayBuffer
 
 class CounterIndexer(functionSig: Long, items: Seq[String] = Seq.empty, useIntercept: Boolean = true) extends Indexer {
 
-  private val buf = Buffer.empty[String]
-  private val map = MMap.empty[String, Int]
+  private val buf = ArrayBuffer.empty[String]
+  private val map = new Object2IntOpenHashMap[String]
+
+  map.defaultReturnValue(-1)
 
   for (item <- items)
     apply(item)
 
   def apply(f: String): Int = {
-    map.get(f) match {
-      case Some(n) => n
-      case None => {
-        val n = buf.size
-        map(f) = n
-        buf += f
-        n
-      }
+    val n = map.getInt(f)
+    if (n >= 0) {
+      n
+    } else {
+      val n = buf.size
+      map.put(f, n)
+      buf += f
+      n
     }
   }
 
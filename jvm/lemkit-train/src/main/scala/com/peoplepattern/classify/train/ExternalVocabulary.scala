@@ -0,0 +1,190 @@
+package com.peoplepattern.classify.train
+
+import com.peoplepattern.classify.core.DatasetCache
+import com.peoplepattern.classify.core.FeatureBundle
+import com.peoplepattern.classify.core.FeatureMap
+import com.peoplepattern.classify.core.MappedFeatureMap
+import com.peoplepattern.classify.core.MappedFeatureMap.compareBytes
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.nio.charset.StandardCharsets.UTF_8
+import java.util.Comparator
+import java.util.PriorityQueue
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+
+/**
+ * Collects a vocabulary too large for the heap into a [[MappedFeatureMap]]
+ * dictionary file, in bounded memory.
+ *
+ * Distinct features are buffered in memory until their estimated size
+ * reaches `maxBufferBytes`; the buffer is then sorted and spilled to a run
+ * file in `tmpDir`. [[result]] merges the runs, dropping repeats, straight
+ * into the dictionary, whose indices follow the sorted order. Not thread
+ * safe.
+ */
+class ExternalVocabularyBuilder(
+    tmpDir: File = new File(System.getProperty("java.io.tmpdir")),
+    maxBufferBytes: Long = 64L << 20) {
+
+  import ExternalVocabularyBuilder._
+
+  require(maxBufferBytes > 0, "The buffer size must be positive")
+
+  private val buffer = new ObjectOpenHashSet[String]
+  private var bufferBytes = 0L
+  private val runs = mutable.ArrayBuffer.empty[File]
+
+  /** The number of runs spilled to disk so far */
+  def numRuns: Int = runs.size
+
+  /** Add a feature */
+  def add(feature: String): Unit = {
+    if (buffer.add(feature)) {
+      bufferBytes += EntryOverhead + 2L * feature.length
+      if (bufferBytes >= maxBufferBytes)
+        spill()
+    }
+  }
+
+  /**
+   * Merge everything added into a dictionary file, and remove the runs.
+   *
+   * @return the number of distinct features
+   */
+  def result(dictionaryFile: File): Long = {
+    if (buffer.size > 0 || runs.isEmpty)
+      spill()
+
+    val writer = new MappedFeatureMap.Writer(dictionaryFile)
+    val readers = runs.map(new RunReader(_))
+    try {
+      val queue = new PriorityQueue[RunReader](math.max(1, readers.size), new Comparator[RunReader] {
+        def compare(a: RunReader, b: RunReader): Int = compareBytes(a.current, b.current)
+      })
+      for (r <- readers if r.next())
+        queue.add(r)
+
+      var last: Array[Byte] = null
+      while (!queue.isEmpty) {
+        val r = queue.poll()
+        if (last == null || compareBytes(last, r.current) != 0) {
+          writer.add(r.current)
+          last = r.current
+        }
+        if (r.next())
+          queue.add(r)
+      }
+    } finally {
+      readers.foreach(_.close())
+      writer.close()
+      runs.foreach(_.delete())
+      runs.clear()
+    }
+    writer.count
+  }
+
+  private def spill(): Unit = {
+    val features = buffer.toArray(new Array[String](buffer.size)).map(_.getBytes(UTF_8))
+    java.util.Arrays.sort(features, new Comparator[Array[Byte]] {
+      def compare(a: Array[Byte], b: Array[Byte]): Int = compareBytes(a, b)
+    })
+
+    val run = File.createTempFile("lemkit-vocab", ".run", tmpDir)
+    run.deleteOnExit()
+    val out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16))
+    try {
+      for (f <- features) {
+        out.writeInt(f.length)
+        out.write(f)
+      }
+    } finally {
+      out.close()
+    }
+    runs += run
+    buffer.clear()
+    buffer.trim()
+    bufferBytes = 0L
+  }
+}
+
+object ExternalVocabularyBuilder {
+
+  /** Estimated bytes per buffered feature besides its characters */
+  private val EntryOverhead = 64
+
+  /** Reads a sorted run one feature at a time */
+  private class RunReader(file: File) {
+    private val in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 14))
+    var current: Array[Byte] = null
+
+    def next(): Boolean = {
+      val length = try in.readInt() catch { case _: EOFException => -1 }
+      if (length < 0) {
+        false
+      } else {
+        current = new Array[Byte](length)
+        in.readFully(current)
+        true
+      }
+    }
+
+    def close(): Unit = in.close()
+  }
+}
+
+/**
+ * Exact indexing of training data whose vocabulary doesn't fit in the
+ * heap, in two passes.
+ *
+ * The first pass collects the features with an [[ExternalVocabularyBuilder]]
+ * into a memory-mapped dictionary; the second rewrites the examples with
+ * the dictionary's indices into a [[DatasetCache]]. Load the cache with
+ * `SparseDataset.fromCache(cacheFile, map)` to keep the vocabulary out of
+ * the heap while training. Models trained on the data can be written with
+ * the [[MappedFeatureMap]] itself, and read back as an exact feature map.
+ */
+object ExternalVocabulary {
+
+  /**
+   * Collect the features of a stream of examples, and the intercept, into
+   * a dictionary file.
+   */
+  def build(
+    examples: TraversableOnce[Example[FeatureBundle]],
+    functionSig: Long,
+    dictionaryFile: File,
+    maxBufferBytes: Long = 64L << 20,
+    tmpDir: File = new File(System.getProperty("java.io.tmpdir"))): MappedFeatureMap = {
+    val builder = new ExternalVocabularyBuilder(tmpDir, maxBufferBytes)
+    builder.add("")
+    for (ex <- examples; obs <- ex.item.observations.asScala)
+      builder.add(obs.item)
+    builder.result(dictionaryFile)
+    MappedFeatureMap.open(dictionaryFile, functionSig)
+  }
+
+  /**
+   * Vectorize a stream of examples with a feature map into a dataset
+   * cache.
+   *
+   * @return the number of examples written
+   */
+  def rewrite(examples: TraversableOnce[Example[FeatureBundle]], featureMap: FeatureMap, cacheFile: File): Long = {
+    val writer = new DatasetCache.Writer(cacheFile, featureMap)
+    try {
+      for (ex <- examples)
+        writer.write(ex.label, ex.importance, ex.item.toDatum(featureMap))
+      writer.count
+    } finally {
+      writer.close()
+    }
+  }
+}
@@ -0,0 +1,222 @@
+package com.peoplepattern.classify.train
+
+import com.peoplepattern.classify.core.FeatureBundle
+import com.peoplepattern.classify.core.LinearClassifier
+import com.peoplepattern.classify.core.PortableLinearClassifier
+import com.peoplepattern.classify.core.Vec
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+
+object FtrlTrainer {
+
+  /**
+   * The options for FTRL-Proximal classifier learning.
+   *
+   * @param hashing Options for feature hashing.
+   * @param alpha The base learning rate; each weight's rate is `alpha`
+   *      divided by `beta` plus the root of its sum of squared gradients.
+   * @param beta Smooths the per-coordinate learning rates early on.
+   * @param l1 The value for L1 regularization; weights whose accumulated
+   *      gradient is below this are exactly zero.
+   * @param l2 The value for L2 regularization.
+   */
+  case class Options(
+    hashing: HashingOptions = HashingOptions(),
+    alpha: Double = 0.5,
+    beta: Double = 1.0,
+    l1: Double = 1.0,
+    l2: Double = 1.0)
+
+  /**
+   * The per-coordinate state of FTRL-Proximal for multinomial logistic
+   * regression: for each label, the adjusted sum of gradients `z` and the
+   * sum of squared gradients `n` of each feature index, in flat primitive
+   * arrays. Weights are not stored at all, but derived from `z` and `n`
+   * when needed, which is what makes them sparse.
+   *
+   * Labels are added as they are first seen, and the arrays grow with the
+   * largest feature index seen, so the learner works on a stream of
+   * unknown labels and an exact indexer as well as a hashed one.
+   */
+  class Learner(options: Options, initialDimension: Int = 1024) {
+
+    private val zs = mutable.ArrayBuffer[Array[Double]]()
+    private val ns = mutable.ArrayBuffer[Array[Double]]()
+    private var capacity = math.max(1, initialDimension)
+    private var scores = new Array[Double](0)
+
+    /** The number of labels seen */
+    def numLabels: Int = zs.size
+
+    /**
+     * Learn from one example, with feature indices `indices(i)` and values
+     * `values(i)` for `i` from `from` until `until`. A label id of
+     * `numLabels` adds a label.
+     */
+    def update(labelId: Int, importance: Double, indices: Array[Int], values: Array[Double],
+      from: Int, until: Int): Unit = {
+      require(labelId >= 0 && labelId <= numLabels, s"Unexpected label id: $labelId")
+      if (labelId == numLabels) {
+        zs += new Array[Double](capacity)
+        ns += new Array[Double](capacity)
+        scores = new Array[Double](numLabels)
+      }
+      var i = from
+      while (i < until) {
+        ensureCapacity(indices(i) + 1)
+        i += 1
+      }
+
+      var k = 0
+      while (k < numLabels) {
+        scores(k) = score(k, indices, values, from, until)
+        k += 1
+      }
+      Logistic.softmax(scores)
+      scores(labelId) -= 1.0
+
+      k = 0
+      while (k < numLabels) {
+        val z = zs(k)
+        val sq = ns(k)
+        i = from
+        while (i < until) {
+          val j = indices(i)
+          val g = importance * scores(k) * values(i)
+          if (g != 0.0) {
+            val sigma = (math.sqrt(sq(j) + g * g) - math.sqrt(sq(j))) / options.alpha
+            z(j) += g - sigma * weight(k, j)
+            sq(j) += g * g
+          }
+          i += 1
+        }
+        k += 1
+      }
+    }
+
+    /** The current weight of feature index `j` for label `k` */
+    def weight(k: Int, j: Int): Double = {
+      val z = zs(k)(j)
+      if (math.abs(z) <= options.l1) {
+        0.0
+      } else {
+        val sign = if (z < 0.0) -1.0 else 1.0
+        -(z - sign * options.l1) / ((options.beta + math.sqrt(ns(k)(j))) / options.alpha + options.l2)
+      }
+    }
+
+    /**
+     * The strength of feature index `j`: the largest L1 regularization
+     * for which it would still have a non-zero weight for some label.
+     */
+    def strength(j: Int): Double = {
+      var max = 0.0
+      if (j < capacity) {
+        for (z <- zs)
+          max = math.max(max, math.abs(z(j)))
+      }
+      max
+    }
+
+    /**
+     * The weights of each label as sparse vectors of the given dimension.
+     */
+    def parameters(dimension: Int): Array[Vec] = {
+      Array.tabulate(numLabels) { k =>
+        val indices = new mutable.ArrayBuilder.ofInt
+        val values = new mutable.ArrayBuilder.ofDouble
+        for (j <- 0 until math.min(dimension, capacity)) {
+          val w = weight(k, j)
+          if (w != 0.0) {
+            indices += j
+            values += w
+          }
+        }
+        new Vec(dimension, indices.result(), values.result())
+      }
+    }
+
+    private def score(k: Int, indices: Array[Int], values: Array[Double], from: Int, until: Int): Double = {
+      var sum = 0.0
+      var i = from
+      while (i < until) {
+        sum += values(i) * weight(k, indices(i))
+        i += 1
+      }
+      sum
+    }
+
+    private def ensureCapacity(dimension: Int): Unit = {
+      if (dimension > capacity) {
+        var c = capacity
+        while (c < dimension)
+          c = math.min(Int.MaxValue / 2, c) * 2
+        for (k <- 0 until numLabels) {
+          zs(k) = java.util.Arrays.copyOf(zs(k), c)
+          ns(k) = java.util.Arrays.copyOf(ns(k), c)
+        }
+        capacity = c
+      }
+    }
+  }
+}
+
+/**
+ * In-JVM multinomial logistic regression trained online by FTRL-Proximal,
+ * with per-coordinate adaptive learning rates and L1 and L2
+ * regularization.
+ *
+ * Training takes a single pass over the stream, vectorizing and learning
+ * from each example as it is read, so the training data never has to fit
+ * in memory; only the learner's state, a few doubles per feature index
+ * and label, does. With a hashing indexer that state has a fixed size.
+ * The L1 regularization makes most weights exactly zero, and the
+ * resulting parameters are sparse vectors.
+ */
+class FtrlTrainer(options: FtrlTrainer.Options = FtrlTrainer.Options()) extends LinearClassifierTrainer {
+
+  import FtrlTrainer._
+
+  require(options.alpha > 0.0, "The learning rate must be positive")
+  require(options.beta >= 0.0, "Beta must be non-negative")
+  require(options.l1 >= 0.0 && options.l2 >= 0.0, "Regularization must be non-negative")
+
+  def train(trainingExamples: TraversableOnce[Example[FeatureBundle]], functionSig: Long): PortableLinearClassifier = {
+    val indexer = options.hashing.hashtrick match {
+      case Some(n) => new HashingIndexer(functionSig, n)
+      case None => new CounterIndexer(functionSig)
+    }
+    val interceptIndex = indexer("")
+
+    val learner = new Learner(options, options.hashing.hashtrick.getOrElse(1024))
+    val labels = new CounterIndexer(0L)
+    var is = new Array[Int](64)
+    var vs = new Array[Double](64)
+    for (ex <- trainingExamples) {
+      val observations = ex.item.observations
+      val n = observations.size + 1
+      if (is.length < n) {
+        is = new Array[Int](2 * n)
+        vs = new Array[Double](2 * n)
+      }
+      var k = 0
+      for (obs <- observations.asScala) {
+        val index = indexer(obs.item)
+        if (index >= 0 && index != interceptIndex) {
+          is(k) = index
+          vs(k) = obs.score
+          k += 1
+        }
+      }
+      is(k) = interceptIndex
+      vs(k) = 1.0
+      k += 1
+
+      learner.update(labels(ex.label), ex.importance, is, vs, 0, k)
+    }
+    require(learner.numLabels > 0, "No training examples")
+
+    val lc = new LinearClassifier(functionSig, labels.labels, learner.parameters(indexer.size))
+    new PortableLinearClassifier(lc, indexer.featureMap)
+  }
+}
@@ -0,0 +1,171 @@
+package com.peoplepattern.classify.train
+
+import com.peoplepattern.classify.core.FeatureBundle
+import com.peoplepattern.classify.core.PortableLinearClassifier
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+
+object GridSearch {
+
+  /**
+   * A point of the search: a hashing size (or exact indexing) and a
+   * regularization value.
+   */
+  case class Config(hashtrick: Option[Int], regularization: Double)
+
+  /**
+   * The cross-validated performance of a configuration, averaged over the
+   * folds: the fraction of held-out examples classified correctly, and
+   * their mean log loss (negative log probability of the true label).
+   */
+  case class Result(config: Config, accuracy: Double, logLoss: Double)
+
+  /**
+   * The outcome of a search: the results of every configuration, in the
+   * order searched, and the best one retrained on all the data.
+   */
+  case class Report(results: Seq[Result], best: Result, classifier: PortableLinearClassifier)
+
+  /**
+   * The options for a search.
+   *
+   * @param folds The number of cross-validation folds.
+   * @param threads The number of trials (a configuration on a fold) trained
+   *      at once.
+   * @param seed Seed for assigning examples to folds.
+   */
+  case class Options(
+    folds: Int = 5,
+    threads: Int = Runtime.getRuntime.availableProcessors,
+    seed: Long = 0L)
+
+  /** Every combination of the given hashing sizes and regularizations */
+  def grid(hashtricks: Seq[Option[Int]], regularizations: Seq[Double]): Seq[Config] =
+    for (h <- hashtricks; r <- regularizations) yield Config(h, r)
+
+  /**
+   * `n` configurations with hashing sizes drawn from `hashtricks` and
+   * regularizations drawn log-uniformly from `[minRegularization,
+   * maxRegularization]`.
+   */
+  def random(
+    n: Int,
+    hashtricks: Seq[Option[Int]],
+    minRegularization: Double,
+    maxRegularization: Double,
+    seed: Long = 0L): Seq[Config] = {
+    require(hashtricks.nonEmpty, "Need at least one hashing size")
+    require(minRegularization > 0.0 && maxRegularization >= minRegularization,
+      "Need a positive regularization range")
+    val rng = new scala.util.Random(seed)
+    val lo = math.log(minRegularization)
+    val hi = math.log(maxRegularization)
+    Seq.fill(n)(Config(hashtricks(rng.nextInt(hashtricks.size)), math.exp(lo + (hi - lo) * rng.nextDouble())))
+  }
+
+  /**
+   * Trains with [[LbfgsTrainer]] on one thread, leaving the parallelism to
+   * the search.
+   */
+  val lbfgs: (SparseDataset, Double) => PortableLinearClassifier = { (data, regularization) =>
+    new LbfgsTrainer(LbfgsTrainer.Options(regularization = regularization, threads = 1)).train(data)
+  }
+
+  /** Smallest probability counted in the log loss, which bounds it */
+  private val MinProbability = 1e-15
+
+  /** The number of correct predictions and the summed log loss */
+  private def evaluate(classifier: PortableLinearClassifier, data: SparseDataset): (Int, Double) = {
+    var correct = 0
+    var loss = 0.0
+    for (i <- 0 until data.size) {
+      val classification = classifier.getModel.predict(data.datum(i))
+      val label = data.label(i)
+      if (classification.best == label)
+        correct += 1
+
+      val scores = classification.scores
+      val k = classification.labels.indexOf(label)
+      val max = scores.max
+      val logSum = max + math.log(scores.map(s => math.exp(s - max)).sum)
+      val logP = if (k < 0) Double.NegativeInfinity else scores(k) - logSum
+      loss -= math.max(logP, math.log(MinProbability))
+    }
+    (correct, loss)
+  }
+}
+
+/**
+ * Hyperparameter search by k-fold cross-validation.
+ *
+ * The training stream is featurized once; the examples are vectorized
+ * once for each distinct hashing size, and split into the same folds for
+ * every configuration, so all trials share the same data. Trials, each a
+ * configuration trained on all folds but one and evaluated on that one,
+ * run concurrently on a fixed pool of threads. The best configuration is
+ * the one with the lowest mean log loss, which unlike accuracy keeps
+ * telling regularizations apart once they classify the same examples
+ * correctly; it is retrained on all the data.
+ *
+ * The trainer is a function of the vectorized data and a regularization
+ * value, [[GridSearch.lbfgs]] by default; a trainer that is itself
+ * multithreaded should be given few threads.
+ */
+class GridSearch(
+    options: GridSearch.Options = GridSearch.Options(),
+    trainer: (SparseDataset, Double) => PortableLinearClassifier = GridSearch.lbfgs) {
+
+  import GridSearch._
+
+  require(options.folds > 1, "Need at least two folds")
+  require(options.threads > 0, "Need at least one thread")
+
+  def search(
+    trainingExamples: TraversableOnce[Example[FeatureBundle]],
+    functionSig: Long,
+    configs: Seq[Config]): Report = {
+    require(configs.nonEmpty, "Need at least one configuration")
+    val examples = trainingExamples.toIndexedSeq
+    require(examples.size >= options.folds, "Fewer examples than folds")
+
+    val folds = {
+      val order = new scala.util.Random(options.seed).shuffle(examples.indices.toVector)
+      val fold = new Array[Int](examples.size)
+      for ((i, r) <- order.zipWithIndex)
+        fold(i) = r % options.folds
+      fold
+    }
+
+    val datasets = configs.map(_.hashtrick).distinct.map { h =>
+      val data = SparseDataset.fromBundles(examples, functionSig, HashingOptions(h))
+      val splits = for (f <- 0 until options.folds) yield {
+        val (test, train) = data.labelIds.indices.toArray.partition(folds(_) == f)
+        (data.subset(train), data.subset(test))
+      }
+      h -> ((data, splits))
+    }.toMap
+
+    val pool = Executors.newFixedThreadPool(options.threads)
+    val results = try {
+      val trials = for (config <- configs; f <- 0 until options.folds) yield {
+        pool.submit(new Callable[(Int, Double)] {
+          def call(): (Int, Double) = {
+            val (train, test) = datasets(config.hashtrick)._2(f)
+            evaluate(trainer(train, config.regularization), test)
+          }
+        })
+      }
+      val outcomes = try trials.map(_.get) catch { case e: ExecutionException => throw e.getCause }
+      configs.zip(outcomes.grouped(options.folds).toSeq).map { case (config, fs) =>
+        Result(config, fs.map(_._1).sum.toDouble / examples.size, fs.map(_._2).sum / examples.size)
+      }
+    } finally {
+      pool.shutdownNow()
+    }
+
+    val best = results.minBy(_.logLoss)
+    val classifier = trainer(datasets(best.config.hashtrick)._1, best.config.regularization)
+    Report(results, best, classifier)
+  }
+}
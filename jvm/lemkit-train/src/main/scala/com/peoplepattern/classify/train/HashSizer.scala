@@ -0,0 +1,156 @@
+package com.peoplepattern.classify.train
+
+import com.peoplepattern.classify.core.FeatureBundle
+import com.peoplepattern.classify.core.HashedFeatureMap
+import scala.collection.JavaConverters._
+
+object HashSizer {
+
+  /**
+   * The measured collisions of one hashing size and seed: the number of
+   * indices the sample's features hash to, and the resulting collision
+   * rate.
+   */
+  case class Candidate(size: Int, seed: Int, occupied: Int, collisionRate: Double)
+
+  /**
+   * The outcome of sizing.
+   *
+   * @param distinctFeatures The estimated number of distinct features.
+   * @param candidates The measured candidates, by size then seed.
+   * @param recommended The smallest measured size whose expected
+   *      collision rate is within the budget, if its model fits the memory
+   *      budget.
+   */
+  case class Report(distinctFeatures: Long, candidates: Seq[Candidate], recommended: Option[Int])
+
+  /** Powers of two from 2^10 to 2^24 */
+  val DefaultSizes: Seq[Int] = (10 to 24).map(1 << _)
+
+  /**
+   * The expected collision rate of `distinct` features hashed uniformly
+   * into `size` indices: the expected fraction of the features that don't
+   * get an index to themselves, `1 - occupied / distinct`.
+   */
+  def expectedCollisionRate(distinct: Long, size: Long): Double = {
+    if (distinct <= 1) {
+      0.0
+    } else {
+      // Expected occupied indices: size * (1 - (1 - 1/size)^distinct)
+      val occupied = -size * math.expm1(distinct * math.log1p(-1.0 / size))
+      math.max(0.0, 1.0 - occupied / distinct)
+    }
+  }
+
+  /**
+   * The bytes taken by the dense weights of a hashed model: a double per
+   * index and label.
+   */
+  def modelBytes(size: Long, numLabels: Int): Long = 8L * size * numLabels
+
+  /**
+   * The smallest of `sizes` for which `distinct` features are expected to
+   * collide at most at `collisionBudget`, if its model fits `memoryBudget`
+   * bytes.
+   */
+  def recommend(
+    distinct: Long,
+    numLabels: Int,
+    collisionBudget: Double,
+    memoryBudget: Option[Long] = None,
+    sizes: Seq[Int] = DefaultSizes): Option[Int] = {
+    require(collisionBudget > 0.0 && collisionBudget < 1.0, "The collision budget must be between 0 and 1")
+    require(numLabels > 0, "Need at least one label")
+    sizes.sorted
+      .find(size => expectedCollisionRate(distinct, size) <= collisionBudget)
+      .filter(size => memoryBudget.forall(modelBytes(size, numLabels) <= _))
+  }
+
+  /**
+   * Read a data file and print the report for its features.
+   *
+   * Arguments: the data file, the number of labels, the collision budget
+   * (default 0.01), and optionally a memory budget in bytes.
+   */
+  def main(args: Array[String]): Unit = {
+    require(args.length >= 2 && args.length <= 4,
+      "Usage: HashSizer <data file> <number of labels> [collision budget] [memory budget]")
+    val sizer = new HashSizer(seeds = Seq(0, 1, 2))
+    for (ex <- ClassifierSource.readDataFile(args(0)))
+      sizer.add(ex.item)
+    val report = sizer.report(args(1).toInt, if (args.length > 2) args(2).toDouble else 0.01,
+      if (args.length > 3) Some(args(3).toLong) else None)
+
+    println(s"Distinct features: ~${report.distinctFeatures}")
+    println("size\tseed\tcollisions\texpected")
+    for (c <- report.candidates) {
+      val expected = expectedCollisionRate(report.distinctFeatures, c.size)
+      println(f"${c.size}%d\t${c.seed}%d\t${c.collisionRate}%.4f\t$expected%.4f")
+    }
+    println(report.recommended.fold("No size meets the budgets")(size => s"Recommended size: $size"))
+  }
+}
+
+/**
+ * Measures how the features of a sample collide when hashed, to choose
+ * the size of a [[HashedFeatureMap]].
+ *
+ * Features are streamed through a [[HyperLogLog]] to estimate how many
+ * distinct ones there are, and through a `HashedFeatureMap` of each
+ * candidate size and seed, marking the indices they hash to in a bit set.
+ * A candidate's collision rate is the fraction of the distinct features
+ * which don't get an index to themselves, `1 - occupied / distinct`; it's
+ * measured against an estimate, so it's only as precise as that (to about
+ * 1% of the distinct count). For that reason the recommended size is
+ * chosen among the candidate sizes by the expected collision rate of the
+ * estimated distinct count, which the measured rates can be checked
+ * against. Memory use is a bit per index of each candidate, however large
+ * the sample.
+ */
+class HashSizer(
+    sizes: Seq[Int] = HashSizer.DefaultSizes,
+    seeds: Seq[Int] = Seq(0),
+    precision: Int = 14) {
+
+  import HashSizer._
+
+  require(sizes.nonEmpty && sizes.forall(_ > 0), "Need positive sizes")
+  require(seeds.nonEmpty, "Need at least one seed")
+
+  private val distinct = new HyperLogLog(precision)
+  private val candidates = for (size <- sizes.sorted; seed <- seeds) yield (size, seed)
+  private val maps = candidates.map { case (size, seed) => new HashedFeatureMap(0L, size, seed) }.toArray
+  private val occupied = candidates.map { case (size, _) => new java.util.BitSet(size) }.toArray
+
+  /** Add a feature */
+  def add(feature: String): Unit = {
+    distinct.add(feature)
+    var c = 0
+    while (c < maps.length) {
+      occupied(c).set(maps(c).indexOfFeature(feature))
+      c += 1
+    }
+  }
+
+  /** Add the features of a bundle */
+  def add(bundle: FeatureBundle): Unit =
+    for (obs <- bundle.observations.asScala)
+      add(obs.item)
+
+  /** The estimated number of distinct features added */
+  def distinctFeatures: Long = distinct.estimate
+
+  /**
+   * Measure the candidates and recommend a size for a model with
+   * `numLabels` labels.
+   */
+  def report(numLabels: Int, collisionBudget: Double, memoryBudget: Option[Long] = None): Report = {
+    val n = distinctFeatures
+    val measured = for (((size, seed), bits) <- candidates.zip(occupied)) yield {
+      val used = bits.cardinality
+      val rate = if (n == 0) 0.0 else math.max(0.0, 1.0 - used.toDouble / n)
+      Candidate(size, seed, used, rate)
+    }
+    Report(n, measured, recommend(n, numLabels, collisionBudget, memoryBudget, sizes))
+  }
+}
@@ -0,0 +1,266 @@
+package com.peoplepattern.classify.train
+
+import com.peoplepattern.classify.core.FeatureBundle
+import com.peoplepattern.classify.core.LinearClassifier
+import com.peoplepattern.classify.core.PortableLinearClassifier
+import com.peoplepattern.classify.core.Vec
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RecursiveTask
+
+object LbfgsTrainer {
+
+  /**
+   * The options for L-BFGS classifier learning.
+   *
+   * @param hashing Options for feature hashing.
+   * @param regularization The value for L2 regularization: the objective is
+   *      the importance-weighted sum of the log losses plus
+   *      `regularization / 2` times the squared norm of the weights, as with
+   *      vw's `--l2` for BFGS.
+   * @param iterations The maximum number of iterations.
+   * @param memory The number of past updates used to approximate the
+   *      inverse Hessian.
+   * @param tolerance Stop when the gradient norm, relative to the weight
+   *      norm, or the relative decrease of the objective falls below this.
+   * @param threads The number of shards the examples are split into, each
+   *      of which has its gradient computed in parallel. Results are
+   *      reproducible for a given number of threads.
+   */
+  case class Options(
+    hashing: HashingOptions = HashingOptions(),
+    regularization: Double = 1.0,
+    iterations: Int = 100,
+    memory: Int = 10,
+    tolerance: Double = 1e-6,
+    threads: Int = Runtime.getRuntime.availableProcessors)
+
+  private def dot(a: Array[Double], b: Array[Double]): Double = {
+    var sum = 0.0
+    var i = 0
+    while (i < a.length) {
+      sum += a(i) * b(i)
+      i += 1
+    }
+    sum
+  }
+
+  /** a += scale * b */
+  private def axpy(scale: Double, b: Array[Double], a: Array[Double]): Unit = {
+    var i = 0
+    while (i < a.length) {
+      a(i) += scale * b(i)
+      i += 1
+    }
+  }
+
+  /**
+   * The regularized objective and its gradient, computed over fixed shards
+   * of the dataset with fork-join reductions. Partial gradients are summed
+   * in shard order and partial losses in a fixed tree order, so the result
+   * doesn't depend on how the pool schedules the work.
+   */
+  private class Objective(data: SparseDataset, numLabels: Int, shards: Int, regularization: Double,
+      pool: ForkJoinPool) {
+
+    private val n = data.dimension * numLabels
+    private val partials = Array.fill(shards)(new Array[Double](n))
+    private val BlockSize = 1 << 14
+
+    /**
+     * Compute the objective at `weights`, and its gradient into `gradient`.
+     */
+    def apply(weights: Array[Double], gradient: Array[Double]): Double = {
+      val loss = pool.invoke(new Shards(weights, 0, shards))
+      val penalty = pool.invoke(new Reduce(weights, gradient, 0, n))
+      loss + penalty
+    }
+
+    private class Shards(weights: Array[Double], from: Int, to: Int) extends RecursiveTask[java.lang.Double] {
+      def compute(): java.lang.Double = {
+        if (to - from == 1) {
+          val partial = partials(from)
+          java.util.Arrays.fill(partial, 0.0)
+          val start = (from.toLong * data.size / shards).toInt
+          val end = ((from + 1).toLong * data.size / shards).toInt
+          Logistic.lossAndGradient(data, start, end, numLabels, weights, partial)
+        } else {
+          val mid = (from + to) >>> 1
+          val left = new Shards(weights, from, mid)
+          left.fork()
+          val right = new Shards(weights, mid, to).compute()
+          left.join() + right
+        }
+      }
+    }
+
+    /**
+     * Sum the partial gradients plus the gradient of the penalty into the
+     * gradient, returning the penalty.
+     */
+    private class Reduce(weights: Array[Double], gradient: Array[Double], from: Int, to: Int)
+        extends RecursiveTask[java.lang.Double] {
+      def compute(): java.lang.Double = {
+        if (to - from <= BlockSize) {
+          var penalty = 0.0
+          var i = from
+          while (i < to) {
+            val w = weights(i)
+            var g = regularization * w
+            var s = 0
+            while (s < shards) {
+              g += partials(s)(i)
+              s += 1
+            }
+            gradient(i) = g
+            penalty += w * w
+            i += 1
+          }
+          0.5 * regularization * penalty
+        } else {
+          val mid = (from + to) >>> 1
+          val left = new Reduce(weights, gradient, from, mid)
+          left.fork()
+          val right = new Reduce(weights, gradient, mid, to).compute()
+          left.join() + right
+        }
+      }
+    }
+  }
+}
+
+/**
+ * In-JVM multinomial logistic regression trained by batch L-BFGS, the
+ * in-process counterpart of [[VowpalTrainer]]'s default `--bfgs`.
+ *
+ * The training stream is read once into a [[SparseDataset]], which is
+ * split into one shard per thread; each iteration computes the loss and
+ * gradient of the shards in parallel on a fork-join pool and sums them.
+ * Being a batch method on a fixed reduction order, training is
+ * deterministic. Example importances scale their losses.
+ */
+class LbfgsTrainer(options: LbfgsTrainer.Options = LbfgsTrainer.Options()) extends LinearClassifierTrainer {
+
+  import LbfgsTrainer._
+
+  require(options.iterations > 0, "Need at least one iteration")
+  require(options.memory > 0, "Need to remember at least one update")
+  require(options.threads > 0, "Need at least one thread")
+  require(options.regularization >= 0.0, "Regularization must be non-negative")
+
+  def train(trainingExamples: TraversableOnce[Example[FeatureBundle]], functionSig: Long): PortableLinearClassifier =
+    train(SparseDataset.fromBundles(trainingExamples, functionSig, options.hashing))
+
+  /**
+   * Train on a dataset which has already been vectorized.
+   */
+  def train(data: SparseDataset): PortableLinearClassifier = {
+    val numLabels = data.labels.length
+    require(numLabels > 0, "No training examples")
+
+    val threads = math.min(options.threads, math.max(1, data.size))
+    val pool = new ForkJoinPool(threads)
+    val weights = try {
+      minimize(new Objective(data, numLabels, threads, options.regularization, pool), data.dimension * numLabels)
+    } finally {
+      pool.shutdown()
+    }
+
+    val parameters = Array.tabulate(numLabels) { k =>
+      new Vec(Array.tabulate(data.dimension)(j => weights(j * numLabels + k)))
+    }
+    val lc = new LinearClassifier(data.functionSig, data.labels, parameters)
+    new PortableLinearClassifier(lc, data.featureMap)
+  }
+
+  private def minimize(objective: Objective, n: Int): Array[Double] = {
+    var w = new Array[Double](n)
+    var g = new Array[Double](n)
+    var f = objective(w, g)
+    var wNext = new Array[Double](n)
+    var gNext = new Array[Double](n)
+    val direction = new Array[Double](n)
+
+    // The last `memory` updates, in a ring
+    val ss = Array.fill(options.memory)(new Array[Double](n))
+    val ys = Array.fill(options.memory)(new Array[Double](n))
+    val rhos = new Array[Double](options.memory)
+    val alphas = new Array[Double](options.memory)
+    var newest = -1
+    var stored = 0
+
+    var iteration = 0
+    var converged = false
+    while (iteration < options.iterations && !converged) {
+      if (math.sqrt(dot(g, g)) <= options.tolerance * math.max(1.0, math.sqrt(dot(w, w)))) {
+        converged = true
+      } else {
+        // Two-loop recursion for the direction -H * g
+        System.arraycopy(g, 0, direction, 0, n)
+        for (m <- 0 until stored) {
+          val i = (newest - m + options.memory) % options.memory
+          alphas(i) = rhos(i) * dot(ss(i), direction)
+          axpy(-alphas(i), ys(i), direction)
+        }
+        if (stored > 0) {
+          val gamma = 1.0 / (rhos(newest) * dot(ys(newest), ys(newest)))
+          for (i <- 0 until n) direction(i) *= gamma
+        }
+        for (m <- stored - 1 to 0 by -1) {
+          val i = (newest - m + options.memory) % options.memory
+          val beta = rhos(i) * dot(ys(i), direction)
+          axpy(alphas(i) - beta, ss(i), direction)
+        }
+        for (i <- 0 until n) direction(i) = -direction(i)
+
+        // Fall back to steepest descent if the approximation went bad
+        var slope = dot(g, direction)
+        if (slope >= 0.0) {
+          stored = 0
+          for (i <- 0 until n) direction(i) = -g(i)
+          slope = -dot(g, g)
+        }
+
+        // Backtracking line search for sufficient decrease
+        var step = if (stored == 0) math.min(1.0, 1.0 / math.sqrt(-slope)) else 1.0
+        var fNext = Double.PositiveInfinity
+        var tries = 0
+        var accepted = false
+        while (!accepted && tries < 30) {
+          for (i <- 0 until n) wNext(i) = w(i) + step * direction(i)
+          fNext = objective(wNext, gNext)
+          if (fNext <= f + 1e-4 * step * slope) accepted = true
+          else step *= 0.5
+          tries += 1
+        }
+
+        if (!accepted) {
+          converged = true
+        } else {
+          val next = (newest + 1) % options.memory
+          val s = ss(next)
+          val y = ys(next)
+          for (i <- 0 until n) {
+            s(i) = wNext(i) - w(i)
+            y(i) = gNext(i) - g(i)
+          }
+          val sy = dot(s, y)
+          if (sy > 1e-10) {
+            rhos(next) = 1.0 / sy
+            newest = next
+            stored = math.min(stored + 1, options.memory)
+          } else {
+            // The slot held the oldest remembered update
+            stored = 0
+          }
+
+          converged = (f - fNext) <= options.tolerance * math.max(1.0, math.abs(f))
+          var tmp = w; w = wNext; wNext = tmp
+          tmp = g; g = gNext; gNext = tmp
+          f = fNext
+          iteration += 1
+        }
+      }
+    }
+    w
+  }
+}
@@ -1,5 +1,6 @@
 package com.peoplepattern.classify.train
 
+import com.peoplepattern.classify.core.ExternalModelReader
 import com.peoplepattern.classify.core.FeatureBundle
 import com.peoplepattern.classify.core.LinearClassifier
 import com.peoplepattern.classify.core.PortableLinearClassifier
@@ -8,7 +9,6 @@ import java.io.BufferedWriter
 import java.io.File
 import java.io.FileWriter
 import scala.collection.JavaConverters._
-import scala.io.Source
 
 object LibLinearTrainer {
   /**
@@ -33,21 +33,8 @@ object LibLinearTrainer {
   /**
    * Read the parameters output by LIBLINEAR.
    */
-  private def readParameters(paramsFile: File, numClasses: Int, numFeatures: Int): Array[Vec] = {
-    val parameters = Array.fill(numClasses, numFeatures)(0.0)
-    var start = false
-    var parameterIndex = 0
-    for (line <- Source.fromFile(paramsFile).getLines) {
-      if (line == "w") start = true
-      else if (start) {
-        for ((param, classIndex) <- line.split(" ").zipWithIndex) {
-          parameters(classIndex)(parameterIndex) = param.toDouble
-        }
-        parameterIndex += 1
-      }
-    }
-    for (paramArray <- parameters) yield new Vec(paramArray)
-  }
+  private def readParameters(paramsFile: File, numClasses: Int, numFeatures: Int): Array[Vec] =
+    ExternalModelReader.readLibLinear(paramsFile, numClasses, numFeatures)
 }
 
 /**
@@ -0,0 +1,94 @@
+package com.peoplepattern.classify.train
+
+/**
+ * Multinomial logistic loss over [[SparseDataset]] rows, with weights laid
+ * out feature-major: the weight of feature `j` for label `k` is
+ * `weights(j * numLabels + k)`.
+ */
+private[train] object Logistic {
+
+  /**
+   * Replace the scores of each label with their softmax probabilities,
+   * in place.
+   */
+  def softmax(scores: Array[Double]): Unit = {
+    var max = Double.NegativeInfinity
+    for (s <- scores)
+      if (s > max) max = s
+    var sum = 0.0
+    var k = 0
+    while (k < scores.length) {
+      scores(k) = math.exp(scores(k) - max)
+      sum += scores(k)
+      k += 1
+    }
+    k = 0
+    while (k < scores.length) {
+      scores(k) /= sum
+      k += 1
+    }
+  }
+
+  /**
+   * Score a row for each label into `scores`.
+   */
+  def score(data: SparseDataset, i: Int, weights: Array[Double], scores: Array[Double]): Unit = {
+    val numLabels = scores.length
+    java.util.Arrays.fill(scores, 0.0)
+    var e = data.rowStarts(i)
+    val end = data.rowStarts(i + 1)
+    while (e < end) {
+      val base = data.indices(e) * numLabels
+      val v = data.values(e)
+      var k = 0
+      while (k < numLabels) {
+        scores(k) += v * weights(base + k)
+        k += 1
+      }
+      e += 1
+    }
+  }
+
+  /**
+   * Add the importance-weighted loss of rows `from` until `to` to the
+   * result, and their gradient to `gradient`.
+   */
+  def lossAndGradient(data: SparseDataset, from: Int, to: Int, numLabels: Int,
+    weights: Array[Double], gradient: Array[Double]): Double = {
+    val scores = new Array[Double](numLabels)
+    var loss = 0.0
+    var i = from
+    while (i < to) {
+      score(data, i, weights, scores)
+      val label = data.labelIds(i)
+      val importance = data.importances(i)
+
+      // log(sum(exp(scores))) - scores(label), computed stably
+      var max = Double.NegativeInfinity
+      for (s <- scores)
+        if (s > max) max = s
+      var sum = 0.0
+      for (s <- scores)
+        sum += math.exp(s - max)
+      loss += importance * (max + math.log(sum) - scores(label))
+
+      softmax(scores)
+      scores(label) -= 1.0
+
+      var e = data.rowStarts(i)
+      val end = data.rowStarts(i + 1)
+      while (e < end) {
+        val base = data.indices(e) * numLabels
+        val v = importance * data.values(e)
+        var k = 0
+        while (k < numLabels) {
+          gradient(base + k) += v * scores(k)
+          k += 1
+        }
+        e += 1
+      }
+      i += 1
+    }
+    loss
+  }
+}
@@ -0,0 +1,27 @@
+package com.peoplepattern.classify.train
+
+/**
+ * Fork/join over a fixed number of threads, shared by the trainers and
+ * datasets.
+ */
+private[train] object Parallel {
+
+  /**
+   * Run `body(t)` for each `t` below `threads` on its own thread, and wait
+   * for them all. If any of them fails, one of the failures is rethrown.
+   */
+  def run(threads: Int)(body: Int => Unit): Unit = {
+    if (threads == 1) {
+      body(0)
+    } else {
+      @volatile var failure: Throwable = null
+      val workers = for (t <- 0 until threads) yield new Thread(new Runnable {
+        def run(): Unit = try body(t) catch { case e: Throwable => failure = e }
+      }, s"lemkit-train-$t")
+      workers.foreach(_.start())
+      workers.foreach(_.join())
+      if (failure != null)
+        throw failure
+    }
+  }
+}
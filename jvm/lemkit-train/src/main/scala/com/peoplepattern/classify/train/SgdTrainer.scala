@@ -0,0 +1,134 @@
+package com.peoplepattern.classify.train
+
+import com.peoplepattern.classify.core.FeatureBundle
+import com.peoplepattern.classify.core.LinearClassifier
+import com.peoplepattern.classify.core.PortableLinearClassifier
+import com.peoplepattern.classify.core.Vec
+import scala.util.Random
+
+object SgdTrainer {
+
+  /**
+   * The options for SGD classifier learning.
+   *
+   * @param hashing Options for feature hashing.
+   * @param regularization The value for L2 regularization, applied to the
+   *      weights of the features of each example as it is learned from.
+   * @param passes The number of passes over the training data.
+   * @param learningRate The base learning rate; each weight's rate is this
+   *      divided by the root of its sum of squared gradients (AdaGrad), so
+   *      the rate adapts to the scale and frequency of each feature.
+   * @param threads The number of threads updating the weights concurrently.
+   * @param seed Seed for shuffling the examples before each pass.
+   */
+  case class Options(
+    hashing: HashingOptions = HashingOptions(),
+    regularization: Double = 1e-6,
+    passes: Int = 20,
+    learningRate: Double = 0.5,
+    threads: Int = Runtime.getRuntime.availableProcessors,
+    seed: Long = 0L)
+}
+
+/**
+ * In-JVM multinomial logistic regression trained by parallel stochastic
+ * gradient descent.
+ *
+ * The training stream is read once into a [[SparseDataset]]; each pass
+ * shuffles the examples and splits them among threads, which update a
+ * shared weight array without any locking (Hogwild): with sparse
+ * examples, concurrent updates rarely touch the same weights, and the
+ * occasional lost update doesn't hurt convergence. Example importances
+ * scale their gradients.
+ *
+ * Weights are laid out feature-major, so the weights of all labels for a
+ * feature are adjacent.
+ */
+class SgdTrainer(options: SgdTrainer.Options = SgdTrainer.Options()) extends LinearClassifierTrainer {
+
+  import SgdTrainer._
+  import Logistic.softmax
+
+  require(options.passes > 0, "Need at least one pass")
+  require(options.threads > 0, "Need at least one thread")
+
+  def train(trainingExamples: TraversableOnce[Example[FeatureBundle]], functionSig: Long): PortableLinearClassifier =
+    train(SparseDataset.fromBundles(trainingExamples, functionSig, options.hashing))
+
+  /**
+   * Train on a dataset which has already been vectorized.
+   */
+  def train(data: SparseDataset): PortableLinearClassifier = {
+    val numLabels = data.labels.length
+    require(numLabels > 0, "No training examples")
+
+    val weights = new Array[Double](data.dimension * numLabels)
+    val sumSquares = new Array[Double](data.dimension * numLabels)
+    val order = Array.range(0, data.size)
+    val random = new Random(options.seed)
+    val threads = math.min(options.threads, math.max(1, data.size))
+
+    for (pass <- 0 until options.passes) {
+      shuffle(order, random)
+      Parallel.run(threads) { t =>
+        val scores = new Array[Double](numLabels)
+        val from = (t.toLong * order.length / threads).toInt
+        val to = ((t + 1).toLong * order.length / threads).toInt
+        var r = from
+        while (r < to) {
+          update(data, order(r), numLabels, weights, sumSquares, scores)
+          r += 1
+        }
+      }
+    }
+
+    val parameters = Array.tabulate(numLabels) { k =>
+      new Vec(Array.tabulate(data.dimension)(j => weights(j * numLabels + k)))
+    }
+    val lc = new LinearClassifier(data.functionSig, data.labels, parameters)
+    new PortableLinearClassifier(lc, data.featureMap)
+  }
+
+  private def update(data: SparseDataset, i: Int, numLabels: Int, weights: Array[Double],
+    sumSquares: Array[Double], scores: Array[Double]): Unit = {
+    val start = data.rowStarts(i)
+    val end = data.rowStarts(i + 1)
+
+    Logistic.score(data, i, weights, scores)
+    softmax(scores)
+
+    // Gradient of the log loss for label k is (p(k) - [k is the label]) * x
+    val label = data.labelIds(i)
+    val importance = data.importances(i)
+    scores(label) -= 1.0
+
+    var e = start
+    while (e < end) {
+      val base = data.indices(e) * numLabels
+      val v = data.values(e)
+      var k = 0
+      while (k < numLabels) {
+        val w = weights(base + k)
+        val g = importance * scores(k) * v + options.regularization * w
+        if (g != 0.0) {
+          val s = sumSquares(base + k) + g * g
+          sumSquares(base + k) = s
+          weights(base + k) = w - options.learningRate * g / math.sqrt(s)
+        }
+        k += 1
+      }
+      e += 1
+    }
+  }
+
+  private def shuffle(order: Array[Int], random: Random): Unit = {
+    var i = order.length - 1
+    while (i > 0) {
+      val j = random.nextInt(i + 1)
+      val tmp = order(i)
+      order(i) = order(j)
+      order(j) = tmp
+      i -= 1
+    }
+  }
+}
@@ -0,0 +1,330 @@
+package com.peoplepattern.classify.train
+
+import com.peoplepattern.classify.core.DataFileParser
+import com.peoplepattern.classify.core.DatasetCache
+import com.peoplepattern.classify.core.Datum
+import com.peoplepattern.classify.core.FeatureBundle
+import com.peoplepattern.classify.core.FeatureMap
+import com.peoplepattern.classify.core.Vec
+import java.io.File
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+
+/**
+ * A vectorized dataset held in memory in compressed sparse row form.
+ *
+ * Row `i` has label `labels(labelIds(i))`, importance `importances(i)`,
+ * and non-zero entries `indices(k) -> values(k)` for `k` from
+ * `rowStarts(i)` until `rowStarts(i + 1)`, with indices ascending. Keeping
+ * all rows in a few flat arrays is what lets trainers make many passes
+ * over the data cheaply.
+ */
+class SparseDataset(
+    val featureMap: FeatureMap,
+    val dimension: Int,
+    val labels: Array[String],
+    val labelIds: Array[Int],
+    val importances: Array[Double],
+    val rowStarts: Array[Int],
+    val indices: Array[Int],
+    val values: Array[Double]) {
+
+  require(rowStarts.length == labelIds.length + 1, "Need one row start per row, plus one")
+  require(importances.length == labelIds.length, "Need one importance per row")
+  require(indices.length == values.length, "Need one value per index")
+
+  def functionSig: Long = featureMap.functionSig
+
+  /** The number of rows */
+  def size: Int = labelIds.length
+
+  /** The label of a row */
+  def label(i: Int): String = labels(labelIds(i))
+
+  /** The dot product of a row with a dense weight vector */
+  def dot(i: Int, weights: Array[Double]): Double = {
+    var sum = 0.0
+    var k = rowStarts(i)
+    val end = rowStarts(i + 1)
+    while (k < end) {
+      sum += values(k) * weights(indices(k))
+      k += 1
+    }
+    sum
+  }
+
+  /** A row as a datum */
+  def datum(i: Int): Datum = {
+    val start = rowStarts(i)
+    val end = rowStarts(i + 1)
+    new Datum(functionSig, new Vec(dimension, indices.slice(start, end), values.slice(start, end)))
+  }
+
+  /** The rows as examples, in order */
+  def examples: Iterator[Example[Datum]] =
+    Iterator.range(0, size).map(i => Example(label(i), datum(i), importances(i)))
+
+  /**
+   * A dataset of the given rows, in that order, with the same labels and
+   * feature map.
+   */
+  def subset(rows: Array[Int]): SparseDataset = {
+    val starts = new Array[Int](rows.length + 1)
+    var n = 0L
+    for (r <- rows.indices) {
+      n += rowStarts(rows(r) + 1) - rowStarts(rows(r))
+      require(n <= Int.MaxValue, "Too many non-zero entries for memory")
+      starts(r + 1) = n.toInt
+    }
+    val is = new Array[Int](n.toInt)
+    val vs = new Array[Double](n.toInt)
+    for (r <- rows.indices) {
+      val start = rowStarts(rows(r))
+      System.arraycopy(indices, start, is, starts(r), starts(r + 1) - starts(r))
+      System.arraycopy(values, start, vs, starts(r), starts(r + 1) - starts(r))
+    }
+    new SparseDataset(featureMap, dimension, labels, rows.map(labelIds), rows.map(importances),
+      starts, is, vs)
+  }
+
+  /**
+   * Write the rows to a dataset cache file.
+   */
+  def writeCache(file: File): Unit = {
+    val writer = new DatasetCache.Writer(file, featureMap)
+    try {
+      for (i <- 0 until size)
+        writer.write(label(i), importances(i), datum(i))
+    } finally {
+      writer.close()
+    }
+  }
+}
+
+object SparseDataset {
+
+  /**
+   * Load a dataset cache into memory.
+   */
+  def fromCache(file: File): SparseDataset = fromCache(DatasetCache.open(file))
+
+  /**
+   * Load a dataset cache into memory, with the feature map it was written
+   * with rather than the cache's copy, e.g. a
+   * [[com.peoplepattern.classify.core.MappedFeatureMap]].
+   */
+  def fromCache(file: File, featureMap: FeatureMap): SparseDataset =
+    fromCache(DatasetCache.open(file, featureMap))
+
+  private def fromCache(cache: DatasetCache): SparseDataset = {
+    require(cache.size <= Int.MaxValue, s"Too many rows for memory: ${cache.size}")
+
+    val builder = new Builder(cache.getFeatureMap, cache.dimension, cache.getLabels)
+    val cursor = cache.cursor()
+    try {
+      while (cursor.next())
+        builder.add(cursor.labelId, cursor.importance, cursor.indices, cursor.values, cursor.numEntries)
+    } finally {
+      cursor.close()
+    }
+    builder.result()
+  }
+
+  /**
+   * Collect vectorized examples into a dataset.
+   */
+  def apply(examples: TraversableOnce[Example[Datum]], featureMap: FeatureMap): SparseDataset = {
+    val builder = new Builder(featureMap, featureMap.size, Array.empty)
+    for (ex <- examples) {
+      val vec = ex.item.vector.toSparse
+      require(ex.item.functionSig == featureMap.functionSig, "Example has inconsistent sig")
+      require(vec.size == featureMap.size, "Example has inconsistent dimension")
+      builder.add(builder.labelId(ex.label), ex.importance, vec)
+    }
+    builder.result()
+  }
+
+  /**
+   * Vectorize a stream of feature bundles into a dataset, in one pass.
+   *
+   * Features are indexed through a hashing indexer if `hashing` asks for
+   * one, or an exact, growing indexer otherwise, and vectorized as
+   * [[com.peoplepattern.classify.core.FeatureBundle#toDatum]] would with
+   * the resulting feature map (including the intercept).
+   */
+  def fromBundles(
+    examples: TraversableOnce[Example[FeatureBundle]],
+    functionSig: Long,
+    hashing: HashingOptions = HashingOptions()): SparseDataset = {
+    val indexer = hashing.hashtrick match {
+      case Some(n) => new HashingIndexer(functionSig, n)
+      case None => new CounterIndexer(functionSig)
+    }
+    fromBundles(examples, indexer)
+  }
+
+  /**
+   * Vectorize a stream of feature bundles into a dataset, in one pass,
+   * with the given indexer.
+   */
+  def fromBundles(examples: TraversableOnce[Example[FeatureBundle]], indexer: Indexer): SparseDataset = {
+    // Index the intercept first so that it's known while the exact
+    // indexer is still growing
+    val interceptIndex = indexer("")
+
+    val builder = new Builder(null, 0, Array.empty)
+    val row = new RowBuffer
+    for (ex <- examples) {
+      row.vectorize(ex.item, indexer, interceptIndex)
+      builder.add(builder.labelId(ex.label), ex.importance, row.vec)
+    }
+
+    builder.result(indexer.featureMap, indexer.size)
+  }
+
+  /**
+   * Vectorize a stream of feature bundles into a dataset on several
+   * threads.
+   *
+   * The stream is read in batches, and each thread featurizes and indexes
+   * its part of a batch, through a [[HashingIndexer]] or, without hashing,
+   * a [[ConcurrentCounterIndexer]]. Rows keep the order of the stream, but
+   * with exact indexing the indices given to features depend on thread
+   * scheduling, so use the single-threaded version where training has to
+   * be reproducible.
+   */
+  def fromBundles(
+    examples: TraversableOnce[Example[FeatureBundle]],
+    functionSig: Long,
+    hashing: HashingOptions,
+    threads: Int): SparseDataset = {
+    require(threads > 0, "Need at least one thread")
+    val indexer = hashing.hashtrick match {
+      case Some(n) => new HashingIndexer(functionSig, n)
+      case None => new ConcurrentCounterIndexer(functionSig)
+    }
+    val interceptIndex = indexer("")
+
+    val builder = new Builder(null, 0, Array.empty)
+    val rows = Array.fill(threads)(new RowBuffer)
+    for (batch <- examples.toIterator.grouped(BatchSize * threads)) {
+      val vecs = new Array[Vec](batch.size)
+      Parallel.run(threads) { t =>
+        var i = t * batch.size / threads
+        val end = (t + 1) * batch.size / threads
+        while (i < end) {
+          rows(t).vectorize(batch(i).item, indexer, interceptIndex)
+          vecs(i) = rows(t).vec
+          i += 1
+        }
+      }
+      for ((ex, vec) <- batch.iterator.zip(vecs.iterator))
+        builder.add(builder.labelId(ex.label), ex.importance, vec)
+    }
+
+    builder.result(indexer.featureMap, indexer.size)
+  }
+
+  /**
+   * Parse a text data file straight into a dataset cache file, without
+   * holding the data in memory.
+   *
+   * @return the number of examples written
+   */
+  def cacheDataFile(dataFile: String, featureMap: FeatureMap, cacheFile: File): Long = {
+    val writer = new DatasetCache.Writer(cacheFile, featureMap)
+    try {
+      new DataFileParser(featureMap).parse(new File(dataFile), writer)
+    } finally {
+      writer.close()
+    }
+  }
+
+  /** The number of examples each thread vectorizes per batch */
+  private val BatchSize = 1024
+
+  /**
+   * Reusable buffers for vectorizing one bundle at a time.
+   */
+  private class RowBuffer {
+    private var is = new Array[Int](64)
+    private var vs = new Array[Double](64)
+
+    /** The last row vectorized */
+    var vec: Vec = null
+
+    def vectorize(bundle: FeatureBundle, indexer: Indexer, interceptIndex: Int): Unit = {
+      val observations = bundle.observations
+      val n = observations.size + 1
+      if (is.length < n) {
+        is = new Array[Int](2 * n)
+        vs = new Array[Double](2 * n)
+      }
+      var k = 0
+      for (obs <- observations.asScala) {
+        val index = indexer(obs.item)
+        if (index >= 0 && index != interceptIndex) {
+          is(k) = index
+          vs(k) = obs.score
+          k += 1
+        }
+      }
+      is(k) = interceptIndex
+      vs(k) = 1.0
+      k += 1
+
+      vec = Vec.fromUnordered(Int.MaxValue, is, vs, k)
+    }
+  }
+
+  private class Builder(featureMap: FeatureMap, dimension: Int, initialLabels: Array[String]) {
+    private val labels = mutable.ArrayBuffer(initialLabels: _*)
+    private val labelIndex = mutable.Map(initialLabels.zipWithIndex: _*)
+    private val labelIds = new mutable.ArrayBuilder.ofInt
+    private val importances = new mutable.ArrayBuilder.ofDouble
+    private val rowStarts = new mutable.ArrayBuilder.ofInt
+    private val indices = new mutable.ArrayBuilder.ofInt
+    private val values = new mutable.ArrayBuilder.ofDouble
+    private var nnz = 0
+
+    rowStarts += 0
+
+    def labelId(label: String): Int =
+      labelIndex.getOrElseUpdate(label, { labels += label; labels.size - 1 })
+
+    def add(labelId: Int, importance: Double, is: Array[Int], vs: Array[Double], n: Int): Unit = {
+      require(nnz.toLong + n <= Int.MaxValue, "Too many non-zero entries for memory")
+      labelIds += labelId
+      importances += importance
+      var k = 0
+      while (k < n) {
+        indices += is(k)
+        values += vs(k)
+        k += 1
+      }
+      nnz += n
+      rowStarts += nnz
+    }
+
+    def add(labelId: Int, importance: Double, vec: Vec): Unit = {
+      val n = vec.numEntries
+      require(nnz.toLong + n <= Int.MaxValue, "Too many non-zero entries for memory")
+      labelIds += labelId
+      importances += importance
+      var k = 0
+      while (k < n) {
+        indices += vec.indexAt(k)
+        values += vec.valueAt(k)
+        k += 1
+      }
+      nnz += n
+      rowStarts += nnz
+    }
+
+    def result(): SparseDataset = result(featureMap, dimension)
+
+    def result(featureMap: FeatureMap, dimension: Int): SparseDataset =
+      new SparseDataset(featureMap, dimension, labels.toArray, labelIds.result(), importances.result(),
+        rowStarts.result(), indices.result(), values.result())
+  }
+}
@@ -0,0 +1,71 @@
+package com.peoplepattern.classify.train
+
+import com.peoplepattern.classify.core.ExactFeatureMap
+import com.peoplepattern.classify.core.FeatureBundle
+import scala.collection.JavaConverters._
+
+/**
+ * Builds exact feature maps holding only the features seen often enough.
+ *
+ * Most features of a large training set are seen once or twice, and an
+ * exact map which keeps them all is mostly weights that can't be learned.
+ * Building a pruned map takes two passes over the data: the first counts
+ * feature occurrences in a [[CountMinSketch]] of fixed size, and the
+ * second collects, in order of first appearance, the features whose
+ * estimated count reaches the minimum. Since the sketch only overestimates,
+ * no feature seen often enough is dropped, and a few rare ones may be
+ * kept. The intercept is always kept, first.
+ *
+ * The map can then be used to vectorize the data, e.g. with
+ * `SparseDataset(examples.map(ex => ex.copy(item = ex.item.toDatum(map))), map)`,
+ * for the trainers which take a [[SparseDataset]].
+ */
+object Vocabulary {
+
+  /**
+   * Count feature occurrences over a stream of examples.
+   */
+  def count(examples: TraversableOnce[Example[FeatureBundle]], sketch: CountMinSketch): CountMinSketch = {
+    for (ex <- examples; obs <- ex.item.observations.asScala)
+      sketch.add(obs.item)
+    sketch
+  }
+
+  /**
+   * Collect the features of a stream of examples counted at least
+   * `minCount` times by `sketch`.
+   */
+  def prune(
+    examples: TraversableOnce[Example[FeatureBundle]],
+    sketch: CountMinSketch,
+    minCount: Int,
+    functionSig: Long,
+    useIntercept: Boolean = true): ExactFeatureMap = {
+    val indexer = new CounterIndexer(functionSig, if (useIntercept) Seq("") else Seq.empty, useIntercept)
+    for (ex <- examples; obs <- ex.item.observations.asScala) {
+      if (sketch(obs.item) >= minCount)
+        indexer(obs.item)
+    }
+    new ExactFeatureMap(functionSig, indexer.labels, useIntercept)
+  }
+
+  /**
+   * Build a feature map of the features seen at least `minCount` times,
+   * going over `examples` twice.
+   *
+   * @param width The number of counters in each row of the sketch; the
+   *      sketch takes `4 * width * depth` bytes.
+   * @param depth The number of rows of the sketch.
+   */
+  def build(
+    examples: Iterable[Example[FeatureBundle]],
+    functionSig: Long,
+    minCount: Int,
+    width: Int = 1 << 20,
+    depth: Int = 4,
+    useIntercept: Boolean = true): ExactFeatureMap = {
+    require(minCount > 0, "The minimum count must be positive")
+    val sketch = count(examples, new CountMinSketch(width, depth))
+    prune(examples, sketch, minCount, functionSig, useIntercept)
+  }
+}
@@ -1,12 +1,11 @@
 package com.peoplepattern.classify.train
 
+import com.peoplepattern.classify.core.ExternalModelReader
 import com.peoplepattern.classify.core.FeatureBundle
 import com.peoplepattern.classify.core.LinearClassifier
 import com.peoplepattern.classify.core.PortableLinearClassifier
 import com.peoplepattern.classify.core.Vec
-import java.io.BufferedWriter
-import java.io.FileWriter
-import scala.collection.JavaConverters._
+import java.io.IOException
 import scala.io.Source
 
 object VowpalTrainer {
@@ -25,6 +24,12 @@ object VowpalTrainer {
    *      instances and the multiple is 3, then we will try to find about
    *      30,000 features. The final model is then computed with L2
    *      regularization with those reduced features.
+   * @param vwFeatureSelection Select features by searching for the L1
+   *      regularization that keeps about the desired number of features,
+   *      retraining vw for each candidate, rather than by ranking the
+   *      features by their strength in a single FTRL-Proximal pass.
+   * @param l1SearchThreads The number of L1 candidates vw trains
+   *      concurrently in each round of the search for `vwFeatureSelection`.
    * @param defaultOptions Default options passed to the underlying Vowpal
    *      Wabbit classifier.
    * @param extraOptions Additional options to pass to the underlying classifier.
@@ -34,6 +39,8 @@ object VowpalTrainer {
     regularization: Double = 1.0,
     verbose: Boolean = false,
     featureSelectionMultiple: Option[Int] = None,
+    vwFeatureSelection: Boolean = false,
+    l1SearchThreads: Int = Runtime.getRuntime.availableProcessors,
     defaultOptions: String = "--bfgs --passes 100 --loss_function logistic --holdout_off",
     extraOptions: String = "")
 }
@@ -46,7 +53,6 @@ class VowpalTrainer(
     options: VowpalTrainer.Options = VowpalTrainer.Options(),
     filePrefix: String = "train") extends LinearClassifierTrainer {
 
-  import sys.process._
   import java.io.File
   import math.{ max, min, log, exp, ceil, floor }
   import LinearClassifierTrainer.tmpFile
@@ -60,23 +66,23 @@ class VowpalTrainer(
   /**
    * Train a Vowpal classifier. Currently fixes most of the options to
    * reasonable values for some of our standard use cases.
+   *
+   * The examples are vectorized into memory once and streamed to vw's
+   * standard input for each run, rather than written to a training file;
+   * vw keeps its own cache file for its passes over the data.
    */
   def train(trainingExamples: TraversableOnce[Example[FeatureBundle]], functionSig: Long): PortableLinearClassifier = {
 
     // Create the files used and produced by Vowpal.
-    val trainingFile = tmpFile(s"$filePrefix-vw-training-final-")
-    val trainingFileFiltered = tmpFile(s"$filePrefix-vw-training-filtered-")
     val cacheFile = tmpFile(s"$filePrefix-vw-cache-")
+    val cacheL1File = tmpFile(s"$filePrefix-vw-cacheL1-")
     val paramsFile = tmpFile(s"$filePrefix-vw-params-")
-    val paramsL1File = tmpFile(s"$filePrefix-vw-paramsL1-")
 
     // Unless we are verbose, clean up all of the above files.
     if (!options.verbose) {
-      trainingFile.deleteOnExit
-      trainingFileFiltered.deleteOnExit
       cacheFile.deleteOnExit
+      cacheL1File.deleteOnExit
       paramsFile.deleteOnExit
-      paramsL1File.deleteOnExit
     }
 
     val featureIndexer = options.hashing.hashtrick match {
@@ -84,96 +90,208 @@ class VowpalTrainer(
       case None => new CounterIndexer(functionSig)
     }
 
-    val labelIndexer = new CounterIndexer(0L)
+    val data = SparseDataset.fromBundles(trainingExamples, featureIndexer)
 
-    // Write example out to file
-    var numExamples = 0
+    // Rows carry the intercept, but vw isn't given it: with --noconstant
+    // the intercept's weight stays 0
+    val interceptIndex = featureIndexer("")
 
-    val trainOut = new BufferedWriter(new FileWriter(trainingFile))
-    try {
-      for (ex <- trainingExamples) {
-        val labelInt = labelIndexer(ex.label) + 1
-        val labelImp = ex.importance
-        val feats = for (obs <- ex.item.observations.asScala) yield {
-          s"${featureIndexer(obs.item)}:${obs.score}"
-        }
-        trainOut.write(s"$labelInt $labelImp | ${feats.mkString(" ")}\n")
-        numExamples += 1
-      }
-    } finally {
-      trainOut.close()
-    }
-
-    val numClasses = labelIndexer.size
+    val numClasses = data.labels.length
 
     // Depending on whether we want to reduce the number of features
-    // with L1 feature selection, return either the filtered data/feature-map,
-    // or the original data and feature map.
-    val (featureMap, trainingFileFinal) = if (useHashtrick || !doFeatureSelection) {
-      (featureIndexer.featureMap, trainingFile)
+    // with L1 feature selection, return either the filtered feature map
+    // and the mask from the original feature indices to it, or the
+    // original feature map.
+    val (featureMap, mask) = if (useHashtrick || !doFeatureSelection) {
+      (featureIndexer.featureMap, None)
     } else {
-      val filteredFeatureIndexer =
+      val (filteredFeatureIndexer, mask) =
         makeFilteredFeatureIndexerL1(
-          featureIndexer,
-          numClasses,
-          numExamples,
-          trainingFile,
-          trainingFileFiltered,
-          paramsL1File,
-          cacheFile,
+          featureIndexer.asInstanceOf[CounterIndexer],
+          data,
+          cacheL1File,
           functionSig)
-      (filteredFeatureIndexer.featureMap, trainingFileFiltered)
+      (filteredFeatureIndexer.featureMap, Some(mask))
     }
 
     val numBits = getNumBitsNeeded(featureMap.size, numClasses)
 
     // Train the final model with L2 regularization.
     val trainCommand =
-      s"vw -d $trainingFileFinal --oaa $numClasses --l2 ${options.regularization} --noconstant --readable_model $paramsFile --cache_file $cacheFile -k $quietOption -b $numBits ${options.defaultOptions} ${options.extraOptions}"
+      s"vw --oaa $numClasses --l2 ${options.regularization} --noconstant --readable_model $paramsFile --cache_file $cacheFile -k $quietOption -b $numBits ${options.defaultOptions} ${options.extraOptions}"
 
     if (options.verbose)
       println("\nVW training command:\n\n" + trainCommand + "\n")
-    val vwResult = (trainCommand !!)
+    runVw(trainCommand) { writer =>
+      for (i <- 0 until data.size)
+        writer.write(data, i, mask, interceptIndex)
+    }
 
     // Read the parameters from the file.
     val parameters = readParameters(paramsFile, numClasses, featureMap.size)
 
-    val lc = new LinearClassifier(functionSig, labelIndexer.labels, parameters)
+    val lc = new LinearClassifier(functionSig, data.labels, parameters)
 
     new PortableLinearClassifier(lc, featureMap)
   }
 
+  /**
+   * Run a vw command, feeding it examples on its standard input.
+   */
+  private def runVw(command: String)(feed: VowpalWriter => Unit): Unit = {
+    val builder = new ProcessBuilder(command.trim.split("\\s+"): _*)
+    builder.redirectError(ProcessBuilder.Redirect.INHERIT)
+    builder.redirectOutput(
+      if (options.verbose) ProcessBuilder.Redirect.INHERIT
+      else ProcessBuilder.Redirect.appendTo(new File("/dev/null")))
+
+    val process = builder.start()
+    val writer = new VowpalWriter(process.getOutputStream)
+    val failure = try {
+      feed(writer)
+      writer.close()
+      None
+    } catch {
+      // vw stopped reading, so its exit status is the better explanation
+      case e: IOException =>
+        try process.getOutputStream.close() catch { case _: IOException => }
+        Some(e)
+    }
+
+    val status = process.waitFor()
+    if (status != 0)
+      throw new RuntimeException(s"vw exited with status $status: $command")
+    failure.foreach(e => throw e)
+  }
+
   // Compute and store 2^x for every index x from 0 to 30, inclusive.
   lazy val maxNumClassesBits = 30
   lazy val bitshift = (0 to maxNumClassesBits).map(x => math.pow(2, x).toInt)
 
   private def makeFilteredFeatureIndexerL1(
-    featureIndexer: Indexer,
-    numClasses: Int,
-    numExamples: Int,
-    trainingFile: File,
-    trainingFileFiltered: File,
-    paramsL1File: File,
+    featureIndexer: CounterIndexer,
+    data: SparseDataset,
     cacheFile: File,
-    functionSig: Long) = {
+    functionSig: Long): (CounterIndexer, Array[Int]) = {
     val numFeatures = featureIndexer.size
+    val numClasses = data.labels.length
+    val numExamples = data.size
+    val interceptIndex = featureIndexer("")
 
     if (options.verbose)
       println(
         s"\nPerforming L1 feature selection on $numExamples training instances with $numFeatures features.")
 
-    // Seek the L1 value that gets us within a delta of the desired number of parameters.
-    // This is done by taking two extreme values, l1min and l1max, and searching between
-    // them based on the number of parameters returned for midpoints between them. After
-    // each L1 attempt, l1min or l1max are updated and provide a new l1reg midpoint to
-    // try.
+    val parameterThreshold = numExamples * options.featureSelectionMultiple.get
+
+    val activeFeatureIndices =
+      if (options.vwFeatureSelection)
+        selectFeaturesVw(data, numFeatures, numClasses, parameterThreshold, cacheFile, interceptIndex)
+      else
+        selectFeaturesFtrl(data, numFeatures, parameterThreshold)
+
+    val currFeats = featureIndexer.labels
+
+    val headerFeatures = List("") // intercept
+
+    val activeFeatureNames =
+      activeFeatureIndices.map(currFeats).toSet
+
+    val activeFeatures =
+      headerFeatures ++ (activeFeatureNames -- headerFeatures.toSet).toList
+
+    if (options.verbose)
+      println(
+        s"\n--> L1 feature selection reduced ${featureIndexer.size} features to ${activeFeatures.size}\n")
+
+    // Map the original feature indices to the selected features' indices,
+    // dropping the rest.
+    val mask = Array.fill(numFeatures)(-1)
+    for ((feature, index) <- activeFeatures.zipWithIndex)
+      mask(featureIndexer(feature)) = index
+
+    (new CounterIndexer(functionSig, activeFeatures), mask)
+  }
+
+  /**
+   * Select the features which are strongest after a single FTRL-Proximal
+   * pass over the training data, without L1 regularization.
+   *
+   * A feature's strength is the largest L1 regularization which would
+   * leave it a non-zero weight, so taking the strongest features is the
+   * same as picking the L1 regularization that keeps exactly the desired
+   * number, without having to retrain for each candidate.
+   */
+  private def selectFeaturesFtrl(data: SparseDataset, numFeatures: Int, parameterThreshold: Int): Seq[Int] = {
+    val learner = new FtrlTrainer.Learner(FtrlTrainer.Options(l1 = 0.0), numFeatures)
+    for (i <- 0 until data.size)
+      learner.update(data.labelIds(i), data.importances(i), data.indices, data.values,
+        data.rowStarts(i), data.rowStarts(i + 1))
+
+    val strengths = Array.tabulate(numFeatures)(learner.strength)
+    val selected = (0 until numFeatures).filter(strengths(_) > 0.0).sortBy(-strengths(_)).take(parameterThreshold)
+
+    if (options.verbose && selected.nonEmpty)
+      println(s"Num features active for L1=${strengths(selected.last)}: ${selected.size}")
+
+    selected
+  }
+
+  /**
+   * Select features by searching for the L1 regularization that has vw
+   * keep about the desired number of features.
+   *
+   * The search brackets the L1 value in log space. Each round trains vw for
+   * several candidates spread evenly inside the current bracket, all at
+   * once, and narrows the bracket to the two neighbouring candidates that
+   * straddle the desired number of features. The search stops as soon as
+   * a candidate lands within the bounds. The data is streamed to a first vw
+   * run, which writes the cache file, and the concurrent runs all read it
+   * back from the cache.
+   */
+  private def selectFeaturesVw(
+    data: SparseDataset,
+    numFeatures: Int,
+    numClasses: Int,
+    parameterThreshold: Int,
+    cacheFile: File,
+    interceptIndex: Int): Seq[Int] = {
+    val numExamples = data.size
     val numBits = getNumBitsNeeded(numFeatures, numClasses)
 
-    val parameterThreshold = numExamples * options.featureSelectionMultiple.get
+    /**
+     * Train with the given L1 regularization parameter (in log space),
+     * returning the parameters file and the number of parameters active.
+     */
+    def trainL1(l1Log: Double, buildCache: Boolean): (File, Int) = {
+      val paramsL1File = tmpFile(s"$filePrefix-vw-paramsL1-")
+      if (!options.verbose)
+        paramsL1File.deleteOnExit
+
+      val l1reg = exp(l1Log)
+      val killCache = if (buildCache) "-k" else ""
+      val trainL1Command =
+        s"vw --oaa $numClasses --passes 50 --loss_function logistic --l1 $l1reg --noconstant --readable_model $paramsL1File --cache_file $cacheFile $killCache $quietOption -b $numBits"
+
+      if (options.verbose)
+        println("\nVW training L1 command:\n\n" + trainL1Command + "\n")
+
+      runVw(trainL1Command) { writer =>
+        if (buildCache) {
+          for (i <- 0 until data.size)
+            writer.write(data, i, intercept = interceptIndex)
+        }
+      }
+
+      // Find out how many parameters had non-zero values.
+      val paramsFileLength = Source.fromFile(paramsL1File).getLines.length
+      val numParameters = (paramsFileLength - 12) / numClasses
 
-    var numParameters = 0
-    //var (l1max,l1min) = (0.01,0.000000000001)
-    //var l1reg = exp((log(l1min)+log(l1max))/2.0)
+      if (options.verbose)
+        println(s"Num parameters active for L1=$l1reg: " + numParameters)
+
+      (paramsL1File, numParameters)
+    }
 
     // Set upperbound to be half the number of examples more than the parameter
     // threshold, and the lowerbound to be a quarter of that (which means we allow
@@ -182,130 +300,90 @@ class VowpalTrainer(
     val upperbound = parameterThreshold + floor(numExamples / 2.0)
     val lowerbound = parameterThreshold - floor(numExamples / 4.0)
 
+    def inBounds(np: Int) = np >= lowerbound && np <= upperbound
+
     // Work with L1 parameter exploration in log space. Note that l1Upper is strictly
     // less than l1Lower, which may seem counter-intuitive, but they are called upper
     // and lower because small values select more features.
     var l1Upper = -30.0
     var l1Lower = -2.0
-    var l1Curr = -16.0 // Start the search in the middle (in log space).
 
     // Track the upper and lowerbounds on number of parameters currently.
     var npUpper = numFeatures
     var npLower = 0
 
-    var numIters = 1
-
-    //while (numIters < 10 && (numParameters < lowerbound || numParameters > upperbound)) {}
-    while (numIters < 10 && npUpper > upperbound && npLower < lowerbound) {
+    // The parameters files of the candidates tried, by L1 value (in log space).
+    val trained = scala.collection.mutable.Map[Double, File]()
 
-      //  l1Curr is in log space, so exponentiate to pass to VW.
-      val l1reg = exp(l1Curr)
-
-      // Train the model given the current L1 regularization parameter.
-      val trainL1Command =
-        s"vw -d $trainingFile --oaa $numClasses --passes 50 --loss_function logistic --l1 $l1reg --noconstant --readable_model $paramsL1File --cache_file $cacheFile -k $quietOption -b $numBits"
-
-      if (options.verbose)
-        println("\nVW training L1 command:\n\n" + trainL1Command + "\n")
+    // Start in the middle (in log space), which also builds the cache.
+    var candidates = Seq((l1Lower + l1Upper) / 2.0)
+    var buildCache = true
+    var found: Option[File] = None
 
-      val vwL1Result = (trainL1Command !!)
-
-      // Find out how many parameters had non-zero values.
-      val paramsFileLength = Source.fromFile(paramsL1File).getLines.length
-      numParameters = (paramsFileLength - 12) / numClasses
-      val npCurr = numParameters
-
-      if (options.verbose)
-        println(s"Num parameters active for L1=$l1reg: " + numParameters)
+    val threads = max(1, options.l1SearchThreads)
+    var numIters = 1
 
-      // Upperbound or lowerbound depending on whether we are over or under the threshold.
-      // Note: the new number of parameters might be less close to what we seek because
-      // the graph of l1 to number of parameters is not monotonic. We accept this for now.
-      if (npCurr > parameterThreshold) {
-        npUpper = npCurr
-        l1Upper = l1Curr
+    while (found.isEmpty && numIters < 10 && npUpper > upperbound && npLower < lowerbound) {
+      val results = new Array[(File, Int)](candidates.size)
+      if (buildCache) {
+        results(0) = trainL1(candidates(0), true)
+        buildCache = false
       } else {
-        npLower = npCurr
-        l1Lower = l1Curr
+        Parallel.run(candidates.size) { t =>
+          results(t) = trainL1(candidates(t), false)
+        }
+      }
+
+      // Candidates are in increasing order, so with fewer and fewer features.
+      // Upperbound or lowerbound depending on whether we are over or under the
+      // threshold. Note: the new number of parameters might be less close to
+      // what we seek because the graph of l1 to number of parameters is not
+      // monotonic. We accept this for now.
+      for ((l1Curr, (paramsL1File, npCurr)) <- candidates.zip(results)) {
+        trained(l1Curr) = paramsL1File
+        if (found.isEmpty && inBounds(npCurr))
+          found = Some(paramsL1File)
+        if (npCurr > parameterThreshold) {
+          if (l1Curr > l1Upper) {
+            npUpper = npCurr
+            l1Upper = l1Curr
+          }
+        } else if (l1Curr < l1Lower) {
+          npLower = npCurr
+          l1Lower = l1Curr
+        }
       }
 
-      // Pick the midpoint.
-      l1Curr = (l1Lower + l1Upper) / 2.0
+      // Spread the next candidates evenly inside the new bracket.
+      candidates = (1 to threads).map(i => l1Upper + (l1Lower - l1Upper) * i / (threads + 1))
 
       if (options.verbose) {
         println("\n***********************************************")
         println(
-          s"L1 feature selection (Iter $numIters): Lower $npLower\tUpper $npUpper\tL1-curr $l1Curr\tL1-lower $l1Lower\t L1-upper $l1Upper\n")
-        val l1CurrString = "%1.20f" format exp(l1Curr)
-        println(s"OUTPUT\t$l1CurrString\t$numParameters")
+          s"L1 feature selection (Iter $numIters): Lower $npLower\tUpper $npUpper\tL1-lower $l1Lower\t L1-upper $l1Upper\n")
       }
 
       numIters += 1
     }
 
-    // Pick l1Final as the upper or lowerbound that is the closest to the desired
-    // number of parameters (but go with the l1Upper if npLower is still below the
-    // lowerbound).
-    val l1Final =
-      if (npLower < lowerbound ||
-        (npUpper - parameterThreshold < parameterThreshold - npLower)) {
-        l1Upper
-      } else {
-        l1Lower
-      }
-
-    val l1FinalExp = exp(l1Final)
-
-    // Train the model given the current L1 regularization parameter.
-    val trainL1Command =
-      s"vw -d $trainingFile --oaa $numClasses --passes 50 --loss_function logistic --l1 $l1FinalExp --noconstant --readable_model $paramsL1File --cache_file $cacheFile -k $quietOption -b $numBits"
-
-    if (options.verbose)
-      println("\nVW training L1 command:\n\n" + trainL1Command + "\n")
-
-    val vwL1Result = (trainL1Command !!)
-
-    val activeFeatureIndices =
-      getActiveFeatures(paramsL1File, numClasses).toSeq
-
-    // val rawFmap = fmap.asInstanceOf[ExactFeatureMap].fmap
-    val currFeats = featureIndexer.asInstanceOf[CounterIndexer].labels
-
-    val headerFeatures = List("") // intercept
-
-    val activeFeatureNames =
-      activeFeatureIndices.map(currFeats).toSet
-
-    val activeFeatures =
-      headerFeatures ++ (activeFeatureNames -- headerFeatures.toSet).toList
+    val paramsL1File = found.getOrElse {
+      // Pick l1Final as the upper or lowerbound that is the closest to the desired
+      // number of parameters (but go with the l1Upper if npLower is still below the
+      // lowerbound).
+      val l1Final =
+        if (npLower < lowerbound ||
+          (npUpper - parameterThreshold < parameterThreshold - npLower)) {
+          l1Upper
+        } else {
+          l1Lower
+        }
 
-    if (options.verbose)
-      println(
-        s"\n--> L1 feature selection reduced ${featureIndexer.size} features to $numParameters\n")
-
-    val fmask = (for ((feature, index) <- activeFeatures.zipWithIndex)
-      yield (featureIndexer(feature), index)).toMap
-
-    // VowpalIndexer.maskFeatures(fmask, trainingFile, trainingFileFiltered)
-
-    val maskedWriter = new BufferedWriter(new FileWriter(trainingFileFiltered))
-    try {
-      for {
-        line <- Source.fromFile(trainingFile).getLines
-        Array(labelString, featuresString) = line.split(" \\| ")
-      } {
-        val features = for {
-          fo <- featuresString.split(" ")
-          Array(f, o) = fo.split(":")
-          maskedIndex <- fmask.get(f.toInt)
-        } yield (maskedIndex.toInt + ":" + o)
-        maskedWriter.write(labelString + " | " + features.mkString(" ") + "\n")
-      }
-    } finally {
-      maskedWriter.close()
+      // Train the model given the final L1 regularization parameter, unless
+      // it was one of the candidates.
+      trained.getOrElse(l1Final, trainL1(l1Final, buildCache)._1)
     }
 
-    new CounterIndexer(functionSig, activeFeatures)
+    getActiveFeatures(paramsL1File, numClasses, numFeatures)
   }
 
   /**
@@ -318,18 +396,6 @@ class VowpalTrainer(
     index
   }
 
-  /**
-   * Given a Vowpal index and the number of bits to shift (which is computed
-   * from getBitShift based on the number of classes being predicted), return
-   * the index of the parameter in the original feature map and the index
-   * of the class.
-   */
-  private def getOriginalIndices(vwIndex: Int, numBits: Int) = {
-    val parameterIndex = vwIndex >> numBits
-    val classIndex = vwIndex - (parameterIndex << numBits)
-    (parameterIndex, classIndex)
-  }
-
   private def getNumBitsNeeded(numFeatures: Int, numClasses: Int) = {
     val numBits = ceil(log(numFeatures) / log(2)).toInt + getBitShift(
       numClasses)
@@ -346,39 +412,18 @@ class VowpalTrainer(
    */
   private def readParameters(paramsFile: File,
     numClasses: Int,
-    numFeatures: Int): Array[Vec] = {
-    val bitsToShift = getBitShift(numClasses)
-    val parameters = Array.fill(numClasses, numFeatures)(0.0)
-    // Read the file until after the :0 symbol
-    val lines = Source.fromFile(paramsFile)
-      .getLines
-      .dropWhile(_.trim != ":0")
-      .drop(1)
-    for {
-      line <- lines
-      Array(indexString, weightString) = line.split(":")
-      (parameterIndex, classIndex) = getOriginalIndices(indexString.toInt,
-        bitsToShift)
-    } {
-      parameters(classIndex)(parameterIndex) = weightString.toDouble
-    }
-
-    for (paramArray <- parameters) yield new Vec(paramArray)
-  }
+    numFeatures: Int): Array[Vec] =
+    ExternalModelReader.readVowpalReadable(paramsFile, numClasses, numFeatures, getBitShift(numClasses))
 
   /**
-   * Read the parameters output by VW for the option --readable_model. Reads
-   * in for sparse representation so we don't have a huge 2-D Array with lots
-   * of zero entries.
+   * The features with a non-zero parameter for any class in a model
+   * output by VW for the option --readable_model.
    */
-  private def getActiveFeatures(paramsFile: File, numClasses: Int) = {
-    val bitsToShift = getBitShift(numClasses)
-    for {
-      line <- Source.fromFile(paramsFile).getLines.drop(12)
-      Array(indexString, weightString) = line.split(":")
-      if weightString.toDouble != 0.0
-      index = indexString.toInt
-      (parameterIndex, _) = getOriginalIndices(indexString.toInt, bitsToShift)
-    } yield parameterIndex
+  private def getActiveFeatures(paramsFile: File, numClasses: Int, numFeatures: Int): Seq[Int] = {
+    val active = new java.util.BitSet(numFeatures)
+    for (vec <- readParameters(paramsFile, numClasses, numFeatures); k <- 0 until vec.numEntries)
+      if (vec.valueAt(k) != 0.0)
+        active.set(vec.indexAt(k))
+    Iterator.iterate(active.nextSetBit(0))(j => active.nextSetBit(j + 1)).takeWhile(_ >= 0).toVector
   }
 }
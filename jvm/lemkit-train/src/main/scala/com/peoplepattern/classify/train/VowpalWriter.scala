@@ -0,0 +1,110 @@
+package com.peoplepattern.classify.train
+
+import java.io.OutputStream
+
+/**
+ * Writes [[SparseDataset]] rows in vw's text input format, straight to
+ * bytes.
+ *
+ * Row `i` is written as `labelId+1 importance | index:value ...`, with
+ * the `:value` left out for values of 1. The intercept column can be left
+ * out, since vw adds (or with `--noconstant` omits) its own. Integers are formatted digit by
+ * digit into a reused buffer, so the only per-entry allocation is for
+ * values other than 1.
+ */
+private[train] class VowpalWriter(out: OutputStream) {
+
+  private val buf = new Array[Byte](1 << 16)
+  private var pos = 0
+  private val digits = new Array[Byte](11)
+
+  /**
+   * Write a row, with feature indices translated through `mask` if given;
+   * features masked to a negative index, and the feature at index
+   * `intercept` (before masking), are left out.
+   */
+  def write(data: SparseDataset, i: Int, mask: Option[Array[Int]] = None, intercept: Int = -1): Unit = {
+    writeInt(data.labelIds(i) + 1)
+    writeByte(' ')
+    writeDouble(data.importances(i))
+    writeByte(' ')
+    writeByte('|')
+
+    var e = data.rowStarts(i)
+    val end = data.rowStarts(i + 1)
+    while (e < end) {
+      val index = mask match {
+        case _ if data.indices(e) == intercept => -1
+        case Some(m) => m(data.indices(e))
+        case None => data.indices(e)
+      }
+      if (index >= 0) {
+        writeByte(' ')
+        writeInt(index)
+        val v = data.values(e)
+        if (v != 1.0) {
+          writeByte(':')
+          writeDouble(v)
+        }
+      }
+      e += 1
+    }
+    writeByte('\n')
+  }
+
+  def flush(): Unit = {
+    out.write(buf, 0, pos)
+    pos = 0
+    out.flush()
+  }
+
+  def close(): Unit = {
+    flush()
+    out.close()
+  }
+
+  private def writeByte(b: Int): Unit = {
+    if (pos == buf.length) {
+      out.write(buf, 0, pos)
+      pos = 0
+    }
+    buf(pos) = b.toByte
+    pos += 1
+  }
+
+  private def writeInt(value: Int): Unit = {
+    if (value < 0) {
+      // Only the label and indices are written as ints, and they're never
+      // negative; fall back on the general path rather than handle MinValue
+      writeAscii(value.toString)
+    } else {
+      var v = value
+      var n = 0
+      do {
+        digits(n) = ('0' + v % 10).toByte
+        v /= 10
+        n += 1
+      } while (v > 0)
+      while (n > 0) {
+        n -= 1
+        writeByte(digits(n))
+      }
+    }
+  }
+
+  private def writeDouble(value: Double): Unit = {
+    val asInt = value.toInt
+    if (asInt == value && asInt >= 0)
+      writeInt(asInt)
+    else
+      writeAscii(java.lang.Double.toString(value))
+  }
+
+  private def writeAscii(s: String): Unit = {
+    var k = 0
+    while (k < s.length) {
+      writeByte(s.charAt(k))
+      k += 1
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package com.peoplepattern.classify.train
+
+import com.peoplepattern.classify.core.ExactFeatureMap
+import com.peoplepattern.classify.core.HashedFeatureMap
+import org.scalatest._
+
+class ClassifierSourceSpec extends FlatSpec {
+
+  import TestUtil._
+
+  "ClassifierSource" should "parse a line" in {
+    val ex = ClassifierSource.parseLine("yes 0.5 | a:2 b")
+    assert(ex.label == "yes")
+    assert(ex.importance == 0.5)
+    assert(ex.item.observations.size == 2)
+  }
+
+  it should "read the same datums in parallel as through feature bundles" in {
+    val file = getClass.getResource(IrisTraining).getFile
+    val bundles = readDatasetResource(IrisTraining)
+    val maps = Seq(
+      new HashedFeatureMap(functionSig, 1000, 7),
+      new ExactFeatureMap(functionSig, Array("petal-length", "petal-width", "sepal-length")))
+
+    for (map <- maps; threads <- Seq(1, 3)) {
+      val datums = ClassifierSource.readDatums(file, map, threads)
+      assert(datums.map(_.label) == bundles.map(_.label))
+      assert(datums.map(_.importance) == bundles.map(_.importance))
+      assert(datums.map(_.item) == bundles.map(_.item.toDatum(map)))
+    }
+  }
+}
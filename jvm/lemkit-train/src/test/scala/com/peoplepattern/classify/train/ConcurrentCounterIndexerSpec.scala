@@ -0,0 +1,41 @@
+package com.peoplepattern.classify.train
+
+import com.peoplepattern.classify.core.ExactFeatureMap
+import org.scalatest._
+
+class ConcurrentCounterIndexerSpec extends FlatSpec {
+
+  "ConcurrentCounterIndexer" should "count stuff like CounterIndexer" in {
+    val ci = new ConcurrentCounterIndexer(0L, Seq("a", "b", "c", "d"))
+    assert(ci("a") == 0)
+    assert(ci("d") == 3)
+    assert(ci.size == 4)
+    assert(ci("e") == 4)
+    assert(ci.size == 5)
+    assert(ci.labels === Array("a", "b", "c", "d", "e"))
+    assert(ci.featureMap == new ExactFeatureMap(0L, Array("a", "b", "c", "d", "e")))
+  }
+
+  it should "give each feature one index when used from several threads" in {
+    val ci = new ConcurrentCounterIndexer(0L, stripes = 4)
+    val features = (0 until 100000).map(i => s"f${i % 70001}")
+    val threads = 4
+    val seen = Array.fill(threads)(new Array[Int](features.size))
+    Parallel.run(threads) { t =>
+      // Each thread goes through all the features, from a different start
+      for (i <- 0 until features.size) {
+        val k = (i + t * 25000) % features.size
+        seen(t)(k) = ci(features(k))
+      }
+    }
+
+    assert(ci.size == 70001)
+    for (t <- 1 until threads)
+      assert(seen(t) === seen(0))
+
+    val labels = ci.labels
+    for (k <- features.indices)
+      assert(labels(seen(0)(k)) == features(k))
+    assert(labels.toSet.size == 70001)
+  }
+}
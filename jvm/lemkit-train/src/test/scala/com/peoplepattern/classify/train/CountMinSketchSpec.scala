@@ -0,0 +1,34 @@
+package com.peoplepattern.classify.train
+
+import org.scalatest._
+
+class CountMinSketchSpec extends FlatSpec {
+
+  "CountMinSketch" should "count exactly when there are no collisions" in {
+    val sketch = new CountMinSketch(1 << 12, 4)
+    for (i <- 0 until 10; j <- 0 to i)
+      sketch.add(s"f$i")
+    for (i <- 0 until 10)
+      assert(sketch(s"f$i") == i + 1)
+    assert(sketch("missing") == 0)
+    assert(sketch.totalCount == 55)
+  }
+
+  it should "never underestimate" in {
+    val sketch = new CountMinSketch(64, 3)
+    val counts = (0 until 1000).map(i => s"f$i" -> (1 + i % 7))
+    for ((f, c) <- counts)
+      sketch.add(f, c)
+    for ((f, c) <- counts)
+      assert(sketch(f) >= c)
+    // Conservative update keeps most estimates within a few of the truth
+    assert(counts.count { case (f, c) => sketch(f) - c > 64 } < 100)
+  }
+
+  it should "saturate rather than overflow" in {
+    val sketch = new CountMinSketch(16, 2)
+    sketch.add("a", Int.MaxValue - 1)
+    sketch.add("a", 10)
+    assert(sketch("a") == Int.MaxValue)
+  }
+}
@@ -0,0 +1,61 @@
+package com.peoplepattern.classify.train
+
+import com.peoplepattern.classify.core.ExactFeatureMap
+import com.peoplepattern.classify.core.MappedFeatureMap
+import com.peoplepattern.classify.core.PortableLinearClassifier
+import org.scalatest._
+
+class ExternalVocabularySpec extends FlatSpec {
+
+  import TestUtil._
+
+  def tmpFile(suffix: String) = {
+    val file = LinearClassifierTrainer.tmpFile("lemkit-vocab", suffix)
+    file.deleteOnExit()
+    file
+  }
+
+  "ExternalVocabularyBuilder" should "merge spilled runs into a sorted dictionary" in {
+    val builder = new ExternalVocabularyBuilder(maxBufferBytes = 1000)
+    val features = (0 until 2000).map(i => s"f${(i * 7919) % 1500}")
+    features.foreach(builder.add)
+    assert(builder.numRuns > 10)
+
+    val file = tmpFile(".dict")
+    assert(builder.result(file) == 1500)
+    assert(builder.numRuns == 0)
+
+    val map = MappedFeatureMap.open(file, functionSig, false)
+    val sorted = features.distinct.sorted
+    assert((0 until map.numFeatures).map(map.feature) == sorted)
+    for ((f, i) <- sorted.zipWithIndex)
+      assert(map.indexOfFeature(f) == i)
+  }
+
+  "ExternalVocabulary" should "index training data through a dataset cache" in {
+    val examples = readDatasetResource(IrisTrainingUtf8)
+    val map = ExternalVocabulary.build(examples, functionSig, tmpFile(".dict"), maxBufferBytes = 200)
+    assert(map.indexOfFeature("") == 0)
+    assert(map.size == 5)
+
+    val cacheFile = tmpFile(".cache")
+    assert(ExternalVocabulary.rewrite(examples, map, cacheFile) == examples.size)
+    val data = SparseDataset.fromCache(cacheFile, map)
+    assert(data.featureMap eq map)
+    for (i <- 0 until data.size) {
+      val expected = examples(i).item.toDatum(map).vector
+      val vec = data.datum(i).vector
+      assert((0 until vec.numEntries).map(vec.indexAt) == (0 until expected.numEntries).map(expected.indexAt))
+      for (e <- 0 until vec.numEntries)
+        assert(math.abs(vec.valueAt(e) - expected.valueAt(e)) < 1e-6)
+    }
+
+    val classifier = new LbfgsTrainer().train(data)
+    assert(irisAccuracy(classifier, "/datasets/iris/iris.utf.test.txt") > 0.9)
+
+    // The model is written with an exact map
+    val read = PortableLinearClassifier.JPARSER.fromJson(classifier.toJson)
+    assert(read.getFeatureMap == map.toExactFeatureMap)
+    assert(irisAccuracy(read, "/datasets/iris/iris.utf.test.txt") == irisAccuracy(classifier, "/datasets/iris/iris.utf.test.txt"))
+  }
+}
@@ -0,0 +1,62 @@
+package com.peoplepattern.classify.train
+
+import com.peoplepattern.classify.core.FeatureBundle
+import com.peoplepattern.classify.core.LinearClassifier
+import com.peoplepattern.classify.core.Scored
+import org.scalatest._
+import scala.collection.JavaConverters._
+
+class FtrlTrainerSpec extends FlatSpec {
+
+  import TestUtil._
+  import FtrlTrainer.Options
+
+  // Training is a single online pass, so repeat the small Iris training set
+  // to stand in for a longer stream
+  def stream(resource: String) = Iterator.fill(10)(readDatasetResource(resource)).flatten
+
+  "FtrlTrainer" should "learn the Iris model - exact feature map" in {
+    val trainer = new FtrlTrainer()
+    val classifier = trainer.train(stream(IrisTraining), functionSig)
+    assert(irisAccuracy(classifier) >= 0.9)
+  }
+
+  it should "learn the Iris model - hashed feature map" in {
+    val trainer = new FtrlTrainer(Options(HashingOptions(Some(1000))))
+    val classifier = trainer.train(stream(IrisTraining), functionSig)
+    assert(irisAccuracy(classifier) >= 0.9)
+  }
+
+  it should "learn the Iris model (UTF8 special chars)" in {
+    val trainer = new FtrlTrainer()
+    val classifier = trainer.train(stream(IrisTrainingUtf8), functionSig)
+    assert(irisAccuracy(classifier, "/datasets/iris/iris.utf.test.txt") >= 0.9)
+  }
+
+  it should "produce sparser models with more L1 regularization" in {
+    def nonZeros(l1: Double) = {
+      val trainer = new FtrlTrainer(Options(HashingOptions(Some(1000)), l1 = l1))
+      val model = trainer.train(stream(IrisTraining), functionSig).getModel
+      LinearClassifier.readWeightsFromJson(model.getWeightsJson).map(_.numEntries).sum
+    }
+    assert(nonZeros(20.0) < nonZeros(0.0))
+  }
+
+  it should "weight examples by importance" in {
+    def bundle = new FeatureBundle(functionSig, Seq(new Scored("f", 1.0)).asJava)
+    val examples = Seq.fill(10)(Seq(Example("a", bundle, 5.0), Example("b", bundle, 1.0))).flatten
+    val classifier = new FtrlTrainer().train(examples, functionSig)
+    assert(classifier.predict(bundle).best == "a")
+  }
+
+  "FtrlTrainer.Learner" should "keep weights at zero below the L1 regularization" in {
+    val learner = new FtrlTrainer.Learner(Options(l1 = 1.5), 2)
+    learner.update(0, 1.0, Array(0, 5), Array(1.0, 1.0), 0, 2)
+    learner.update(1, 1.0, Array(0, 5), Array(1.0, 1.0), 0, 2)
+    assert(learner.numLabels == 2)
+    assert(learner.strength(5) > 0.0)
+    assert(learner.weight(0, 5) == 0.0 && learner.weight(1, 5) == 0.0)
+    val parameters = learner.parameters(8)
+    assert(parameters.forall(v => v.isSparse && v.numEntries == 0 && v.size == 8))
+  }
+}
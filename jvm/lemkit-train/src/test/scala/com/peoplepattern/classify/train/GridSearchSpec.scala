@@ -0,0 +1,43 @@
+package com.peoplepattern.classify.train
+
+import org.scalatest._
+
+class GridSearchSpec extends FlatSpec {
+
+  import TestUtil._
+  import GridSearch._
+
+  "GridSearch" should "cross-validate every configuration and pick the best" in {
+    val configs = grid(Seq(None, Some(1000)), Seq(1e-2, 1.0, 1000.0))
+    val report = new GridSearch(Options(folds = 4, threads = 3)).search(
+      readDatasetResource(IrisTraining), functionSig, configs)
+
+    assert(report.results.map(_.config) == configs)
+    for (r <- report.results) {
+      assert(r.accuracy >= 0.0 && r.accuracy <= 1.0)
+      assert(r.logLoss > 0.0)
+    }
+    // Heavy regularization leaves the model close to uniform
+    val heavy = report.results.filter(_.config.regularization == 1000.0)
+    assert(heavy.forall(_.logLoss > math.log(3.0) - 0.2))
+    assert(report.best.config.regularization != 1000.0)
+    assert(report.best == report.results.minBy(_.logLoss))
+    assert(irisAccuracy(report.classifier) > 0.9)
+  }
+
+  it should "give the same results with any number of threads" in {
+    val configs = grid(Seq(None), Seq(0.1, 1.0))
+    def run(threads: Int) =
+      new GridSearch(Options(folds = 3, threads = threads)).search(
+        readDatasetResource(IrisTraining), functionSig, configs).results
+    assert(run(1) == run(4))
+  }
+
+  it should "draw random configurations in range" in {
+    val configs = random(20, Seq(None, Some(64)), 1e-3, 10.0, seed = 5)
+    assert(configs.size == 20)
+    assert(configs.forall(c => c.regularization >= 1e-3 && c.regularization <= 10.0))
+    assert(configs.map(_.hashtrick).toSet == Set(None, Some(64)))
+    assert(random(20, Seq(None, Some(64)), 1e-3, 10.0, seed = 5) == configs)
+  }
+}
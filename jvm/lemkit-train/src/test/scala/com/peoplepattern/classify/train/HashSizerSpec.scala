@@ -0,0 +1,44 @@
+package com.peoplepattern.classify.train
+
+import org.scalatest._
+
+class HashSizerSpec extends FlatSpec {
+
+  import HashSizer._
+
+  "HashSizer" should "measure collisions close to the expected rate" in {
+    val sizer = new HashSizer(Seq(1 << 16, 1 << 12, 1 << 20), Seq(0, 7))
+    for (i <- 0 until 20000; _ <- 0 until 2)
+      sizer.add(s"w$i")
+    val report = sizer.report(numLabels = 3, collisionBudget = 0.05)
+
+    assert(math.abs(report.distinctFeatures - 20000) < 400)
+    assert(report.candidates.map(c => (c.size, c.seed)) ==
+      Seq((1 << 12, 0), (1 << 12, 7), (1 << 16, 0), (1 << 16, 7), (1 << 20, 0), (1 << 20, 7)))
+    for (c <- report.candidates) {
+      assert(c.occupied <= c.size)
+      assert(math.abs(c.collisionRate - expectedCollisionRate(20000, c.size)) < 0.03)
+    }
+    // Almost all of 20000 features collide in 4096 indices, few in 2^20
+    assert(report.candidates.head.collisionRate > 0.75)
+    assert(report.candidates.last.collisionRate < 0.02)
+
+    // The smallest measured size within the budget
+    assert(report.recommended == Some(1 << 20))
+    assert(sizer.report(numLabels = 3, collisionBudget = 0.2).recommended == Some(1 << 16))
+    assert(sizer.report(numLabels = 3, collisionBudget = 0.001).recommended == None)
+  }
+
+  it should "respect the memory budget" in {
+    val size = recommend(100000, 10, 0.01).get
+    assert(size == 1 << 23)
+    assert(recommend(100000, 10, 0.01, Some(modelBytes(size, 10))) == Some(size))
+    assert(recommend(100000, 10, 0.01, Some(modelBytes(size, 10) - 1)) == None)
+  }
+
+  it should "expect no collisions without features" in {
+    assert(expectedCollisionRate(0, 16) == 0.0)
+    assert(expectedCollisionRate(1, 16) == 0.0)
+    assert(expectedCollisionRate(16, 16) > 0.3)
+  }
+}
@@ -0,0 +1,32 @@
+package com.peoplepattern.classify.train
+
+import org.scalatest._
+
+class HyperLogLogSpec extends FlatSpec {
+
+  "HyperLogLog" should "count small sets almost exactly" in {
+    val hll = new HyperLogLog()
+    for (i <- 0 until 1000; _ <- 0 until 3)
+      hll.add(s"feature$i")
+    assert(math.abs(hll.estimate - 1000) <= 10)
+  }
+
+  it should "estimate large sets within a few standard errors" in {
+    val hll = new HyperLogLog(12)
+    for (i <- 0 until 200000)
+      hll.add(s"f$i")
+    // Standard error is 1.04 / 64, about 1.6%
+    assert(math.abs(hll.estimate - 200000) < 200000 * 0.05)
+  }
+
+  it should "merge estimators" in {
+    val a = new HyperLogLog()
+    val b = new HyperLogLog()
+    for (i <- 0 until 30000) {
+      a.add(s"f$i")
+      b.add(s"f${i + 15000}")
+    }
+    a.merge(b)
+    assert(math.abs(a.estimate - 45000) < 45000 * 0.03)
+  }
+}
@@ -0,0 +1,54 @@
+package com.peoplepattern.classify.train
+
+import com.peoplepattern.classify.core.FeatureBundle
+import com.peoplepattern.classify.core.Scored
+import org.scalatest._
+import scala.collection.JavaConverters._
+
+class LbfgsTrainerSpec extends FlatSpec {
+
+  import TestUtil._
+  import LbfgsTrainer.Options
+
+  "LbfgsTrainer" should "learn the Iris model - exact feature map" in {
+    val trainer = new LbfgsTrainer(Options(threads = 1))
+    val classifier = trainer.train(readDatasetResource(IrisTraining), functionSig)
+    assert(irisAccuracy(classifier) >= 0.9)
+  }
+
+  it should "learn the Iris model - hashed feature map, several threads" in {
+    val trainer = new LbfgsTrainer(Options(HashingOptions(Some(1000)), threads = 4))
+    val classifier = trainer.train(readDatasetResource(IrisTraining), functionSig)
+    assert(irisAccuracy(classifier) >= 0.9)
+  }
+
+  it should "learn the Iris model (UTF8 special chars)" in {
+    val trainer = new LbfgsTrainer(Options(threads = 2))
+    val classifier = trainer.train(readDatasetResource(IrisTrainingUtf8), functionSig)
+    assert(irisAccuracy(classifier, "/datasets/iris/iris.utf.test.txt") >= 0.9)
+  }
+
+  it should "be deterministic with several threads" in {
+    val trainer = new LbfgsTrainer(Options(threads = 3))
+    val c1 = trainer.train(readDatasetResource(IrisTraining), functionSig)
+    val c2 = trainer.train(readDatasetResource(IrisTraining), functionSig)
+    assert(c1.toJson == c2.toJson)
+  }
+
+  it should "be less confident with more regularization" in {
+    val data = SparseDataset.fromBundles(readDatasetResource(IrisTraining), functionSig)
+    val test = readDatasetResource(IrisTraining).map(_.item)
+    def confidence(regularization: Double) = {
+      val classifier = new LbfgsTrainer(Options(regularization = regularization)).train(data)
+      test.map(classifier.predict(_).probabilityOfBest).sum
+    }
+    assert(confidence(10.0) < confidence(0.1))
+  }
+
+  it should "weight examples by importance" in {
+    def bundle = new FeatureBundle(functionSig, Seq(new Scored("f", 1.0)).asJava)
+    val examples = Seq.fill(10)(Seq(Example("a", bundle, 5.0), Example("b", bundle, 1.0))).flatten
+    val classifier = new LbfgsTrainer(Options(threads = 1)).train(examples, functionSig)
+    assert(classifier.predict(bundle).best == "a")
+  }
+}
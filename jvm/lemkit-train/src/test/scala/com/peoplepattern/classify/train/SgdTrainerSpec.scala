@@ -0,0 +1,44 @@
+package com.peoplepattern.classify.train
+
+import com.peoplepattern.classify.core.FeatureBundle
+import com.peoplepattern.classify.core.Scored
+import org.scalatest._
+import scala.collection.JavaConverters._
+
+class SgdTrainerSpec extends FlatSpec {
+
+  import TestUtil._
+  import SgdTrainer.Options
+
+  "SgdTrainer" should "learn the Iris model - exact feature map" in {
+    val trainer = new SgdTrainer(Options(threads = 1))
+    val classifier = trainer.train(readDatasetResource(IrisTraining), functionSig)
+    assert(irisAccuracy(classifier) >= 0.9)
+  }
+
+  it should "learn the Iris model - hashed feature map, several threads" in {
+    val trainer = new SgdTrainer(Options(HashingOptions(Some(1000)), threads = 4))
+    val classifier = trainer.train(readDatasetResource(IrisTraining), functionSig)
+    assert(irisAccuracy(classifier) >= 0.9)
+  }
+
+  it should "learn the Iris model (UTF8 special chars)" in {
+    val trainer = new SgdTrainer(Options(threads = 2))
+    val classifier = trainer.train(readDatasetResource(IrisTrainingUtf8), functionSig)
+    assert(irisAccuracy(classifier, "/datasets/iris/iris.utf.test.txt") >= 0.9)
+  }
+
+  it should "be deterministic with one thread" in {
+    val trainer = new SgdTrainer(Options(threads = 1))
+    val c1 = trainer.train(readDatasetResource(IrisTraining), functionSig)
+    val c2 = trainer.train(readDatasetResource(IrisTraining), functionSig)
+    assert(c1.toJson == c2.toJson)
+  }
+
+  it should "weight examples by importance" in {
+    def bundle = new FeatureBundle(functionSig, Seq(new Scored("f", 1.0)).asJava)
+    val examples = Seq.fill(10)(Seq(Example("a", bundle, 5.0), Example("b", bundle, 1.0))).flatten
+    val classifier = new SgdTrainer(Options(threads = 1)).train(examples, functionSig)
+    assert(classifier.predict(bundle).best == "a")
+  }
+}
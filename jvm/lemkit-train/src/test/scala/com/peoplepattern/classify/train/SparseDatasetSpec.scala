@@ -0,0 +1,56 @@
+package com.peoplepattern.classify.train
+
+import com.peoplepattern.classify.core.HashedFeatureMap
+import org.scalatest._
+
+class SparseDatasetSpec extends FlatSpec {
+
+  import TestUtil._
+
+  val map = new HashedFeatureMap(functionSig, 1000, 7)
+  val irisFile = getClass.getResource(IrisTraining).getFile
+
+  "SparseDataset" should "hold examples in rows" in {
+    val examples = ClassifierSource.readDatums(irisFile, map)
+    val data = SparseDataset(examples, map)
+    assert(data.size == examples.size)
+    assert(data.examples.toSeq == examples)
+    assert(data.labels.toSet == examples.map(_.label).toSet)
+  }
+
+  it should "round trip through a dataset cache" in {
+    val cacheFile = LinearClassifierTrainer.tmpFile("lemkit-cache", ".bin")
+    cacheFile.deleteOnExit()
+    val examples = ClassifierSource.readDatums(irisFile, map)
+    assert(SparseDataset.cacheDataFile(irisFile, map, cacheFile) == examples.size)
+
+    val data = SparseDataset.fromCache(cacheFile)
+    assert(data.size == examples.size)
+    assert(data.featureMap == map)
+    assert(data.dimension == map.size)
+
+    val expected = SparseDataset(examples, map)
+    assert(data.rowStarts.toSeq == expected.rowStarts.toSeq)
+    assert(data.indices.toSeq == expected.indices.toSeq)
+    for (k <- data.values.indices)
+      assert(math.abs(data.values(k) - expected.values(k)) < 1e-6)
+    for (i <- 0 until data.size)
+      assert(data.label(i) == expected.label(i))
+  }
+
+  it should "vectorize bundles the same way on several threads" in {
+    val bundles = readDatasetResource(IrisTraining)
+    for (hashing <- Seq(HashingOptions(), HashingOptions(Some(1000)))) {
+      val expected = SparseDataset.fromBundles(bundles, functionSig, hashing)
+      val data = SparseDataset.fromBundles(bundles, functionSig, hashing, 3)
+      assert(data.size == expected.size)
+      assert(data.dimension == expected.dimension)
+      assert(data.rowStarts.toSeq == expected.rowStarts.toSeq)
+      for (i <- 0 until data.size) {
+        assert(data.label(i) == expected.label(i))
+        // Compare by feature, since exact indices depend on scheduling
+        assert(data.datum(i).vector == bundles(i).item.toDatum(data.featureMap).vector)
+      }
+    }
+  }
+}
@@ -16,48 +16,8 @@ object TestUtil {
     readDataSource(resource).toSeq
   }
 
-  /**
-   * Read a Scala source into a series of instances, each of which is an
-   * Example, where the data in the instance is directly stored as a sequence
-   * of FeatureObservations. The format of the file is lines like this:
-   *
-   * label [importance] | feat:val feat:val ...
-   *
-   * The vertical bar must be present to separate label from features, and
-   * must have a space after it. This is to support future expansion.
-   *
-   * The value can be omitted, and defaults to 1.0.
-   */
-  def readDataSource(source: Source): Iterator[Example[FeatureBundle]] = {
-    for (line <- source.getLines) yield {
-      assert(line.count(_ == '|') == 1)
-      val Array(labelPart, featsPart) = line.split("\\|").map(_.trim)
-
-      val labelParts = labelPart.split("\\s+")
-
-      val (label, importance): (String, Double) = if (labelParts.size == 1)
-        (labelParts(0), 1.0)
-      else if (labelParts.size == 2)
-        (labelParts(0), labelParts(1).toDouble)
-      else
-        throw new RuntimeException(s"Invalid label $labelPart")
-
-      val feats = for (feat <- featsPart.split("\\s+")) yield {
-        val featParts = feat.split(":")
-        val featKey = featParts(0)
-        val score = if (featParts.size == 1)
-          1.0
-        else if (featParts.size == 2)
-          featParts(1).toDouble
-        else
-          throw new RuntimeException(s"Invalid feature $feat")
-        new Scored(featKey, score)
-      }
-
-      val bundle = new FeatureBundle(functionSig, feats.toList.asJava)
-      Example(label, bundle, importance)
-    }
-  }
+  def readDataSource(source: Source): Iterator[Example[FeatureBundle]] =
+    ClassifierSource.readDataSource(source, functionSig)
 
   val irisCorrectPredictedVowpal = Seq(
     Seq("Iris-setosa", "Iris-setosa"),
@@ -146,6 +106,14 @@ object TestUtil {
       "/datasets/iris/iris.utf.test.txt",
       irisUTFCorrectPredictedVowpal)
 
+  /**
+   * Fraction of the Iris test instances a classifier predicts correctly.
+   */
+  def irisAccuracy(classifier: PortableLinearClassifier, resource: String = "/datasets/iris/iris.test.txt") = {
+    val testResource = readDatasetResource(resource)
+    testResource.count(i => classifier.predict(i.item).best == i.label).toDouble / testResource.size
+  }
+
   val IrisTraining = "/datasets/iris/iris.train.txt"
   val IrisTrainingUtf8 = "/datasets/iris/iris.utf.train.txt"
 }
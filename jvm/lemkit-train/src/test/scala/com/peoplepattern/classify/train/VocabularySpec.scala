@@ -0,0 +1,41 @@
+package com.peoplepattern.classify.train
+
+import com.peoplepattern.classify.core.ExactFeatureMap
+import com.peoplepattern.classify.core.FeatureBundle
+import com.peoplepattern.classify.core.Scored
+import org.scalatest._
+import scala.collection.JavaConverters._
+
+class VocabularySpec extends FlatSpec {
+
+  import TestUtil._
+
+  def example(features: String*) =
+    Example("x", new FeatureBundle(functionSig, features.map(f => new Scored(f, 1.0)).asJava))
+
+  "Vocabulary" should "keep only features seen often enough" in {
+    val examples = Seq(
+      example("a", "b", "c"),
+      example("b", "d"),
+      example("a", "b"),
+      example("e"))
+    val map = Vocabulary.build(examples, functionSig, minCount = 2)
+    assert(map == new ExactFeatureMap(functionSig, Array("", "a", "b")))
+    assert(map.indexOfFeature("c") == -1)
+    assert(Vocabulary.build(examples, functionSig, minCount = 1).size == 6)
+  }
+
+  it should "give an exact map usable for training" in {
+    // Give each example a feature of its own, which pruning should drop
+    val data = readDatasetResource(IrisTraining).zipWithIndex.map { case (ex, i) =>
+      val obs = ex.item.observations.asScala.toSeq :+ new Scored(s"noise$i", 1.0)
+      ex.copy(item = new FeatureBundle(functionSig, obs.asJava))
+    }
+    val map = Vocabulary.build(data, functionSig, minCount = 2)
+    assert(map.size == 5)
+    assert(Vocabulary.build(data, functionSig, minCount = 1).size == 5 + data.size)
+
+    val dataset = SparseDataset(data.map(ex => ex.copy(item = ex.item.toDatum(map))), map)
+    assert(irisAccuracy(new LbfgsTrainer().train(dataset)) > 0.9)
+  }
+}
@@ -0,0 +1,40 @@
+package com.peoplepattern.classify.train
+
+import com.peoplepattern.classify.core.FeatureBundle
+import com.peoplepattern.classify.core.Scored
+import java.io.ByteArrayOutputStream
+import org.scalatest._
+import scala.collection.JavaConverters._
+
+class VowpalWriterSpec extends FlatSpec {
+
+  def bundle(features: (String, Double)*) =
+    new FeatureBundle(0L, features.map { case (f, v) => new Scored(f, v) }.asJava)
+
+  val data = SparseDataset.fromBundles(Seq(
+    Example("x", bundle("a" -> 1.0, "b" -> 2.5)),
+    Example("y", bundle("b" -> -0.125, "c" -> 3.0), 0.5),
+    Example("x", bundle())), 0L)
+
+  def written(mask: Option[Array[Int]], intercept: Int = -1) = {
+    val out = new ByteArrayOutputStream
+    val writer = new VowpalWriter(out)
+    for (i <- 0 until data.size)
+      writer.write(data, i, mask, intercept)
+    writer.close()
+    out.toString("UTF-8")
+  }
+
+  "VowpalWriter" should "write rows in vw's text format" in {
+    assert(written(None) == "1 1 | 0 1 2:2.5\n2 0.5 | 0 2:-0.125 3:3\n1 1 | 0\n")
+  }
+
+  it should "translate and drop features through a mask" in {
+    assert(written(Some(Array(0, -1, 1, -1))) == "1 1 | 0 1:2.5\n2 0.5 | 0 1:-0.125\n1 1 | 0\n")
+  }
+
+  it should "leave out the intercept, as vw is run with --noconstant" in {
+    assert(written(None, 0) == "1 1 | 1 2:2.5\n2 0.5 | 2:-0.125 3:3\n1 1 |\n")
+    assert(written(Some(Array(0, -1, 1, -1)), 0) == "1 1 | 1:2.5\n2 0.5 | 1:-0.125\n1 1 |\n")
+  }
+}